@@ -3,4 +3,5 @@ rm *.apk
 ./gradlew clean build
 #cp app/build/outputs/apk/app-alpha-matrixorg.apk ./alpha.apk
 cp vector/build/outputs/apk/vector-app-matrixorg.apk ./riotGooglePlay.apk
-cp vector/build/outputs/apk/vector-appfdroid-matrixorg.apk ./riotFDroid.apk
\ No newline at end of file
+cp vector/build/outputs/apk/vector-appfdroid-matrixorg.apk ./riotFDroid.apk
+cp vector/build/outputs/apk/vector-app-dogfood.apk ./riotDogfood.apk
\ No newline at end of file
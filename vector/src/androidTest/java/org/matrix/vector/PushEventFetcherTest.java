@@ -0,0 +1,175 @@
+package org.matrix.vector;
+
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+
+import org.matrix.androidsdk.HomeserverConnectionConfig;
+import org.matrix.androidsdk.data.store.MXMemoryStore;
+import org.matrix.androidsdk.rest.client.RoomsRestClient;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.login.Credentials;
+
+import im.vector.gcm.PushEventFetcher;
+
+/**
+ * Check the pushed room events retrieval against a stub homeserver.
+ */
+public class PushEventFetcherTest extends AndroidTestCase {
+    private static final String MY_USER_ID = "@alice:localhost";
+    private static final String OTHER_USER_ID = "@bob:localhost";
+
+    private MockWebServer mServer;
+    private MXMemoryStore mStore;
+    private PushEventFetcher mFetcher;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        mServer = new MockWebServer();
+        mServer.start();
+
+        Credentials credentials = new Credentials();
+        credentials.userId = MY_USER_ID;
+        credentials.homeServer = "localhost";
+        credentials.accessToken = "token";
+
+        HomeserverConnectionConfig hsConfig = new HomeserverConnectionConfig(Uri.parse(mServer.getUrl("/").toString()), credentials);
+
+        mStore = new MXMemoryStore(credentials, getContext());
+        mFetcher = new PushEventFetcher(new RoomsRestClient(hsConfig), mStore);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    /**
+     * @param roomId the room id
+     * @param index the event index
+     * @return the event JSON
+     */
+    private static String eventJson(String roomId, int index) {
+        return "{\"event_id\":\"$e" + index + "\",\"room_id\":\"" + roomId + "\",\"sender\":\"" + OTHER_USER_ID + "\",\"type\":\"m.room.message\","
+                + "\"origin_server_ts\":" + index + ",\"content\":{\"msgtype\":\"m.text\",\"body\":\"" + index + "\"}}";
+    }
+
+    /**
+     * Enqueue a /context response.
+     * @param roomId the room id
+     * @param eventIndex the pushed event index
+     * @param beforeCount the number of events before the pushed one
+     */
+    private void enqueueContext(String roomId, int eventIndex, int beforeCount) {
+        StringBuilder builder = new StringBuilder("{\"event\":").append(eventJson(roomId, eventIndex)).append(",\"events_before\":[");
+
+        // the newest first
+        for (int index = 1; index <= beforeCount; index++) {
+            if (index > 1) {
+                builder.append(",");
+            }
+            builder.append(eventJson(roomId, eventIndex - index));
+        }
+
+        builder.append("],\"events_after\":[],\"start\":\"s\",\"end\":\"e\"}");
+
+        mServer.enqueue(new MockResponse().setResponseCode(200).setBody(builder.toString()));
+    }
+
+    /**
+     * Store a live event.
+     * @param roomId the room id
+     * @param index the event index
+     */
+    private void storeEvent(String roomId, int index) {
+        Event event = new Event();
+        event.eventId = "$e" + index;
+        event.roomId = roomId;
+        event.sender = OTHER_USER_ID;
+        event.setType(Event.EVENT_TYPE_MESSAGE);
+        event.originServerTs = index;
+        mStore.storeLiveRoomEvent(event);
+    }
+
+    public void testFetchMissingEvents() throws Exception {
+        String roomId = "!fetch:localhost";
+        storeEvent(roomId, 0);
+        enqueueContext(roomId, 2, 2);
+
+        PushEventFetcher.Result result = mFetcher.fetch(roomId, "$e2");
+
+        RecordedRequest request = mServer.takeRequest();
+        assertTrue(request.getPath(), request.getPath().contains("/context/"));
+
+        assertNotNull(result);
+        assertFalse(result.mHasGap);
+        assertEquals(2, result.mEvents.size());
+        assertEquals("$e1", result.mEvents.get(0).eventId);
+        assertEquals("$e2", result.mEvents.get(1).eventId);
+    }
+
+    public void testFetchedEventsContinuity() throws Exception {
+        String roomId = "!continuity:localhost";
+        storeEvent(roomId, 0);
+
+        // the stored event is the oldest one of the context
+        enqueueContext(roomId, 10, 10);
+        PushEventFetcher.Result result = mFetcher.fetch(roomId, "$e10");
+
+        assertNotNull(result);
+        assertFalse(result.mHasGap);
+        assertEquals(10, result.mEvents.size());
+
+        // the stored event is not in the context anymore, the previous push events are used instead
+        enqueueContext(roomId, 11, 10);
+        result = mFetcher.fetch(roomId, "$e11");
+
+        assertNotNull(result);
+        assertFalse(result.mHasGap);
+        assertEquals(1, result.mEvents.size());
+        assertEquals("$e11", result.mEvents.get(0).eventId);
+
+        // the same push is not notified twice
+        enqueueContext(roomId, 11, 10);
+        result = mFetcher.fetch(roomId, "$e11");
+
+        assertNotNull(result);
+        assertTrue(result.mEvents.isEmpty());
+    }
+
+    public void testFetchGap() throws Exception {
+        String roomId = "!gap:localhost";
+        storeEvent(roomId, 0);
+
+        // the context does not reach the stored event : some events might have been missed
+        enqueueContext(roomId, 30, 10);
+        PushEventFetcher.Result result = mFetcher.fetch(roomId, "$e30");
+
+        assertNotNull(result);
+        assertTrue(result.mHasGap);
+        assertEquals(11, result.mEvents.size());
+        assertEquals("$e20", result.mEvents.get(0).eventId);
+        assertEquals("$e30", result.mEvents.get(10).eventId);
+
+        // the next push is contiguous with the fetched events
+        enqueueContext(roomId, 31, 10);
+        result = mFetcher.fetch(roomId, "$e31");
+
+        assertNotNull(result);
+        assertFalse(result.mHasGap);
+        assertEquals(1, result.mEvents.size());
+        assertEquals("$e31", result.mEvents.get(0).eventId);
+    }
+
+    public void testFetchFailure() throws Exception {
+        mServer.enqueue(new MockResponse().setResponseCode(404).setBody("{\"errcode\":\"M_NOT_FOUND\",\"error\":\"Event not found\"}"));
+
+        assertNull(mFetcher.fetch("!failure:localhost", "$e1"));
+    }
+}
@@ -0,0 +1,51 @@
+package org.matrix.vector;
+
+import android.test.AndroidTestCase;
+
+import java.io.File;
+import java.util.List;
+
+import im.vector.VectorApp;
+import im.vector.util.InitializerRegistry;
+import im.vector.util.StartupTrace;
+
+/**
+ * Check the cold start trace and its regression budget.
+ */
+public class StartupTraceTest extends AndroidTestCase {
+    private static final String LOG_TAG = "StartupTraceTest";
+
+    // the max VectorApp.onCreate duration
+    private static final long APPLICATION_CREATION_BUDGET_MS = 1500;
+
+    public void testApplicationCreation() throws Exception {
+        // the application is created before running the tests
+        long duration = StartupTrace.getSectionDuration(StartupTrace.SECTION_APPLICATION);
+
+        android.util.Log.i(LOG_TAG, "VectorApp.onCreate : " + duration + " ms");
+
+        assertTrue("VectorApp.onCreate has not been traced", duration >= 0);
+        assertTrue("VectorApp.onCreate took " + duration + " ms", duration <= APPLICATION_CREATION_BUDGET_MS);
+
+        // the components required before the first frame are initialized in VectorApp.onCreate
+        for (String initializer : new String[]{VectorApp.INITIALIZER_LOGS, VectorApp.INITIALIZER_VERSION_STRINGS, VectorApp.INITIALIZER_ANALYTICS}) {
+            long initializerDuration = InitializerRegistry.getDuration(initializer);
+            assertTrue(initializer + " has not been initialized", initializerDuration >= 0);
+            assertTrue(initializerDuration <= duration);
+        }
+    }
+
+    public void testReport() throws Exception {
+        StartupTrace.setLogsDirectory(new File(getContext().getCacheDir(), "logs"));
+
+        // called out of the UI thread, the report is written synchronously
+        StartupTrace.finish();
+
+        assertTrue(StartupTrace.getStartupDuration() >= 0);
+        assertFalse(StartupTrace.isTracing());
+
+        List<File> reportFiles = StartupTrace.getReportFiles();
+        assertFalse(reportFiles.isEmpty());
+        assertTrue(reportFiles.get(reportFiles.size() - 1).length() > 0);
+    }
+}
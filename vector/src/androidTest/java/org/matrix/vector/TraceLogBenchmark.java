@@ -0,0 +1,53 @@
+package org.matrix.vector;
+
+import android.test.AndroidTestCase;
+
+import org.matrix.androidsdk.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+
+import im.vector.util.TraceLog;
+
+/**
+ * Compare the TraceLog throughput with the SDK logger one.
+ */
+public class TraceLogBenchmark extends AndroidTestCase {
+    private static final String LOG_TAG = "TraceLogBenchmark";
+
+    private static final int ITERATIONS = 20000;
+
+    public void testThroughput() throws Exception {
+        TraceLog.init(new File(getContext().getCacheDir(), "logs"));
+
+        // warm up
+        for (int i = 0; i < 1000; i++) {
+            TraceLog.d(TraceLog.EVENT_BENCHMARK, i, 0);
+        }
+
+        long startTime = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            TraceLog.d(TraceLog.EVENT_BENCHMARK, i, ITERATIONS);
+        }
+        long traceLogDuration = System.nanoTime() - startTime;
+
+        startTime = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            Log.d(LOG_TAG, "benchmark " + i + " " + ITERATIONS);
+        }
+        long logDuration = System.nanoTime() - startTime;
+
+        android.util.Log.i(LOG_TAG, "TraceLog : " + (traceLogDuration / ITERATIONS) + " ns / call, Log : " + (logDuration / ITERATIONS) + " ns / call");
+
+        // the records must be decoded
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        long decodedSize = 0;
+
+        for (File traceFile : TraceLog.getTraceFiles()) {
+            decodedSize += TraceLog.decode(traceFile, outputStream, Long.MAX_VALUE);
+        }
+
+        assertTrue(decodedSize > 0);
+        assertTrue(outputStream.toString().contains("benchmark " + (ITERATIONS - 1) + " " + ITERATIONS));
+    }
+}
@@ -16,7 +16,9 @@
 
 package im.vector.gcm;
 
+import android.content.Context;
 import android.os.Bundle;
+import android.os.PowerManager;
 import android.text.TextUtils;
 import org.matrix.androidsdk.util.Log;
 
@@ -26,10 +28,16 @@ import com.google.gson.JsonParser;
 import org.matrix.androidsdk.MXSession;
 import org.matrix.androidsdk.data.RoomState;
 import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.bingrules.BingRule;
 import im.vector.Matrix;
 import im.vector.VectorApp;
 import im.vector.activity.CommonActivityUtils;
 import im.vector.services.EventStreamService;
+import im.vector.util.TraceLog;
+import im.vector.util.VectorExecutors;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
 
 /**
  * Class implementing GcmListenerService.
@@ -40,6 +48,15 @@ public class MatrixGcmListenerService extends GcmListenerService {
     private Boolean mCheckLaunched = false;
     private android.os.Handler mUIhandler = null;
 
+    // the max time to keep the device awake to process a push
+    private static final long MAX_PROCESSING_DELAY_MS = 20000;
+
+    // the time when the push was sent by the GCM server
+    private static final String GCM_SENT_TIME_KEY = "google.sent_time";
+
+    // process the pushes in background, in their reception order
+    private static final Executor mPushExecutor = new VectorExecutors.SerialExecutor(VectorExecutors.getIOExecutor());
+
     /**
      * Try to create an event from the GCM data
      * @param bundle the GCM data
@@ -71,6 +88,10 @@ public class MatrixGcmListenerService extends GcmListenerService {
 
     /**
      * Called when message is received.
+     * The message is processed on the push executor, the UI thread is only used for the badge
+     * and to start the events stream.
+     * This method returns immediately : a wake lock keeps the device awake until the processing end
+     * because the service might be stopped when it returns.
      *
      * @param from SenderID of the sender.
      * @param data Data bundle containing message data as key/value pairs.
@@ -78,80 +99,139 @@ public class MatrixGcmListenerService extends GcmListenerService {
      */
     @Override
     public void onMessageReceived(final String from, final Bundle data) {
+        final long receptionTime = System.currentTimeMillis();
 
         if (null == mUIhandler) {
             mUIhandler = new android.os.Handler(VectorApp.getInstance().getMainLooper());
         }
 
+        final PowerManager.WakeLock wakeLock = ((PowerManager) getSystemService(Context.POWER_SERVICE)).newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, LOG_TAG);
+        wakeLock.acquire(MAX_PROCESSING_DELAY_MS);
 
-        mUIhandler.post(new Runnable() {
+        mPushExecutor.execute(new Runnable() {
             @Override
             public void run() {
-                Log.d(LOG_TAG, "## onMessageReceived() --------------------------------");
-                // privacy
-                /*for (String key : data.keySet()) {
-                    Log.d(LOG_TAG, "## onMessageReceived() >>> " + key + " : " + data.get(key));
-                }*/
-
-                int unreadCount = 0;
-
-                if (null != data) {
-                    Object unreadCounterAsVoid = data.get("unread");
-                    if (unreadCounterAsVoid instanceof String) {
-                        unreadCount = Integer.parseInt((String) unreadCounterAsVoid);
+                try {
+                    onMessageReceived(data, receptionTime);
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## onMessageReceived() : the push processing failed " + e.getMessage());
+                } finally {
+                    try {
+                        if (wakeLock.isHeld()) {
+                            wakeLock.release();
+                        }
+                    } catch (Exception e) {
+                        // the wake lock timeout might have been reached in the meantime
+                        Log.e(LOG_TAG, "## onMessageReceived() : cannot release the wake lock " + e.getMessage());
                     }
                 }
+            }
+        });
+    }
 
-                // update the badge counter
-                CommonActivityUtils.updateBadgeCount(getApplicationContext(), unreadCount);
+    /**
+     * Process a received message on the push executor.
+     * @param data Data bundle containing message data as key/value pairs.
+     * @param receptionTime the message reception time
+     */
+    private void onMessageReceived(final Bundle data, long receptionTime) {
+        Log.d(LOG_TAG, "## onMessageReceived() --------------------------------");
+        // privacy
+        /*for (String key : data.keySet()) {
+            Log.d(LOG_TAG, "## onMessageReceived() >>> " + key + " : " + data.get(key));
+        }*/
+
+        int unreadCount = 0;
+
+        if (null != data) {
+            Object unreadCounterAsVoid = data.get("unread");
+            if (unreadCounterAsVoid instanceof String) {
+                try {
+                    unreadCount = Integer.parseInt((String) unreadCounterAsVoid);
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## onMessageReceived() : invalid unread counter " + e.getMessage());
+                }
+            }
+        }
 
-                GcmRegistrationManager gcmManager = Matrix.getInstance(getApplicationContext()).getSharedGCMRegistrationManager();
+        final int fUnreadCount = unreadCount;
 
-                if (!gcmManager.areDeviceNotificationsAllowed()) {
-                    Log.d(LOG_TAG, "## onMessageReceived() : the notifications are disabled");
-                    return;
-                }
+        // update the badge counter
+        mUIhandler.post(new Runnable() {
+            @Override
+            public void run() {
+                CommonActivityUtils.updateBadgeCount(getApplicationContext(), fUnreadCount);
+            }
+        });
 
-                if (!gcmManager.isBackgroundSyncAllowed() && VectorApp.isAppInBackground()) {
-                    Log.d(LOG_TAG, "## onMessageReceived() : the background sync is disabled");
+        GcmRegistrationManager gcmManager = Matrix.getInstance(getApplicationContext()).getSharedGCMRegistrationManager();
 
-                    EventStreamService eventStreamService = EventStreamService.getInstance();
+        if (!gcmManager.areDeviceNotificationsAllowed()) {
+            Log.d(LOG_TAG, "## onMessageReceived() : the notifications are disabled");
+            return;
+        }
 
-                    if (null != eventStreamService) {
-                        Event event = parseEvent(data);
+        if (!gcmManager.isBackgroundSyncAllowed() && VectorApp.isAppInBackground()) {
+            Log.d(LOG_TAG, "## onMessageReceived() : the background sync is disabled");
 
-                        if (null != event) {
-                            // TODO the session id should be provided by the server
-                            MXSession session = Matrix.getInstance(getApplicationContext()).getDefaultSession();
-                            RoomState roomState = null;
+            EventStreamService eventStreamService = EventStreamService.getInstance();
 
-                            if (null != session) {
-                                try {
-                                    roomState = session.getDataHandler().getRoom(event.roomId).getLiveState();
-                                } catch (Exception e) {
-                                    Log.e(LOG_TAG, "Fail to retrieve the roomState of " + event.roomId);
-                                }
-                            }
+            if (null != eventStreamService) {
+                Event event = parseEvent(data);
 
-                            if (TextUtils.equals(event.getType(), Event.EVENT_TYPE_MESSAGE_ENCRYPTED) && session.isCryptoEnabled()) {
-                                session.getCrypto().decryptEvent(event, null);
-                            }
+                if (null != event) {
+                    // TODO the session id should be provided by the server
+                    MXSession session = Matrix.getInstance(getApplicationContext()).getDefaultSession();
+                    RoomState roomState = null;
 
-                            eventStreamService.prepareNotification(event, roomState, session.getDataHandler().getBingRulesManager().fulfilledBingRule(event));
-                            eventStreamService.triggerPreparedNotification(false);
+                    if (null == session) {
+                        Log.d(LOG_TAG, "## onMessageReceived() : there is no session");
+                        return;
+                    }
 
-                            Log.d(LOG_TAG, "## onMessageReceived() : trigger a notification");
-                        } else {
-                            Log.d(LOG_TAG, "## onMessageReceived() : fail to parse the notification data");
-                        }
+                    try {
+                        roomState = session.getDataHandler().getRoom(event.roomId).getLiveState();
+                    } catch (Exception e) {
+                        Log.e(LOG_TAG, "Fail to retrieve the roomState of " + event.roomId);
+                    }
+
+                    // the decryption is done on the crypto thread, this thread waits for it.
+                    if (TextUtils.equals(event.getType(), Event.EVENT_TYPE_MESSAGE_ENCRYPTED) && session.isCryptoEnabled()) {
+                        session.getCrypto().decryptEvent(event, null);
+                    }
+
+                    BingRule bingRule = session.getDataHandler().getBingRulesManager().fulfilledBingRule(event);
 
-                    } else {
-                        Log.d(LOG_TAG, "## onMessageReceived() : there is no event service so nothing is done");
+                    synchronized (eventStreamService) {
+                        eventStreamService.prepareNotification(event, roomState, bingRule);
+                        eventStreamService.triggerPreparedNotification(false);
                     }
 
-                    return;
+                    long notifyTime = System.currentTimeMillis();
+                    long sentTime = (null != data) ? data.getLong(GCM_SENT_TIME_KEY, -1) : -1;
+
+                    TraceLog.d(TraceLog.EVENT_PUSH_NOTIFIED, notifyTime - receptionTime, (sentTime > 0) ? (notifyTime - sentTime) : -1);
+                    Log.d(LOG_TAG, "## onMessageReceived() : trigger a notification in " + (notifyTime - receptionTime) + " ms");
+                } else {
+                    Log.d(LOG_TAG, "## onMessageReceived() : fail to parse the notification data");
                 }
 
+            } else {
+                Log.d(LOG_TAG, "## onMessageReceived() : there is no event service so nothing is done");
+            }
+
+            return;
+        }
+
+        // when the application is in background, only the pushed room events are retrieved
+        // the full catchup is only done when some events might have been missed.
+        if (VectorApp.isAppInBackground() && notifyPushedRoomEvents(data, receptionTime)) {
+            return;
+        }
+
+        mUIhandler.post(new Runnable() {
+            @Override
+            public void run() {
                 // check if the application has been launched once
                 // the first GCM event could have been triggered whereas the application is not yet launched.
                 // so it is required to create the sessions and to start/resume event stream
@@ -164,4 +244,89 @@ public class MatrixGcmListenerService extends GcmListenerService {
             }
         });
     }
+
+    /**
+     * Retrieve the pushed room events and notify them without running the events stream.
+     * @param data the GCM data
+     * @param receptionTime the message reception time
+     * @return true if the events have been notified and there is no need to catch up.
+     */
+    private boolean notifyPushedRoomEvents(Bundle data, long receptionTime) {
+        EventStreamService eventStreamService = EventStreamService.getInstance();
+
+        if (null == eventStreamService) {
+            Log.d(LOG_TAG, "## notifyPushedRoomEvents() : there is no event service");
+            return false;
+        }
+
+        Event pushedEvent = parseEvent(data);
+        MXSession session = Matrix.getInstance(getApplicationContext()).getDefaultSession();
+
+        if ((null == pushedEvent) || TextUtils.isEmpty(pushedEvent.eventId) || (null == session) || !session.isAlive()) {
+            Log.d(LOG_TAG, "## notifyPushedRoomEvents() : cannot retrieve the pushed event");
+            return false;
+        }
+
+        PushEventFetcher.Result result = new PushEventFetcher(session.getRoomsApiClient(), session.getDataHandler().getStore()).fetch(pushedEvent.roomId, pushedEvent.eventId);
+
+        if (null == result) {
+            Log.d(LOG_TAG, "## notifyPushedRoomEvents() : the pushed room events retrieval failed");
+            return false;
+        }
+
+        RoomState roomState = null;
+
+        try {
+            roomState = session.getDataHandler().getRoom(pushedEvent.roomId).getLiveState();
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## notifyPushedRoomEvents() : fail to retrieve the roomState of " + pushedEvent.roomId);
+        }
+
+        // the decryption and the rules are evaluated before locking the events service, the UI thread uses it too
+        ArrayList<Event> notifiedEvents = new ArrayList<>();
+        ArrayList<BingRule> notifiedBingRules = new ArrayList<>();
+
+        for (Event event : result.mEvents) {
+            // ignore the own events
+            if (TextUtils.equals(event.getSender(), session.getMyUserId())) {
+                continue;
+            }
+
+            event.setMatrixId(session.getMyUserId());
+
+            // the decryption is done on the crypto thread, this thread waits for it.
+            if (TextUtils.equals(event.getType(), Event.EVENT_TYPE_MESSAGE_ENCRYPTED) && session.isCryptoEnabled()) {
+                session.getCrypto().decryptEvent(event, null);
+            }
+
+            BingRule bingRule = session.getDataHandler().getBingRulesManager().fulfilledBingRule(event);
+
+            // the pushed event is always notified, the other ones only if they match a rule
+            if (TextUtils.equals(event.eventId, pushedEvent.eventId) || ((null != bingRule) && bingRule.shouldNotify())) {
+                notifiedEvents.add(event);
+                notifiedBingRules.add(bingRule);
+            }
+        }
+
+        synchronized (eventStreamService) {
+            for (int index = 0; index < notifiedEvents.size(); index++) {
+                eventStreamService.prepareNotification(notifiedEvents.get(index), roomState, notifiedBingRules.get(index));
+            }
+
+            eventStreamService.triggerPreparedNotification(false);
+        }
+
+        long notifyTime = System.currentTimeMillis();
+        long sentTime = (null != data) ? data.getLong(GCM_SENT_TIME_KEY, -1) : -1;
+
+        TraceLog.d(TraceLog.EVENT_PUSH_NOTIFIED, notifyTime - receptionTime, (sentTime > 0) ? (notifyTime - sentTime) : -1);
+        Log.d(LOG_TAG, "## notifyPushedRoomEvents() : " + result.mEvents.size() + " events retrieved in " + (notifyTime - receptionTime) + " ms");
+
+        if (result.mHasGap) {
+            Log.d(LOG_TAG, "## notifyPushedRoomEvents() : some events might have been missed, catch up");
+            return false;
+        }
+
+        return true;
+    }
 }
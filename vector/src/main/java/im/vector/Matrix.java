@@ -19,8 +19,10 @@ package im.vector;
 import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.content.pm.PackageInfo;
 import android.os.Looper;
+import android.preference.PreferenceManager;
 import android.text.TextUtils;
 import org.matrix.androidsdk.util.Log;
 
@@ -31,7 +33,6 @@ import org.matrix.androidsdk.call.IMXCall;
 import org.matrix.androidsdk.call.MXCallsManager;
 import org.matrix.androidsdk.data.store.IMXStore;
 import org.matrix.androidsdk.data.store.MXFileStore;
-import org.matrix.androidsdk.data.store.MXMemoryStore;
 import org.matrix.androidsdk.data.Room;
 import org.matrix.androidsdk.data.RoomState;
 import org.matrix.androidsdk.db.MXLatestChatMessageCache;
@@ -48,9 +49,11 @@ import im.vector.activity.VectorHomeActivity;
 import im.vector.gcm.GcmRegistrationManager;
 import im.vector.services.EventStreamService;
 import im.vector.store.LoginStorage;
+import im.vector.store.VectorTieredFileStore;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Vector;
 
 /**
@@ -82,6 +85,10 @@ public class Matrix {
     // tell if the client should be logged out
     public boolean mHasBeenDisconnected = false;
 
+    // the number of rooms whose timeline is kept in memory by the sessions store (0 to keep all of them)
+    private static final String PREFS_TIERED_STORE_HOT_ROOMS_COUNT = "PREFS_TIERED_STORE_HOT_ROOMS_COUNT";
+    private static final int DEFAULT_TIERED_STORE_HOT_ROOMS_COUNT = 30;
+
     // i.e the event has been read from another client
     private static final MXEventListener mLiveEventListener = new MXEventListener() {
         @Override
@@ -362,7 +369,7 @@ public class Matrix {
             return sessions.get(0);
         }
 
-        ArrayList<HomeserverConnectionConfig> hsConfigList = mLoginStorage.getCredentialsList();
+        List<HomeserverConnectionConfig> hsConfigList = mLoginStorage.getCredentialsList();
 
         // any account ?
         if ((hsConfigList == null) || (hsConfigList.size() == 0)) {
@@ -565,6 +572,29 @@ public class Matrix {
         }
     }
 
+    /**
+     * Provides the number of rooms whose timeline is kept in memory by the sessions store.
+     * @param context the context
+     * @return the rooms count, 0 means that all the rooms are kept in memory.
+     */
+    public static int getTieredStoreHotRoomsCount(Context context) {
+        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
+        return preferences.getInt(PREFS_TIERED_STORE_HOT_ROOMS_COUNT, DEFAULT_TIERED_STORE_HOT_ROOMS_COUNT);
+    }
+
+    /**
+     * Update the number of rooms whose timeline is kept in memory by the sessions store.
+     * It is applied to the next created sessions.
+     * @param context the context
+     * @param count the rooms count, 0 to keep all the rooms in memory.
+     */
+    public static void setTieredStoreHotRoomsCount(Context context, int count) {
+        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
+        SharedPreferences.Editor editor = preferences.edit();
+        editor.putInt(PREFS_TIERED_STORE_HOT_ROOMS_COUNT, Math.max(0, count));
+        editor.apply();
+    }
+
     /**
      * Creates an MXSession from some credentials.
      * @param hsConfig The HomeserverConnectionConfig to create a session from.
@@ -585,10 +615,12 @@ public class Matrix {
 
         Credentials credentials = hsConfig.getCredentials();
 
-        if (true) {
-            store = new MXFileStore(hsConfig, context);
+        int hotRoomsCount = getTieredStoreHotRoomsCount(context);
+
+        if (hotRoomsCount > 0) {
+            store = new VectorTieredFileStore(hsConfig, context, hotRoomsCount);
         } else {
-            store = new MXMemoryStore(hsConfig.getCredentials(), context);
+            store = new MXFileStore(hsConfig, context);
         }
 
         MXSession session = new MXSession(hsConfig, new MXDataHandler(store, credentials, new MXDataHandler.InvalidTokenListener() {
@@ -627,7 +659,7 @@ public class Matrix {
 
         synchronized (LOG_TAG) {
             // build a new sessions list
-            ArrayList<HomeserverConnectionConfig> configs = mLoginStorage.getCredentialsList();
+            List<HomeserverConnectionConfig> configs = mLoginStorage.getCredentialsList();
 
             for(HomeserverConnectionConfig config : configs) {
                 MXSession session = createSession(config);
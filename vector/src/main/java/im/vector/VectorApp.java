@@ -18,6 +18,7 @@ package im.vector;
 
 import android.app.Activity;
 import android.app.Application;
+import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.pm.PackageInfo;
@@ -26,6 +27,8 @@ import android.graphics.Bitmap;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
+import android.view.View;
+import android.view.ViewTreeObserver;
 import org.matrix.androidsdk.util.Log;
 
 import org.matrix.androidsdk.MXSession;
@@ -38,14 +41,21 @@ import im.vector.ga.GAHelper;
 import im.vector.gcm.GcmRegistrationManager;
 import im.vector.receiver.HeadsetConnectionReceiver;
 import im.vector.services.EventStreamService;
+import im.vector.util.InitializerRegistry;
+import im.vector.util.MemoryPressureManager;
 import im.vector.util.RageShake;
+import im.vector.util.StartupTrace;
+import im.vector.util.TraceLog;
+import im.vector.util.UiThreadMonitor;
 import im.vector.util.VectorCallSoundManager;
+import im.vector.util.VectorExecutors;
+import im.vector.util.VectorGalleryLoader;
 import im.vector.util.VectorMarkdownParser;
+import im.vector.util.VectorUtils;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ScheduledFuture;
 
 /**
  * The main application injection point
@@ -77,8 +87,7 @@ public class VectorApp extends Application {
     /**
      * Background application detection
      */
-    private Timer mActivityTransitionTimer;
-    private TimerTask mActivityTransitionTimerTask;
+    private ScheduledFuture<?> mActivityTransitionTimer;
     private boolean mIsInBackground = true;
 
     /**
@@ -103,6 +112,20 @@ public class VectorApp extends Application {
      */
     public VectorMarkdownParser mMarkdownParser;
 
+    /**
+     * The components initializers
+     */
+    public static final String INITIALIZER_LOGS = "logs";
+    public static final String INITIALIZER_VERSION_STRINGS = "versionStrings";
+    public static final String INITIALIZER_ANALYTICS = "analytics";
+    public static final String INITIALIZER_RAGESHAKE = "rageshake";
+    public static final String INITIALIZER_MARKDOWN = "markdown";
+
+    /**
+     * Tell if an activity has been displayed since the application creation.
+     */
+    private boolean mIsFirstFrameDrawn = false;
+
     /**
      * @return the current instance
      */
@@ -118,37 +141,17 @@ public class VectorApp extends Application {
     @Override
     public void onCreate() {
         Log.d(LOG_TAG, "onCreate");
+        StartupTrace.beginSection(StartupTrace.SECTION_APPLICATION);
         super.onCreate();
 
+        // debug and dogfood builds only
+        UiThreadMonitor.start();
+
         instance = this;
         mActivityTransitionTimer = null;
-        mActivityTransitionTimerTask = null;
-
-        try {
-            PackageInfo packageInfo = getPackageManager().getPackageInfo(getPackageName(), 0);
-            VERSION_BUILD = packageInfo.versionCode;
-        }
-        catch (PackageManager.NameNotFoundException e) {
-            Log.e(LOG_TAG, "fails to retrieve the package info " + e.getMessage());
-        }
 
-        VECTOR_VERSION_STRING = Matrix.getInstance(this).getVersion(true);
-
-        // not the first launch
-        if (null != Matrix.getInstance(this).getDefaultSession()) {
-            SDK_VERSION_STRING = Matrix.getInstance(this).getDefaultSession().getVersion(true);
-        } else {
-            SDK_VERSION_STRING = "";
-        }
-
-        mLogsDirectoryFile = new File(getCacheDir().getAbsolutePath() + "/logs");
-
-        org.matrix.androidsdk.util.Log.setLogDirectory(mLogsDirectoryFile);
-        org.matrix.androidsdk.util.Log.init("RiotLog");
-
-        GAHelper.initGoogleAnalytics(getApplicationContext());
-
-        mRageShake.start(this);
+        registerInitializers();
+        InitializerRegistry.start(this);
 
         this.registerActivityLifecycleCallbacks(new ActivityLifecycleCallbacks() {
             @Override
@@ -166,6 +169,20 @@ public class VectorApp extends Application {
             public void onActivityResumed(Activity activity) {
                 Log.d(LOG_TAG, "onActivityResumed " + activity);
                 setCurrentActivity(activity);
+
+                if (!mIsFirstFrameDrawn) {
+                    mIsFirstFrameDrawn = true;
+
+                    final View decorView = activity.getWindow().getDecorView();
+                    decorView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+                        @Override
+                        public boolean onPreDraw() {
+                            decorView.getViewTreeObserver().removeOnPreDrawListener(this);
+                            InitializerRegistry.onFirstFrame();
+                            return true;
+                        }
+                    });
+                }
             }
 
             @Override
@@ -198,13 +215,106 @@ public class VectorApp extends Application {
         // detect if the headset is plugged / unplugged.
         registerReceiver(new HeadsetConnectionReceiver(), new IntentFilter(Intent.ACTION_HEADSET_PLUG));
 
-        // create the markdown parser
-        try {
-            mMarkdownParser = new VectorMarkdownParser(this);
-        } catch (Exception e) {
-            // reported by GA
-            Log.e(LOG_TAG, "cannot create the mMarkdownParser " + e.getMessage());
-        }
+        registerTrimmableCaches();
+        StartupTrace.endSection(StartupTrace.SECTION_APPLICATION);
+    }
+
+    /**
+     * Register the application caches which can be released on memory pressure.
+     */
+    private void registerTrimmableCaches() {
+        MemoryPressureManager.register("letter avatars", MemoryPressureManager.PRIORITY_LOW, new MemoryPressureManager.TrimmableCache() {
+            @Override
+            public void trim(float ratio) {
+                VectorUtils.trimAvatarsCache(ratio);
+            }
+        });
+
+        MemoryPressureManager.register("gallery thumbnails", MemoryPressureManager.PRIORITY_MEDIUM, new MemoryPressureManager.TrimmableCache() {
+            @Override
+            public void trim(float ratio) {
+                VectorGalleryLoader.trimThumbnailsCache(ratio);
+            }
+        });
+
+        MemoryPressureManager.register("contacts snapshot", MemoryPressureManager.PRIORITY_HIGH, new MemoryPressureManager.TrimmableCache() {
+            @Override
+            public void trim(float ratio) {
+                // the snapshot is rebuilt when it is required
+                if ((ratio >= 1) && isAppInBackground()) {
+                    ContactsManager.clearSnapshot();
+                }
+            }
+        });
+    }
+
+    /**
+     * Register the application components initializers.
+     * The components which are not required to display the first screen are initialized after it.
+     */
+    private void registerInitializers() {
+        InitializerRegistry.register(INITIALIZER_LOGS, InitializerRegistry.PHASE_BEFORE_FIRST_FRAME, false, new InitializerRegistry.Initializer() {
+            @Override
+            public void initialize(Context context) {
+                mLogsDirectoryFile = new File(context.getCacheDir().getAbsolutePath() + "/logs");
+
+                org.matrix.androidsdk.util.Log.setLogDirectory(mLogsDirectoryFile);
+                org.matrix.androidsdk.util.Log.init("RiotLog");
+                TraceLog.init(mLogsDirectoryFile);
+                StartupTrace.setLogsDirectory(mLogsDirectoryFile);
+            }
+        });
+
+        // the versions are used by the GA crash reports
+        InitializerRegistry.register(INITIALIZER_VERSION_STRINGS, InitializerRegistry.PHASE_BEFORE_FIRST_FRAME, false, new InitializerRegistry.Initializer() {
+            @Override
+            public void initialize(Context context) {
+                try {
+                    PackageInfo packageInfo = context.getPackageManager().getPackageInfo(context.getPackageName(), 0);
+                    VERSION_BUILD = packageInfo.versionCode;
+                }
+                catch (PackageManager.NameNotFoundException e) {
+                    Log.e(LOG_TAG, "fails to retrieve the package info " + e.getMessage());
+                }
+
+                VECTOR_VERSION_STRING = Matrix.getInstance(context).getVersion(true);
+
+                // not the first launch
+                if (null != Matrix.getInstance(context).getDefaultSession()) {
+                    SDK_VERSION_STRING = Matrix.getInstance(context).getDefaultSession().getVersion(true);
+                } else {
+                    SDK_VERSION_STRING = "";
+                }
+            }
+        });
+
+        // the GA exception reporter must be set before any crash
+        InitializerRegistry.register(INITIALIZER_ANALYTICS, InitializerRegistry.PHASE_BEFORE_FIRST_FRAME, false, new InitializerRegistry.Initializer() {
+            @Override
+            public void initialize(Context context) {
+                GAHelper.initGoogleAnalytics(context);
+            }
+        });
+
+        InitializerRegistry.register(INITIALIZER_RAGESHAKE, InitializerRegistry.PHASE_AFTER_FIRST_FRAME, false, new InitializerRegistry.Initializer() {
+            @Override
+            public void initialize(Context context) {
+                mRageShake.start(context);
+            }
+        });
+
+        // the parser is a WebView so it must be created on the UI thread
+        InitializerRegistry.register(INITIALIZER_MARKDOWN, InitializerRegistry.PHASE_AFTER_FIRST_FRAME, true, new InitializerRegistry.Initializer() {
+            @Override
+            public void initialize(Context context) {
+                try {
+                    mMarkdownParser = new VectorMarkdownParser(context);
+                } catch (Exception e) {
+                    // reported by GA
+                    Log.e(LOG_TAG, "cannot create the mMarkdownParser " + e.getMessage());
+                }
+            }
+        });
     }
 
     /**
@@ -213,6 +323,9 @@ public class VectorApp extends Application {
      * @param listener the result listener
      */
     public static void markdownToHtml(final String text, final VectorMarkdownParser.IVectorMarkdownParserListener listener) {
+        // the first frame might not have been drawn yet
+        InitializerRegistry.ensureInitialized(INITIALIZER_MARKDOWN);
+
         if (null != getInstance().mMarkdownParser) {
             getInstance().mMarkdownParser.markdownToHtml(text, listener);
         } else {
@@ -264,19 +377,10 @@ public class VectorApp extends Application {
     private void startActivityTransitionTimer() {
         Log.d(LOG_TAG, "## startActivityTransitionTimer()");
 
-        mActivityTransitionTimer = new Timer();
-        mActivityTransitionTimerTask = new TimerTask() {
+        mActivityTransitionTimer = VectorExecutors.schedule(new Runnable() {
             @Override
             public void run() {
-                if (mActivityTransitionTimerTask != null) {
-                    mActivityTransitionTimerTask.cancel();
-                    mActivityTransitionTimerTask = null;
-                }
-
-                if (mActivityTransitionTimer != null) {
-                    mActivityTransitionTimer.cancel();
-                    mActivityTransitionTimer = null;
-                }
+                mActivityTransitionTimer = null;
 
                 if (null != mCurrentActivity) {
                     Log.e(LOG_TAG, "## startActivityTransitionTimer() : the timer expires but there is an active activity.");
@@ -295,9 +399,7 @@ public class VectorApp extends Application {
                     }
                 }
             }
-        };
-
-        mActivityTransitionTimer.schedule(mActivityTransitionTimerTask, MAX_ACTIVITY_TRANSITION_TIME_MS);
+        }, MAX_ACTIVITY_TRANSITION_TIME_MS);
     }
 
     /**
@@ -306,13 +408,8 @@ public class VectorApp extends Application {
     private void stopActivityTransitionTimer() {
         Log.d(LOG_TAG, "## stopActivityTransitionTimer()");
 
-        if (mActivityTransitionTimerTask != null) {
-            mActivityTransitionTimerTask.cancel();
-            mActivityTransitionTimerTask = null;
-        }
-
         if (mActivityTransitionTimer != null) {
-            mActivityTransitionTimer.cancel();
+            mActivityTransitionTimer.cancel(false);
             mActivityTransitionTimer = null;
         }
 
@@ -398,6 +495,13 @@ public class VectorApp extends Application {
             Log.e(LOG_TAG, "The application is resumed but there is no active instance");
         }
 
+        // the UI thread is only sampled while an activity is displayed
+        if (null == activity) {
+            UiThreadMonitor.onActivityPaused();
+        } else {
+            UiThreadMonitor.onActivityResumed();
+        }
+
         mCurrentActivity = activity;
     }
 
@@ -24,6 +24,7 @@ import android.app.AlarmManager;
 import android.app.AlertDialog;
 import android.app.Dialog;
 import android.app.DownloadManager;
+import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.ActivityNotFoundException;
 import android.content.Context;
@@ -60,6 +61,7 @@ import org.matrix.androidsdk.data.RoomPreviewData;
 import org.matrix.androidsdk.data.RoomSummary;
 import org.matrix.androidsdk.db.MXMediasCache;
 import org.matrix.androidsdk.rest.callback.ApiCallback;
+import org.matrix.androidsdk.rest.callback.SimpleApiCallback;
 import org.matrix.androidsdk.rest.model.Event;
 import org.matrix.androidsdk.rest.model.MatrixError;
 import org.matrix.androidsdk.rest.model.PowerLevels;
@@ -77,8 +79,6 @@ import im.vector.gcm.GcmRegistrationManager;
 import im.vector.services.EventStreamService;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -88,6 +88,10 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import im.vector.util.MemoryPressureManager;
+import im.vector.util.NotificationUtils;
+import im.vector.util.VectorFileExporter;
+import im.vector.util.VectorPreferences;
 import im.vector.util.VectorUtils;
 import me.leolin.shortcutbadger.ShortcutBadger;
 
@@ -304,9 +308,9 @@ public class CommonActivityUtils {
      * @param activity the caller activity
      * @param goToLoginPage true to jump to the login page
      */
-    public static void logout(Activity activity, boolean goToLoginPage) {
+    public static void logout(final Activity activity, boolean goToLoginPage) {
         // if no activity is provided, use the application context instead.
-        Context context = (null == activity) ? VectorApp.getInstance().getApplicationContext() : activity;
+        final Context context = (null == activity) ? VectorApp.getInstance().getApplicationContext() : activity;
 
         EventStreamService.removeNotification();
         stopEventStream(context);
@@ -326,17 +330,17 @@ public class CommonActivityUtils {
         }
 
         // clear the preferences
-        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
+        // they are cleared through VectorPreferences so its pending updates are not written after the clear
+        // the clear is written in background, the login page is opened once it is on disk
+        VectorPreferences preferences = VectorPreferences.getDefault(context);
 
         String homeServer = preferences.getString(LoginActivity.HOME_SERVER_URL_PREF, context.getResources().getString(R.string.default_hs_server_url));
         String identityServer = preferences.getString(LoginActivity.IDENTITY_SERVER_URL_PREF, context.getResources().getString(R.string.default_identity_server_url));
         Boolean useGa = GAHelper.useGA(context);
 
-        SharedPreferences.Editor editor = preferences.edit();
-        editor.clear();
-        editor.putString(LoginActivity.HOME_SERVER_URL_PREF, homeServer);
-        editor.putString(LoginActivity.IDENTITY_SERVER_URL_PREF, identityServer);
-        editor.commit();
+        preferences.clear();
+        preferences.putString(LoginActivity.HOME_SERVER_URL_PREF, homeServer);
+        preferences.putString(LoginActivity.IDENTITY_SERVER_URL_PREF, identityServer);
 
         if (null != useGa) {
             GAHelper.setUseGA(context, useGa);
@@ -360,17 +364,20 @@ public class CommonActivityUtils {
 
         MXMediasCache.clearThumbnailsCache(context);
 
-        if (goToLoginPage) {
-            if (null != activity) {
-                // go to login page
-                activity.startActivity(new Intent(activity, LoginActivity.class));
-                activity.finish();
-            }  else {
-                Intent intent = new Intent(context, LoginActivity.class);
-                intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TASK);
-                context.startActivity(intent);
+        preferences.flush(goToLoginPage ? new Runnable() {
+            @Override
+            public void run() {
+                if (null != activity) {
+                    // go to login page
+                    activity.startActivity(new Intent(activity, LoginActivity.class));
+                    activity.finish();
+                }  else {
+                    Intent intent = new Intent(context, LoginActivity.class);
+                    intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TASK);
+                    context.startActivity(intent);
+                }
             }
-        }
+        } : null);
     }
 
     /**
@@ -1364,126 +1371,115 @@ public class CommonActivityUtils {
         }
     }
 
+    // the export progress notification
+    private static final int NOTIFICATION_ID_EXPORT = 62;
+    // min delay between two export progress notifications
+    private static final long EXPORT_PROGRESS_MIN_DELAY_MS = 500;
+
     /**
-     * Copy a file into a dstPath directory.
-     * The output filename can be provided.
-     * The output file is not overridden if it is already exist.
+     * Save a media into the download directory.
+     * The copy is done in background and the media is not copied twice.
+     * Its progress is displayed in a notification.
      *
-     * @param sourceFile     the file source path
-     * @param dstDirPath     the dst path
-     * @param outputFilename optional the output filename
-     * @return the downloads file path if the file exists or has been properly saved
+     * @param context  the context
+     * @param srcFile  the source file.
+     * @param filename the filename (optional)
+     * @param mimeType the mime type
+     * @param callback the callback, it provides the downloads file path
      */
-    private static String saveFileInto(File sourceFile, String dstDirPath, String outputFilename) {
+    @SuppressLint("NewApi")
+    public static void saveMediaIntoDownloads(Context context, File srcFile, String filename, final String mimeType, final SimpleApiCallback<String> callback) {
         // sanity check
-        if ((null == sourceFile) || (null == dstDirPath)) {
-            return null;
+        if (null == srcFile) {
+            if (null != callback) {
+                callback.onUnexpectedError(new Exception("the media cannot be saved"));
+            }
+            return;
         }
 
-        // defines another name for the external media
-        String dstFileName;
-
         // build a filename is not provided
-        if (null == outputFilename) {
+        if (null == filename) {
             // extract the file extension from the uri
-            int dotPos = sourceFile.getName().lastIndexOf(".");
+            int dotPos = srcFile.getName().lastIndexOf(".");
 
             String fileExt = "";
             if (dotPos > 0) {
-                fileExt = sourceFile.getName().substring(dotPos);
+                fileExt = srcFile.getName().substring(dotPos);
             }
 
-            dstFileName = "vector_" + System.currentTimeMillis() + fileExt;
-        } else {
-            dstFileName = outputFilename;
+            filename = "vector_" + System.currentTimeMillis() + fileExt;
         }
 
-        File dstDir = Environment.getExternalStoragePublicDirectory(dstDirPath);
-        if (dstDir != null) {
-            dstDir.mkdirs();
-        }
+        final Context appContext = context.getApplicationContext();
+        final String fFilename = filename;
+        final NotificationManager notificationManager = (NotificationManager) appContext.getSystemService(Context.NOTIFICATION_SERVICE);
+        File dstDir = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS);
 
-        File dstFile = new File(dstDir, dstFileName);
+        VectorFileExporter.exportFileAsync(appContext, srcFile, dstDir, filename, new VectorFileExporter.IExportListener() {
+            private int mLastProgress = -1;
+            private long mLastProgressTime = 0;
+            private boolean mIsNotified = false;
 
-        // if the file already exists, append a marker
-        if (dstFile.exists()) {
-            String baseFileName = dstFileName;
-            String fileExt = "";
-
-            int lastDotPos = dstFileName.lastIndexOf(".");
+            @Override
+            public void onExportProgress(long exportedBytes, long totalBytes) {
+                int progress = (totalBytes > 0) ? (int) (exportedBytes * 100 / totalBytes) : 0;
+                long now = System.currentTimeMillis();
 
-            if (lastDotPos > 0) {
-                baseFileName = dstFileName.substring(0, lastDotPos);
-                fileExt = dstFileName.substring(lastDotPos);
-            }
+                // throttle the notification updates
+                if ((progress == mLastProgress) || (progress >= 100) || ((now - mLastProgressTime) < EXPORT_PROGRESS_MIN_DELAY_MS)) {
+                    return;
+                }
 
-            int counter = 1;
+                mLastProgress = progress;
+                mLastProgressTime = now;
+                mIsNotified = true;
 
-            while(dstFile.exists()) {
-                dstFile = new File(dstDir, baseFileName + "(" + counter + ")" + fileExt);
-                counter ++;
+                try {
+                    notificationManager.notify(NOTIFICATION_ID_EXPORT, NotificationUtils.buildExportNotification(appContext, fFilename, progress));
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## saveMediaIntoDownloads() : cannot notify the progress " + e.getMessage());
+                }
             }
-        }
-
-        // Copy source file to destination
-        FileInputStream inputStream = null;
-        FileOutputStream outputStream = null;
-        try {
-            dstFile.createNewFile();
-
-            inputStream = new FileInputStream(sourceFile);
-            outputStream = new FileOutputStream(dstFile);
 
-            byte[] buffer = new byte[1024 * 10];
-            int len;
-            while ((len = inputStream.read(buffer)) != -1) {
-                outputStream.write(buffer, 0, len);
-            }
-        } catch (Exception e) {
-            dstFile = null;
-        } finally {
-            // Close resources
-            try {
-                if (inputStream != null) inputStream.close();
-                if (outputStream != null) outputStream.close();
-            } catch (Exception e) {
-                Log.e(LOG_TAG,"## saveFileInto(): Exception Msg="+e.getMessage());
+            /**
+             * Remove the progress notification.
+             */
+            private void cancelNotification() {
+                if (mIsNotified) {
+                    mIsNotified = false;
+                    notificationManager.cancel(NOTIFICATION_ID_EXPORT);
+                }
             }
-        }
 
-        if (null != dstFile) {
-            return dstFile.getAbsolutePath();
-        } else {
-            return null;
-        }
-    }
+            @Override
+            public void onExportDone(String path, boolean alreadyExported) {
+                cancelNotification();
 
-    /**
-     * Save a media URI into the download directory
-     *
-     * @param context  the context
-     * @param srcFile  the source file.
-     * @param filename the filename (optional)
-     * @return the downloads file path
-     */
-    @SuppressLint("NewApi")
-    public static String saveMediaIntoDownloads(Context context, File srcFile, String filename, String mimeType) {
-        String fullFilePath = saveFileInto(srcFile, Environment.DIRECTORY_DOWNLOADS, filename);
+                if (!alreadyExported && (android.os.Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB)) {
+                    DownloadManager downloadManager = (DownloadManager) appContext.getSystemService(Context.DOWNLOAD_SERVICE);
 
-        if (android.os.Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
-            if (null != fullFilePath) {
-                DownloadManager downloadManager = (DownloadManager) context.getSystemService(Context.DOWNLOAD_SERVICE);
+                    try {
+                        File file = new File(path);
+                        downloadManager.addCompletedDownload(file.getName(), file.getName(), true, mimeType, file.getAbsolutePath(), file.length(), true);
+                    } catch (Exception e) {
+                        Log.e(LOG_TAG,"## saveMediaIntoDownloads(): Exception Msg="+e.getMessage());
+                    }
+                }
 
-                try {
-                    File file = new File(fullFilePath);
-                    downloadManager.addCompletedDownload(file.getName(), file.getName(), true, mimeType, file.getAbsolutePath(), file.length(), true);
-                } catch (Exception e) {
-                    Log.e(LOG_TAG,"## saveMediaIntoDownloads(): Exception Msg="+e.getMessage());
+                if (null != callback) {
+                    callback.onSuccess(path);
                 }
             }
-        }
 
-        return fullFilePath;
+            @Override
+            public void onExportFailed() {
+                cancelNotification();
+
+                if (null != callback) {
+                    callback.onUnexpectedError(new Exception("the media cannot be saved"));
+                }
+            }
+        });
     }
 
     //==============================================================================================================
@@ -1693,6 +1689,24 @@ public class CommonActivityUtils {
 
     private static final String LOW_MEMORY_LOG_TAG = "Memory usage";
 
+    // the sessions are reloaded only when the application heap is still above this ratio once the caches are released
+    private static final float LOW_MEMORY_HEAP_RATIO = 0.85f;
+
+    /**
+     * Tells if the application heap is still nearly full.
+     * The device wide low memory flag is not used because it does not depend on this application.
+     * @return true if the used heap is above LOW_MEMORY_HEAP_RATIO of the max heap.
+     */
+    private static boolean isHeapNearlyFull() {
+        Runtime runtime = Runtime.getRuntime();
+        long usedSize = runtime.totalMemory() - runtime.freeMemory();
+        long maxSize = runtime.maxMemory();
+
+        Log.e(LOW_MEMORY_LOG_TAG, "heap usage " + (usedSize / 1048576L) + " / " + (maxSize / 1048576L) + " MB");
+
+        return (maxSize > 0) && (usedSize > (maxSize * LOW_MEMORY_HEAP_RATIO));
+    }
+
     /**
      * Log the memory statuses.
      * @param activity the calling activity
@@ -1746,9 +1760,12 @@ public class CommonActivityUtils {
             String activityName = (null!=activity)?activity.getClass().getSimpleName():"NotAvailable";
             Log.e(LOW_MEMORY_LOG_TAG, "Active application : onLowMemory from " + activityName);
 
-            // it seems that onLowMemory is called whereas the device is seen on low memory condition
-            // so, test if the both conditions
-            if (displayMemoryInformation(activity, "onLowMemory test")) {
+            // release the caches before reloading the sessions
+            MemoryPressureManager.releaseAll();
+
+            // onLowMemory is a device wide notification : the sessions are only reloaded
+            // when the application heap is still nearly full once the caches are released.
+            if (isHeapNearlyFull()) {
                 if (CommonActivityUtils.shouldRestartApp(activity)) {
                     Log.e(LOW_MEMORY_LOG_TAG, "restart");
                     CommonActivityUtils.restartApp(activity);
@@ -1761,6 +1778,7 @@ public class CommonActivityUtils {
             }
         } else {
             Log.e(LOW_MEMORY_LOG_TAG, "background application : onLowMemory ");
+            MemoryPressureManager.releaseAll();
         }
 
         displayMemoryInformation(activity, "onLowMemory global");
@@ -1774,7 +1792,9 @@ public class CommonActivityUtils {
     public static void onTrimMemory(Activity activity, int level) {
         String activityName = (null!=activity)?activity.getClass().getSimpleName():"NotAvailable";
         Log.e(LOW_MEMORY_LOG_TAG, "Active application : onTrimMemory from "+ activityName+" level=" + level);
-        // TODO implement things to reduce memory usage
+
+        // release a share of the caches according to the level
+        MemoryPressureManager.onTrimMemory(level);
 
         displayMemoryInformation(activity, "onTrimMemory");
     }
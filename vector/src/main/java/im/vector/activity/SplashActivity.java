@@ -17,9 +17,16 @@ package im.vector.activity;
 
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.TextUtils;
+import android.widget.TextView;
+
 import org.matrix.androidsdk.util.Log;
 
 import org.matrix.androidsdk.MXSession;
+import org.matrix.androidsdk.data.store.IMXStore;
+import org.matrix.androidsdk.data.store.MXStoreListener;
 import org.matrix.androidsdk.listeners.IMXEventListener;
 import org.matrix.androidsdk.listeners.MXEventListener;
 import im.vector.ErrorListener;
@@ -29,10 +36,13 @@ import im.vector.VectorApp;
 import im.vector.gcm.GcmRegistrationManager;
 import im.vector.receiver.VectorUniversalLinkReceiver;
 import im.vector.services.EventStreamService;
+import im.vector.util.StartupTrace;
+import im.vector.util.VectorMediasOutbox;
 
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 
 /**
  * SplashActivity displays a splash while loading and inittializing the client.
@@ -49,6 +59,106 @@ public class SplashActivity extends MXCActionBarActivity {
     private HashMap<MXSession, IMXEventListener> mListeners;
     private HashMap<MXSession, IMXEventListener> mDoneListeners;
 
+    // the sessions loading status, by user id
+    private final LinkedHashMap<String, Integer> mSessionsStatus = new LinkedHashMap<>();
+    private TextView mSessionsStatusTextView;
+
+    // true when the home activity has been launched
+    private boolean mIsFinished = false;
+
+    // true when the activity is destroyed while some sessions are still loading
+    private boolean mIsDestroyed = false;
+
+
+    /**
+     * Update the loading status of a session.
+     * This method must be called on the UI thread.
+     * @param session the session
+     * @param statusResId the status string resource id
+     */
+    private void setSessionStatus(MXSession session, int statusResId) {
+        mSessionsStatus.put(session.getCredentials().userId, statusResId);
+
+        if (null != mSessionsStatusTextView) {
+            ArrayList<String> lines = new ArrayList<>();
+
+            for (String userId : mSessionsStatus.keySet()) {
+                lines.add(getString(mSessionsStatus.get(userId), userId));
+            }
+
+            mSessionsStatusTextView.setText(TextUtils.join("\n", lines));
+        }
+    }
+
+    /**
+     * Open the store of a session (it is loaded in background by the store).
+     * The session status is updated when the store is loaded.
+     * @param session the session
+     * @param onStoreLoaded called on the UI thread when the store is loaded or cannot be loaded (can be null)
+     */
+    private void openStore(final MXSession session, final Runnable onStoreLoaded) {
+        final IMXStore store = session.getDataHandler().getStore();
+
+        if (!store.isReady()) {
+            final String storeSection = StartupTrace.SECTION_STORES_OPENING + " " + session.getMyUserId();
+            StartupTrace.beginSection(storeSection);
+
+            store.addMXStoreListener(new MXStoreListener() {
+                @Override
+                public void onStoreReady(String accountId) {
+                    StartupTrace.endSection(storeSection);
+
+                    runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            boolean isSyncing;
+
+                            // the initial sync might be already completed
+                            synchronized(LOG_TAG) {
+                                isSyncing = mListeners.containsKey(session);
+                            }
+
+                            if (isSyncing && !mIsDestroyed) {
+                                setSessionStatus(session, R.string.splash_session_syncing);
+                            }
+
+                            if (null != onStoreLoaded) {
+                                onStoreLoaded.run();
+                            }
+                        }
+                    });
+                }
+
+                @Override
+                public void onStoreCorrupted(String accountId, String description) {
+                    StartupTrace.endSection(storeSection);
+                    onStoreLoadingFailed();
+                }
+
+                @Override
+                public void onStoreOOM(String accountId, String description) {
+                    StartupTrace.endSection(storeSection);
+                    onStoreLoadingFailed();
+                }
+
+                private void onStoreLoadingFailed() {
+                    if (null != onStoreLoaded) {
+                        runOnUiThread(onStoreLoaded);
+                    }
+                }
+            });
+
+            // MXFileStore.open() loads the store in its own thread
+            store.open();
+        } else {
+            store.open();
+
+            if (null != onStoreLoaded) {
+                onStoreLoaded.run();
+            }
+        }
+    }
+
     /**
      * @return true if a store is corrupted.
      */
@@ -65,12 +175,23 @@ public class SplashActivity extends MXCActionBarActivity {
     }
 
     /**
-     * Close the splash screen if the stores are fully loaded.
+     * Close the splash screen when the default session is loaded.
      */
     private void onFinish() {
+        // the default session and the last session might be both initialized
+        if (mIsFinished) {
+            return;
+        }
+
+        mIsFinished = true;
+        StartupTrace.endSection(StartupTrace.SECTION_SPLASH);
+
         Log.e(LOG_TAG, "##onFinish() : start VectorHomeActivity");
 
         if (!hasCorruptedStore()) {
+            // send the medias whose sending was interrupted by a process death
+            VectorMediasOutbox.getInstance(this).resume();
+
             // Go to the home page
             Intent intent = new Intent(SplashActivity.this, VectorHomeActivity.class);
 
@@ -111,6 +232,7 @@ public class SplashActivity extends MXCActionBarActivity {
         super.onCreate(savedInstanceState);
 
         Log.e(LOG_TAG, "onCreate");
+        StartupTrace.beginSection(StartupTrace.SECTION_SPLASH);
 
         setContentView(R.layout.vector_activity_splash);
 
@@ -127,20 +249,33 @@ public class SplashActivity extends MXCActionBarActivity {
 
         ArrayList<String> matrixIds = new ArrayList<>();
 
+        mSessionsStatusTextView = (TextView) findViewById(R.id.splash_sessions_status);
+
+        final MXSession defaultSession = Matrix.getInstance(getApplicationContext()).getDefaultSession();
+
+        // the other stores are opened once the default one is loaded, they do not compete with it for the IO
+        final ArrayList<MXSession> deferredSessions = new ArrayList<>();
+
         for(final MXSession session : mSessions) {
             final MXSession fSession = session;
-            session.getDataHandler().getStore().open();
+            final String initialSyncSection = StartupTrace.SECTION_INITIAL_SYNC + " " + session.getMyUserId();
 
             final IMXEventListener eventListener = new MXEventListener() {
                 @Override
                 public void onInitialSyncComplete() {
                     super.onInitialSyncComplete();
                     boolean noMoreListener;
+                    boolean isDestroyed;
 
                     Log.e(LOG_TAG, "Session " + fSession.getCredentials().userId + " is initialized");
+                    StartupTrace.endSection(initialSyncSection);
 
                     synchronized(LOG_TAG) {
-                        mDoneListeners.put(fSession, mListeners.get(fSession));
+                        isDestroyed = mIsDestroyed;
+
+                        if (!isDestroyed) {
+                            mDoneListeners.put(fSession, mListeners.get(fSession));
+                        }
                         // do not remove the listeners here
                         // it crashes the application because of the upper loop
                         //fSession.getDataHandler().removeListener(mListeners.get(fSession));
@@ -150,14 +285,37 @@ public class SplashActivity extends MXCActionBarActivity {
                         noMoreListener = (mListeners.size() == 0);
                     }
 
-                    if (noMoreListener) {
-                        VectorApp.addSyncingSession(session);
+                    VectorApp.addSyncingSession(fSession);
+
+                    // the splash has been closed before the end of this session loading
+                    if (isDestroyed) {
+                        final IMXEventListener listener = this;
+
+                        // the listener cannot be removed while the listeners are dispatched
+                        new Handler(Looper.getMainLooper()).post(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (fSession.isAlive()) {
+                                    fSession.getDataHandler().removeListener(listener);
+                                    fSession.setFailureCallback(null);
+                                }
+                            }
+                        });
+                        return;
+                    }
+
+                    setSessionStatus(fSession, R.string.splash_session_ready);
+
+                    // the home activity only needs the default session
+                    // the other ones are loaded in background.
+                    if (noMoreListener || (fSession == defaultSession)) {
                         onFinish();
                     }
                 }
             };
 
             if (!fSession.getDataHandler().isInitialSyncComplete()) {
+                StartupTrace.beginSection(initialSyncSection);
                 mListeners.put(fSession, eventListener);
                 fSession.getDataHandler().addListener(eventListener);
 
@@ -166,9 +324,30 @@ public class SplashActivity extends MXCActionBarActivity {
 
                 // session to activate
                 matrixIds.add(session.getCredentials().userId);
+
+                setSessionStatus(fSession, R.string.splash_session_loading);
+            } else {
+                setSessionStatus(fSession, R.string.splash_session_ready);
+            }
+
+            if (null == defaultSession) {
+                openStore(fSession, null);
+            } else if (fSession != defaultSession) {
+                deferredSessions.add(fSession);
             }
         }
 
+        if (null != defaultSession) {
+            openStore(defaultSession, new Runnable() {
+                @Override
+                public void run() {
+                    for (MXSession session : deferredSessions) {
+                        openStore(session, null);
+                    }
+                }
+            });
+        }
+
         // when the events stream has been disconnected by the user
         // they must be awoken even if they are initialized
         if (Matrix.getInstance(this).mHasBeenDisconnected) {
@@ -203,7 +382,7 @@ public class SplashActivity extends MXCActionBarActivity {
         boolean noUpdate;
 
         synchronized(LOG_TAG) {
-            noUpdate = (mListeners.size() == 0);
+            noUpdate = (mListeners.size() == 0) || ((null != defaultSession) && !mListeners.containsKey(defaultSession));
         }
 
         // nothing to do ?
@@ -219,11 +398,24 @@ public class SplashActivity extends MXCActionBarActivity {
     protected void onDestroy() {
         super.onDestroy();
 
-        Collection<MXSession> sessions = mDoneListeners.keySet();
+        if (null == mListeners) {
+            return;
+        }
+
+        HashMap<MXSession, IMXEventListener> listeners;
+
+        // the splash might be closed before the end of the other sessions loading
+        // their listeners are kept until their initial sync is completed (see onInitialSyncComplete)
+        synchronized(LOG_TAG) {
+            mIsDestroyed = true;
+            listeners = new HashMap<>(mDoneListeners);
+        }
+
+        Collection<MXSession> sessions = listeners.keySet();
 
         for(MXSession session : sessions) {
             if (session.isAlive()) {
-                session.getDataHandler().removeListener(mDoneListeners.get(session));
+                session.getDataHandler().removeListener(listeners.get(session));
                 session.setFailureCallback(null);
             }
         }
@@ -40,10 +40,9 @@ import org.matrix.androidsdk.rest.model.Event;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
 
 import im.vector.R;
+import im.vector.util.VectorExecutors;
 
 /**
  * This class defines a base class to manage search in action bar
@@ -56,6 +55,9 @@ public class VectorBaseSearchActivity extends MXCActionBarActivity {
 
     private static final int SPEECH_REQUEST_CODE = 1234;
 
+    // delay before refreshing the results while typing
+    private static final long TYPING_REFRESH_DELAY_MS = 100;
+
     protected ActionBar mActionBar;
     protected EditText mPatternToSearchEditText;
 
@@ -84,11 +86,17 @@ public class VectorBaseSearchActivity extends MXCActionBarActivity {
             public void afterTextChanged(android.text.Editable s) {
                 VectorBaseSearchActivity.this.refreshMenuEntries();
                 final String fPattern = mPatternToSearchEditText.getText().toString();
+                long delayMs = getTypingRefreshDelayMs();
+
+                // the subclass debounces the typing updates itself
+                if (delayMs <= 0) {
+                    onPatternUpdate(true);
+                    return;
+                }
 
-                Timer timer = new Timer();
                 // wait a little delay before refreshing the results.
                 // it avoid UI lags when the user is typing.
-                timer.schedule(new TimerTask() {
+                VectorExecutors.schedule(new Runnable() {
                     @Override
                     public void run() {
                         VectorBaseSearchActivity.this.runOnUiThread(new Runnable() {
@@ -105,7 +113,7 @@ public class VectorBaseSearchActivity extends MXCActionBarActivity {
                             }
                         });
                     }
-                }, 100);
+                }, delayMs);
             }
             public void beforeTextChanged(CharSequence s, int start, int count, int after) {
             }
@@ -150,6 +158,14 @@ public class VectorBaseSearchActivity extends MXCActionBarActivity {
         onPatternUpdate(false);
     }
 
+    /**
+     * Provides the delay before calling {@link #onPatternUpdate(boolean)} while the user is typing.
+     * @return the delay in ms, 0 to call it on each update
+     */
+    protected long getTypingRefreshDelayMs() {
+        return TYPING_REFRESH_DELAY_MS;
+    }
+
     /**
      * The search pattern has been updated.
      * @param isTypingUpdate true when the pattern has been updated while typing.
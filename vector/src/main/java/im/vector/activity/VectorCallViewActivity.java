@@ -53,8 +53,7 @@ import org.matrix.androidsdk.MXSession;
 import org.matrix.androidsdk.call.IMXCall;
 
 import java.util.HashMap;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ScheduledFuture;
 
 import im.vector.Matrix;
 import im.vector.R;
@@ -62,6 +61,7 @@ import im.vector.VectorApp;
 import im.vector.receiver.HeadsetConnectionReceiver;
 import im.vector.services.EventStreamService;
 import im.vector.util.VectorCallSoundManager;
+import im.vector.util.VectorExecutors;
 import im.vector.util.VectorUtils;
 import im.vector.view.VectorPendingCallView;
 
@@ -115,8 +115,7 @@ public class VectorCallViewActivity extends Activity implements SensorEventListe
     private View mButtonsContainerView;
 
     // video screen management
-    private Timer mVideoFadingEdgesTimer;
-    private TimerTask mVideoFadingEdgesTimerTask;
+    private ScheduledFuture<?> mVideoFadingEdgesTimer;
     private static final short FADE_IN_DURATION = 250;
     private static final short FADE_OUT_DURATION = 2000;
     private static final short VIDEO_FADING_TIMER = 5000;
@@ -941,9 +940,8 @@ public class VectorCallViewActivity extends Activity implements SensorEventListe
      */
     private void stopVideoFadingEdgesScreenTimer() {
         if (null != mVideoFadingEdgesTimer) {
-            mVideoFadingEdgesTimer.cancel();
+            mVideoFadingEdgesTimer.cancel(false);
             mVideoFadingEdgesTimer = null;
-            mVideoFadingEdgesTimerTask = null;
         }
     }
 
@@ -959,8 +957,7 @@ public class VectorCallViewActivity extends Activity implements SensorEventListe
         // stop current timer in progress
         stopVideoFadingEdgesScreenTimer();
 
-        mVideoFadingEdgesTimer = new Timer();
-        mVideoFadingEdgesTimerTask = new TimerTask() {
+        mVideoFadingEdgesTimer = VectorExecutors.schedule(new Runnable() {
             public void run() {
                 runOnUiThread(new Runnable() {
                     @Override
@@ -971,9 +968,7 @@ public class VectorCallViewActivity extends Activity implements SensorEventListe
                     }
                 });
             }
-        };
-
-        mVideoFadingEdgesTimer.schedule(mVideoFadingEdgesTimerTask, VIDEO_FADING_TIMER);
+        }, VIDEO_FADING_TIMER);
     }
 
     /**
@@ -39,18 +39,17 @@ import org.matrix.androidsdk.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.widget.ImageView;
+import android.widget.ProgressBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import org.matrix.androidsdk.MXSession;
 import org.matrix.androidsdk.call.IMXCall;
-import org.matrix.androidsdk.data.store.IMXStore;
 import org.matrix.androidsdk.data.MyUser;
 import org.matrix.androidsdk.data.Room;
-import org.matrix.androidsdk.data.RoomSummary;
 import org.matrix.androidsdk.listeners.MXEventListener;
-import org.matrix.androidsdk.rest.callback.ApiCallback;
 import org.matrix.androidsdk.rest.callback.SimpleApiCallback;
 import org.matrix.androidsdk.rest.model.MatrixError;
 
@@ -64,17 +63,18 @@ import im.vector.ga.GAHelper;
 import im.vector.receiver.VectorUniversalLinkReceiver;
 import im.vector.services.EventStreamService;
 import im.vector.util.BugReporter;
+import im.vector.util.MarkAllAsReadJob;
+import im.vector.util.StartupTrace;
 import im.vector.util.VectorCallSoundManager;
+import im.vector.util.VectorExecutors;
 import im.vector.util.VectorUtils;
 import im.vector.view.VectorPendingCallView;
 
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ScheduledFuture;
 
 /**
  * Displays the main screen of the app, with rooms the user has joined and the ability to create
@@ -124,7 +124,7 @@ public class VectorHomeActivity extends AppCompatActivity implements VectorRecen
 
     private View mWaitingView = null;
 
-    private Timer mRoomCreationViewTimer = null;
+    private ScheduledFuture<?> mRoomCreationViewTimer = null;
     private FloatingActionButton mRoomCreationFab;
 
     // the public rooms are displayed when the user overscroll after 0.5s
@@ -146,9 +146,10 @@ public class VectorHomeActivity extends AppCompatActivity implements VectorRecen
     private android.support.v7.widget.Toolbar mToolbar;
     private MXSession mSession;
     private DrawerLayout mDrawerLayout;
-    private Iterator mReadReceiptSessionListIterator;
-    private Iterator mReadReceiptSummaryListIterator;
-    private IMXStore mReadReceiptStore;
+
+    // mark all the rooms as read
+    private MarkAllAsReadJob mMarkAllAsReadJob;
+    private ProgressBar mMarkAllAsReadProgressBar;
 
     // calls
     private VectorPendingCallView mVectorPendingCallView;
@@ -160,40 +161,6 @@ public class VectorHomeActivity extends AppCompatActivity implements VectorRecen
     // manage the previous first displayed item
     private static int mScrollToIndex = -1;
 
-    private final ApiCallback<Void> mSendReceiptCallback = new ApiCallback<Void>() {
-        @Override
-        public void onSuccess(Void info) {
-            Log.d(LOG_TAG, "## onSuccess() - mSendReceiptCallback");
-            stopWaitingView();
-            markAllMessagesAsRead();
-        }
-
-        private void onError() {
-            stopWaitingView();
-            mReadReceiptSessionListIterator = null;
-            mReadReceiptSummaryListIterator = null;
-            mReadReceiptStore = null;
-        }
-
-        @Override
-        public void onNetworkError(Exception e) {
-            Log.d(LOG_TAG, "## onNetworkError() - mSendReceiptCallback: Exception Msg=" + e.getLocalizedMessage());
-            onError();
-        }
-
-        @Override
-        public void onMatrixError(MatrixError e) {
-            Log.d(LOG_TAG, "## onMatrixError() - mSendReceiptCallback: Exception Msg=" + e.getLocalizedMessage());
-            onError();
-        }
-
-        @Override
-        public void onUnexpectedError(Exception e) {
-            Log.d(LOG_TAG, "## onUnexpectedError() - mSendReceiptCallback: Exception Msg=" + e.getLocalizedMessage());
-            onError();
-        }
-    };
-
     // a shared files intent is waiting the store init
     private Intent mSharedFilesIntent = null;
 
@@ -229,9 +196,26 @@ public class VectorHomeActivity extends AppCompatActivity implements VectorRecen
 
         sharedInstance = this;
 
+        // the cold start ends when the rooms list is drawn for the first time
+        if (StartupTrace.isTracing()) {
+            StartupTrace.beginSection(StartupTrace.SECTION_HOME_FIRST_DRAW);
+
+            final View decorView = getWindow().getDecorView();
+            decorView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+                @Override
+                public boolean onPreDraw() {
+                    decorView.getViewTreeObserver().removeOnPreDrawListener(this);
+                    StartupTrace.endSection(StartupTrace.SECTION_HOME_FIRST_DRAW);
+                    StartupTrace.finish();
+                    return true;
+                }
+            });
+        }
+
         mWaitingView = findViewById(R.id.listView_spinner_views);
         mVectorPendingCallView = (VectorPendingCallView) findViewById(R.id.listView_pending_callview);
         mSyncInProgressView =  findViewById(R.id.home_recents_sync_in_progress);
+        mMarkAllAsReadProgressBar = (ProgressBar) findViewById(R.id.home_mark_all_as_read_progress);
 
         mVectorPendingCallView.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -522,7 +506,7 @@ public class VectorHomeActivity extends AppCompatActivity implements VectorRecen
 
         synchronized (this) {
             if (null != mRoomCreationViewTimer) {
-                mRoomCreationViewTimer.cancel();
+                mRoomCreationViewTimer.cancel(false);
                 mRoomCreationViewTimer = null;
             }
         }
@@ -841,56 +825,43 @@ public class VectorHomeActivity extends AppCompatActivity implements VectorRecen
 
     /**
      * Send a read receipt for each room.
-     * Recursive method to serialize read receipts processing.
-     * Sessions and summaries are all parsed through iterators.
-     * This method is based on the call back {@link #mSendReceiptCallback} that
-     * will stop the downloading spinner screen after each read receipt be sent.
-     * See also {@link #sendReadReceipt()}.
+     * The rooms are marked as read locally at once, then the read receipts are sent in background
+     * and their sending progress is displayed.
      */
     private void markAllMessagesAsRead() {
         Log.d(LOG_TAG, "## markAllMessagesAsRead(): IN");
 
-        // sanity check
-        if(null == mReadReceiptSessionListIterator) {
-            ArrayList<MXSession> sessionsList = new ArrayList<>(Matrix.getMXSessions(this));
-            mReadReceiptSessionListIterator = sessionsList.iterator();
+        // the previous request is still in progress
+        if ((null != mMarkAllAsReadJob) && mMarkAllAsReadJob.isRunning()) {
+            Log.d(LOG_TAG, "## markAllMessagesAsRead(): already in progress");
+            return;
         }
 
-        // 1 - init summary iterator
-        if (null == mReadReceiptSummaryListIterator) {
-            if (mReadReceiptSessionListIterator.hasNext()) {
-                MXSession session = (MXSession) mReadReceiptSessionListIterator.next();
-
-                if (null != session) {
-                    // test if the session is still alive i.e the account has not been logged out
-                    if (session.isAlive()) {
-                        mReadReceiptStore = session.getDataHandler().getStore();
-                        ArrayList<RoomSummary> summaries = new ArrayList<>(mReadReceiptStore.getSummaries());
-                        mReadReceiptSummaryListIterator = summaries.iterator();
+        mMarkAllAsReadJob = new MarkAllAsReadJob(Matrix.getMXSessions(this), new MarkAllAsReadJob.MarkAllAsReadListener() {
+            @Override
+            public void onLocalUpdate() {
+                mRecentsListFragment.refresh();
+                CommonActivityUtils.specificUpdateBadgeUnreadCount(mSession, getApplicationContext());
+            }
 
-                        if (mReadReceiptSummaryListIterator.hasNext()) {
-                            sendReadReceipt();
-                        }
+            @Override
+            public void onProgress(int doneCount, int totalCount) {
+                mMarkAllAsReadProgressBar.setProgress(doneCount);
+            }
 
-                    } else {
-                        markAllMessagesAsRead();
-                    }
-                }
-            } else {
-                // no more sessions: session list is empty, reset used fields.
-                Log.d(LOG_TAG, "## markAllMessagesAsRead(): no more sessions - end");
-                mReadReceiptSessionListIterator = null;
-                mReadReceiptSummaryListIterator = null;
-                mRecentsListFragment.refresh();
+            @Override
+            public void onComplete(int sentCount, int failedCount) {
+                Log.d(LOG_TAG, "## markAllMessagesAsRead(): " + sentCount + " read receipts sent, " + failedCount + " failed");
+                mMarkAllAsReadProgressBar.setVisibility(View.GONE);
             }
-            // 2 - loop on next summary
-        } else if (mReadReceiptSummaryListIterator.hasNext()) {
-            sendReadReceipt();
-        } else {
-            //re start processing to loop on he next session
-            Log.d(LOG_TAG, "## markAllMessagesAsRead(): no more summaries");
-            mReadReceiptSummaryListIterator = null;
-            markAllMessagesAsRead();
+        });
+
+        int receiptsCount = mMarkAllAsReadJob.start();
+
+        if (receiptsCount > 0) {
+            mMarkAllAsReadProgressBar.setMax(receiptsCount);
+            mMarkAllAsReadProgressBar.setProgress(0);
+            mMarkAllAsReadProgressBar.setVisibility(View.VISIBLE);
         }
     }
 
@@ -931,32 +902,6 @@ public class VectorHomeActivity extends AppCompatActivity implements VectorRecen
         return isOperationDone;
     }
 
-    /**
-     * Send a read receipt and manage the spinner screen.
-     * If the read receipt is effective the waiting spinner is started,
-     * otherwise {@link #markAllMessagesAsRead()} is resumed to go through
-     * all the summary iterator.
-     */
-    private void sendReadReceipt(){
-        if((null != mReadReceiptSummaryListIterator) && (null != mReadReceiptStore)) {
-            RoomSummary summary = (RoomSummary) mReadReceiptSummaryListIterator.next();
-
-            if (null != summary) {
-                summary.setHighlighted(false);
-                Room room = mReadReceiptStore.getRoom(summary.getRoomId());
-                if (null != room) {
-                    if(room.sendReadReceipt(mSendReceiptCallback)) {
-                        // send receipt has been sent, start the spinner waiting screen
-                        showWaitingView();
-                    } else {
-                        // the read receipt has not been sent, just go to the next iteration
-                        markAllMessagesAsRead();
-                    }
-                }
-            }
-        }
-    }
-
     /**
      * Process the content of the current intent to detect universal link data.
      * If data present, it means that the app was started through an URL link, but due
@@ -1157,19 +1102,17 @@ public class VectorHomeActivity extends AppCompatActivity implements VectorRecen
         }
         synchronized (this) {
             if (null != mRoomCreationViewTimer) {
-                mRoomCreationViewTimer.cancel();
+                mRoomCreationViewTimer.cancel(false);
             }
 
             if (null != mRoomCreationFab) {
                 mRoomCreationFab.hide();
             }
 
-            mRoomCreationViewTimer = new Timer();
-            mRoomCreationViewTimer.schedule(new TimerTask() {
+            mRoomCreationViewTimer = VectorExecutors.schedule(new Runnable() {
                 @Override
                 public void run() {
-                    synchronized (this) {
-                        mRoomCreationViewTimer.cancel();
+                    synchronized (VectorHomeActivity.this) {
                         mRoomCreationViewTimer = null;
                     }
 
@@ -21,7 +21,6 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.pm.ActivityInfo;
-import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
@@ -30,6 +29,7 @@ import android.graphics.ImageFormat;
 import android.graphics.Paint;
 import android.graphics.PorterDuff;
 import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
 import android.graphics.SurfaceTexture;
 import android.graphics.drawable.BitmapDrawable;
 import android.media.CamcorderProfile;
@@ -45,11 +45,12 @@ import android.os.Bundle;
 import im.vector.R;
 import im.vector.VectorApp;
 import im.vector.util.ResourceUtils;
+import im.vector.util.VectorExecutors;
+import im.vector.util.VectorGalleryLoader;
 import im.vector.view.RecentMediaLayout;
 import im.vector.view.VideoRecordView;
 
 import android.hardware.Camera;
-import android.os.HandlerThread;
 import android.preference.PreferenceManager;
 import android.provider.MediaStore;
 import android.support.annotation.NonNull;
@@ -61,6 +62,7 @@ import android.view.Surface;
 import android.view.TextureView;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 import android.widget.ImageView;
 import android.widget.RelativeLayout;
 import android.widget.TableLayout;
@@ -79,10 +81,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 import javax.microedition.khronos.egl.EGL10;
 import javax.microedition.khronos.egl.EGLConfig;
@@ -132,31 +133,15 @@ public class VectorMediasPickerActivity extends MXCActionBarActivity implements
     private static final boolean UI_SHOW_TAKEN_IMAGE = true;
     private static final boolean UI_SHOW_CAMERA_PREVIEW = false;
 
-    /**
-     * define a recent media
-     */
-    private class MediaStoreMedia {
-        // the media file URI
-        public Uri mFileUri;
-
-        // the media creation time
-        public long mCreationTime;
-
-        // the media thumbnail
-        public Bitmap mThumbnail;
-
-        // tell if the media is a video
-        public boolean mIsVideo;
-
-        // mime type
-        public String mMimeType = "";
-    }
-
     // recents medias list
-    private final ArrayList<MediaStoreMedia> mMediaStoreMediasList = new ArrayList<>();
+    private final ArrayList<VectorGalleryLoader.GalleryMedia> mMediaStoreMediasList = new ArrayList<>();
+
+    // the gallery data source
+    private VectorGalleryLoader mGalleryLoader;
+    private boolean mIsGalleryPageLoading;
 
     //
-    private MediaStoreMedia mSelectedGalleryImage;
+    private VectorGalleryLoader.GalleryMedia mSelectedGalleryImage;
 
     // camera object
     private Camera mCamera;
@@ -210,10 +195,9 @@ public class VectorMediasPickerActivity extends MXCActionBarActivity implements
     private int mPreviewTextureheight;
 
     /**
-     * The recent requests are performed in a dedicated thread
+     * The recent requests are performed one by one on the shared IO executor
      */
-    private HandlerThread mHandlerThread;
-    private android.os.Handler mFileHandler;
+    private final Executor mFileExecutor = new VectorExecutors.SerialExecutor(VectorExecutors.getIOExecutor());
 
     private VideoRecordView mRecordAnimationView;
 
@@ -242,6 +226,12 @@ public class VectorMediasPickerActivity extends MXCActionBarActivity implements
 
         // camera preview
         mPreviewScrollView = findViewById(R.id.medias_picker_scrollView);
+        mPreviewScrollView.getViewTreeObserver().addOnScrollChangedListener(new ViewTreeObserver.OnScrollChangedListener() {
+            @Override
+            public void onScrollChanged() {
+                onGalleryScrolled();
+            }
+        });
         mSwitchCameraImageView = findViewById(R.id.medias_picker_switch_camera);
         mCameraTextureView =  (TextureView) findViewById(R.id.medias_picker_texture_view);
         mCameraTextureView.setSurfaceTextureListener(this);
@@ -334,10 +324,7 @@ public class VectorMediasPickerActivity extends MXCActionBarActivity implements
 
         initCameraLayout();
 
-        // setup separate thread for image gallery update
-        mHandlerThread = new HandlerThread("VectorMediasPickerActivityThread");
-        mHandlerThread.start();
-        mFileHandler = new android.os.Handler(mHandlerThread.getLooper());
+        mGalleryLoader = new VectorGalleryLoader(this, mIsVideoRecordingSupported);
 
         if (!restoreInstanceState(savedInstanceState)){
             // default UI: if a taken image is not in preview, then display: live camera preview + "take picture"/switch/exit buttons
@@ -361,9 +348,8 @@ public class VectorMediasPickerActivity extends MXCActionBarActivity implements
     protected void onDestroy() {
         super.onDestroy();
 
-        if (null != mHandlerThread) {
-            mHandlerThread.quit();
-            mHandlerThread = null;
+        if (null != mGalleryLoader) {
+            mGalleryLoader.cancelThumbnails();
         }
     }
 
@@ -1762,172 +1748,12 @@ public class VectorMediasPickerActivity extends MXCActionBarActivity implements
     //==============================================================================================================
 
     /**
-     * Populate mMediaStoreImagesList with the images retrieved from the MediaStore.
-     * Max number of retrieved medias is set to GALLERY_TABLE_ITEM_SIZE.
-     * @return the medias list
-     */
-    private List<MediaStoreMedia> listLatestMedias() {
-        ArrayList<MediaStoreMedia> mediasList = new ArrayList<>();
-
-        // images
-        String[] imagesProjection = {MediaStore.Images.ImageColumns._ID, MediaStore.Images.ImageColumns.DATE_TAKEN, MediaStore.Images.ImageColumns.MIME_TYPE};
-        Cursor imagesThumbnailsCursor = null;
-
-        try {
-            imagesThumbnailsCursor = getContentResolver().query(MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
-                    imagesProjection, // Which columns to return
-                    null,       // Return all image files
-                    null,
-                    MediaStore.Images.ImageColumns.DATE_TAKEN + " DESC LIMIT "+ GALLERY_TABLE_ITEM_SIZE);
-        } catch (Exception e) {
-            Log.e(LOG_TAG, "## listLatestMedias() : " + e.getMessage());
-        }
-
-        if (null != imagesThumbnailsCursor) {
-            int timeIndex = imagesThumbnailsCursor.getColumnIndex(MediaStore.Images.ImageColumns.DATE_TAKEN);
-            int idIndex = imagesThumbnailsCursor.getColumnIndex(MediaStore.Images.ImageColumns._ID);
-            int mimeTypeIndex = imagesThumbnailsCursor.getColumnIndex(MediaStore.Images.ImageColumns.MIME_TYPE);
-
-            if (imagesThumbnailsCursor.moveToFirst()) {
-                do {
-                    try {
-                        MediaStoreMedia recentMedia = new MediaStoreMedia();
-                        recentMedia.mIsVideo = false;
-
-                        String id = imagesThumbnailsCursor.getString(idIndex);
-                        String dateAsString = imagesThumbnailsCursor.getString(timeIndex);
-                        recentMedia.mMimeType = imagesThumbnailsCursor.getString(mimeTypeIndex);
-                        recentMedia.mCreationTime = Long.parseLong(dateAsString);
-
-                        recentMedia.mThumbnail = MediaStore.Images.Thumbnails.getThumbnail(this.getContentResolver(), Long.parseLong(id), MediaStore.Images.Thumbnails.MINI_KIND, null);
-                        recentMedia.mFileUri = Uri.parse(MediaStore.Images.Media.EXTERNAL_CONTENT_URI.toString() + "/" + id);
-
-                        int rotationAngle = ImageUtils.getRotationAngleForBitmap(VectorMediasPickerActivity.this, recentMedia.mFileUri);
-
-                        if (0 != rotationAngle) {
-                            android.graphics.Matrix bitmapMatrix = new android.graphics.Matrix();
-                            bitmapMatrix.postRotate(rotationAngle);
-                            recentMedia.mThumbnail = Bitmap.createBitmap(recentMedia.mThumbnail, 0, 0, recentMedia.mThumbnail.getWidth(), recentMedia.mThumbnail.getHeight(), bitmapMatrix, false);
-                        }
-
-                        mediasList.add(recentMedia);
-                    } catch (Exception e) {
-                        Log.e(LOG_TAG, "## listLatestMedias(): Msg=" + e.getMessage());
-                    }
-                } while (imagesThumbnailsCursor.moveToNext());
-            }
-            imagesThumbnailsCursor.close();
-        }
-
-        if (mIsVideoRecordingSupported) {
-
-            // videos
-            String[] videosProjection = {MediaStore.Video.VideoColumns._ID, MediaStore.Video.VideoColumns.DATE_TAKEN, MediaStore.Video.VideoColumns.MIME_TYPE};
-            Cursor videoThumbnailsCursor = null;
-
-            try {
-                videoThumbnailsCursor = this.getContentResolver().query(MediaStore.Video.Media.EXTERNAL_CONTENT_URI,
-                        videosProjection, // Which columns to return
-                        null,       // Return all image files
-                        null,
-                        MediaStore.Video.VideoColumns.DATE_TAKEN + " DESC LIMIT " + GALLERY_TABLE_ITEM_SIZE);
-            } catch (Exception e) {
-                Log.e(LOG_TAG, "## listLatestMedias(): " + e.getLocalizedMessage());
-            }
-
-            if (null != videoThumbnailsCursor) {
-                int timeIndex = videoThumbnailsCursor.getColumnIndex(MediaStore.Images.ImageColumns.DATE_TAKEN);
-                int idIndex = videoThumbnailsCursor.getColumnIndex(MediaStore.Images.ImageColumns._ID);
-                int mimeTypeIndex = videoThumbnailsCursor.getColumnIndex(MediaStore.Images.ImageColumns.MIME_TYPE);
-
-                if (videoThumbnailsCursor.moveToFirst()) {
-                    do {
-                        try {
-                            MediaStoreMedia recentMedia = new MediaStoreMedia();
-                            recentMedia.mIsVideo = true;
-
-                            String id = videoThumbnailsCursor.getString(idIndex);
-                            String dateAsString = videoThumbnailsCursor.getString(timeIndex);
-                            recentMedia.mMimeType = videoThumbnailsCursor.getString(mimeTypeIndex);
-                            recentMedia.mCreationTime = Long.parseLong(dateAsString);
-
-                            recentMedia.mThumbnail = MediaStore.Video.Thumbnails.getThumbnail(this.getContentResolver(), Long.parseLong(id), MediaStore.Video.Thumbnails.MINI_KIND, null);
-                            recentMedia.mFileUri = Uri.parse(MediaStore.Video.Media.EXTERNAL_CONTENT_URI.toString() + "/" + id);
-
-                            mediasList.add(recentMedia);
-                        } catch (Exception e) {
-                            Log.e(LOG_TAG, "## listLatestMedias(): Msg=" + e.getMessage());
-                        }
-                    } while (videoThumbnailsCursor.moveToNext());
-                }
-                videoThumbnailsCursor.close();
-            }
-
-            Collections.sort(mediasList, new Comparator<MediaStoreMedia>() {
-                @Override
-                public int compare(MediaStoreMedia r1, MediaStoreMedia r2) {
-                    long t1 = r1.mCreationTime;
-                    long t2 = r2.mCreationTime;
-
-                    // sort from the most recent
-                    return -(t1 < t2 ? -1 : (t1 == t2 ? 0 : 1));
-                }
-            });
-        }
-
-        if (mediasList.size() > GALLERY_TABLE_ITEM_SIZE) {
-            Log.d(LOG_TAG, "## listLatestMedias(): Added count=" + GALLERY_TABLE_ITEM_SIZE);
-            return mediasList.subList(0, GALLERY_TABLE_ITEM_SIZE);
-        } else {
-            Log.d(LOG_TAG, "## listLatestMedias(): Added count=" + mediasList.size());
-            return mediasList;
-        }
-    }
-
-    /**
-     * Provides the number of medias which will be displayed in the gallery.
-     * The maximum value is GALLERY_TABLE_ITEM_SIZE.
+     * Provides the number of medias which will be displayed in the gallery
+     * i.e. the loaded medias count.
      * @return the number of displayed medias
      */
     private int getMediaStoreMediasCount(){
-        int retValue = 0;
-        Cursor imageThumbnailsCursor = null;
-
-        try {
-            imageThumbnailsCursor = this.getContentResolver().query(MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
-                    null, // no projection
-                    null,
-                    null,
-                    null);
-        } catch (Exception e) {
-            Log.e(LOG_TAG, "## getMediaStoreImageCount() Exception Msg=" + e.getMessage());
-        }
-
-        if (null != imageThumbnailsCursor) {
-            retValue += imageThumbnailsCursor.getCount();
-            imageThumbnailsCursor.close();
-        }
-
-        if (mIsVideoRecordingSupported) {
-            Cursor videoThumbnailsCursor = null;
-
-            try {
-                videoThumbnailsCursor = this.getContentResolver().query(MediaStore.Video.Media.EXTERNAL_CONTENT_URI,
-                        null, // no projection
-                        null,
-                        null,
-                        null);
-            } catch (Exception e) {
-                Log.e(LOG_TAG, "## getMediaStoreImageCount() Exception Msg=" + e.getMessage());
-            }
-
-            if (null != videoThumbnailsCursor) {
-                retValue += videoThumbnailsCursor.getCount();
-                videoThumbnailsCursor.close();
-            }
-        }
-
-        return Math.min(retValue, GALLERY_TABLE_ITEM_SIZE);
+        return mMediaStoreMediasList.size();
     }
 
     /**
@@ -1950,6 +1776,7 @@ public class VectorMediasPickerActivity extends MXCActionBarActivity implements
 
     /**
      * Populate the gallery view with the image/video contents.
+     * The medias are displayed with placeholders, their thumbnails are loaded when they are displayed.
      */
     private void refreshRecentsMediasList() {
         // start the progress bar and disable the take button
@@ -1958,34 +1785,210 @@ public class VectorMediasPickerActivity extends MXCActionBarActivity implements
         mTakeImageView.setEnabled(false);
         mTakeImageView.setAlpha(CommonActivityUtils.UTILS_OPACITY_HALF);
 
-        mMediaStoreMediasList.clear();
+        mGalleryLoader.cancelThumbnails();
+        mIsGalleryPageLoading = true;
+
+        // keep the loaded pages
+        final int pageSize = Math.max(GALLERY_TABLE_ITEM_SIZE, mMediaStoreMediasList.size());
 
         // run away from the UI thread
-        mFileHandler.post(new Runnable() {
+        mFileExecutor.execute(new Runnable() {
             @Override
             public void run() {
-                // populate the image thumbnails from multimedia store
-                final List<MediaStoreMedia> medias = listLatestMedias();
+                // list the most recent medias (without their thumbnails)
+                mGalleryLoader.reset();
+                mGalleryLoader.countMedias();
+                final List<VectorGalleryLoader.GalleryMedia> medias = mGalleryLoader.loadNextPage(pageSize);
 
                 // update the UI part
                 runOnUiThread(new Runnable() {
                     @Override
                     public void run() {
+                        mIsGalleryPageLoading = false;
+                        mMediaStoreMediasList.clear();
                         mMediaStoreMediasList.addAll(medias);
+                        computePreviewAndGalleryHeight();
                         buildGalleryTableLayout();
                         progressBar.setVisibility(View.GONE);
                         mTakeImageView.setEnabled(true);
                         mTakeImageView.setAlpha(CommonActivityUtils.UTILS_OPACITY_NONE);
+                        postLoadVisibleThumbnails();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Load the next gallery page.
+     */
+    private void loadNextGalleryPage() {
+        if (mIsGalleryPageLoading || !mGalleryLoader.hasMoreMedias()) {
+            return;
+        }
+
+        mIsGalleryPageLoading = true;
+
+        mFileExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<VectorGalleryLoader.GalleryMedia> medias = mGalleryLoader.loadNextPage(GALLERY_TABLE_ITEM_SIZE);
+
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        mIsGalleryPageLoading = false;
+
+                        if (medias.size() > 0) {
+                            mMediaStoreMediasList.addAll(medias);
+                            computePreviewAndGalleryHeight();
+                            appendGalleryTableLayout();
+                            postLoadVisibleThumbnails();
+                        }
                     }
                 });
             }
         });
     }
 
+    /**
+     * The gallery has been scrolled.
+     */
+    private void onGalleryScrolled() {
+        loadVisibleThumbnails();
+
+        View scrollContent = ((ViewGroup) mPreviewScrollView).getChildAt(0);
+
+        // load the next page when the last row is displayed
+        if ((null != scrollContent) && ((scrollContent.getBottom() - (mPreviewScrollView.getScrollY() + mPreviewScrollView.getHeight())) < (mScreenWidth / GALLERY_COLUMN_COUNT))) {
+            loadNextGalleryPage();
+        }
+    }
+
+    /**
+     * Load the thumbnails of the displayed cells once the gallery is laid out.
+     */
+    private void postLoadVisibleThumbnails() {
+        if (null != mGalleryTableLayout) {
+            mGalleryTableLayout.post(new Runnable() {
+                @Override
+                public void run() {
+                    loadVisibleThumbnails();
+                }
+            });
+        }
+    }
+
+    /**
+     * Load the thumbnails of the displayed cells, cancel the other ones and release their bitmaps.
+     * The thumbnails are only kept by the gallery loader cache.
+     */
+    private void loadVisibleThumbnails() {
+        if ((null == mGalleryTableLayout) || (View.VISIBLE != mPreviewScrollView.getVisibility())) {
+            return;
+        }
+
+        Rect visibleRect = new Rect();
+
+        for (int rowIndex = 0; rowIndex < mGalleryTableLayout.getChildCount(); rowIndex++) {
+            View rowView = mGalleryTableLayout.getChildAt(rowIndex);
+
+            // the cells of a row are displayed together
+            boolean isRowVisible = rowView.getLocalVisibleRect(visibleRect);
+
+            if (rowView instanceof ViewGroup) {
+                ViewGroup row = (ViewGroup) rowView;
+
+                for (int cellIndex = 0; cellIndex < row.getChildCount(); cellIndex++) {
+                    View cellView = row.getChildAt(cellIndex);
+                    Object tag = cellView.getTag();
+
+                    if ((cellView instanceof RecentMediaLayout) && (tag instanceof VectorGalleryLoader.GalleryMedia)) {
+                        RecentMediaLayout cell = (RecentMediaLayout) cellView;
+                        VectorGalleryLoader.GalleryMedia media = (VectorGalleryLoader.GalleryMedia) tag;
+
+                        if (isRowVisible) {
+                            if (!cell.hasThumbnail()) {
+                                Bitmap thumbnail = mGalleryLoader.getCachedThumbnail(media);
+
+                                if (null != thumbnail) {
+                                    cell.setThumbnail(thumbnail);
+                                } else if (media.mHasNoThumbnail) {
+                                    cell.setThumbnailByUri(media.mFileUri);
+                                } else {
+                                    mGalleryLoader.loadThumbnail(media, mThumbnailListener);
+                                }
+                            }
+                        } else {
+                            mGalleryLoader.cancelThumbnail(media);
+
+                            if (cell.hasThumbnail()) {
+                                cell.clearThumbnail();
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // display the loaded thumbnails
+    private final VectorGalleryLoader.IThumbnailListener mThumbnailListener = new VectorGalleryLoader.IThumbnailListener() {
+        @Override
+        public void onThumbnailLoaded(VectorGalleryLoader.GalleryMedia media, Bitmap thumbnail) {
+            if (null != mGalleryTableLayout) {
+                View cell = mGalleryTableLayout.findViewWithTag(media);
+
+                if (cell instanceof RecentMediaLayout) {
+                    if (null != thumbnail) {
+                        ((RecentMediaLayout) cell).setThumbnail(thumbnail);
+                    } else {
+                        // the media store has no thumbnail for this media
+                        ((RecentMediaLayout) cell).setThumbnailByUri(media.mFileUri);
+                    }
+                }
+            }
+        }
+    };
+
     /**
      * Build the image gallery widget programmatically.
      */
     private void buildGalleryTableLayout() {
+        if(null != mGalleryTableLayout) {
+            mGalleryTableLayout.removeAllViews();
+            mGalleryTableLayout.setBackgroundColor(Color.WHITE);
+            fillGalleryTableLayout(0);
+        } else {
+            Log.w(LOG_TAG, "## buildGalleryImageTableLayout(): failure - TableLayout widget missing");
+        }
+    }
+
+    /**
+     * Append the loaded medias to the image gallery widget.
+     * Only the last row (the one with the folder icon) is rebuilt, the other ones are kept with their thumbnails.
+     */
+    private void appendGalleryTableLayout() {
+        if (null == mGalleryTableLayout) {
+            Log.w(LOG_TAG, "## appendGalleryTableLayout(): failure - TableLayout widget missing");
+            return;
+        }
+
+        int rowsCount = mGalleryTableLayout.getChildCount();
+
+        if (0 == rowsCount) {
+            buildGalleryTableLayout();
+        } else {
+            mGalleryTableLayout.removeViewAt(rowsCount - 1);
+            fillGalleryTableLayout((rowsCount - 1) * GALLERY_COLUMN_COUNT);
+        }
+    }
+
+    /**
+     * Add the gallery rows from a media index, with an icon folder in the last cell.
+     * @param firstItemIndex the first media index (the first cell of a row)
+     */
+    private void fillGalleryTableLayout(int firstItemIndex) {
         final int CELL_MARGIN = 2;
         TableRow tableRow = null;
         RecentMediaLayout recentMediaView;
@@ -1997,118 +2000,105 @@ public class VectorMediasPickerActivity extends MXCActionBarActivity implements
         TableRow.LayoutParams rawLayoutParams;
         TableLayout.LayoutParams tableLayoutParams = new TableLayout.LayoutParams();
 
-        if(null != mGalleryTableLayout) {
-            mGalleryTableLayout.removeAllViews();
-            mGalleryTableLayout.setBackgroundColor(Color.WHITE);
-
-            DisplayMetrics metrics = new DisplayMetrics();
-            getWindowManager().getDefaultDisplay().getMetrics(metrics);
-            tableLayoutWidth = metrics.widthPixels;
+        DisplayMetrics metrics = new DisplayMetrics();
+        getWindowManager().getDefaultDisplay().getMetrics(metrics);
+        tableLayoutWidth = metrics.widthPixels;
 
-            // raw layout configuration
-            cellWidth = (tableLayoutWidth -(GALLERY_COLUMN_COUNT * CELL_MARGIN)) / GALLERY_COLUMN_COUNT;
-            cellHeight = cellWidth;
+        // raw layout configuration
+        cellWidth = (tableLayoutWidth -(GALLERY_COLUMN_COUNT * CELL_MARGIN)) / GALLERY_COLUMN_COUNT;
+        cellHeight = cellWidth;
 
-            if (0 == tableLayoutWidth) {
-                // fall back
-                scaleType = ImageView.ScaleType.FIT_XY;
-                rawLayoutParams = new TableRow.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT);
-            } else {
-                scaleType = ImageView.ScaleType.FIT_CENTER;
-                rawLayoutParams = new TableRow.LayoutParams(cellWidth, cellHeight);
-            }
-            rawLayoutParams.setMargins(CELL_MARGIN, 0, CELL_MARGIN, 0);
-            tableLayoutParams.setMargins(CELL_MARGIN, CELL_MARGIN, CELL_MARGIN, CELL_MARGIN);
+        if (0 == tableLayoutWidth) {
+            // fall back
+            scaleType = ImageView.ScaleType.FIT_XY;
+            rawLayoutParams = new TableRow.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT);
+        } else {
+            scaleType = ImageView.ScaleType.FIT_CENTER;
+            rawLayoutParams = new TableRow.LayoutParams(cellWidth, cellHeight);
+        }
+        rawLayoutParams.setMargins(CELL_MARGIN, 0, CELL_MARGIN, 0);
+        tableLayoutParams.setMargins(CELL_MARGIN, CELL_MARGIN, CELL_MARGIN, CELL_MARGIN);
 
 
-            MediaStoreMedia recentMedia;
-            // loop to produce full raws filled in, with an icon folder in last cell
-            for(itemIndex=0; itemIndex<mGalleryImageCount; itemIndex++) {
-                try {
-                    recentMedia = mMediaStoreMediasList.get(itemIndex);
-                } catch (IndexOutOfBoundsException e) {
-                    recentMedia = null;
-                }
+        VectorGalleryLoader.GalleryMedia recentMedia;
+        // loop to produce full raws filled in, with an icon folder in last cell
+        for(itemIndex=firstItemIndex; itemIndex<mGalleryImageCount; itemIndex++) {
+            try {
+                recentMedia = mMediaStoreMediasList.get(itemIndex);
+            } catch (IndexOutOfBoundsException e) {
+                recentMedia = null;
+            }
 
-                // detect raw is complete
-                if (0 == (itemIndex % GALLERY_COLUMN_COUNT)) {
-                    if (null != tableRow) {
-                        mGalleryTableLayout.addView(tableRow, tableLayoutParams);
-                    }
-                    tableRow = new TableRow(this);
+            // detect raw is complete
+            if (0 == (itemIndex % GALLERY_COLUMN_COUNT)) {
+                if (null != tableRow) {
+                    mGalleryTableLayout.addView(tableRow, tableLayoutParams);
                 }
+                tableRow = new TableRow(this);
+            }
 
-                // build the content layout for each cell
-                if(null != recentMedia) {
-                    recentMediaView = new RecentMediaLayout(this);
+            // build the content layout for each cell
+            if(null != recentMedia) {
+                recentMediaView = new RecentMediaLayout(this);
 
-                    if (null != recentMedia.mThumbnail) {
-                        recentMediaView.setThumbnail(recentMedia.mThumbnail);
-                    } else {
-                        recentMediaView.setThumbnailByUri(recentMedia.mFileUri);
-                    }
+                // the thumbnail is set when the cell is displayed (see loadVisibleThumbnails)
+                recentMediaView.setTag(recentMedia);
 
-                    recentMediaView.setBackgroundColor(Color.BLACK);
-                    recentMediaView.setThumbnailScaleType(scaleType);
-                    final MediaStoreMedia finalRecentMedia = recentMedia;
+                recentMediaView.setBackgroundColor(Color.BLACK);
+                recentMediaView.setThumbnailScaleType(scaleType);
+                final VectorGalleryLoader.GalleryMedia finalRecentMedia = recentMedia;
 
-                    recentMediaView.setOnClickListener(new View.OnClickListener() {
-                        @Override
-                        public void onClick(View v) {
-                            if (!finalRecentMedia.mIsVideo) {
-                                onClickGalleryImage(finalRecentMedia);
-                            } else {
-                                mVideoUri = finalRecentMedia.mFileUri;
-                                startVideoPreviewVideo(finalRecentMedia.mThumbnail);
-                            }
+                recentMediaView.setOnClickListener(new View.OnClickListener() {
+                    @Override
+                    public void onClick(View v) {
+                        if (!finalRecentMedia.mIsVideo) {
+                            onClickGalleryImage(finalRecentMedia);
+                        } else {
+                            mVideoUri = finalRecentMedia.mFileUri;
+                            startVideoPreviewVideo(mGalleryLoader.getCachedThumbnail(finalRecentMedia));
                         }
-                    });
-
-                    // set image logo: gif, image or video
-                    recentMediaView.setIsVideo(recentMedia.mIsVideo);
-
-                    if (!recentMedia.mIsVideo) {
-                        recentMediaView.enableGifLogoImage(MIME_TYPE_IMAGE_GIF.equals(recentMedia.mMimeType));
-                        recentMediaView.enableMediaTypeLogoImage(!MIME_TYPE_IMAGE_GIF.equals(recentMedia.mMimeType));
                     }
+                });
 
-                    if (null != tableRow) {
-                        tableRow.addView(recentMediaView, rawLayoutParams);
-                    }
+                // set image logo: gif, image or video
+                recentMediaView.setIsVideo(recentMedia.mIsVideo);
+
+                if (!recentMedia.mIsVideo) {
+                    recentMediaView.enableGifLogoImage(MIME_TYPE_IMAGE_GIF.equals(recentMedia.mMimeType));
+                    recentMediaView.enableMediaTypeLogoImage(!MIME_TYPE_IMAGE_GIF.equals(recentMedia.mMimeType));
                 }
-            }
 
-            // add the icon folder in last cell
-            recentMediaView = new RecentMediaLayout(this);
-            recentMediaView.setThumbnailScaleType(scaleType);
-            recentMediaView.setThumbnailByResource(R.drawable.ic_material_folder_green_vector);
-            recentMediaView.setOnClickListener(new View.OnClickListener() {
-                @Override
-                public void onClick(View v) {
-                    openFileExplorer();
+                if (null != tableRow) {
+                    tableRow.addView(recentMediaView, rawLayoutParams);
                 }
-            });
+            }
+        }
 
-            if(0 == itemIndex) {
-                tableRow = new TableRow(this);
+        // add the icon folder in last cell
+        recentMediaView = new RecentMediaLayout(this);
+        recentMediaView.setThumbnailScaleType(scaleType);
+        recentMediaView.setThumbnailByResource(R.drawable.ic_material_folder_green_vector);
+        recentMediaView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                openFileExplorer();
             }
+        });
 
-            if(null != tableRow)
-                tableRow.addView(recentMediaView, rawLayoutParams);
+        if(null == tableRow) {
+            tableRow = new TableRow(this);
+        }
 
-            // do not forget to add last row
-            if (null != tableRow)
-                mGalleryTableLayout.addView(tableRow, tableLayoutParams);
+        tableRow.addView(recentMediaView, rawLayoutParams);
 
-        } else {
-            Log.w(LOG_TAG, "## buildGalleryImageTableLayout(): failure - TableLayout widget missing");
-        }
+        // do not forget to add last row
+        mGalleryTableLayout.addView(tableRow, tableLayoutParams);
     }
 
     /**
      * The user clicked on a gallery image
      */
-    private void onClickGalleryImage(final MediaStoreMedia aMediaItem){
+    private void onClickGalleryImage(final VectorGalleryLoader.GalleryMedia aMediaItem){
         if (null != mCamera) {
             mCamera.stopPreview();
         }
@@ -2116,12 +2106,14 @@ public class VectorMediasPickerActivity extends MXCActionBarActivity implements
         // add the selected image to be returned by the activity
         mSelectedGalleryImage = aMediaItem;
 
+        Bitmap thumbnail = mGalleryLoader.getCachedThumbnail(aMediaItem);
+
         // display the image as preview
-        if ((null != aMediaItem.mThumbnail) && !mIsAvatarMode) {
+        if ((null != thumbnail) && !mIsAvatarMode) {
             updateUiConfiguration(UI_SHOW_TAKEN_IMAGE, IMAGE_ORIGIN_GALLERY);
-            mImagePreviewImageView.setImageBitmap(aMediaItem.mThumbnail);
+            mImagePreviewImageView.setImageBitmap(thumbnail);
             // save bitmap to speed up UI restore (life cycle)
-            VectorApp.setSavedCameraImagePreview(aMediaItem.mThumbnail);
+            VectorApp.setSavedCameraImagePreview(thumbnail);
         } else if (null != aMediaItem.mFileUri) {
             // fall back in case bitmap is not available (unlikely..)
             displayImagePreview(null, null, aMediaItem.mFileUri, IMAGE_ORIGIN_GALLERY);
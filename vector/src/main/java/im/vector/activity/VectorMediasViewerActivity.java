@@ -32,6 +32,7 @@ import com.google.gson.JsonElement;
 import org.matrix.androidsdk.MXSession;
 import org.matrix.androidsdk.db.MXMediasCache;
 import org.matrix.androidsdk.listeners.MXMediaDownloadListener;
+import org.matrix.androidsdk.rest.callback.SimpleApiCallback;
 import org.matrix.androidsdk.rest.model.MatrixError;
 import org.matrix.androidsdk.util.JsonUtils;
 
@@ -178,6 +179,16 @@ public class VectorMediasViewerActivity extends MXCActionBarActivity {
         mAdapter.stopPlayingVideo();
     }
 
+    @Override
+    protected void onDestroy() {
+        // cancel the prefetches
+        if (null != mAdapter) {
+            mAdapter.onDestroy();
+        }
+
+        super.onDestroy();
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         // the application is in a weird state
@@ -203,9 +214,12 @@ public class VectorMediasViewerActivity extends MXCActionBarActivity {
         if (null != file) {
             // download
             if (action == R.id.ic_action_download) {
-                if (null != CommonActivityUtils.saveMediaIntoDownloads(this, file, mediaInfo.mFileName, mediaInfo.mMimeType)) {
-                    Toast.makeText(this, getText(R.string.media_slider_saved), Toast.LENGTH_LONG).show();
-                }
+                CommonActivityUtils.saveMediaIntoDownloads(this, file, mediaInfo.mFileName, mediaInfo.mMimeType, new SimpleApiCallback<String>() {
+                    @Override
+                    public void onSuccess(String savedMediaPath) {
+                        Toast.makeText(VectorMediasViewerActivity.this, getText(R.string.media_slider_saved), Toast.LENGTH_LONG).show();
+                    }
+                });
             } else {
                 // shared
                 Uri mediaUri = null;
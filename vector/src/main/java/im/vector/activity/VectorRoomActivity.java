@@ -86,11 +86,15 @@ import im.vector.ViewedRoomTracker;
 import im.vector.fragments.VectorMessageListFragment;
 import im.vector.services.EventStreamService;
 import im.vector.util.NotificationUtils;
+import im.vector.util.ReadReceiptScheduler;
 import im.vector.util.ResourceUtils;
 import im.vector.util.SharedDataItem;
 import im.vector.util.SlashComandsParser;
+import im.vector.util.TraceLog;
 import im.vector.util.VectorCallSoundManager;
+import im.vector.util.VectorExecutors;
 import im.vector.util.VectorMarkdownParser;
+import im.vector.util.VectorMediasOutbox;
 import im.vector.util.VectorRoomMediasSender;
 import im.vector.util.VectorUtils;
 import im.vector.view.VectorOngoingConferenceCallView;
@@ -100,8 +104,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ScheduledFuture;
 
 /**
  * Displays a single room with messages.
@@ -194,6 +197,9 @@ public class VectorRoomActivity extends MXCActionBarActivity implements MatrixMe
     private Boolean mIsScrolledToTheBottom;
     private Event mLatestDisplayedEvent; // the event at the bottom of the list
 
+    // throttle the read receipts while scrolling
+    private ReadReceiptScheduler mReadReceiptScheduler;
+
     // room preview
     private View mRoomPreviewLayout;
 
@@ -203,6 +209,9 @@ public class VectorRoomActivity extends MXCActionBarActivity implements MatrixMe
     // medias sending helper
     private VectorRoomMediasSender mVectorRoomMediasSender;
 
+    // the medias batch sending progress (null when there is no pending batch)
+    private String mMediasSendingProgress;
+
     // pending call
     private VectorPendingCallView mVectorPendingCallView;
 
@@ -228,8 +237,7 @@ public class VectorRoomActivity extends MXCActionBarActivity implements MatrixMe
     private static String mLatestTakePictureCameraUri = null; // has to be String not Uri because of Serializable
 
     // typing event management
-    private Timer mTypingTimer = null;
-    private TimerTask mTypingTimerTask;
+    private ScheduledFuture<?> mTypingTimer = null;
     private long mLastTypingDate = 0;
 
     // scroll to a dedicated index
@@ -871,6 +879,11 @@ public class VectorRoomActivity extends MXCActionBarActivity implements MatrixMe
             mVectorOngoingConferenceCallView.setCallClickListener(null);
         }
 
+        // the pending medias are sent in background
+        if ((null != mVectorRoomMediasSender) && isFinishing()) {
+            mVectorRoomMediasSender.onDestroy();
+        }
+
         super.onDestroy();
     }
 
@@ -880,6 +893,11 @@ public class VectorRoomActivity extends MXCActionBarActivity implements MatrixMe
         // warn other member that the typing is ended
         cancelTypingNotification();
 
+        // send the read receipt of the latest displayed event
+        if (null != mReadReceiptScheduler) {
+            mReadReceiptScheduler.flush();
+        }
+
         if (null != mRoom) {
             // listen for room name or topic changes
             mRoom.removeEventListener(mRoomEventListener);
@@ -1051,6 +1069,7 @@ public class VectorRoomActivity extends MXCActionBarActivity implements MatrixMe
 
     @Override
     public void onMessageSendingSucceeded(Event event) {
+        VectorMediasOutbox.getInstance(this).onEventSent(event);
         refreshNotificationsArea();
     }
 
@@ -1073,9 +1092,23 @@ public class VectorRoomActivity extends MXCActionBarActivity implements MatrixMe
      */
     private void sendReadReceipt() {
         if ((null != mRoom) && (null == sRoomPreviewData)) {
-            // send the read receipt
-            mRoom.sendReadReceipt(mLatestDisplayedEvent, null);
-            refreshNotificationsArea();
+            if (null == mReadReceiptScheduler) {
+                mReadReceiptScheduler = new ReadReceiptScheduler(mRoom, new ReadReceiptScheduler.ReadReceiptListener() {
+                    @Override
+                    public void onReadReceiptSent(Event event) {
+                        refreshNotificationsArea();
+                    }
+                });
+            }
+
+            if (null != mLatestDisplayedEvent) {
+                mReadReceiptScheduler.onEventDisplayed(mLatestDisplayedEvent);
+            } else {
+                // acknowledge the latest event
+                mReadReceiptScheduler.cancel();
+                mRoom.sendReadReceipt(null, null);
+                refreshNotificationsArea();
+            }
         }
     }
 
@@ -1085,14 +1118,14 @@ public class VectorRoomActivity extends MXCActionBarActivity implements MatrixMe
 
         if ((null != eventAtBottom) && ((null == mLatestDisplayedEvent) || !TextUtils.equals(eventAtBottom.eventId, mLatestDisplayedEvent.eventId))) {
 
-            Log.d(LOG_TAG, "## onScroll firstVisibleItem " + firstVisibleItem + " visibleItemCount " + visibleItemCount + " totalItemCount " + totalItemCount);
+            TraceLog.d(TraceLog.EVENT_ROOM_SCROLL, firstVisibleItem, visibleItemCount, totalItemCount);
             mLatestDisplayedEvent = eventAtBottom;
 
             // don't send receive if the app is in background
             if (!VectorApp.isAppInBackground()) {
                 sendReadReceipt();
             } else {
-                Log.d(LOG_TAG, "## onScroll : the app is in background");
+                TraceLog.d(TraceLog.EVENT_ROOM_SCROLL_IN_BACKGROUND);
             }
         }
     }
@@ -1101,10 +1134,16 @@ public class VectorRoomActivity extends MXCActionBarActivity implements MatrixMe
     public void onLatestEventDisplay(boolean isDisplayed) {
         // not yet initialized or a new value
         if ((null == mIsScrolledToTheBottom) || (isDisplayed != mIsScrolledToTheBottom)) {
-            Log.d(LOG_TAG, "## onLatestEventDisplay : isDisplayed " + isDisplayed);
+            TraceLog.d(TraceLog.EVENT_ROOM_LATEST_EVENT_DISPLAY, isDisplayed ? 1 : 0);
 
             if (isDisplayed && (null != mRoom)) {
                 mLatestDisplayedEvent = mRoom.getDataHandler().getStore().getLatestEvent(mRoom.getRoomId());
+
+                // the scheduled receipt is older
+                if (null != mReadReceiptScheduler) {
+                    mReadReceiptScheduler.cancel();
+                }
+
                 // ensure that the latest message is displayed
                 mRoom.sendReadReceipt(null);
             }
@@ -1526,28 +1565,18 @@ public class VectorRoomActivity extends MXCActionBarActivity implements MatrixMe
 
             if (timerTimeoutInMs > 0) {
 
-                mTypingTimerTask = new TimerTask() {
-                    public void run() {
-                        synchronized (LOG_TAG) {
-                            if (mTypingTimerTask != null){
-                                mTypingTimerTask.cancel();
-                                mTypingTimerTask = null;
-                            }
-
-                            if (mTypingTimer != null) {
-                                mTypingTimer.cancel();
-                                mTypingTimer = null;
-                            }
-                            // Post a new typing notification
-                            VectorRoomActivity.this.handleTypingNotification(0 != mLastTypingDate);
-                        }
-                    }
-                };
-
                 try {
                     synchronized (LOG_TAG) {
-                        mTypingTimer = new Timer();
-                        mTypingTimer.schedule(mTypingTimerTask, TYPING_TIMEOUT_MS);
+                        mTypingTimer = VectorExecutors.schedule(new Runnable() {
+                            public void run() {
+                                synchronized (LOG_TAG) {
+                                    mTypingTimer = null;
+
+                                    // Post a new typing notification
+                                    VectorRoomActivity.this.handleTypingNotification(0 != mLastTypingDate);
+                                }
+                            }
+                        }, TYPING_TIMEOUT_MS);
                     }
                 } catch (Exception e) {
                     Log.e(LOG_TAG, "fails to launch typing timer " + e.getLocalizedMessage());
@@ -1562,13 +1591,8 @@ public class VectorRoomActivity extends MXCActionBarActivity implements MatrixMe
         }
         else {
             // Cancel any typing timer
-            if (mTypingTimerTask != null) {
-                mTypingTimerTask.cancel();
-                mTypingTimerTask = null;
-            }
-
             if (mTypingTimer != null) {
-                mTypingTimer.cancel();
+                mTypingTimer.cancel(false);
                 mTypingTimer = null;
             }
             // Reset last typing date
@@ -1586,13 +1610,8 @@ public class VectorRoomActivity extends MXCActionBarActivity implements MatrixMe
 
             @Override
             public void onNetworkError(Exception e) {
-                if (mTypingTimerTask != null) {
-                    mTypingTimerTask.cancel();
-                    mTypingTimerTask = null;
-                }
-
                 if (mTypingTimer != null) {
-                    mTypingTimer.cancel();
+                    mTypingTimer.cancel(false);
                     mTypingTimer = null;
                 }
                 // do not send again
@@ -1603,12 +1622,8 @@ public class VectorRoomActivity extends MXCActionBarActivity implements MatrixMe
 
     private void cancelTypingNotification() {
         if (0 != mLastTypingDate) {
-            if (mTypingTimerTask != null) {
-                mTypingTimerTask.cancel();
-                mTypingTimerTask = null;
-            }
             if (mTypingTimer != null) {
-                mTypingTimer.cancel();
+                mTypingTimer.cancel(false);
                 mTypingTimer = null;
             }
 
@@ -1635,6 +1650,21 @@ public class VectorRoomActivity extends MXCActionBarActivity implements MatrixMe
         }
     }
 
+    /**
+     * Update the medias batch sending progress.
+     * @param sentCount the number of sent medias.
+     * @param count the number of medias in the batch, 0 when there is no pending batch.
+     * @param percent the batch progress
+     */
+    public void setMediasSendingProgress(int sentCount, int count, int percent) {
+        String progress = (0 == count) ? null : getResources().getString(R.string.room_medias_sending_notification, sentCount, count, percent);
+
+        if (!TextUtils.equals(progress, mMediasSendingProgress)) {
+            mMediasSendingProgress = progress;
+            refreshNotificationsArea();
+        }
+    }
+
     /**
      * Launch the room details activity with a selected tab.
      * @param selectedTab the selected tab index.
@@ -1875,6 +1905,11 @@ public class VectorRoomActivity extends MXCActionBarActivity implements MatrixMe
                         refreshNotificationsArea();
                     }
                 });
+            } else if (null != mMediasSendingProgress) {
+                isAreaVisible = true;
+                iconId = R.drawable.ic_material_file;
+                textColor = R.color.vector_text_gray_color;
+                text = new SpannableString(mMediasSendingProgress);
             } else if ((null != mIsScrolledToTheBottom) && (!mIsScrolledToTheBottom)) {
                 isAreaVisible = true;
 
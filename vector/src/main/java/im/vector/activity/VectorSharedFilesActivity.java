@@ -22,13 +22,9 @@ import android.os.Bundle;
 import org.matrix.androidsdk.util.Log;
 
 import org.matrix.androidsdk.MXSession;
-import org.matrix.androidsdk.util.ContentUtils;
-
-import java.io.File;
-import java.util.ArrayList;
 
 import im.vector.Matrix;
-import im.vector.util.SharedDataItem;
+import im.vector.services.SharedFilesCopyService;
 
 /**
  * Dummy activity used to manage the shared
@@ -36,8 +32,6 @@ import im.vector.util.SharedDataItem;
 public class VectorSharedFilesActivity extends Activity {
     private static final String LOG_TAG = "VectorSharedFilesAct";
 
-    final String SHARED_FOLDER = "VectorShared";
-
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -97,53 +91,22 @@ public class VectorSharedFilesActivity extends Activity {
     }
 
     /**
-     * Extract the medias list, copy them into a tmp directory and provide them to the home activity
+     * Copy the medias in background and provide them to the home activity.
+     * The copy is done by a service because this activity must be finished before being resumed (Theme.NoDisplay).
      * @param intent the intent
      * @param isAppLaunched true if the application is resumed
      */
     private void launchActivity(Intent intent, boolean isAppLaunched) {
-        File sharedFolder = new File(getCacheDir(), SHARED_FOLDER);
-
-        /**
-         * Clear the existing folder to reduce storage memory usage
-         */
-        if (sharedFolder.exists()) {
-            ContentUtils.deleteDirectory(sharedFolder);
-        }
-
-        sharedFolder.mkdir();
-
-        ArrayList<SharedDataItem> cachedFiles = new ArrayList<>(SharedDataItem.listSharedDataItems(intent));
-
-        if (null != cachedFiles) {
-            for(SharedDataItem sharedDataItem : cachedFiles) {
-                sharedDataItem.saveMedia(this, sharedFolder);
-            }
-        }
-
-        Log.d(LOG_TAG, "onCreate : launch home activity with the files list " + cachedFiles.size() + " files");
-
-        Intent activityIntent;
-
-        if (isAppLaunched) {
-            activityIntent = new Intent(this, VectorHomeActivity.class);
-        } else {
-            activityIntent = new Intent(this, SplashActivity.class);
-        }
-
-        activityIntent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP | Intent.FLAG_ACTIVITY_CLEAR_TASK | Intent.FLAG_ACTIVITY_NEW_TASK);
-
-        if (0 != cachedFiles.size()) {
-            Intent shareIntent = new Intent();
-            shareIntent.setAction(Intent.ACTION_SEND_MULTIPLE);
-            shareIntent.putParcelableArrayListExtra(Intent.EXTRA_STREAM, cachedFiles);
-            shareIntent.setExtrasClassLoader(SharedDataItem.class.getClassLoader());
-            shareIntent.setType("*/*");
-
-            // files to share
-            activityIntent.putExtra(VectorHomeActivity.EXTRA_SHARED_INTENT_PARAMS, shareIntent);
+        Intent serviceIntent = new Intent(this, SharedFilesCopyService.class);
+        serviceIntent.putExtra(SharedFilesCopyService.EXTRA_SHARED_INTENT, intent);
+        serviceIntent.putExtra(SharedFilesCopyService.EXTRA_IS_APP_LAUNCHED, isAppLaunched);
+
+        // forward the read permission on the shared uris to the service
+        if (null != intent.getClipData()) {
+            serviceIntent.setClipData(intent.getClipData());
+            serviceIntent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
         }
 
-        startActivity(activityIntent);
+        startService(serviceIntent);
     }
 }
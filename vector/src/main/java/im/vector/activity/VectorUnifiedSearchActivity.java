@@ -29,7 +29,6 @@ import android.view.MenuItem;
 import android.view.View;
 import android.widget.ImageView;
 import android.widget.TextView;
-import android.widget.Toast;
 
 import org.matrix.androidsdk.MXSession;
 import org.matrix.androidsdk.fragments.MatrixMessageListFragment;
@@ -43,6 +42,7 @@ import im.vector.fragments.VectorSearchMessagesListFragment;
 import im.vector.fragments.VectorSearchPeopleListFragment;
 import im.vector.fragments.VectorSearchRoomsFilesListFragment;
 import im.vector.fragments.VectorSearchRoomsListFragment;
+import im.vector.util.VectorSearchCoordinator;
 
 
 /**
@@ -50,7 +50,6 @@ import im.vector.fragments.VectorSearchRoomsListFragment;
  */
 public class VectorUnifiedSearchActivity extends VectorBaseSearchActivity implements TabListener, VectorBaseSearchActivity.IVectorSearchActivity  {
     private static final String LOG_TAG = "VectorUniSrchActivity";
-    private static final CharSequence NOT_IMPLEMENTED = "Not yet implemented";
 
     public static final String EXTRA_ROOM_ID = "VectorUnifiedSearchActivity.EXTRA_ROOM_ID";
 
@@ -77,6 +76,10 @@ public class VectorUnifiedSearchActivity extends VectorBaseSearchActivity implem
     private VectorSearchPeopleListFragment mSearchInPeopleFragment;
     private MXSession mSession;
 
+    // dispatch the searched pattern to the tabs
+    // the tab indexes are used as provider ids.
+    private VectorSearchCoordinator mSearchCoordinator;
+
     // UI items
     private ImageView mBackgroundImageView;
     private TextView mNoResultsTxtView;
@@ -120,6 +123,8 @@ public class VectorUnifiedSearchActivity extends VectorBaseSearchActivity implem
             mRoomId = getIntent().getStringExtra(EXTRA_ROOM_ID);
         }
 
+        createSearchCoordinator();
+
         // tab creation and restore tabs UI context
         createNavigationTabs(savedInstanceState);
     }
@@ -129,15 +134,40 @@ public class VectorUnifiedSearchActivity extends VectorBaseSearchActivity implem
         super.onDestroy();
     }
 
+    @Override
+    protected void onPause() {
+        super.onPause();
+
+        if (null != mSearchCoordinator) {
+            mSearchCoordinator.cancelAll();
+            mSearchCoordinator.logStats();
+        }
+    }
+
+    @Override
+    protected long getTypingRefreshDelayMs() {
+        // the search coordinator debounces the typing updates
+        return 0;
+    }
+
     @Override
     protected void onPatternUpdate(boolean isTypingUpdate) {
+        if (null == mSearchCoordinator) {
+            return;
+        }
+
+        String pattern = mPatternToSearchEditText.getText().toString().trim();
+
         // the messages searches are not done locally.
         // so, such searches can only be done if the user taps on the search button.
-        if (isTypingUpdate && ((mCurrentTabIndex == mSearchInMessagesTabIndex) || (mCurrentTabIndex == mSearchInFilesTabIndex))) {
-            return;
+        if (!isTypingUpdate || !isRemoteSearchTab(mCurrentTabIndex)) {
+            // the background image view should only be displayed when there is no pattern,
+            // the rooms searches has a result : the public rooms list.
+            resetUi(TextUtils.isEmpty(pattern) && (mCurrentTabIndex != mSearchInRoomNamesTabIndex));
         }
 
-        searchAccordingToTabHandler();
+        // dispatch the pattern to each tab
+        mSearchCoordinator.setPattern(pattern, isTypingUpdate);
     }
 
     @Override
@@ -197,6 +227,15 @@ public class VectorUnifiedSearchActivity extends VectorBaseSearchActivity implem
         }
     }
 
+    /**
+     * Tells if the search of a tab is performed on server side.
+     * @param tabIndex the tab index
+     * @return true if the search is a remote one
+     */
+    private boolean isRemoteSearchTab(int tabIndex) {
+        return (tabIndex == mSearchInMessagesTabIndex) || (tabIndex == mSearchInFilesTabIndex);
+    }
+
     /**
      * Trigger a search into the selected tab.
      */
@@ -209,79 +248,98 @@ public class VectorUnifiedSearchActivity extends VectorBaseSearchActivity implem
         // the rooms searches has a result : the public rooms list.
         resetUi(TextUtils.isEmpty(pattern) && (currentIndex != mSearchInRoomNamesTabIndex));
 
-        if ((currentIndex == mSearchInRoomNamesTabIndex) && (null != mSearchInRoomNamesFragment)) {
-            // display a spinner if the public rooms list are not yet initialized
-            // else the search should be quite fast because it is only performed on the known rooms list/
-            if (PublicRoomsManager.isRequestInProgress()) {
-                mWaitWhileSearchInProgressView.setVisibility(View.VISIBLE);
-            }
-
-            mSearchInRoomNamesFragment.searchPattern(pattern, new MatrixMessageListFragment.OnSearchResultListener() {
-                @Override
-                public void onSearchSucceed(int nbrMessages) {
-                    onSearchEnd(mSearchInRoomNamesTabIndex, nbrMessages);
-                }
-
-                @Override
-                public void onSearchFailed() {
-                    onSearchEnd(mSearchInRoomNamesTabIndex, 0);
-                }
-            });
+        if (!TextUtils.equals(mSearchCoordinator.getPattern(), pattern)) {
+            // the pattern has been updated : refresh all the tabs
+            mSearchCoordinator.setPattern(pattern, false);
+        } else {
+            // use the cached result if the tab is already up-to-date
+            mSearchCoordinator.refresh(currentIndex);
         }
-        else if ((currentIndex == mSearchInMessagesTabIndex) && (null != mSearchInMessagesFragment)) {
-            // display the "wait while searching" screen (progress bar)
+
+        // the local contacts are not yet retrieved
+        if ((currentIndex == mSearchInPeopleTabIndex) && (null != mSearchInPeopleFragment) && (null != mSearchInPeopleFragment.getView()) && !mSearchInPeopleFragment.isReady()) {
             mWaitWhileSearchInProgressView.setVisibility(View.VISIBLE);
+        }
+    }
 
-            mSearchInMessagesFragment.searchPattern(pattern, new MatrixMessageListFragment.OnSearchResultListener() {
-                @Override
-                public void onSearchSucceed(int nbrMessages) {
-                    onSearchEnd(mSearchInMessagesTabIndex, nbrMessages);
+    /**
+     * Create the search coordinator which dispatches the pattern to the tabs.
+     */
+    private void createSearchCoordinator() {
+        mSearchCoordinator = new VectorSearchCoordinator(new VectorSearchCoordinator.ISearchCoordinatorListener() {
+            @Override
+            public void onSearchStarted(int tabIndex, String pattern) {
+                if (mCurrentTabIndex != tabIndex) {
+                    return;
                 }
 
-                @Override
-                public void onSearchFailed() {
-                    onSearchEnd(mSearchInMessagesTabIndex, 0);
+                // display a spinner if the public rooms list are not yet initialized
+                // else the search should be quite fast because it is only performed on the known rooms list/
+                if ((tabIndex != mSearchInRoomNamesTabIndex) || PublicRoomsManager.isRequestInProgress()) {
+                    // display the "wait while searching" screen (progress bar)
+                    mWaitWhileSearchInProgressView.setVisibility(View.VISIBLE);
                 }
-            });
-        }
-        else if ((currentIndex == mSearchInFilesTabIndex) && (null != mSearchInFilesFragment)) {
-            // display the "wait while searching" screen (progress bar)
-            mWaitWhileSearchInProgressView.setVisibility(View.VISIBLE);
+            }
 
-            mSearchInFilesFragment.searchPattern(pattern, new MatrixMessageListFragment.OnSearchResultListener() {
-                @Override
-                public void onSearchSucceed(int nbrMessages) {
-                    onSearchEnd(mSearchInFilesTabIndex, nbrMessages);
-                }
+            @Override
+            public void onSearchEnd(int tabIndex, String pattern, int count, boolean fromCache) {
+                VectorUnifiedSearchActivity.this.onSearchEnd(tabIndex, count);
+            }
+        });
+    }
 
-                @Override
-                public void onSearchFailed() {
-                    onSearchEnd(mSearchInFilesTabIndex, 0);
-                }
-            });
-        }
-        else if ((currentIndex == mSearchInPeopleTabIndex) && (null != mSearchInPeopleFragment)) {
+    /**
+     * Register a search fragment to the search coordinator.
+     * @param tabIndex the tab index
+     * @param fragment the fragment
+     */
+    private void addSearchProvider(final int tabIndex, final Fragment fragment) {
+        mSearchCoordinator.addProvider(tabIndex, new VectorSearchCoordinator.ISearchProvider() {
+            @Override
+            public boolean isRemote() {
+                return isRemoteSearchTab(tabIndex);
+            }
+
+            @Override
+            public boolean isReady() {
+                // the fragments cannot search until their views are created
+                return (null != fragment.getView()) && ((fragment != mSearchInPeopleFragment) || mSearchInPeopleFragment.isReady());
+            }
 
-            if (!mSearchInPeopleFragment.isReady()) {
-                mWaitWhileSearchInProgressView.setVisibility(View.VISIBLE);
+            @Override
+            public void search(String pattern, MatrixMessageListFragment.OnSearchResultListener listener) {
+                if (fragment == mSearchInRoomNamesFragment) {
+                    mSearchInRoomNamesFragment.searchPattern(pattern, listener);
+                } else if (fragment == mSearchInPeopleFragment) {
+                    mSearchInPeopleFragment.searchPattern(pattern, listener);
+                } else {
+                    // messages and files
+                    ((VectorSearchMessagesListFragment) fragment).searchPattern(pattern, listener);
+                }
             }
 
-            mSearchInPeopleFragment.searchPattern(pattern, new MatrixMessageListFragment.OnSearchResultListener() {
-                @Override
-                public void onSearchSucceed(int nbrMessages) {
-                    onSearchEnd(mSearchInPeopleTabIndex, nbrMessages);
+            @Override
+            public void cancel() {
+                if (fragment instanceof VectorSearchMessagesListFragment) {
+                    ((VectorSearchMessagesListFragment) fragment).cancelSearchPattern();
                 }
+            }
 
-                @Override
-                public void onSearchFailed() {
-                    onSearchEnd(mSearchInPeopleTabIndex, 0);
+            @Override
+            public Object getResultsSnapshot() {
+                // the rooms and the people searches are local ones
+                if (fragment instanceof VectorSearchMessagesListFragment) {
+                    return ((VectorSearchMessagesListFragment) fragment).getSearchResults();
                 }
-            });
-        }
-        else {
-            onSearchEnd(currentIndex, 0);
-            Toast.makeText(VectorUnifiedSearchActivity.this, NOT_IMPLEMENTED, Toast.LENGTH_SHORT).show();
-        }
+                return null;
+            }
+
+            @Override
+            public boolean restoreResults(String pattern, Object snapshot) {
+                return (fragment instanceof VectorSearchMessagesListFragment) && (snapshot instanceof VectorSearchMessagesListFragment.SearchResults) &&
+                        ((VectorSearchMessagesListFragment) fragment).restoreSearchResults(pattern, (VectorSearchMessagesListFragment.SearchResults) snapshot);
+            }
+        });
     }
 
     //==============================================================================================================
@@ -369,13 +427,19 @@ public class VectorUnifiedSearchActivity extends VectorBaseSearchActivity implem
         // attach / replace a fragment by tag
         String tabTag = (String)tab.getTag();
         Fragment fragment = null;
-        boolean replace = false;
+        boolean add = false;
 
         // search a room by name
         if (TextUtils.equals(tabTag, TAG_FRAGMENT_SEARCH_IN_ROOM_NAMES)) {
             if (null == mSearchInRoomNamesFragment) {
-                replace = true;
-                mSearchInRoomNamesFragment = VectorSearchRoomsListFragment.newInstance(mSession.getMyUserId(), R.layout.fragment_vector_recents_list);
+                // the fragment might have been restored by the fragment manager
+                mSearchInRoomNamesFragment = (VectorSearchRoomsListFragment) getSupportFragmentManager().findFragmentByTag(tabTag);
+
+                if (null == mSearchInRoomNamesFragment) {
+                    add = true;
+                    mSearchInRoomNamesFragment = VectorSearchRoomsListFragment.newInstance(mSession.getMyUserId(), R.layout.fragment_vector_recents_list);
+                }
+                addSearchProvider(mSearchInRoomNamesTabIndex, mSearchInRoomNamesFragment);
             }
             fragment = mSearchInRoomNamesFragment;
             mCurrentTabIndex = mSearchInRoomNamesTabIndex;
@@ -384,8 +448,14 @@ public class VectorUnifiedSearchActivity extends VectorBaseSearchActivity implem
         // search a message by its body
         else if (TextUtils.equals((String)tab.getTag(), TAG_FRAGMENT_SEARCH_IN_MESSAGE)) {
             if (null == mSearchInMessagesFragment) {
-                replace = true;
-                mSearchInMessagesFragment = VectorSearchMessagesListFragment.newInstance(mSession.getMyUserId(), mRoomId, org.matrix.androidsdk.R.layout.fragment_matrix_message_list_fragment);
+                // the fragment might have been restored by the fragment manager
+                mSearchInMessagesFragment = (VectorSearchMessagesListFragment) getSupportFragmentManager().findFragmentByTag(tabTag);
+
+                if (null == mSearchInMessagesFragment) {
+                    add = true;
+                    mSearchInMessagesFragment = VectorSearchMessagesListFragment.newInstance(mSession.getMyUserId(), mRoomId, org.matrix.androidsdk.R.layout.fragment_matrix_message_list_fragment);
+                }
+                addSearchProvider(mSearchInMessagesTabIndex, mSearchInMessagesFragment);
             }
             fragment = mSearchInMessagesFragment;
             mCurrentTabIndex = mSearchInMessagesTabIndex;
@@ -393,8 +463,14 @@ public class VectorUnifiedSearchActivity extends VectorBaseSearchActivity implem
         // search a file by name
         else if (TextUtils.equals((String)tab.getTag(), TAG_FRAGMENT_SEARCH_IN_FILES)) {
             if (null == mSearchInFilesFragment) {
-                replace = true;
-                mSearchInFilesFragment = VectorSearchRoomsFilesListFragment.newInstance(mSession.getMyUserId(), mRoomId, org.matrix.androidsdk.R.layout.fragment_matrix_message_list_fragment);
+                // the fragment might have been restored by the fragment manager
+                mSearchInFilesFragment = (VectorSearchRoomsFilesListFragment) getSupportFragmentManager().findFragmentByTag(tabTag);
+
+                if (null == mSearchInFilesFragment) {
+                    add = true;
+                    mSearchInFilesFragment = VectorSearchRoomsFilesListFragment.newInstance(mSession.getMyUserId(), mRoomId, org.matrix.androidsdk.R.layout.fragment_matrix_message_list_fragment);
+                }
+                addSearchProvider(mSearchInFilesTabIndex, mSearchInFilesFragment);
             }
             fragment = mSearchInFilesFragment;
             mCurrentTabIndex = mSearchInFilesTabIndex;
@@ -402,8 +478,14 @@ public class VectorUnifiedSearchActivity extends VectorBaseSearchActivity implem
         // search an user by name
         else if (TextUtils.equals((String)tab.getTag(), TAG_FRAGMENT_SEARCH_PEOPLE)) {
             if (null == mSearchInPeopleFragment) {
-                replace = true;
-                mSearchInPeopleFragment = VectorSearchPeopleListFragment.newInstance(mSession.getMyUserId(), R.layout.fragment_vector_search_people_list);
+                // the fragment might have been restored by the fragment manager
+                mSearchInPeopleFragment = (VectorSearchPeopleListFragment) getSupportFragmentManager().findFragmentByTag(tabTag);
+
+                if (null == mSearchInPeopleFragment) {
+                    add = true;
+                    mSearchInPeopleFragment = VectorSearchPeopleListFragment.newInstance(mSession.getMyUserId(), R.layout.fragment_vector_search_people_list);
+                }
+                addSearchProvider(mSearchInPeopleTabIndex, mSearchInPeopleFragment);
             }
             fragment = mSearchInPeopleFragment;
             mCurrentTabIndex = mSearchInPeopleTabIndex;
@@ -412,17 +494,20 @@ public class VectorUnifiedSearchActivity extends VectorBaseSearchActivity implem
             CommonActivityUtils.checkPermissions(CommonActivityUtils.REQUEST_CODE_PERMISSION_MEMBERS_SEARCH, this);
         }
 
-        if (replace) {
-            ft.replace(R.id.search_fragment_container, fragment, tabTag);
+        // the fragments are hidden instead of being detached
+        // to let them search in background.
+        if (add) {
+            ft.add(R.id.search_fragment_container, fragment, tabTag);
         } else {
-            ft.attach(fragment);
+            ft.show(fragment);
         }
 
-        /*if (-1 != mCurrentTabIndex) {
-            searchAccordingToTabHandler();
-        }*/
-
         resetUi(true);
+
+        // the new fragments are refreshed when they are resumed
+        if (!add) {
+            searchAccordingToTabHandler();
+        }
     }
 
     @Override
@@ -430,27 +515,24 @@ public class VectorUnifiedSearchActivity extends VectorBaseSearchActivity implem
         String tabTag = (String) tab.getTag();
         Log.d(LOG_TAG, "## onTabUnselected() FragTag=" + tabTag);
 
+        Fragment fragment = null;
+
         if (TextUtils.equals(tabTag, TAG_FRAGMENT_SEARCH_IN_MESSAGE)) {
-            if (null != mSearchInMessagesFragment) {
-                mSearchInMessagesFragment.cancelCatchingRequests();
-                ft.detach(mSearchInMessagesFragment);
-            }
+            fragment = mSearchInMessagesFragment;
         }
         else if (TextUtils.equals(tabTag, TAG_FRAGMENT_SEARCH_IN_ROOM_NAMES)) {
-            if (null != mSearchInRoomNamesFragment) {
-                ft.detach(mSearchInRoomNamesFragment);
-            }
+            fragment = mSearchInRoomNamesFragment;
         }
         else if (TextUtils.equals(tabTag, TAG_FRAGMENT_SEARCH_IN_FILES)) {
-            if (null != mSearchInFilesFragment) {
-                mSearchInFilesFragment.cancelCatchingRequests();
-                ft.detach(mSearchInFilesFragment);
-            }
+            fragment = mSearchInFilesFragment;
         }
         else if (TextUtils.equals(tabTag, TAG_FRAGMENT_SEARCH_PEOPLE)) {
-            if (null != mSearchInPeopleFragment) {
-                ft.detach(mSearchInPeopleFragment);
-            }
+            fragment = mSearchInPeopleFragment;
+        }
+
+        // the pending search is not cancelled : its result is displayed when the tab is selected again.
+        if (null != fragment) {
+            ft.hide(fragment);
         }
     }
 
@@ -467,6 +549,7 @@ public class VectorUnifiedSearchActivity extends VectorBaseSearchActivity implem
                 Log.d(LOG_TAG, "## onRequestPermissionsResult(): READ_CONTACTS permission granted");
 				// trigger a contacts book refresh
                 ContactsManager.refreshLocalContactsSnapshot(this.getApplicationContext());
+                mSearchCoordinator.invalidate(mSearchInPeopleTabIndex);
                 searchAccordingToTabHandler();
             } else {
                 Log.d(LOG_TAG, "## onRequestPermissionsResult(): READ_CONTACTS permission not granted");
@@ -501,6 +584,11 @@ public class VectorUnifiedSearchActivity extends VectorBaseSearchActivity implem
     //==============================================================================================================
 
     public void refreshSearch() {
+        // the people search is refreshed when the contacts are updated
+        if (mCurrentTabIndex == mSearchInPeopleTabIndex) {
+            mSearchCoordinator.invalidate(mSearchInPeopleTabIndex);
+        }
+
         searchAccordingToTabHandler();
     }
 }
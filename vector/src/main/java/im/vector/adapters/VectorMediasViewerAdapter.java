@@ -27,8 +27,11 @@ import android.graphics.Point;
 import android.media.MediaPlayer;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v4.view.PagerAdapter;
 import android.text.TextUtils;
+import android.util.LruCache;
 import org.matrix.androidsdk.util.Log;
 import android.view.Display;
 import android.view.LayoutInflater;
@@ -37,6 +40,7 @@ import android.view.ViewGroup;
 import android.view.WindowManager;
 import android.webkit.MimeTypeMap;
 import android.webkit.WebView;
+import android.webkit.WebViewClient;
 import android.widget.ImageView;
 import android.widget.Toast;
 import android.widget.VideoView;
@@ -45,6 +49,7 @@ import com.google.gson.JsonElement;
 
 import org.matrix.androidsdk.MXSession;
 import org.matrix.androidsdk.listeners.MXMediaDownloadListener;
+import org.matrix.androidsdk.rest.callback.SimpleApiCallback;
 import org.matrix.androidsdk.rest.model.MatrixError;
 import org.matrix.androidsdk.rest.model.Message;
 import org.matrix.androidsdk.util.ImageUtils;
@@ -55,13 +60,19 @@ import im.vector.R;
 import org.matrix.androidsdk.db.MXMediasCache;
 
 import im.vector.activity.CommonActivityUtils;
+import im.vector.util.ImageResizer;
+import im.vector.util.MemoryPressureManager;
 import im.vector.util.SlidableMediaInfo;
+import im.vector.util.VectorExecutors;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * An images slider
@@ -79,7 +90,39 @@ public class VectorMediasViewerAdapter extends PagerAdapter {
     private int mLatestPrimaryItemPosition = -1;
     private View mLatestPrimaryView = null;
     private MXMediasCache mMediasCache;
-    private ArrayList<Integer> mHighResMediaIndex = new ArrayList<>();
+    // positions of the pages which display the high res media
+    private final Set<Integer> mHighResMediaIndex = new HashSet<>();
+
+    // number of items downloaded before and after the displayed one
+    private static final int PREFETCH_DISTANCE = 2;
+    // number of items decoded before and after the displayed one (the other prefetched ones stay on disk)
+    private static final int DECODE_DISTANCE = 1;
+    // max number of simultaneous prefetch downloads
+    private static final int MAX_PREFETCH_DOWNLOADS = 2;
+    // number of full screen bitmaps kept in memory : the displayed one and the decoded neighbours
+    private static final int DECODED_BITMAPS_COUNT = 2 * DECODE_DISTANCE + 1;
+
+    // positions to prefetch, sorted by priority
+    private final List<Integer> mPrefetchQueue = new ArrayList<>();
+    // prefetch downloads in progress : position -> download id
+    private final HashMap<Integer, String> mPrefetchDownloads = new HashMap<>();
+    // the last swipe direction (1 : next, -1 : previous)
+    private int mSwipeDirection = 1;
+
+    // decoded full screen bitmaps : media url -> bitmap
+    private final LruCache<String, Bitmap> mDecodedBitmapsCache;
+    // release the decoded bitmaps on memory pressure
+    private final MemoryPressureManager.TrimmableCache mTrimmableDecodedBitmapsCache = new MemoryPressureManager.TrimmableCache() {
+        @Override
+        public void trim(float ratio) {
+            mDecodedBitmapsCache.trimToSize((int) (mDecodedBitmapsCache.size() * (1 - ratio)));
+        }
+    };
+    // media urls being decoded
+    private final Set<String> mDecodingUrls = new HashSet<>();
+
+    private boolean mIsDestroyed = false;
+    private final Handler mUIHandler = new Handler(Looper.getMainLooper());
     // current playing video
     private VideoView mPlayingVideoView = null;
     private MXSession mSession;
@@ -94,6 +137,34 @@ public class VectorMediasViewerAdapter extends PagerAdapter {
         this.mMaxImageHeight = maxImageHeight;
         this.mLayoutInflater = LayoutInflater.from(context);
         this.mMediasCache = mediasCache;
+
+        // the cache is sized to keep some full screen ARGB_8888 bitmaps
+        long maxBytes = Math.min((long) DECODED_BITMAPS_COUNT * Math.max(maxImageWidth, 1) * Math.max(maxImageHeight, 1) * 4, Runtime.getRuntime().maxMemory() / 8);
+
+        mDecodedBitmapsCache = new LruCache<String, Bitmap>((int) Math.max(maxBytes, 1)) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getRowBytes() * bitmap.getHeight();
+            }
+        };
+
+        MemoryPressureManager.register("medias viewer bitmaps", MemoryPressureManager.PRIORITY_MEDIUM, mTrimmableDecodedBitmapsCache);
+    }
+
+    /**
+     * Cancel the prefetch downloads and release the decoded bitmaps.
+     * It must be called when the viewer is destroyed.
+     */
+    public void onDestroy() {
+        mIsDestroyed = true;
+        mPrefetchQueue.clear();
+
+        for (String downloadId : mPrefetchDownloads.values()) {
+            mMediasCache.cancelDownload(downloadId);
+        }
+        mPrefetchDownloads.clear();
+        MemoryPressureManager.unregister(mTrimmableDecodedBitmapsCache);
+        mDecodedBitmapsCache.evictAll();
     }
 
     @Override
@@ -104,6 +175,9 @@ public class VectorMediasViewerAdapter extends PagerAdapter {
     @Override
     public void setPrimaryItem(ViewGroup container, final int position, Object object) {
         if (mLatestPrimaryItemPosition != position) {
+            if (mLatestPrimaryItemPosition >= 0) {
+                mSwipeDirection = (position > mLatestPrimaryItemPosition) ? 1 : -1;
+            }
             mLatestPrimaryItemPosition = position;
 
             final View view = (View)object;
@@ -119,7 +193,7 @@ public class VectorMediasViewerAdapter extends PagerAdapter {
             view.post(new Runnable() {
                 @Override
                 public void run() {
-                    if (mHighResMediaIndex.indexOf(position) < 0) {
+                    if (!mHighResMediaIndex.contains(position)) {
                         downloadHighResMedia(view, position);
                     } else if (position == mAutoPlayItemAt) {
                         SlidableMediaInfo mediaInfo = mMediasMessagesList.get(position);
@@ -131,11 +205,232 @@ public class VectorMediasViewerAdapter extends PagerAdapter {
 
                         mAutoPlayItemAt = -1;
                     }
+
+                    refreshPrefetchQueue(position);
                 }
             });
         }
     }
 
+    /**
+     * Tells if the high res media is in the medias cache.
+     * @param mediaInfo the media
+     * @return true if the media is cached
+     */
+    private boolean isHighResMediaCached(SlidableMediaInfo mediaInfo) {
+        String mimeType = TextUtils.isEmpty(mediaInfo.mMimeType) ? "image/jpeg" : mediaInfo.mMimeType;
+        return null != mMediasCache.mediaCacheFile(mediaInfo.mMediaUrl, mimeType);
+    }
+
+    /**
+     * Rebuild the prefetch queue around the displayed item.
+     * The nearest items are prefetched first, the swipe direction is preferred for the same distance.
+     * The prefetch downloads of the items which are out of the window are cancelled.
+     * @param position the displayed item position
+     */
+    private void refreshPrefetchQueue(int position) {
+        if (mIsDestroyed) {
+            return;
+        }
+
+        mPrefetchQueue.clear();
+
+        for (int distance = 1; distance <= PREFETCH_DISTANCE; distance++) {
+            int[] candidates = {position + distance * mSwipeDirection, position - distance * mSwipeDirection};
+
+            for (int candidate : candidates) {
+                if ((candidate >= 0) && (candidate < mMediasMessagesList.size()) && !mPrefetchDownloads.containsKey(candidate)) {
+                    SlidableMediaInfo mediaInfo = mMediasMessagesList.get(candidate);
+
+                    // the videos are only downloaded on demand
+                    if (Message.MSGTYPE_IMAGE.equals(mediaInfo.mMessageType)) {
+                        if (isHighResMediaCached(mediaInfo)) {
+                            if (distance <= DECODE_DISTANCE) {
+                                decodeBitmapAsync(mediaInfo);
+                            }
+                        } else {
+                            mPrefetchQueue.add(candidate);
+                        }
+                    }
+                }
+            }
+        }
+
+        // cancel the useless downloads
+        for (Integer downloadPosition : new ArrayList<>(mPrefetchDownloads.keySet())) {
+            if ((downloadPosition != position) && (Math.abs(downloadPosition - position) > PREFETCH_DISTANCE)) {
+                Log.d(LOG_TAG, "## refreshPrefetchQueue() : cancel the prefetch of " + downloadPosition);
+                mMediasCache.cancelDownload(mPrefetchDownloads.remove(downloadPosition));
+            }
+        }
+
+        startNextPrefetch();
+    }
+
+    /**
+     * Start the next prefetch downloads of the queue.
+     */
+    private void startNextPrefetch() {
+        while (!mIsDestroyed && !mPrefetchQueue.isEmpty() && (mPrefetchDownloads.size() < MAX_PREFETCH_DOWNLOADS)) {
+            final int position = mPrefetchQueue.remove(0);
+            final SlidableMediaInfo mediaInfo = mMediasMessagesList.get(position);
+
+            if (TextUtils.isEmpty(mediaInfo.mMimeType)) {
+                mediaInfo.mMimeType = "image/jpeg";
+            }
+
+            final String downloadId = mMediasCache.downloadMedia(mContext, mSession.getHomeserverConfig(), mediaInfo.mMediaUrl, mediaInfo.mMimeType, mediaInfo.mEncryptedFileInfo);
+
+            if (null == downloadId) {
+                // already downloaded
+                decodeBitmapAsyncIfNear(position, mediaInfo);
+                continue;
+            }
+
+            Log.d(LOG_TAG, "## startNextPrefetch() : prefetch " + position);
+            mPrefetchDownloads.put(position, downloadId);
+
+            mMediasCache.addDownloadListener(downloadId, new MXMediaDownloadListener() {
+                @Override
+                public void onDownloadError(String aDownloadId, JsonElement jsonElement) {
+                    onPrefetchDone(position, aDownloadId);
+                }
+
+                @Override
+                public void onDownloadCancel(String aDownloadId) {
+                    onPrefetchDone(position, aDownloadId);
+                }
+
+                @Override
+                public void onDownloadComplete(String aDownloadId) {
+                    onPrefetchDone(position, aDownloadId);
+
+                    mUIHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            decodeBitmapAsyncIfNear(position, mediaInfo);
+                        }
+                    });
+                }
+            });
+        }
+    }
+
+    /**
+     * A prefetch download is done.
+     * @param position the item position
+     * @param downloadId the download id
+     */
+    private void onPrefetchDone(final int position, final String downloadId) {
+        mUIHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (TextUtils.equals(mPrefetchDownloads.get(position), downloadId)) {
+                    mPrefetchDownloads.remove(position);
+                }
+                startNextPrefetch();
+            }
+        });
+    }
+
+    /**
+     * Decode in background the full screen bitmap of a prefetched image
+     * when it is still in the decoding window of the displayed item.
+     * @param position the image position
+     * @param mediaInfo the image
+     */
+    private void decodeBitmapAsyncIfNear(int position, SlidableMediaInfo mediaInfo) {
+        if (Math.abs(position - mLatestPrimaryItemPosition) <= DECODE_DISTANCE) {
+            decodeBitmapAsync(mediaInfo);
+        }
+    }
+
+    /**
+     * Decode in background the full screen bitmap of a downloaded image.
+     * @param mediaInfo the image
+     */
+    private void decodeBitmapAsync(final SlidableMediaInfo mediaInfo) {
+        final String url = mediaInfo.mMediaUrl;
+
+        if (mIsDestroyed || (null == url) || (null != mDecodedBitmapsCache.get(url)) || mDecodingUrls.contains(url)) {
+            return;
+        }
+
+        final File mediaFile = mMediasCache.mediaCacheFile(url, mediaInfo.mMimeType);
+
+        if (null == mediaFile) {
+            return;
+        }
+
+        final int rotationAngle = mediaInfo.mRotationAngle;
+        mDecodingUrls.add(url);
+
+        VectorExecutors.getCPUExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap bitmap = decodeFullScreenBitmap(mediaFile, rotationAngle);
+
+                mUIHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mDecodingUrls.remove(url);
+
+                        if ((null != bitmap) && !mIsDestroyed) {
+                            mDecodedBitmapsCache.put(url, bitmap);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Decode an image to fit in the max image size.
+     * @param mediaFile the image file
+     * @param rotationAngle the image rotation angle (Integer.MAX_VALUE to use the exif one)
+     * @return the bitmap, null on failure
+     */
+    private Bitmap decodeFullScreenBitmap(File mediaFile, int rotationAngle) {
+        BitmapFactory.Options options = ImageResizer.decodeBounds(mediaFile.getPath());
+
+        if ((options.outWidth <= 0) || (options.outHeight <= 0) || (mMaxImageWidth <= 0) || (mMaxImageHeight <= 0)) {
+            return null;
+        }
+
+        if (rotationAngle == Integer.MAX_VALUE) {
+            rotationAngle = ImageUtils.getRotationAngleForBitmap(mContext, Uri.fromFile(mediaFile));
+        }
+
+        // the max size is applied after the rotation
+        boolean isRotated = (rotationAngle == 90) || (rotationAngle == 270);
+        int maxWidth = isRotated ? mMaxImageHeight : mMaxImageWidth;
+        int maxHeight = isRotated ? mMaxImageWidth : mMaxImageHeight;
+
+        float scale = Math.min(1.0f, Math.min((float) maxWidth / options.outWidth, (float) maxHeight / options.outHeight));
+        int dstWidth = Math.max(1, (int) (options.outWidth * scale));
+        int dstHeight = Math.max(1, (int) (options.outHeight * scale));
+
+        return ImageResizer.decodeBitmap(mediaFile.getPath(), options.outWidth, options.outHeight, dstWidth, dstHeight, rotationAngle);
+    }
+
+    /**
+     * Display the decoded bitmap of an image while its webview is rendering.
+     * @param view the page view
+     * @param mediaInfo the image
+     */
+    private void displayDecodedBitmap(View view, SlidableMediaInfo mediaInfo) {
+        final ImageView previewView = (ImageView) view.findViewById(R.id.media_slider_image_preview);
+        Bitmap bitmap = (null != mediaInfo.mMediaUrl) ? mDecodedBitmapsCache.get(mediaInfo.mMediaUrl) : null;
+
+        if (null != bitmap) {
+            previewView.setImageBitmap(bitmap);
+            previewView.setVisibility(View.VISIBLE);
+        } else {
+            previewView.setImageDrawable(null);
+            previewView.setVisibility(View.GONE);
+        }
+    }
+
     /**
      *
      * @param position the position of the item to play.
@@ -280,7 +575,18 @@ public class VectorMediasViewerAdapter extends PagerAdapter {
 
         webView.getSettings().setDisplayZoomControls(false);
 
-        if (null != downloadId) {
+        if (null == downloadId) {
+            // the image might have been prefetched after the page creation
+            final File mediaFile = mMediasCache.mediaCacheFile(loadingUri, imageInfo.mMimeType);
+
+            if (null != mediaFile) {
+                mHighResMediaIndex.add(position);
+                String mediaUri = Uri.fromFile(mediaFile).toString();
+                displayDecodedBitmap(view, imageInfo);
+                loadImage(webView, Uri.parse(mediaUri), viewportContent, computeCss(mediaUri, mMaxImageWidth, mMaxImageHeight, imageInfo.mRotationAngle));
+                decodeBitmapAsync(imageInfo);
+            }
+        } else {
             pieFractionView.setVisibility(View.VISIBLE);
             pieFractionView.setFraction(mMediasCache.getProgressValueForDownloadId(downloadId));
             mMediasCache.addDownloadListener(downloadId, new MXMediaDownloadListener() {
@@ -318,6 +624,7 @@ public class VectorMediasViewerAdapter extends PagerAdapter {
                                     Uri mediaUri = Uri.parse(newHighResUri);
                                     // refresh the UI
                                     loadImage(webView, mediaUri, viewportContent, computeCss(newHighResUri, VectorMediasViewerAdapter.this.mMaxImageWidth, VectorMediasViewerAdapter.this.mMaxImageHeight, imageInfo.mRotationAngle));
+                                    decodeBitmapAsync(imageInfo);
                                 }
                             });
                         }
@@ -346,6 +653,17 @@ public class VectorMediasViewerAdapter extends PagerAdapter {
 
         imageWebView.getSettings().setDisplayZoomControls(false);
 
+        final ImageView previewView = (ImageView)view.findViewById(R.id.media_slider_image_preview);
+
+        // hide the decoded bitmap when the webview is rendered
+        imageWebView.setWebViewClient(new WebViewClient() {
+            @Override
+            public void onPageFinished(WebView webView, String url) {
+                previewView.setImageDrawable(null);
+                previewView.setVisibility(View.GONE);
+            }
+        });
+
         imageWebView.setOnLongClickListener(new View.OnLongClickListener() {
             @Override
             public boolean onLongClick(View v) {
@@ -391,9 +709,8 @@ public class VectorMediasViewerAdapter extends PagerAdapter {
 
             // is the high picture already downloaded ?
             if (null != mediaFile) {
-                if (mHighResMediaIndex.indexOf(position) < 0) {
-                    mHighResMediaIndex.add(position);
-                }
+                mHighResMediaIndex.add(position);
+                displayDecodedBitmap(view, mediaInfo);
             } else {
                 // try to retrieve the thumbnail
                 mediaFile = mMediasCache.mediaCacheFile(mediaUrl, mMaxImageWidth, mMaxImageHeight, null);
@@ -554,6 +871,14 @@ public class VectorMediasViewerAdapter extends PagerAdapter {
         }
     }
 
+    // display a toast when a media is saved into the downloads folder
+    private final SimpleApiCallback<String> mMediaSavedCallback = new SimpleApiCallback<String>() {
+        @Override
+        public void onSuccess(String savedMediaPath) {
+            Toast.makeText(mContext, mContext.getText(R.string.media_slider_saved), Toast.LENGTH_LONG).show();
+        }
+    };
+
     /**
      * Download the current video file
      */
@@ -562,9 +887,7 @@ public class VectorMediasViewerAdapter extends PagerAdapter {
         File file = mMediasCache.mediaCacheFile(mediaInfo.mMediaUrl, mediaInfo.mMimeType);
 
         if (null != file) {
-            if (null != CommonActivityUtils.saveMediaIntoDownloads(mContext, file, null, mediaInfo.mMimeType)) {
-                Toast.makeText(mContext, mContext.getText(R.string.media_slider_saved), Toast.LENGTH_LONG).show();
-            }
+            CommonActivityUtils.saveMediaIntoDownloads(mContext, file, null, mediaInfo.mMimeType, mMediaSavedCallback);
         } else {
             downloadVideo(mLatestPrimaryView, mLatestPrimaryItemPosition, true);
             final String downloadId = mMediasCache.downloadMedia(mContext, mSession.getHomeserverConfig(), mediaInfo.mMediaUrl, mediaInfo.mMimeType, mediaInfo.mEncryptedFileInfo);
@@ -585,9 +908,7 @@ public class VectorMediasViewerAdapter extends PagerAdapter {
                         if (aDownloadId.equals(downloadId)) {
                             File file = mMediasCache.mediaCacheFile(mediaInfo.mMediaUrl, mediaInfo.mMimeType);
                             if (null != file) {
-                                if (null != CommonActivityUtils.saveMediaIntoDownloads(mContext, file, null, mediaInfo.mMimeType)) {
-                                    Toast.makeText(mContext, mContext.getText(R.string.media_slider_saved), Toast.LENGTH_LONG).show();
-                                }
+                                CommonActivityUtils.saveMediaIntoDownloads(mContext, file, null, mediaInfo.mMimeType, mMediaSavedCallback);
                             }
                         }
                     }
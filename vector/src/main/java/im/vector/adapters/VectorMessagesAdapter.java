@@ -55,6 +55,7 @@ import org.matrix.androidsdk.util.JsonUtils;
 
 import im.vector.VectorApp;
 import im.vector.R;
+import im.vector.util.MemoryPressureManager;
 import im.vector.util.VectorUtils;
 
 import java.lang.reflect.Field;
@@ -156,10 +157,27 @@ public class VectorMessagesAdapter extends MessagesAdapter {
         return context.getResources().getColor(R.color.vector_green_color);
     }
 
+    // release the formatted timestamps on memory pressure
+    // they are computed again when they are displayed.
+    private final MemoryPressureManager.TrimmableCache mTrimmableFormattedTsCache = new MemoryPressureManager.TrimmableCache() {
+        @Override
+        public void trim(float ratio) {
+            mEventFormattedTsMap.clear();
+        }
+    };
+
+    /**
+     * the parent fragment is resumed.
+     */
+    public void onResume() {
+        MemoryPressureManager.register("formatted timestamps", MemoryPressureManager.PRIORITY_LOW, mTrimmableFormattedTsCache);
+    }
+
     /**
      * the parent fragment is paused.
      */
     public void onPause() {
+        MemoryPressureManager.unregister(mTrimmableFormattedTsCache);
         mEventFormattedTsMap.clear();
     }
 
@@ -54,6 +54,7 @@ import im.vector.activity.CommonActivityUtils;
 import im.vector.contacts.Contact;
 import im.vector.contacts.ContactsManager;
 import im.vector.contacts.PIDsRetriever;
+import im.vector.util.VectorExecutors;
 import im.vector.util.VectorUtils;
 
 /**
@@ -180,6 +181,14 @@ public class VectorParticipantsAdapter extends BaseExpandableListAdapter {
     // define the first entry to set
     private ParticipantAdapterItem mFirstEntry;
 
+    // the presences are refreshed by batches, the list is refreshed once per batch
+    private final SimpleApiCallback<Void> mPresenceRefreshCallback = new SimpleApiCallback<Void>() {
+        @Override
+        public void onSuccess(Void info) {
+            refresh(mFirstEntry, null);
+        }
+    };
+
     // the participants can be split in sections
     private final List<List<ParticipantAdapterItem>> mParticipantsListsList = new ArrayList<>();
     private int mFirstEntryPosition = -1;
@@ -500,7 +509,7 @@ public class VectorParticipantsAdapter extends BaseExpandableListAdapter {
         if (!TextUtils.isEmpty(mPattern)) {
             // the list members are refreshed in background to avoid UI locks
             if (null == mUnusedParticipants) {
-                Thread t = new Thread(new Runnable() {
+                VectorExecutors.getUiCriticalExecutor().execute(new Runnable() {
                     public void run() {
                         // populate full contact list
                         listOtherMembers();
@@ -516,9 +525,6 @@ public class VectorParticipantsAdapter extends BaseExpandableListAdapter {
                     }
                 });
 
-                t.setPriority(Thread.MIN_PRIORITY);
-                t.start();
-
                 return;
             }
 
@@ -532,7 +538,7 @@ public class VectorParticipantsAdapter extends BaseExpandableListAdapter {
 
             // display only the contacts
             if (null == mContactsParticipants) {
-                Thread t = new Thread(new Runnable() {
+                VectorExecutors.getUiCriticalExecutor().execute(new Runnable() {
                     public void run() {
                         fillUsedMembersList();
 
@@ -550,9 +556,6 @@ public class VectorParticipantsAdapter extends BaseExpandableListAdapter {
                     }
                 });
 
-                t.setPriority(Thread.MIN_PRIORITY);
-                t.start();
-
                 return;
             } else {
                 for (Iterator<ParticipantAdapterItem> iterator = mContactsParticipants.iterator(); iterator.hasNext(); ) {
@@ -843,12 +846,7 @@ public class VectorParticipantsAdapter extends BaseExpandableListAdapter {
             }
 
             if (null != user) {
-                status = VectorUtils.getUserOnlineStatus(mContext, matchedSession, participant.mUserId, new SimpleApiCallback<Void>() {
-                    @Override
-                    public void onSuccess(Void info) {
-                        VectorParticipantsAdapter.this.refresh(mFirstEntry, null);
-                    }
-                });
+                status = VectorUtils.getUserOnlineStatus(mContext, matchedSession, participant.mUserId, mPresenceRefreshCallback);
             }
         }
 
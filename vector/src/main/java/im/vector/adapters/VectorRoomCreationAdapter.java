@@ -59,6 +59,14 @@ public class VectorRoomCreationAdapter extends ArrayAdapter<ParticipantAdapterIt
     // account info
     private final MXSession mSession;
 
+    // the presences are refreshed by batches, the list is refreshed once per batch
+    private final SimpleApiCallback<Void> mPresenceRefreshCallback = new SimpleApiCallback<Void>() {
+        @Override
+        public void onSuccess(Void info) {
+            notifyDataSetChanged();
+        }
+    };
+
     // used layouts
     private final int mMemberLayoutResourceId;
     private final int mAddMemberLayoutResourceId;
@@ -165,12 +173,7 @@ public class VectorRoomCreationAdapter extends ArrayAdapter<ParticipantAdapterIt
         }
 
         if (null != user) {
-            status = VectorUtils.getUserOnlineStatus(mContext, matchedSession, participant.mUserId, new SimpleApiCallback<Void>() {
-                @Override
-                public void onSuccess(Void info) {
-                    VectorRoomCreationAdapter.this.notifyDataSetChanged();
-                }
-            });
+            status = VectorUtils.getUserOnlineStatus(mContext, matchedSession, participant.mUserId, mPresenceRefreshCallback);
         }
 
         // the contact defines a matrix user but there is no way to get more information (presence, avatar)
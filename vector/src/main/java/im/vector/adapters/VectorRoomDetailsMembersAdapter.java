@@ -49,6 +49,7 @@ import java.util.HashMap;
 
 import im.vector.R;
 import im.vector.activity.CommonActivityUtils;
+import im.vector.util.VectorExecutors;
 import im.vector.util.VectorUtils;
 
 /**
@@ -283,7 +284,7 @@ public class VectorRoomDetailsMembersAdapter extends BaseExpandableListAdapter {
         final Handler uiHandler = new Handler();
         final String fPattern = mSearchPattern;
 
-        Thread t = new Thread(new Runnable() {
+        VectorExecutors.getUiCriticalExecutor().execute(new Runnable() {
             public void run() {
                 ParticipantAdapterItem participantItem;
 
@@ -513,9 +514,6 @@ public class VectorRoomDetailsMembersAdapter extends BaseExpandableListAdapter {
                 });
             }
         });
-
-        t.setPriority(Thread.MIN_PRIORITY);
-        t.start();
     }
 
     /**
@@ -20,13 +20,11 @@ import android.Manifest;
 import android.app.Activity;
 import android.content.ContentResolver;
 import android.content.Context;
-import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.database.Cursor;
 import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
-import android.preference.PreferenceManager;
 import android.provider.ContactsContract;
 import android.support.v4.content.ContextCompat;
 import android.text.TextUtils;
@@ -41,6 +39,8 @@ import org.matrix.androidsdk.rest.model.User;
 
 import im.vector.Matrix;
 import im.vector.VectorApp;
+import im.vector.util.VectorExecutors;
+import im.vector.util.VectorPreferences;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -343,7 +343,7 @@ public class ContactsManager {
         }
 
         // refresh the contacts list in background
-        Thread t = new Thread(new Runnable() {
+        VectorExecutors.getLowPriorityExecutor().execute(new Runnable() {
             public void run() {
                 ContentResolver cr = context.getContentResolver();
                 HashMap<String, Contact> dict = new HashMap<>();
@@ -512,9 +512,6 @@ public class ContactsManager {
                 }
             }
         });
-
-        t.setPriority(Thread.MIN_PRIORITY);
-        t.start();
     }
 
     //================================================================================
@@ -533,8 +530,7 @@ public class ContactsManager {
         if (Build.VERSION.SDK_INT >= 23) {
             return (PackageManager.PERMISSION_GRANTED == ContextCompat.checkSelfPermission(activity.getApplicationContext(), Manifest.permission.READ_CONTACTS));
         } else {
-            SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(activity);
-            return preferences.contains(CONTACTS_BOOK_ACCESS_KEY);
+            return VectorPreferences.getDefault(activity).contains(CONTACTS_BOOK_ACCESS_KEY);
         }
     }
 
@@ -546,10 +542,7 @@ public class ContactsManager {
      */
     public static void setIsContactBookAccessAllowed(Activity activity, boolean isAllowed) {
         if (Build.VERSION.SDK_INT < 23) {
-            SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(activity);
-            SharedPreferences.Editor editor = preferences.edit();
-            editor.putBoolean(CONTACTS_BOOK_ACCESS_KEY, isAllowed);
-            editor.commit();
+            VectorPreferences.getDefault(activity).putBoolean(CONTACTS_BOOK_ACCESS_KEY, isAllowed);
         }
         mIsRetrievingPids = false;
         mArePidsRetrieved = false;
@@ -561,12 +554,11 @@ public class ContactsManager {
      * @param context the context
      * @return true if it was granted.
      */
-    private static boolean isContactBookAccessAllowed(Context context) {
+    public static boolean isContactBookAccessAllowed(Context context) {
         if (Build.VERSION.SDK_INT >= 23) {
             return (PackageManager.PERMISSION_GRANTED == ContextCompat.checkSelfPermission(context, Manifest.permission.READ_CONTACTS));
         } else {
-            SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
-            return preferences.getBoolean(CONTACTS_BOOK_ACCESS_KEY, false);
+            return VectorPreferences.getDefault(context).getBoolean(CONTACTS_BOOK_ACCESS_KEY, false);
         }
     }
 }
@@ -27,9 +27,14 @@ import android.webkit.MimeTypeMap;
 import java.io.File;
 import java.io.FileNotFoundException;
 
+import org.matrix.androidsdk.util.Log;
+
 import im.vector.VectorApp;
+import im.vector.util.BugReporter;
 
 public class VectorContentProvider extends ContentProvider {
+    private static final String LOG_TAG = "VectorContentProvider";
+
     public static String AUTHORITIES = "im.vector.VectorApp.provider";
 
     private static final String BUG_SEPARATOR = "bugreport";
@@ -62,12 +67,28 @@ public class VectorContentProvider extends ContentProvider {
         return null;
     }
 
+    /**
+     * Provides the content URI of a bug report.
+     * @param name the bug report zip name
+     * @return the content URI.
+     */
+    public static Uri getBugReportUri(String name) {
+        return Uri.parse("content://" + VectorContentProvider.AUTHORITIES + "/" + BUG_SEPARATOR + "/" + name);
+    }
+
     @Override
     public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
         try {
             File privateFile = null;
 
             if (uri.getPath().contains("/" + BUG_SEPARATOR + "/")) {
+                // the bug report zip is streamed through a pipe
+                ParcelFileDescriptor bugReportDescriptor = BugReporter.openBugReport(getContext(), uri.getLastPathSegment());
+
+                if (null != bugReportDescriptor) {
+                    return bugReportDescriptor;
+                }
+
                 if (null != VectorApp.mLogsDirectoryFile) {
                     privateFile = new File(VectorApp.mLogsDirectoryFile, uri.getLastPathSegment());
                 }
@@ -75,10 +96,11 @@ public class VectorContentProvider extends ContentProvider {
                 privateFile = new File(getContext().getFilesDir(), uri.getPath());
             }
 
-            if (privateFile.exists()) {
+            if ((null != privateFile) && privateFile.exists()) {
                 return ParcelFileDescriptor.open(privateFile, ParcelFileDescriptor.MODE_READ_ONLY);
             }
         } catch (Exception e) {
+            Log.e(LOG_TAG, "## openFile() failed " + e.getMessage());
         }
 
         return null;
@@ -74,6 +74,7 @@ import im.vector.activity.VectorMediasViewerActivity;
 import im.vector.adapters.VectorMessagesAdapter;
 import im.vector.db.VectorContentProvider;
 import im.vector.receiver.VectorUniversalLinkReceiver;
+import im.vector.util.VectorMediasOutbox;
 import im.vector.util.SlidableMediaInfo;
 import im.vector.util.VectorUtils;
 
@@ -179,6 +180,15 @@ public class VectorMessageListFragment extends MatrixMessageListFragment impleme
         mMainProgressView = aHostActivity.findViewById(R.id.main_progress_layout);
     }
 
+    @Override
+    public void onResume() {
+        super.onResume();
+
+        if (mAdapter instanceof VectorMessagesAdapter) {
+            ((VectorMessagesAdapter)mAdapter).onResume();
+        }
+    }
+
     @Override
     public void onPause() {
         super.onPause();
@@ -438,6 +448,16 @@ public class VectorMessageListFragment extends MatrixMessageListFragment impleme
         }
     }
 
+    @Override
+    protected void resend(Event event) {
+        // the media might be already resent in background
+        if ((null != getActivity()) && !VectorMediasOutbox.getInstance(getActivity()).onManualResend(event)) {
+            return;
+        }
+
+        super.resend(event);
+    }
+
     /**
      * An action has been  triggered on an event.
      * @param event the event.
@@ -688,15 +708,19 @@ public class VectorMessageListFragment extends MatrixMessageListFragment impleme
         if (null != file) {
             // download
             if ((menuAction == ACTION_VECTOR_SAVE) || (menuAction == ACTION_VECTOR_OPEN)) {
-                String savedMediaPath = CommonActivityUtils.saveMediaIntoDownloads(getActivity(), file, filename, mediaMimeType);
-
-                if (null != savedMediaPath) {
-                    if (menuAction == ACTION_VECTOR_SAVE) {
-                        Toast.makeText(getActivity(), getText(R.string.media_slider_saved), Toast.LENGTH_LONG).show();
-                    } else {
-                        CommonActivityUtils.openMedia(getActivity(), savedMediaPath, mediaMimeType);
+                CommonActivityUtils.saveMediaIntoDownloads(getActivity(), file, filename, mediaMimeType, new SimpleApiCallback<String>() {
+                    @Override
+                    public void onSuccess(String savedMediaPath) {
+                        // the fragment might have been detached during the copy
+                        if ((null != savedMediaPath) && (null != getActivity())) {
+                            if (menuAction == ACTION_VECTOR_SAVE) {
+                                Toast.makeText(getActivity(), getText(R.string.media_slider_saved), Toast.LENGTH_LONG).show();
+                            } else {
+                                CommonActivityUtils.openMedia(getActivity(), savedMediaPath, mediaMimeType);
+                            }
+                        }
                     }
-                }
+                });
             } else {
                 // shared / forward
                 Uri mediaUri = null;
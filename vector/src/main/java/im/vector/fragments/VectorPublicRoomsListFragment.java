@@ -42,6 +42,7 @@ import im.vector.VectorApp;
 import im.vector.activity.CommonActivityUtils;
 import im.vector.activity.VectorRoomActivity;
 import im.vector.adapters.VectorPublicRoomsAdapter;
+import im.vector.util.MemoryPressureManager;
 
 import java.util.HashMap;
 import java.util.List;
@@ -205,9 +206,33 @@ public class VectorPublicRoomsListFragment extends Fragment {
         return v;
     }
 
+    // the public rooms pages are released on memory pressure when the fragment is hidden
+    // the first page is requested again when the fragment is resumed.
+    private final MemoryPressureManager.TrimmableCache mTrimmablePublicRooms = new MemoryPressureManager.TrimmableCache() {
+        @Override
+        public void trim(float ratio) {
+            if ((ratio >= 1) && !PublicRoomsManager.isRequestInProgress()) {
+                mAdapter.clear();
+            }
+        }
+    };
+
+    @Override
+    public void onPause() {
+        super.onPause();
+        MemoryPressureManager.register("public rooms", MemoryPressureManager.PRIORITY_LOW, mTrimmablePublicRooms);
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        MemoryPressureManager.unregister(mTrimmablePublicRooms);
+    }
+
     @Override
     public void onResume() {
         super.onResume();
+        MemoryPressureManager.unregister(mTrimmablePublicRooms);
 
         if (0 == mAdapter.getCount()) {
             mInitializationSpinnerView.setVisibility(View.VISIBLE);
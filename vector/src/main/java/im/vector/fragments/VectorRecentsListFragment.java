@@ -20,8 +20,6 @@ import android.app.AlertDialog;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.SharedPreferences;
-import android.preference.PreferenceManager;
 import android.support.v4.app.Fragment;
 import android.os.Bundle;
 import android.text.TextUtils;
@@ -57,6 +55,8 @@ import im.vector.activity.VectorPublicRoomsActivity;
 import im.vector.activity.VectorRoomActivity;
 import im.vector.adapters.VectorRoomSummaryAdapter;
 import im.vector.services.EventStreamService;
+import im.vector.util.TraceLog;
+import im.vector.util.VectorPreferences;
 import im.vector.view.RecentsExpandableListView;
 
 import java.util.HashMap;
@@ -440,7 +440,7 @@ public class VectorRecentsListFragment extends Fragment implements VectorRoomSum
                 if (null != getActivity()) {
                     int groupCount = mRecentsListView.getExpandableListAdapter().getGroupCount();
                     boolean isExpanded;
-                    SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(getActivity().getApplicationContext());
+                    VectorPreferences preferences = VectorPreferences.getDefault(getActivity());
 
                     for (int groupIndex = 0; groupIndex < groupCount; groupIndex++) {
 
@@ -497,10 +497,7 @@ public class VectorRecentsListFragment extends Fragment implements VectorRoomSum
             }
 
             if (null != (context = getActivity().getApplicationContext())) {
-                SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
-                SharedPreferences.Editor editor = preferences.edit();
-                editor.putBoolean(groupKey, aValue);
-                editor.commit();
+                VectorPreferences.getDefault(context).putBoolean(groupKey, aValue);
             }
         }
     }
@@ -530,7 +527,7 @@ public class VectorRecentsListFragment extends Fragment implements VectorRoomSum
                 getActivity().runOnUiThread(new Runnable() {
                     @Override
                     public void run() {
-                        Log.d(LOG_TAG, "onLiveEventsChunkProcessed");
+                        TraceLog.d(TraceLog.EVENT_RECENTS_CHUNK_PROCESSED, refreshOnChunkEnd ? 1 : 0);
                         if (!mIsPaused && refreshOnChunkEnd && !mIsWaitingTagOrderEcho && !mIsWaitingDirectChatEcho) {
                             notifyDataSetChanged();
                         }
@@ -66,12 +66,12 @@ import im.vector.activity.VectorMemberDetailsActivity;
 import im.vector.activity.VectorRoomInviteMembersActivity;
 import im.vector.adapters.ParticipantAdapterItem;
 import im.vector.adapters.VectorRoomDetailsMembersAdapter;
+import im.vector.util.VectorExecutors;
 import im.vector.util.VectorUtils;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ScheduledFuture;
 
 public class VectorRoomDetailsMembersFragment extends Fragment {
     private static final String LOG_TAG = "VectorRoomDetailsMembers";
@@ -102,12 +102,19 @@ public class VectorRoomDetailsMembersFragment extends Fragment {
 
     // the member presences trigger refresh only after a delay
     // to avoid lags
-    private Timer mRefreshTimer;
-    private TimerTask mRefreshTimerTask;
+    private ScheduledFuture<?> mRefreshTimer;
 
     // list the up to date presence to avoid refreshing it twice
     private final ArrayList<String> mUpdatedPresenceUserIds = new ArrayList<>();
 
+    // the presences are refreshed by batches, the members list is refreshed once per batch
+    private final SimpleApiCallback<Void> mPresenceRefreshCallback = new SimpleApiCallback<Void>() {
+        @Override
+        public void onSuccess(Void info) {
+            delayedUpdateRoomMembersDataModel();
+        }
+    };
+
     // global events listener
     private final MXEventListener mEventListener = new MXEventListener() {
         @Override
@@ -202,10 +209,9 @@ public class VectorRoomDetailsMembersFragment extends Fragment {
                 mPatternValue = null;
                 refreshRoomMembersList(mPatternValue, REFRESH_NOT_FORCED);
             } else {
-                Timer timer = new Timer();
                 // wait a little delay before refreshing the results.
                 // it avoid UI lags when the user is typing.
-                timer.schedule(new TimerTask() {
+                VectorExecutors.schedule(new Runnable() {
                     @Override
                     public void run() {
                         if (TextUtils.equals(mPatternToSearchEditText.getText().toString(), patternValue) && (null != getActivity())) {
@@ -313,9 +319,8 @@ public class VectorRoomDetailsMembersFragment extends Fragment {
         }
 
         if (null != mRefreshTimer) {
-            mRefreshTimer.cancel();
+            mRefreshTimer.cancel(false);
             mRefreshTimer = null;
-            mRefreshTimerTask = null;
         }
     }
 
@@ -534,29 +539,21 @@ public class VectorRoomDetailsMembersFragment extends Fragment {
      */
     private void delayedUpdateRoomMembersDataModel() {
         if (null != mRefreshTimer) {
-            mRefreshTimer.cancel();
+            mRefreshTimer.cancel(false);
             mRefreshTimer = null;
-            mRefreshTimerTask = null;
         }
 
-        mRefreshTimer = new Timer();
-        mRefreshTimerTask = new TimerTask() {
+        mRefreshTimer = VectorExecutors.schedule(new Runnable() {
             public void run() {
                 mUIHandler.post(new Runnable() {
                     @Override
                     public void run() {
-                        if (null != mRefreshTimer) {
-                            mRefreshTimer.cancel();
-                        }
                         mRefreshTimer = null;
-                        mRefreshTimerTask = null;
                         mAdapter.updateRoomMembersDataModel(null);
                     }
                 });
             }
-        };
-
-        mRefreshTimer.schedule(mRefreshTimerTask, 1000);
+        }, 1000);
     }
 
     /**
@@ -580,17 +577,7 @@ public class VectorRoomDetailsMembersFragment extends Fragment {
                 if (mUpdatedPresenceUserIds.indexOf(participantAdapterItem.mUserId) < 0) {
                     mUpdatedPresenceUserIds.add(participantAdapterItem.mUserId);
 
-                    VectorUtils.getUserOnlineStatus(getActivity(), mSession, participantAdapterItem.mUserId, new SimpleApiCallback<Void>() {
-                        @Override
-                        public void onSuccess(Void info) {
-                            mUIHandler.post(new Runnable() {
-                                @Override
-                                public void run() {
-                                    delayedUpdateRoomMembersDataModel();
-                                }
-                            });
-                        }
-                    });
+                    VectorUtils.getUserOnlineStatus(getActivity(), mSession, participantAdapterItem.mUserId, mPresenceRefreshCallback);
 
                 }
             }
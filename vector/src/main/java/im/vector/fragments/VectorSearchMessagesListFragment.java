@@ -26,6 +26,7 @@ import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
 
+import org.matrix.androidsdk.adapters.MessageRow;
 import org.matrix.androidsdk.adapters.MessagesAdapter;
 import org.matrix.androidsdk.data.EventTimeline;
 import org.matrix.androidsdk.data.RoomState;
@@ -52,6 +53,21 @@ public class VectorSearchMessagesListFragment extends VectorMessageListFragment
 
     protected String mRoomId;
 
+    /**
+     * The displayed search results, they can be displayed again without requesting the server.
+     */
+    public static class SearchResults {
+        final String mPattern;
+        final String mNextBatch;
+        final ArrayList<MessageRow> mRows;
+
+        SearchResults(String pattern, String nextBatch, ArrayList<MessageRow> rows) {
+            mPattern = pattern;
+            mNextBatch = nextBatch;
+            mRows = rows;
+        }
+    }
+
     /**
      * static constructor
      * @param matrixId the session Id.
@@ -92,7 +108,14 @@ public class VectorSearchMessagesListFragment extends VectorMessageListFragment
     @Override
     public void onPause() {
         super.onPause();
+        cancelSearchPattern();
+    }
 
+    /**
+     * Cancel the pending search.
+     * The registered listeners are not called.
+     */
+    public void cancelSearchPattern() {
         if (mSession.isAlive()) {
             cancelSearch();
 
@@ -101,7 +124,14 @@ public class VectorSearchMessagesListFragment extends VectorMessageListFragment
             } else {
                 mSession.cancelSearchMessagesByText();
             }
+
+            // the pattern has to be searched again
+            if (null != mSearchingPattern) {
+                mPattern = null;
+            }
+
             mSearchingPattern = null;
+            mSearchListeners.clear();
         }
     }
 
@@ -187,6 +217,56 @@ public class VectorSearchMessagesListFragment extends VectorMessageListFragment
         return !TextUtils.isEmpty(pattern);
     }
 
+    /**
+     * @return the displayed search results, null if there is none.
+     */
+    public SearchResults getSearchResults() {
+        if ((null == mAdapter) || (null == mPattern) || (null != mSearchingPattern)) {
+            return null;
+        }
+
+        ArrayList<MessageRow> rows = new ArrayList<>();
+
+        for (int index = 0; index < mAdapter.getCount(); index++) {
+            rows.add(mAdapter.getItem(index));
+        }
+
+        return new SearchResults(mPattern, mNextBatch, rows);
+    }
+
+    /**
+     * Display some search results again.
+     * @param pattern the searched pattern
+     * @param searchResults the results provided by getSearchResults()
+     * @return true if the results are displayed
+     */
+    public boolean restoreSearchResults(String pattern, SearchResults searchResults) {
+        if ((null == mMessageListView) || (null == searchResults) || !TextUtils.equals(pattern, searchResults.mPattern) || !allowSearch(pattern)) {
+            return false;
+        }
+
+        mAdapter.clear();
+
+        for (MessageRow row : searchResults.mRows) {
+            mAdapter.add(row, false);
+        }
+
+        if (mAdapter instanceof VectorSearchMessagesListAdapter) {
+            ((VectorSearchMessagesListAdapter) mAdapter).setTextToHighlight(pattern);
+        }
+
+        mPattern = pattern;
+        mNextBatch = searchResults.mNextBatch;
+        mIsInitialSyncing = false;
+
+        mMessageListView.setOnScrollListener(mScrollListener);
+        mMessageListView.setAdapter(mAdapter);
+        scrollToBottom();
+        mMessageListView.setVisibility(View.VISIBLE);
+
+        return true;
+    }
+
     /**
      * Update the searched pattern.
      * @param pattern the pattern to find out. null to disable the search mode
@@ -91,7 +91,7 @@ import im.vector.preference.VectorCustomActionEditTextPreference;
 import im.vector.util.ResourceUtils;
 import im.vector.util.VectorUtils;
 
-public class VectorSettingsPreferencesFragment extends PreferenceFragment implements SharedPreferences.OnSharedPreferenceChangeListener{
+public class VectorSettingsPreferencesFragment extends PreferenceFragment {
     private static final String LOG_TAG = "VPreferenceFragment";
 
     // arguments indexes
@@ -447,6 +447,23 @@ public class VectorSettingsPreferencesFragment extends PreferenceFragment implem
             // hide the dedicated section
             getPreferenceScreen().removePreference(getPreferenceManager().findPreference(getResources().getString(R.string.settings_app_permission)));
             getPreferenceScreen().removePreference(getPreferenceManager().findPreference("settings_app_permission_divider"));
+        } else {
+            // the contacts book access is stored through VectorPreferences, the switch does not persist it
+            final SwitchPreference contactsBookAccessPref = (SwitchPreference)preferenceManager.findPreference(ContactsManager.CONTACTS_BOOK_ACCESS_KEY);
+
+            if (null != contactsBookAccessPref) {
+                contactsBookAccessPref.setChecked(ContactsManager.isContactBookAccessAllowed(getActivity()));
+
+                contactsBookAccessPref.setOnPreferenceChangeListener(new Preference.OnPreferenceChangeListener() {
+                    @Override
+                    public boolean onPreferenceChange(Preference preference, Object newValue) {
+                        ContactsManager.setIsContactBookAccessAllowed(getActivity(), (boolean) newValue);
+                        // reset the current snapshot
+                        ContactsManager.clearSnapshot();
+                        return true;
+                    }
+                });
+            }
         }
 
         // background sync management
@@ -567,15 +584,6 @@ public class VectorSettingsPreferencesFragment extends PreferenceFragment implem
         return view;
     }
 
-    @Override
-    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
-        // if the user toggles the contacts book permission
-        if (TextUtils.equals(key, ContactsManager.CONTACTS_BOOK_ACCESS_KEY)) {
-            // reset the current snapshot
-            ContactsManager.clearSnapshot();
-        }
-    }
-
     @Override
     public void onPause() {
         super.onPause();
@@ -584,8 +592,6 @@ public class VectorSettingsPreferencesFragment extends PreferenceFragment implem
             mSession.getDataHandler().removeListener(mEventsListener);
             Matrix.getInstance(getActivity()).removeNetworkEventListener(mNetworkListener);
         }
-
-        PreferenceManager.getDefaultSharedPreferences(getActivity()).unregisterOnSharedPreferenceChangeListener(this);
     }
 
     @Override
@@ -620,8 +626,6 @@ public class VectorSettingsPreferencesFragment extends PreferenceFragment implem
                 }
             });
 
-            PreferenceManager.getDefaultSharedPreferences(getActivity()).registerOnSharedPreferenceChangeListener(this);
-
             // refresh anything else
             refreshPreferences();
             refreshDisplay();
@@ -21,6 +21,8 @@ import android.content.SharedPreferences;
 import android.content.pm.PackageInfo;
 import android.os.AsyncTask;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.text.TextUtils;
 import org.matrix.androidsdk.util.Log;
 
@@ -28,19 +30,22 @@ import org.matrix.androidsdk.MXSession;
 import org.matrix.androidsdk.data.Pusher;
 import org.matrix.androidsdk.listeners.IMXNetworkEventListener;
 import org.matrix.androidsdk.rest.callback.ApiCallback;
+import org.matrix.androidsdk.rest.callback.SimpleApiCallback;
 import org.matrix.androidsdk.rest.model.MatrixError;
 import org.matrix.androidsdk.rest.model.PushersResponse;
 
 import im.vector.Matrix;
 import im.vector.R;
 import im.vector.activity.CommonActivityUtils;
+import im.vector.util.VectorExecutors;
+import im.vector.util.VectorPreferences;
 import retrofit.RetrofitError;
 
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Random;
 
 
 /**
@@ -58,6 +63,7 @@ public final class GcmRegistrationManager {
     private static final String PREFS_TURN_SCREEN_ON = "GcmRegistrationManager.PREFS_TURN_SCREEN_ON";
     private static final String PREFS_ALLOW_BACKGROUND_SYNC = "GcmRegistrationManager.PREFS_ALLOW_BACKGROUND_SYNC";
     private static final String PREFS_PUSHER_REGISTRATION_TOKEN_KEY = "PREFS_PUSHER_REGISTRATION_TOKEN_KEY";
+    private static final String PREFS_REGISTERED_PUSHER_KEY = "GcmRegistrationManager.PREFS_REGISTERED_PUSHER_KEY_";
 
     private static final String PREFS_SYNC_TIMEOUT = "GcmRegistrationManager.PREFS_SYNC_TIMEOUT";
     private static final String PREFS_SYNC_DELAY = "GcmRegistrationManager.PREFS_SYNC_DELAY";
@@ -100,6 +106,17 @@ public final class GcmRegistrationManager {
     // the pushers list
     public ArrayList<Pusher> mPushersList = new ArrayList<>();
 
+    // the pushers list by account
+    private final HashMap<String, List<Pusher>> mPushersByUserId = new HashMap<>();
+
+    // the pusher requests retries
+    private static final int MAX_REGISTRATION_RETRIES = 5;
+    private static final long BASE_RETRY_DELAY_MS = 2000;
+    private static final long MAX_RETRY_DELAY_MS = 5 * 60 * 1000;
+    private final Random mRandom = new Random();
+    private final Handler mRetryHandler = new Handler(Looper.getMainLooper());
+    private int m500ErrorsCount = 0;
+
     /**
      * Registration steps
      */
@@ -171,12 +188,11 @@ public final class GcmRegistrationManager {
         unregister(null);
 
         // remove the customized keys
-        getGcmSharedPreferences().
-                edit().
-                remove(PREFS_SENDER_ID_KEY).
-                remove(PREFS_PUSHER_URL_KEY).
-                remove(PREFS_PUSHER_FILE_TAG_KEY).
-                commit();
+        VectorPreferences preferences = getGcmPreferences();
+        preferences.remove(PREFS_SENDER_ID_KEY);
+        preferences.remove(PREFS_PUSHER_URL_KEY);
+        preferences.remove(PREFS_PUSHER_FILE_TAG_KEY);
+        preferences.flush();
     }
 
     /**
@@ -214,7 +230,12 @@ public final class GcmRegistrationManager {
                 register(null);
             }
         } else if (mRegistrationState == RegistrationState.SERVER_REGISTERED) {
-            refreshPushersList(new ArrayList<>(Matrix.getInstance(mContext).getSessions()), null);
+            // the pushers of the sessions registered by this device with the same token are not requested
+            ArrayList<MXSession> sessionsToCheck = getSessionsWithoutLocalRegistration(Matrix.getInstance(mContext).getSessions());
+
+            if (!sessionsToCheck.isEmpty()) {
+                refreshPushersList(sessionsToCheck, null);
+            }
         }
     }
 
@@ -297,7 +318,7 @@ public final class GcmRegistrationManager {
                         }
                     }
                 }
-            }.execute();
+            }.executeOnExecutor(VectorExecutors.getIOExecutor());
         } else if (mRegistrationState == RegistrationState.GCM_REGISTRATING) {
             gcmRegistrationListener.onGCMRegistrationFailed();
         } else {
@@ -364,16 +385,40 @@ public final class GcmRegistrationManager {
         return tag;
     }
 
+    /**
+     * Compute the delay before retrying a pusher request.
+     * The delay grows exponentially with a random jitter to avoid synchronized retries.
+     * @param attempt the attempt index (0 for the first retry)
+     * @return the delay in ms
+     */
+    private long computeRetryDelay(int attempt) {
+        long delay = Math.min(MAX_RETRY_DELAY_MS, BASE_RETRY_DELAY_MS << Math.min(attempt, 16));
+        return (delay / 2) + (long) (mRandom.nextDouble() * delay);
+    }
+
+    /**
+     * Tells if a pusher request error might be fixed by retrying it.
+     * @param e the error
+     * @return true if the request should be retried
+     */
+    private static boolean isRetryableError(Exception e) {
+        if (e instanceof RetrofitError) {
+            RetrofitError retrofitError = (RetrofitError) e;
+            return (null == retrofitError.getResponse()) || (retrofitError.getResponse().getStatus() >= 500);
+        }
+
+        return false;
+    }
+
     /**
      * Manage the 500 http error case.
      */
     private void manage500Error() {
-        Log.d(LOG_TAG, "got a 500 error -> reset the registration and try again");
+        long delay = computeRetryDelay(m500ErrorsCount++);
 
-        Timer relaunchTimer = new Timer();
+        Log.d(LOG_TAG, "got a 500 error -> reset the registration and try again in " + delay + " ms");
 
-        // wait 5 seconds before registering
-        relaunchTimer.schedule(new TimerTask() {
+        mRetryHandler.postDelayed(new Runnable() {
             @Override
             public void run() {
                 if (RegistrationState.GCM_REGISTRED == mRegistrationState) {
@@ -422,15 +467,97 @@ public final class GcmRegistrationManager {
                     }
                 }
             }
-        }, 5000);
+        }, delay);
+    }
+
+    /**
+     * @return the signature of the pusher registered by this device
+     */
+    private String computePusherSignature() {
+        return mRegistrationToken + "|" + DEFAULT_PUSHER_APP_ID + "|" + DEFAULT_PUSHER_URL + "|" + mPusherLang;
+    }
+
+    /**
+     * Tells if the pusher of this device is already registered for a session.
+     * It is checked with the pushers list retrieved from the server,
+     * the latest registration done by this device is only used when this list could not be retrieved.
+     * @param session the session
+     * @return true if the pusher is registered.
+     */
+    private boolean isPusherRegistered(MXSession session) {
+        if (null == mRegistrationToken) {
+            return false;
+        }
+
+        List<Pusher> pushers = mPushersByUserId.get(session.getMyUserId());
+
+        if (null != pushers) {
+            return isPusherInList(pushers);
+        }
+
+        return TextUtils.equals(computePusherSignature(), getGcmPreferences().getString(PREFS_REGISTERED_PUSHER_KEY + session.getMyUserId(), null));
+    }
+
+    /**
+     * Tells if the pusher of this device is in a pushers list.
+     * @param pushers the pushers list
+     * @return true if the pusher is in the list
+     */
+    private boolean isPusherInList(List<Pusher> pushers) {
+        if ((null != pushers) && (null != mRegistrationToken)) {
+            for (Pusher pusher : pushers) {
+                if (TextUtils.equals(pusher.pushkey, mRegistrationToken) &&
+                        TextUtils.equals(pusher.appId, DEFAULT_PUSHER_APP_ID) &&
+                        TextUtils.equals(pusher.lang, mPusherLang) &&
+                        (null != pusher.data) && TextUtils.equals(pusher.data.get("url"), DEFAULT_PUSHER_URL)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Provides the sessions whose latest registration done by this device does not match
+     * the current token, app id, url and lang (or is unknown).
+     * @param sessions the sessions
+     * @return the sessions whose pusher must be checked on server side.
+     */
+    private ArrayList<MXSession> getSessionsWithoutLocalRegistration(List<MXSession> sessions) {
+        ArrayList<MXSession> res = new ArrayList<>();
+        String signature = (null != mRegistrationToken) ? computePusherSignature() : null;
+
+        for (MXSession session : sessions) {
+            if ((null == signature) || !TextUtils.equals(signature, getGcmPreferences().getString(PREFS_REGISTERED_PUSHER_KEY + session.getMyUserId(), null))) {
+                res.add(session);
+            }
+        }
+
+        return res;
+    }
+
+    /**
+     * Save the registered pusher of a session.
+     * @param session the session
+     * @param isRegistered true if the pusher is registered
+     */
+    private void setPusherRegistered(MXSession session, boolean isRegistered) {
+        if (isRegistered) {
+            getGcmPreferences().putString(PREFS_REGISTERED_PUSHER_KEY + session.getMyUserId(), computePusherSignature());
+        } else {
+            getGcmPreferences().remove(PREFS_REGISTERED_PUSHER_KEY + session.getMyUserId());
+        }
     }
 
     /**
      * Register the session to the 3rd-party app server
      * @param session the session to register.
+     * @param append true to keep the pushers of the other accounts with the same push key
+     * @param attempt the attempt index
      * @param listener the registration listener
      */
-    private void registerToThirdPartyServer(final MXSession session, boolean append, final ThirdPartyRegistrationListener listener) {
+    private void registerToThirdPartyServer(final MXSession session, final boolean append, final int attempt, final ThirdPartyRegistrationListener listener) {
         // test if the push server registration is allowed
         if (!areDeviceNotificationsAllowed() || !useGCM()) {
             if (!areDeviceNotificationsAllowed()) {
@@ -454,7 +581,7 @@ public final class GcmRegistrationManager {
             return;
         }
 
-        Log.d(LOG_TAG, "registerToThirdPartyServer of " + session.getMyUserId());
+        Log.d(LOG_TAG, "registerToThirdPartyServer of " + session.getMyUserId() + " attempt " + attempt);
 
         session.getPushersRestClient()
                 .addHttpPusher(mRegistrationToken, DEFAULT_PUSHER_APP_ID, computePushTag(session),
@@ -464,6 +591,9 @@ public final class GcmRegistrationManager {
                             public void onSuccess(Void info) {
                                 Log.d(LOG_TAG, "registerToThirdPartyServer succeeded");
 
+                                m500ErrorsCount = 0;
+                                setPusherRegistered(session, true);
+
                                 if (null != listener) {
                                     try {
                                         listener.onThirdPartyRegistered();
@@ -476,10 +606,6 @@ public final class GcmRegistrationManager {
                             private void onError(final String message) {
                                 Log.e(LOG_TAG, "registerToThirdPartyServer failed" + session.getMyUserId() + " (" + message + ")");
 
-                                // fallback to the GCM_REGISTRED state
-                                // thus, the client will try again to register with checkRegistrations.
-                                mRegistrationState = RegistrationState.GCM_REGISTRED;
-
                                 if (null != listener) {
                                     try {
                                         listener.onThirdPartyRegistrationFailed();
@@ -489,10 +615,35 @@ public final class GcmRegistrationManager {
                                 }
                             }
 
+                            /**
+                             * Retry the request after a backoff delay.
+                             * @return true if the request will be retried
+                             */
+                            private boolean retry() {
+                                if ((attempt >= MAX_REGISTRATION_RETRIES) || !session.isAlive()) {
+                                    return false;
+                                }
+
+                                long delay = computeRetryDelay(attempt);
+                                Log.d(LOG_TAG, "registerToThirdPartyServer : retry in " + delay + " ms");
+
+                                mRetryHandler.postDelayed(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        registerToThirdPartyServer(session, append, attempt + 1, listener);
+                                    }
+                                }, delay);
+
+                                return true;
+                            }
+
                             @Override
                             public void onNetworkError(Exception e) {
                                 Log.e(LOG_TAG, "registerToThirdPartyServer onNetworkError " + e.getLocalizedMessage());
-                                onError(e.getLocalizedMessage());
+
+                                if (!retry()) {
+                                    onError(e.getLocalizedMessage());
+                                }
                             }
 
                             @Override
@@ -504,6 +655,11 @@ public final class GcmRegistrationManager {
                             @Override
                             public void onUnexpectedError(Exception e) {
                                 Log.e(LOG_TAG, "registerToThirdPartyServer onUnexpectedError " + e.getLocalizedMessage());
+
+                                if (isRetryableError(e) && retry()) {
+                                    return;
+                                }
+
                                 onError(e.getLocalizedMessage());
 
                                 // track the 500 HTTP error
@@ -528,36 +684,65 @@ public final class GcmRegistrationManager {
      */
     public void refreshPushersList(List<MXSession> sessions, final ApiCallback<Void> callback) {
         if ((null != sessions) && (sessions.size() > 0)) {
-            sessions.get(0).getPushersRestClient().getPushers(new ApiCallback<PushersResponse>() {
+            final List<MXSession> fSessions = new ArrayList<>(sessions);
+            final int[] pendingRequestsCount = {fSessions.size()};
 
-                @Override
-                public void onSuccess(PushersResponse pushersResponse) {
-                    if (null == pushersResponse.pushers) {
-                        mPushersList = new ArrayList<>();
-                    } else {
-                        mPushersList = new ArrayList<>(pushersResponse.pushers);
+            for (final MXSession session : fSessions) {
+                session.getPushersRestClient().getPushers(new ApiCallback<PushersResponse>() {
+
+                    @Override
+                    public void onSuccess(PushersResponse pushersResponse) {
+                        List<Pusher> pushers = (null == pushersResponse.pushers) ? new ArrayList<Pusher>() : new ArrayList<>(pushersResponse.pushers);
+                        mPushersByUserId.put(session.getMyUserId(), pushers);
+
+                        // the default session pushers are displayed
+                        if (session == Matrix.getInstance(mContext).getDefaultSession()) {
+                            mPushersList = new ArrayList<>(pushers);
+                        }
+
+                        // the pusher might have been removed on server side
+                        // or registered before the local registration was saved
+                        setPusherRegistered(session, isPusherInList(pushers));
+
+                        onDone();
                     }
 
-                    if (null != callback) {
-                        callback.onSuccess(null);
+                    private void onDone() {
+                        if ((0 == --pendingRequestsCount[0]) && (null != callback)) {
+                            callback.onSuccess(null);
+                        }
                     }
-                }
 
-                @Override
-                public void onNetworkError(Exception e) {
-                    Log.e(LOG_TAG, "refreshPushersList failed " + e.getLocalizedMessage());
-                }
+                    /**
+                     * The pushers list of the session could not be retrieved.
+                     * The registration will rely on the latest registration done by this device.
+                     */
+                    private void onFailure() {
+                        mPushersByUserId.remove(session.getMyUserId());
+                        onDone();
+                    }
 
-                @Override
-                public void onMatrixError(MatrixError e) {
-                    Log.e(LOG_TAG, "refreshPushersList failed " + e.getLocalizedMessage());
-                }
+                    @Override
+                    public void onNetworkError(Exception e) {
+                        Log.e(LOG_TAG, "refreshPushersList failed " + e.getLocalizedMessage());
+                        onFailure();
+                    }
 
-                @Override
-                public void onUnexpectedError(Exception e) {
-                    Log.e(LOG_TAG, "refreshPushersList failed " + e.getLocalizedMessage());
-                }
-            });
+                    @Override
+                    public void onMatrixError(MatrixError e) {
+                        Log.e(LOG_TAG, "refreshPushersList failed " + e.getLocalizedMessage());
+                        onFailure();
+                    }
+
+                    @Override
+                    public void onUnexpectedError(Exception e) {
+                        Log.e(LOG_TAG, "refreshPushersList failed " + e.getLocalizedMessage());
+                        onFailure();
+                    }
+                });
+            }
+        } else if (null != callback) {
+            callback.onSuccess(null);
         }
     }
 
@@ -621,7 +806,7 @@ public final class GcmRegistrationManager {
             // check if the notifications must be displayed
             if (useGCM() && areDeviceNotificationsAllowed()) {
                 mRegistrationState = RegistrationState.SERVER_REGISTRATING;
-                registerToThirdPartyServer(new ArrayList<>(Matrix.getInstance(mContext).getSessions()), 0);
+                registerToThirdPartyServer(new ArrayList<>(Matrix.getInstance(mContext).getSessions()));
             } else {
                 dispatchOnThirdPartyRegistrationFailed();
             }
@@ -629,56 +814,162 @@ public final class GcmRegistrationManager {
     }
 
     /**
-     * Recursive method to register a MXSessions list.
+     * Register a MXSessions list.
+     * The sessions whose latest registration done by this device matches the current one are skipped
+     * without any request. The pushers lists of the other ones are retrieved from the server first :
+     * the sessions whose pusher is already registered are skipped, the other ones are registered in parallel.
      * @param sessions the sessions list.
-     * @param index the index of the MX sessions to register.
      */
-    private void registerToThirdPartyServer(final ArrayList<MXSession> sessions, final int index) {
-        // reach this end of the list ?
-        if (index >= sessions.size()) {
-            Log.d(LOG_TAG, "registerSessions : all the sessions are registered");
-            mRegistrationState = RegistrationState.SERVER_REGISTERED;
-            dispatchOnThirdPartyRegistered();
+    private void registerToThirdPartyServer(final ArrayList<MXSession> sessions) {
+        ArrayList<MXSession> sessionsToCheck = getSessionsWithoutLocalRegistration(sessions);
 
-            // get the pushers list
-            refreshPushersList(sessions, null);
+        if (sessionsToCheck.isEmpty()) {
+            Log.d(LOG_TAG, "registerToThirdPartyServer : the pushers are already registered by this device");
+            onSessionsRegistered(sessions, false);
+            return;
+        }
 
-            // the notifications have been disabled while registering them
-            if (useGCM() && !areDeviceNotificationsAllowed()) {
-                // remove them
-                unregister(null);
+        refreshPushersList(sessionsToCheck, new SimpleApiCallback<Void>() {
+            @Override
+            public void onSuccess(Void info) {
+                registerMissingPushers(sessions);
+            }
+        });
+    }
+
+    /**
+     * Register the sessions whose pusher is not registered.
+     * @param sessions the sessions list.
+     */
+    private void registerMissingPushers(final ArrayList<MXSession> sessions) {
+        final ArrayList<MXSession> sessionsToRegister = new ArrayList<>();
+
+        for (MXSession session : sessions) {
+            if (isPusherRegistered(session)) {
+                Log.d(LOG_TAG, "registerSessions : the pusher of " + session.getMyUserId() + " is already registered");
             } else {
-                CommonActivityUtils.onGcmUpdate(mContext);
+                sessionsToRegister.add(session);
+            }
+        }
+
+        if (sessionsToRegister.isEmpty()) {
+            onSessionsRegistered(sessions, false);
+        } else if (sessionsToRegister.get(0) == sessions.get(0)) {
+            // the first session registration removes the pushers of the other accounts with the same push key
+            // so it must be done before the other ones, which must be registered again.
+            final MXSession firstSession = sessionsToRegister.get(0);
+
+            sessionsToRegister.clear();
+
+            for (int index = 1; index < sessions.size(); index++) {
+                MXSession session = sessions.get(index);
+
+                setPusherRegistered(session, false);
+                mPushersByUserId.remove(session.getMyUserId());
+                sessionsToRegister.add(session);
             }
 
+            registerToThirdPartyServer(firstSession, false, 0, new ThirdPartyRegistrationListener() {
+                @Override
+                public void onThirdPartyRegistered() {
+                    Log.d(LOG_TAG, "registerSessions : session " + firstSession.getMyUserId() + " is registred");
+                    registerToThirdPartyServer(sessions, sessionsToRegister);
+                }
+
+                @Override
+                public void onThirdPartyRegistrationFailed() {
+                    Log.d(LOG_TAG, "registerSessions : onSessionRegistrationFailed " + firstSession.getMyUserId());
+
+                    mRegistrationState = RegistrationState.GCM_REGISTRED;
+                    dispatchOnThirdPartyRegistrationFailed();
+                }
+
+                @Override
+                public void onThirdPartyUnregistered() {
+                }
+
+                @Override
+                public void onThirdPartyUnregistrationFailed() {
+                }
+            });
+        } else {
+            registerToThirdPartyServer(sessions, sessionsToRegister);
+        }
+    }
+
+    /**
+     * Register some sessions in parallel.
+     * @param sessions the whole sessions list.
+     * @param sessionsToRegister the sessions to register.
+     */
+    private void registerToThirdPartyServer(final ArrayList<MXSession> sessions, final ArrayList<MXSession> sessionsToRegister) {
+        if (sessionsToRegister.isEmpty()) {
+            onSessionsRegistered(sessions, true);
             return;
         }
 
-        final MXSession session = sessions.get(index);
+        final int[] pendingRequestsCount = {sessionsToRegister.size()};
+        final boolean[] hasFailed = {false};
 
-        registerToThirdPartyServer(session, (index > 0), new ThirdPartyRegistrationListener() {
-            @Override
-            public void onThirdPartyRegistered() {
-                Log.d(LOG_TAG, "registerSessions : session " + session.getMyUserId() + " is registred");
-                registerToThirdPartyServer(sessions, index + 1);
-            }
+        for (final MXSession session : sessionsToRegister) {
+            registerToThirdPartyServer(session, true, 0, new ThirdPartyRegistrationListener() {
+                @Override
+                public void onThirdPartyRegistered() {
+                    Log.d(LOG_TAG, "registerSessions : session " + session.getMyUserId() + " is registred");
+                    onDone();
+                }
 
-            @Override
-            public void onThirdPartyRegistrationFailed() {
-                Log.d(LOG_TAG, "registerSessions : onSessionRegistrationFailed " + session.getMyUserId());
+                @Override
+                public void onThirdPartyRegistrationFailed() {
+                    Log.d(LOG_TAG, "registerSessions : onSessionRegistrationFailed " + session.getMyUserId());
+                    hasFailed[0] = true;
+                    onDone();
+                }
 
-                mRegistrationState = RegistrationState.GCM_REGISTRED;
-                dispatchOnThirdPartyRegistrationFailed();
-            }
+                private void onDone() {
+                    if (0 == --pendingRequestsCount[0]) {
+                        if (hasFailed[0]) {
+                            mRegistrationState = RegistrationState.GCM_REGISTRED;
+                            dispatchOnThirdPartyRegistrationFailed();
+                        } else {
+                            onSessionsRegistered(sessions, true);
+                        }
+                    }
+                }
 
-            @Override
-            public void onThirdPartyUnregistered() {
-            }
+                @Override
+                public void onThirdPartyUnregistered() {
+                }
 
-            @Override
-            public void onThirdPartyUnregistrationFailed() {
-            }
-        });
+                @Override
+                public void onThirdPartyUnregistrationFailed() {
+                }
+            });
+        }
+    }
+
+    /**
+     * All the sessions are registered.
+     * @param sessions the sessions list.
+     * @param refreshPushers true to refresh the pushers list
+     */
+    private void onSessionsRegistered(ArrayList<MXSession> sessions, boolean refreshPushers) {
+        Log.d(LOG_TAG, "registerSessions : all the sessions are registered");
+        mRegistrationState = RegistrationState.SERVER_REGISTERED;
+        dispatchOnThirdPartyRegistered();
+
+        // get the pushers list
+        if (refreshPushers) {
+            refreshPushersList(sessions, null);
+        }
+
+        // the notifications have been disabled while registering them
+        if (useGCM() && !areDeviceNotificationsAllowed()) {
+            // remove them
+            unregister(null);
+        } else {
+            CommonActivityUtils.onGcmUpdate(mContext);
+        }
     }
 
     /**
@@ -697,53 +988,72 @@ public final class GcmRegistrationManager {
             dispatchOnThirdPartyUnregistrationFailed();
         } else {
             mRegistrationState = RegistrationState.SERVER_UNREGISTRATING;
-            unregister(new ArrayList<>(Matrix.getInstance(mContext).getSessions()), 0);
+            unregister(new ArrayList<>(Matrix.getInstance(mContext).getSessions()));
         }
     }
 
     /**
-     * Recursive method to unregister a MXSessions list.
+     * Unregister a MXSessions list in parallel.
      * @param sessions the sessions list.
-     * @param index the index of the MX sessions to register.
      */
-    private void unregister(final ArrayList<MXSession> sessions, final int index) {
-        // reach this end of the list ?
-        if (index >= sessions.size()) {
-            mRegistrationState = RegistrationState.GCM_REGISTRED;
-
-            // trigger a registration if the user disabled thme while the unregistration was processing
-            if (useGCM() && areDeviceNotificationsAllowed() && Matrix.hasValidSessions() ) {
-                register(null);
-            } else {
-                CommonActivityUtils.onGcmUpdate(mContext);
-            }
-
-            dispatchOnThirdPartyUnregistered();
+    private void unregister(final ArrayList<MXSession> sessions) {
+        if (sessions.isEmpty()) {
+            onSessionsUnregistered();
             return;
         }
 
-        MXSession session = sessions.get(index);
+        final int[] pendingRequestsCount = {sessions.size()};
+        final boolean[] hasFailed = {false};
 
-        unregister(session , new ThirdPartyRegistrationListener() {
-            @Override
-            public void onThirdPartyRegistered() {
-            }
+        for (MXSession session : sessions) {
+            unregister(session, new ThirdPartyRegistrationListener() {
+                @Override
+                public void onThirdPartyRegistered() {
+                }
 
-            @Override
-            public void onThirdPartyRegistrationFailed() {
-            }
+                @Override
+                public void onThirdPartyRegistrationFailed() {
+                }
 
-            @Override
-            public void onThirdPartyUnregistered() {
-                unregister(sessions, index+1);
-            }
+                @Override
+                public void onThirdPartyUnregistered() {
+                    onDone();
+                }
 
-            @Override
-            public void onThirdPartyUnregistrationFailed() {
-                mRegistrationState = RegistrationState.SERVER_REGISTERED;
-                dispatchOnThirdPartyUnregistrationFailed();
-            }
-        });
+                @Override
+                public void onThirdPartyUnregistrationFailed() {
+                    hasFailed[0] = true;
+                    onDone();
+                }
+
+                private void onDone() {
+                    if (0 == --pendingRequestsCount[0]) {
+                        if (hasFailed[0]) {
+                            mRegistrationState = RegistrationState.SERVER_REGISTERED;
+                            dispatchOnThirdPartyUnregistrationFailed();
+                        } else {
+                            onSessionsUnregistered();
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * All the sessions are unregistered.
+     */
+    private void onSessionsUnregistered() {
+        mRegistrationState = RegistrationState.GCM_REGISTRED;
+
+        // trigger a registration if the user disabled thme while the unregistration was processing
+        if (useGCM() && areDeviceNotificationsAllowed() && Matrix.hasValidSessions() ) {
+            register(null);
+        } else {
+            CommonActivityUtils.onGcmUpdate(mContext);
+        }
+
+        dispatchOnThirdPartyUnregistered();
     }
 
     /**
@@ -762,6 +1072,8 @@ public final class GcmRegistrationManager {
                             public void onSuccess(Void info) {
                                 Log.d(LOG_TAG, "unregisterSession succeeded");
 
+                                setPusherRegistered(session, false);
+
                                 if (null != listener) {
                                     try {
                                         listener.onThirdPartyUnregistered();
@@ -869,7 +1181,7 @@ public final class GcmRegistrationManager {
      * @return true the notifications must be triggered on this device
      */
     public boolean areDeviceNotificationsAllowed() {
-        return getGcmSharedPreferences().getBoolean(PREFS_ALLOW_NOTIFICATIONS, true);
+        return getGcmPreferences().getBoolean(PREFS_ALLOW_NOTIFICATIONS, true);
     }
 
     /**
@@ -877,9 +1189,7 @@ public final class GcmRegistrationManager {
      * @param areAllowed true to enable the device notifications.
      */
     public void setDeviceNotificationsAllowed(boolean areAllowed) {
-        getGcmSharedPreferences().edit()
-                .putBoolean(PREFS_ALLOW_NOTIFICATIONS, areAllowed)
-                .apply();
+        getGcmPreferences().putBoolean(PREFS_ALLOW_NOTIFICATIONS, areAllowed);
 
         if (!useGCM()) {
             // when GCM is disabled, enable / disable the "Listen for events" notifications
@@ -891,7 +1201,7 @@ public final class GcmRegistrationManager {
      * @return true if the notifications should turn the screen on for 3 seconds.
      */
     public boolean isScreenTurnedOn() {
-        return getGcmSharedPreferences().getBoolean(PREFS_TURN_SCREEN_ON, false);
+        return getGcmPreferences().getBoolean(PREFS_TURN_SCREEN_ON, false);
     }
 
     /**
@@ -899,16 +1209,14 @@ public final class GcmRegistrationManager {
      * @param flag true to enable the device notifications.
      */
     public void setScreenTurnedOn(boolean flag) {
-        getGcmSharedPreferences().edit()
-                .putBoolean(PREFS_TURN_SCREEN_ON, flag)
-                .apply();
+        getGcmPreferences().putBoolean(PREFS_TURN_SCREEN_ON, flag);
     }
 
     /**
      * @return true if the background sync is allowed
      */
     public boolean isBackgroundSyncAllowed() {
-        return getGcmSharedPreferences().getBoolean(PREFS_ALLOW_BACKGROUND_SYNC, true);
+        return getGcmPreferences().getBoolean(PREFS_ALLOW_BACKGROUND_SYNC, true);
     }
 
     /**
@@ -916,9 +1224,7 @@ public final class GcmRegistrationManager {
      * @param isAllowed true to allow the background sync.
      */
     public void setBackgroundSyncAllowed(boolean isAllowed) {
-        getGcmSharedPreferences().edit()
-                .putBoolean(PREFS_ALLOW_BACKGROUND_SYNC, isAllowed)
-                .apply();
+        getGcmPreferences().putBoolean(PREFS_ALLOW_BACKGROUND_SYNC, isAllowed);
 
         // when GCM is disabled, enable / disable the "Listen for events" notifications
         CommonActivityUtils.onGcmUpdate(mContext);
@@ -935,16 +1241,14 @@ public final class GcmRegistrationManager {
         if (null != session) {
             currentValue = session.getSyncTimeout();
         }
-        return getGcmSharedPreferences().getInt(PREFS_SYNC_TIMEOUT, currentValue);
+        return getGcmPreferences().getInt(PREFS_SYNC_TIMEOUT, currentValue);
     }
 
     /**
      * @param syncDelay the new sync delay in ms.
      */
     public void setBackgroundSyncTimeOut(int syncDelay) {
-        getGcmSharedPreferences().edit()
-                .putInt(PREFS_SYNC_TIMEOUT, syncDelay)
-                .apply();
+        getGcmPreferences().putInt(PREFS_SYNC_TIMEOUT, syncDelay);
     }
 
     /**
@@ -952,7 +1256,7 @@ public final class GcmRegistrationManager {
      */
     public int getBackgroundSyncDelay() {
         // on fdroid version, the default sync delay is about 10 seconds
-        if ((null == mRegistrationToken) && !getGcmSharedPreferences().contains(PREFS_SYNC_DELAY)) {
+        if ((null == mRegistrationToken) && !getGcmPreferences().contains(PREFS_SYNC_DELAY)) {
             return 10000;
         } else {
             int currentValue = 0;
@@ -962,7 +1266,7 @@ public final class GcmRegistrationManager {
                 currentValue = session.getSyncDelay();
             }
 
-            return getGcmSharedPreferences().getInt(PREFS_SYNC_DELAY, currentValue);
+            return getGcmPreferences().getInt(PREFS_SYNC_DELAY, currentValue);
         }
     }
 
@@ -970,9 +1274,7 @@ public final class GcmRegistrationManager {
      * @param syncDelay the delay between two syncs in ms.
      */
     public void setBackgroundSyncDelay(int syncDelay) {
-        getGcmSharedPreferences().edit()
-                .putInt(PREFS_SYNC_DELAY, syncDelay)
-                .apply();
+        getGcmPreferences().putInt(PREFS_SYNC_DELAY, syncDelay);
     }
 
     //================================================================================
@@ -982,15 +1284,15 @@ public final class GcmRegistrationManager {
     /**
      * @return the GCM preferences
      */
-    private SharedPreferences getGcmSharedPreferences() {
-        return mContext.getSharedPreferences(PREFS_GCM, Context.MODE_PRIVATE);
+    private VectorPreferences getGcmPreferences() {
+        return VectorPreferences.getInstance(mContext, PREFS_GCM);
     }
 
     /**
      * @return the GCM registration stored for this version of the app or null if none is stored.
      */
     private String getStoredRegistrationToken() {
-        return getGcmSharedPreferences().getString(PREFS_PUSHER_REGISTRATION_TOKEN_KEY, null);
+        return getGcmPreferences().getString(PREFS_PUSHER_REGISTRATION_TOKEN_KEY, null);
     }
 
     /**
@@ -1000,9 +1302,7 @@ public final class GcmRegistrationManager {
     private void setStoredRegistrationToken(String registrationToken) {
         Log.d(LOG_TAG, "Saving registration token");
 
-        getGcmSharedPreferences().edit()
-                .putString(PREFS_PUSHER_REGISTRATION_TOKEN_KEY, registrationToken)
-                .apply();
+        getGcmPreferences().putString(PREFS_PUSHER_REGISTRATION_TOKEN_KEY, registrationToken);
     }
 
     //================================================================================
@@ -0,0 +1,275 @@
+/*
+ * Copyright 2016 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.gcm;
+
+import android.text.TextUtils;
+
+import org.matrix.androidsdk.data.store.IMXStore;
+import org.matrix.androidsdk.rest.callback.ApiCallback;
+import org.matrix.androidsdk.rest.client.RoomsRestClient;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.EventContext;
+import org.matrix.androidsdk.rest.model.MatrixError;
+import org.matrix.androidsdk.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fetch the events of a pushed room without running the events stream.
+ * Only the context of the pushed event is requested, so a push does not trigger a full incremental sync.
+ * The fetched events are not saved in the store : they will be received by the next sync.
+ * Their ids are remembered instead, so the next pushes of the room are checked against them
+ * and a fetched event is notified only once.
+ * The REST client and the store are provided by the caller, so the fetcher can run against any homeserver.
+ */
+public class PushEventFetcher {
+    private static final String LOG_TAG = "PushEventFetcher";
+
+    // the number of events requested before the pushed one
+    private static final int CONTEXT_EVENTS_LIMIT = 10;
+
+    // the max time to wait for the server response
+    private static final long FETCH_TIMEOUT_MS = 10000;
+
+    // the max number of remembered events by room
+    private static final int MAX_FETCHED_EVENTS_BY_ROOM = 50;
+
+    // the max number of rooms with remembered events
+    private static final int MAX_FETCHED_ROOMS = 20;
+
+    // the events ids fetched by the previous pushes, by room id, the oldest first
+    // the least recently pushed rooms are forgotten first
+    private static final LinkedHashMap<String, LinkedHashSet<String>> mFetchedEventIdsByRoomId = new LinkedHashMap<String, LinkedHashSet<String>>(MAX_FETCHED_ROOMS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, LinkedHashSet<String>> eldest) {
+            return size() > MAX_FETCHED_ROOMS;
+        }
+    };
+
+    /**
+     * The fetch result.
+     */
+    public static class Result {
+        // the events to notify, the oldest first
+        public final List<Event> mEvents = new ArrayList<>();
+
+        // true when the fetched events are not contiguous with the stored ones,
+        // a full catchup is then required.
+        public boolean mHasGap = true;
+    }
+
+    private final RoomsRestClient mRoomsRestClient;
+    private final IMXStore mStore;
+
+    /**
+     * Constructor
+     * @param roomsRestClient the rooms REST client
+     * @param store the store used to check the events continuity (can be null)
+     */
+    public PushEventFetcher(RoomsRestClient roomsRestClient, IMXStore store) {
+        mRoomsRestClient = roomsRestClient;
+        mStore = store;
+    }
+
+    /**
+     * Fetch the pushed event and the events which have not been received since the latest stored one.
+     * This method is blocking so it must not be called on the UI thread.
+     * @param roomId the room id
+     * @param eventId the event id
+     * @return the result, null if the request failed.
+     */
+    public Result fetch(final String roomId, final String eventId) {
+        if (TextUtils.isEmpty(roomId) || TextUtils.isEmpty(eventId)) {
+            Log.e(LOG_TAG, "## fetch() : invalid parameters");
+            return null;
+        }
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        final EventContext[] eventContext = new EventContext[1];
+
+        mRoomsRestClient.getContextOfEvent(roomId, eventId, CONTEXT_EVENTS_LIMIT, new ApiCallback<EventContext>() {
+            @Override
+            public void onSuccess(EventContext info) {
+                eventContext[0] = info;
+                latch.countDown();
+            }
+
+            @Override
+            public void onNetworkError(Exception e) {
+                Log.e(LOG_TAG, "## fetch() : getContextOfEvent failed " + e.getMessage());
+                latch.countDown();
+            }
+
+            @Override
+            public void onMatrixError(MatrixError e) {
+                Log.e(LOG_TAG, "## fetch() : getContextOfEvent failed " + e.getMessage());
+                latch.countDown();
+            }
+
+            @Override
+            public void onUnexpectedError(Exception e) {
+                Log.e(LOG_TAG, "## fetch() : getContextOfEvent failed " + e.getMessage());
+                latch.countDown();
+            }
+        });
+
+        try {
+            if (!latch.await(FETCH_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                Log.e(LOG_TAG, "## fetch() : timeout");
+                return null;
+            }
+        } catch (InterruptedException e) {
+            Log.e(LOG_TAG, "## fetch() : interrupted");
+            return null;
+        }
+
+        if ((null == eventContext[0]) || (null == eventContext[0].event)) {
+            return null;
+        }
+
+        return buildResult(roomId, eventContext[0]);
+    }
+
+    /**
+     * Provides the events ids fetched by the previous pushes.
+     * They are forgotten once the store contains the latest one, i.e. once the events stream has received them.
+     * @param roomId the room id
+     * @return the fetched events ids, the oldest first
+     */
+    private Set<String> getFetchedEventIds(String roomId) {
+        synchronized (mFetchedEventIdsByRoomId) {
+            LinkedHashSet<String> fetchedEventIds = mFetchedEventIdsByRoomId.get(roomId);
+
+            if (null == fetchedEventIds) {
+                return new HashSet<>();
+            }
+
+            String latestFetchedEventId = null;
+
+            for (String eventId : fetchedEventIds) {
+                latestFetchedEventId = eventId;
+            }
+
+            if ((null != mStore) && mStore.doesEventExist(latestFetchedEventId, roomId)) {
+                mFetchedEventIdsByRoomId.remove(roomId);
+                return new HashSet<>();
+            }
+
+            return new HashSet<>(fetchedEventIds);
+        }
+    }
+
+    /**
+     * Remember the fetched events.
+     * @param roomId the room id
+     * @param events the fetched events, the oldest first
+     */
+    private void addFetchedEvents(String roomId, List<Event> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+
+        synchronized (mFetchedEventIdsByRoomId) {
+            LinkedHashSet<String> fetchedEventIds = mFetchedEventIdsByRoomId.get(roomId);
+
+            if (null == fetchedEventIds) {
+                fetchedEventIds = new LinkedHashSet<>();
+                mFetchedEventIdsByRoomId.put(roomId, fetchedEventIds);
+            }
+
+            for (Event event : events) {
+                fetchedEventIds.add(event.eventId);
+            }
+
+            Iterator<String> iterator = fetchedEventIds.iterator();
+
+            while ((fetchedEventIds.size() > MAX_FETCHED_EVENTS_BY_ROOM) && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Tells if an event has already been received, by the events stream or by a previous push.
+     * @param roomId the room id
+     * @param eventId the event id
+     * @param fetchedEventIds the events ids fetched by the previous pushes
+     * @return true if the event is known
+     */
+    private boolean isKnownEvent(String roomId, String eventId, Set<String> fetchedEventIds) {
+        return fetchedEventIds.contains(eventId) || ((null != mStore) && mStore.doesEventExist(eventId, roomId));
+    }
+
+    /**
+     * Compute the events to notify and check if they are contiguous with the known ones.
+     * @param roomId the room id
+     * @param eventContext the pushed event context
+     * @return the result
+     */
+    private Result buildResult(String roomId, EventContext eventContext) {
+        Result result = new Result();
+
+        Event latestStoredEvent = (null != mStore) ? mStore.getLatestEvent(roomId) : null;
+        String latestStoredEventId = (null != latestStoredEvent) ? latestStoredEvent.eventId : null;
+        Set<String> fetchedEventIds = getFetchedEventIds(roomId);
+
+        // the events before are sorted from the newest to the oldest
+        if (null != eventContext.eventsBefore) {
+            for (Event event : eventContext.eventsBefore) {
+                if (TextUtils.equals(latestStoredEventId, event.eventId) || fetchedEventIds.contains(event.eventId)) {
+                    result.mHasGap = false;
+                    break;
+                }
+
+                if (!isKnownEvent(roomId, event.eventId, fetchedEventIds)) {
+                    event.roomId = roomId;
+                    result.mEvents.add(0, event);
+                }
+            }
+        }
+
+        // the pushed event might have already been received by the events stream or by a previous push
+        if (TextUtils.equals(latestStoredEventId, eventContext.event.eventId) || fetchedEventIds.contains(eventContext.event.eventId)) {
+            result.mHasGap = false;
+        } else if (!isKnownEvent(roomId, eventContext.event.eventId, fetchedEventIds)) {
+            eventContext.event.roomId = roomId;
+            result.mEvents.add(eventContext.event);
+        }
+
+        // less events than requested means that the room creation has been reached
+        // so there is no missing event.
+        if ((null == eventContext.eventsBefore) || (eventContext.eventsBefore.size() < CONTEXT_EVENTS_LIMIT)) {
+            result.mHasGap = false;
+        }
+
+        addFetchedEvents(roomId, result.mEvents);
+
+        Log.d(LOG_TAG, "## buildResult() : " + result.mEvents.size() + " events to notify, has gap " + result.mHasGap);
+
+        return result;
+    }
+}
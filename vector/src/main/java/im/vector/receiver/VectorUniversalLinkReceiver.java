@@ -37,8 +37,6 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
 
 import im.vector.Matrix;
 import im.vector.VectorApp;
@@ -47,6 +45,7 @@ import im.vector.activity.LoginActivity;
 import im.vector.activity.VectorHomeActivity;
 import im.vector.activity.VectorMemberDetailsActivity;
 import im.vector.activity.VectorRoomActivity;
+import im.vector.util.VectorExecutors;
 
 @SuppressLint("LongLogTag")
 /**
@@ -235,12 +234,9 @@ public class VectorUniversalLinkReceiver extends BroadcastReceiver {
             intent.putExtra(VectorHomeActivity.EXTRA_WAITING_VIEW_STATUS, VectorHomeActivity.WAITING_VIEW_START);
             aContext.startActivity(intent);
 
-            final Timer wakeup = new Timer();
-
-            wakeup.schedule(new TimerTask() {
+            VectorExecutors.schedule(new Runnable() {
                 @Override
                 public void run() {
-                    wakeup.cancel();
                     manageRoomOnActivity(aContext);
                 }
             }, 200);
@@ -59,6 +59,7 @@ import im.vector.activity.CommonActivityUtils;
 import im.vector.activity.VectorHomeActivity;
 import im.vector.gcm.GcmRegistrationManager;
 import im.vector.util.NotificationUtils;
+import im.vector.util.TraceLog;
 import im.vector.util.VectorCallSoundManager;
 import im.vector.util.VectorUtils;
 
@@ -285,8 +286,11 @@ public class EventStreamService extends Service {
 
         @Override
         public void onLiveEventsChunkProcessed() {
-            triggerPreparedNotification(true);
-            mPendingNotifications.clear();
+            // the notifications might also be prepared by the push worker
+            synchronized (EventStreamService.this) {
+                triggerPreparedNotification(true);
+                mPendingNotifications.clear();
+            }
 
             // do not suspend the application if there is some active calls
             if ((StreamAction.CATCHUP == mServiceState) || (StreamAction.PAUSE == mServiceState)) {
@@ -839,11 +843,11 @@ public class EventStreamService extends Service {
      * @param roomState the room state
      * @param bingRule the bing rule
      */
-    public void prepareNotification(Event event, RoomState roomState, BingRule bingRule) {
+    public synchronized void prepareNotification(Event event, RoomState roomState, BingRule bingRule) {
         String uid = computeEventUID(event);
 
         if (mPendingNotifications.indexOf(uid) >= 0) {
-            Log.d(LOG_TAG, "prepareNotification : don't bing - the event was already binged");
+            TraceLog.d(TraceLog.EVENT_NOTIFICATION_ALREADY_BINGED);
             checkNotification();
             return;
         }
@@ -856,7 +860,7 @@ public class EventStreamService extends Service {
         }
 
         if (!mGcmRegistrationManager.areDeviceNotificationsAllowed()) {
-            Log.d(LOG_TAG, "prepareNotification : the push has been disable on this device");
+            TraceLog.d(TraceLog.EVENT_NOTIFICATION_PUSH_DISABLED);
             return;
         }
 
@@ -869,7 +873,7 @@ public class EventStreamService extends Service {
 
         // Just don't bing for the room the user's currently in
         if (!VectorApp.isAppInBackground() && (roomId != null) && event.roomId.equals(ViewedRoomTracker.getInstance().getViewedRoomId())) {
-            Log.d(LOG_TAG, "prepareNotification : don't bing because it is the currently opened room");
+            TraceLog.d(TraceLog.EVENT_NOTIFICATION_VIEWED_ROOM);
             return;
         }
 
@@ -878,7 +882,7 @@ public class EventStreamService extends Service {
         if (!event.getContent().getAsJsonObject().has("body")) {
             // only the membership events are supported
             if (!Event.EVENT_TYPE_STATE_ROOM_MEMBER.equals(event.getType()) && !event.isCallEvent()) {
-                Log.d(LOG_TAG, "onBingEvent : don't bing - no body and not a call event");
+                TraceLog.d(TraceLog.EVENT_NOTIFICATION_NO_BODY);
                 return;
             }
         }
@@ -890,7 +894,7 @@ public class EventStreamService extends Service {
         // But it could be triggered because of multi accounts management.
         // The dedicated account is removing but some pushes are still received.
         if ((null == session) || !session.isAlive()) {
-            Log.d(LOG_TAG, "prepareNotification : don't bing - no session");
+            TraceLog.d(TraceLog.EVENT_NOTIFICATION_NO_SESSION);
             return;
         }
 
@@ -898,7 +902,7 @@ public class EventStreamService extends Service {
 
         // invalid room ?
         if (null == room) {
-            Log.d(LOG_TAG, "prepareNotification : don't bing - the room does not exist");
+            TraceLog.d(TraceLog.EVENT_NOTIFICATION_UNKNOWN_ROOM);
             return;
         }
 
@@ -984,7 +988,7 @@ public class EventStreamService extends Service {
      * Trigger the latest prepared notification
      * @param checkNotification true to check if the prepared notification still makes sense.
      */
-    public void triggerPreparedNotification(boolean checkNotification) {
+    public synchronized void triggerPreparedNotification(boolean checkNotification) {
         if (null != mLatestNotification) {
             if (checkNotification) {
                 // check first if the message has not been read
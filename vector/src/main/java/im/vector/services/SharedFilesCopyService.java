@@ -0,0 +1,131 @@
+/*
+ * Copyright 2016 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.services;
+
+import android.app.Service;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+
+import org.matrix.androidsdk.util.ContentUtils;
+import org.matrix.androidsdk.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import im.vector.activity.SplashActivity;
+import im.vector.activity.VectorHomeActivity;
+import im.vector.util.SharedDataItem;
+import im.vector.util.VectorFileExporter;
+
+/**
+ * Copy the items shared by another application into the application cache,
+ * then provide them to the home activity.
+ * The copy is done by a service because the sharing activity is finished immediately.
+ */
+public class SharedFilesCopyService extends Service {
+    private static final String LOG_TAG = "SharedFilesCopyService";
+
+    // the intent received from the other application
+    public static final String EXTRA_SHARED_INTENT = "SharedFilesCopyService.EXTRA_SHARED_INTENT";
+    // true if the application is launched
+    public static final String EXTRA_IS_APP_LAUNCHED = "SharedFilesCopyService.EXTRA_IS_APP_LAUNCHED";
+
+    private static final String SHARED_FOLDER = "VectorShared";
+
+    private final Handler mUiHandler = new Handler(Looper.getMainLooper());
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, final int startId) {
+        final Intent sharedIntent = (null != intent) ? (Intent) intent.getParcelableExtra(EXTRA_SHARED_INTENT) : null;
+
+        if (null == sharedIntent) {
+            Log.e(LOG_TAG, "## onStartCommand() : no shared intent");
+            stopSelf(startId);
+            return START_NOT_STICKY;
+        }
+
+        final boolean isAppLaunched = intent.getBooleanExtra(EXTRA_IS_APP_LAUNCHED, false);
+        final File sharedFolder = new File(getCacheDir(), SHARED_FOLDER);
+
+        VectorFileExporter.execute(new Runnable() {
+            @Override
+            public void run() {
+                // clear the existing folder to reduce storage memory usage
+                if (sharedFolder.exists()) {
+                    ContentUtils.deleteDirectory(sharedFolder);
+                }
+
+                sharedFolder.mkdir();
+
+                final ArrayList<SharedDataItem> cachedFiles = new ArrayList<>(SharedDataItem.listSharedDataItems(sharedIntent));
+
+                for (SharedDataItem sharedDataItem : cachedFiles) {
+                    sharedDataItem.saveMedia(SharedFilesCopyService.this, sharedFolder);
+                }
+
+                mUiHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        launchActivity(cachedFiles, isAppLaunched);
+                        stopSelf(startId);
+                    }
+                });
+            }
+        });
+
+        return START_NOT_STICKY;
+    }
+
+    /**
+     * Provide the copied items to the home activity.
+     * @param cachedFiles the copied items
+     * @param isAppLaunched true if the application is launched
+     */
+    private void launchActivity(ArrayList<SharedDataItem> cachedFiles, boolean isAppLaunched) {
+        Log.d(LOG_TAG, "## launchActivity() : launch home activity with the files list " + cachedFiles.size() + " files");
+
+        Intent activityIntent;
+
+        if (isAppLaunched) {
+            activityIntent = new Intent(this, VectorHomeActivity.class);
+        } else {
+            activityIntent = new Intent(this, SplashActivity.class);
+        }
+
+        activityIntent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP | Intent.FLAG_ACTIVITY_CLEAR_TASK | Intent.FLAG_ACTIVITY_NEW_TASK);
+
+        if (0 != cachedFiles.size()) {
+            Intent shareIntent = new Intent();
+            shareIntent.setAction(Intent.ACTION_SEND_MULTIPLE);
+            shareIntent.putParcelableArrayListExtra(Intent.EXTRA_STREAM, cachedFiles);
+            shareIntent.setExtrasClassLoader(SharedDataItem.class.getClassLoader());
+            shareIntent.setType("*/*");
+
+            // files to share
+            activityIntent.putExtra(VectorHomeActivity.EXTRA_SHARED_INTENT_PARAMS, shareIntent);
+        }
+
+        startActivity(activityIntent);
+    }
+}
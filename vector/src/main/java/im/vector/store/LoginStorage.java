@@ -26,9 +26,17 @@ import org.json.JSONObject;
 import org.matrix.androidsdk.HomeserverConnectionConfig;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import im.vector.util.VectorExecutors;
 
 /**
  * Stores login credentials in SharedPreferences.
+ * The credentials are parsed once and kept in memory : the readers get an immutable snapshot.
+ * The updates replace the snapshot (copy on write) and are serialized in background,
+ * the latest snapshot is written in one apply() when several updates are queued.
  */
 public class LoginStorage {
     private static final String LOG_TAG = "LoginStorage";
@@ -40,15 +48,25 @@ public class LoginStorage {
 
     private final Context mContext;
 
+    // the credentials snapshot, null until it is loaded.
+    private volatile List<HomeserverConnectionConfig> mCredentialsList = null;
+
+    // true when a snapshot writing is queued
+    private boolean mIsWritePending = false;
+
+    // serialize the credentials in background, one snapshot at a time
+    private static final Executor mCredentialsWriter = new VectorExecutors.SerialExecutor(VectorExecutors.getIOExecutor());
+
     public LoginStorage(Context appContext) {
         mContext = appContext.getApplicationContext();
 
     }
 
     /**
+     * Parse the stored credentials.
      * @return the list of home server configurations.
      */
-    public ArrayList<HomeserverConnectionConfig> getCredentialsList() {
+    private List<HomeserverConnectionConfig> loadCredentialsList() {
         SharedPreferences prefs = mContext.getSharedPreferences(PREFS_LOGIN, Context.MODE_PRIVATE);
 
         String connectionConfigsString = prefs.getString(PREFS_KEY_CONNECTION_CONFIGS, null);
@@ -80,34 +98,92 @@ public class LoginStorage {
     }
 
     /**
-     * Add a credentials to the credentials list
-     * @param config the home server config to add.
+     * @return the list of home server configurations (immutable snapshot).
      */
-    public void addCredentials(HomeserverConnectionConfig config) {
-        if (null != config && config.getCredentials() != null) {
-            SharedPreferences prefs = mContext.getSharedPreferences(PREFS_LOGIN, Context.MODE_PRIVATE);
-            SharedPreferences.Editor editor = prefs.edit();
+    public List<HomeserverConnectionConfig> getCredentialsList() {
+        List<HomeserverConnectionConfig> credentialsList = mCredentialsList;
 
-            ArrayList<HomeserverConnectionConfig> configs = getCredentialsList();
+        if (null == credentialsList) {
+            synchronized (this) {
+                if (null == mCredentialsList) {
+                    mCredentialsList = Collections.unmodifiableList(loadCredentialsList());
+                }
 
-            configs.add(config);
+                credentialsList = mCredentialsList;
+            }
+        }
 
-            ArrayList<JSONObject> serialized = new ArrayList<>(configs.size());
+        return credentialsList;
+    }
 
-            try {
-                for (HomeserverConnectionConfig c : configs) {
-                    serialized.add(c.toJson());
+    /**
+     * Replace the credentials snapshot and write it in background.
+     * It must be called in a synchronized block.
+     * @param configs the new credentials list
+     */
+    private void setCredentialsList(ArrayList<HomeserverConnectionConfig> configs) {
+        mCredentialsList = Collections.unmodifiableList(configs);
+
+        // a writing is already queued : it will use the latest snapshot
+        if (mIsWritePending) {
+            return;
+        }
+
+        mIsWritePending = true;
+
+        mCredentialsWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<HomeserverConnectionConfig> snapshot;
+
+                synchronized (LoginStorage.this) {
+                    mIsWritePending = false;
+                    snapshot = mCredentialsList;
                 }
-            } catch (JSONException e) {
-                throw new RuntimeException("Failed to serialize connection config");
+
+                writeCredentialsList(snapshot);
+            }
+        });
+    }
+
+    /**
+     * Serialize and store a credentials list.
+     * @param configs the credentials list
+     */
+    private void writeCredentialsList(List<HomeserverConnectionConfig> configs) {
+        ArrayList<JSONObject> serialized = new ArrayList<>(configs.size());
+
+        try {
+            for (HomeserverConnectionConfig c : configs) {
+                serialized.add(c.toJson());
             }
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, "Failed to serialize connection config " + e.getMessage(), e);
+            return;
+        }
+
+        String ser = new JSONArray(serialized).toString();
+
+        Log.d(LOG_TAG, "Storing " + serialized.size() + " credentials");
 
-            String ser = new JSONArray(serialized).toString();
+        SharedPreferences prefs = mContext.getSharedPreferences(PREFS_LOGIN, Context.MODE_PRIVATE);
+        SharedPreferences.Editor editor = prefs.edit();
+        editor.putString(PREFS_KEY_CONNECTION_CONFIGS, ser);
+        editor.apply();
+    }
 
-            Log.d(LOG_TAG, "Storing " + serialized.size() + " credentials");
+    /**
+     * Add a credentials to the credentials list
+     * @param config the home server config to add.
+     */
+    public void addCredentials(HomeserverConnectionConfig config) {
+        if (null != config && config.getCredentials() != null) {
+            synchronized (this) {
+                ArrayList<HomeserverConnectionConfig> configs = new ArrayList<>(getCredentialsList());
 
-            editor.putString(PREFS_KEY_CONNECTION_CONFIGS, ser);
-            editor.apply();
+                configs.add(config);
+                setCredentialsList(configs);
+            }
         }
     }
 
@@ -119,33 +195,22 @@ public class LoginStorage {
         if (null != config && config.getCredentials() != null) {
             Log.d(LOG_TAG, "Removing account: " + config.getCredentials().userId);
 
-            SharedPreferences prefs = mContext.getSharedPreferences(PREFS_LOGIN, Context.MODE_PRIVATE);
-            SharedPreferences.Editor editor = prefs.edit();
+            synchronized (this) {
+                ArrayList<HomeserverConnectionConfig> configs = new ArrayList<>(getCredentialsList());
 
-            ArrayList<HomeserverConnectionConfig> configs = getCredentialsList();
-            ArrayList<JSONObject> serialized = new ArrayList<>(configs.size());
+                boolean found = false;
 
-            boolean found = false;
-            try {
-                for (HomeserverConnectionConfig c : configs) {
-                    if (c.getCredentials().userId.equals(config.getCredentials().userId)) {
+                for (int i = configs.size() - 1; i >= 0; i--) {
+                    if (configs.get(i).getCredentials().userId.equals(config.getCredentials().userId)) {
+                        configs.remove(i);
                         found = true;
-                    } else {
-                        serialized.add(c.toJson());
                     }
                 }
-            } catch (JSONException e) {
-                throw new RuntimeException("Failed to serialize connection config");
-            }
-
-            if (!found) return;
-
-            String ser = new JSONArray(serialized).toString();
 
-            Log.d(LOG_TAG, "Storing " + serialized.size() + " credentials");
+                if (!found) return;
 
-            editor.putString(PREFS_KEY_CONNECTION_CONFIGS, ser);
-            editor.apply();
+                setCredentialsList(configs);
+            }
         }
     }
 
@@ -156,34 +221,22 @@ public class LoginStorage {
      */
     public void replaceCredentials(HomeserverConnectionConfig config) {
         if (null != config && config.getCredentials() != null) {
-            SharedPreferences prefs = mContext.getSharedPreferences(PREFS_LOGIN, Context.MODE_PRIVATE);
-            SharedPreferences.Editor editor = prefs.edit();
+            synchronized (this) {
+                ArrayList<HomeserverConnectionConfig> configs = new ArrayList<>(getCredentialsList());
 
-            ArrayList<HomeserverConnectionConfig> configs = getCredentialsList();
-            ArrayList<JSONObject> serialized = new ArrayList<>(configs.size());
+                boolean found = false;
 
-            boolean found = false;
-            try {
-                for (HomeserverConnectionConfig c : configs) {
-                    if (c.getCredentials().userId.equals(config.getCredentials().userId)) {
-                        serialized.add(config.toJson());
+                for (int i = 0; i < configs.size(); i++) {
+                    if (configs.get(i).getCredentials().userId.equals(config.getCredentials().userId)) {
+                        configs.set(i, config);
                         found = true;
-                    } else {
-                        serialized.add(c.toJson());
                     }
                 }
-            } catch (JSONException e) {
-                throw new RuntimeException("Failed to serialize connection config");
-            }
-
-            if (!found) return;
 
-            String ser = new JSONArray(serialized).toString();
+                if (!found) return;
 
-            Log.d(LOG_TAG, "Storing " + serialized.size() + " credentials");
-
-            editor.putString(PREFS_KEY_CONNECTION_CONFIGS, ser);
-            editor.apply();
+                setCredentialsList(configs);
+            }
         }
     }
 
@@ -191,9 +244,9 @@ public class LoginStorage {
      * Clear the stored values
      */
     public void clear() {
-        SharedPreferences prefs = mContext.getSharedPreferences(PREFS_LOGIN, Context.MODE_PRIVATE);
-        SharedPreferences.Editor editor = prefs.edit();
-        editor.remove(PREFS_KEY_CONNECTION_CONFIGS);
-        editor.apply();
+        // the writings are queued : a pending one must not restore the previous credentials
+        synchronized (this) {
+            setCredentialsList(new ArrayList<HomeserverConnectionConfig>());
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,529 @@
+/*
+ * Copyright 2016 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.store;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.text.TextUtils;
+
+import org.matrix.androidsdk.HomeserverConnectionConfig;
+import org.matrix.androidsdk.data.EventTimeline;
+import org.matrix.androidsdk.data.store.MXFileStore;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.ReceiptData;
+import org.matrix.androidsdk.rest.model.TokensChunkResponse;
+import org.matrix.androidsdk.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * File store which only keeps the timeline of the recently active rooms in memory.
+ * The other rooms (cold rooms) only keep their latest event (for the rooms summaries)
+ * and their events ids : their timeline is loaded from the MXFileStore files when it is requested.
+ * The rooms updated since the store opening are never released because their files might not be saved yet.
+ */
+public class VectorTieredFileStore extends MXFileStore {
+    private static final String LOG_TAG = "VectorTieredFileStore";
+
+    // MXFileStore tree
+    private static final String MXFILE_STORE_FOLDER = "MXFileStore";
+    private static final String MXFILE_STORE_GZ_ROOMS_MESSAGES_FOLDER = "messages_gz";
+
+    // the undeliverable events timestamp, as MXFileStore sets it
+    private static final long UNDELIVERABLE_EVENTS_TS = 1125899906842624L;
+
+    // the max number of rooms whose timeline is kept in memory
+    private final int mMaxHotRoomsCount;
+
+    // the rooms whose timeline is in memory, the least recently used first
+    private final LinkedHashMap<String, Boolean> mHotRooms = new LinkedHashMap<>(16, 0.75f, true);
+    // the rooms whose timeline is only on the file system
+    private final HashSet<String> mColdRooms = new HashSet<>();
+    // the rooms updated since the store opening
+    private final HashSet<String> mUpdatedRooms = new HashSet<>();
+    // the loaded rooms whose unsent events have been flagged as undeliverable
+    private final HashSet<String> mUndeliverableRoomIds = new HashSet<>();
+
+    // the rooms timeline folder
+    private final File mRoomsMessagesFolder;
+
+    // the tiers are computed when the store is ready
+    private boolean mAreTiersInitialized = false;
+
+    // statistics
+    private long mHitsCount = 0;
+    private long mMissesCount = 0;
+    private long mReleasesCount = 0;
+    private long mLoadsDuration = 0;
+    private long mMaxLoadDuration = 0;
+
+    /**
+     * Constructor
+     * @param hsConfig the home server config
+     * @param context the context
+     * @param maxHotRoomsCount the max number of rooms whose timeline is kept in memory
+     */
+    public VectorTieredFileStore(HomeserverConnectionConfig hsConfig, Context context, int maxHotRoomsCount) {
+        super(hsConfig, context);
+
+        mMaxHotRoomsCount = Math.max(1, maxHotRoomsCount);
+
+        File storeFolder = new File(new File(context.getApplicationContext().getFilesDir(), MXFILE_STORE_FOLDER), hsConfig.getCredentials().userId);
+        mRoomsMessagesFolder = new File(storeFolder, MXFILE_STORE_GZ_ROOMS_MESSAGES_FOLDER);
+    }
+
+    //================================================================================
+    // Tiers management
+    //================================================================================
+
+    /**
+     * Provides the timestamp of the latest event of a room.
+     * @param roomId the room id
+     * @return the timestamp
+     */
+    private long getLatestEventTs(String roomId) {
+        Event event = super.getLatestEvent(roomId);
+        return (null != event) ? event.getOriginServerTs() : 0;
+    }
+
+    /**
+     * Keep the timeline of the most recently active rooms in memory, release the other ones.
+     */
+    private void initTiers() {
+        synchronized (mRoomEventsLock) {
+            // the store ready callback is also dispatched when the store is opened again
+            if (mAreTiersInitialized) {
+                return;
+            }
+
+            mAreTiersInitialized = true;
+
+            ArrayList<String> roomIds = new ArrayList<>(mRoomEvents.keySet());
+
+            // the oldest first
+            Collections.sort(roomIds, new Comparator<String>() {
+                @Override
+                public int compare(String roomId1, String roomId2) {
+                    long diff = getLatestEventTs(roomId1) - getLatestEventTs(roomId2);
+                    return (diff == 0) ? 0 : ((diff > 0) ? 1 : -1);
+                }
+            });
+
+            for (String roomId : roomIds) {
+                mHotRooms.put(roomId, Boolean.TRUE);
+            }
+
+            releaseColdRooms();
+
+            Log.d(LOG_TAG, "## initTiers() : " + mHotRooms.size() + " hot rooms, " + mColdRooms.size() + " cold rooms");
+        }
+    }
+
+    /**
+     * Release the least recently used rooms timeline until there are at most mMaxHotRoomsCount hot rooms.
+     * It must be called in a mRoomEventsLock synchronized block.
+     */
+    private void releaseColdRooms() {
+        Iterator<String> iterator = mHotRooms.keySet().iterator();
+
+        while ((mHotRooms.size() > mMaxHotRoomsCount) && iterator.hasNext()) {
+            String roomId = iterator.next();
+
+            // the updated rooms files might not be saved
+            if (mUpdatedRooms.contains(roomId) || !new File(mRoomsMessagesFolder, roomId).exists()) {
+                continue;
+            }
+
+            LinkedHashMap<String, Event> events = mRoomEvents.get(roomId);
+
+            if ((null != events) && (events.size() > 1)) {
+                // keep the latest event for the rooms summaries
+                Event latestEvent = null;
+
+                for (Event event : events.values()) {
+                    latestEvent = event;
+                }
+
+                LinkedHashMap<String, Event> reducedEvents = new LinkedHashMap<>();
+                reducedEvents.put(latestEvent.eventId, latestEvent);
+                mRoomEvents.put(roomId, reducedEvents);
+
+                mColdRooms.add(roomId);
+                mReleasesCount++;
+            }
+
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Load the timeline of a room if it is a cold one.
+     * The file is read without holding mRoomEventsLock, which is shared by all the stores.
+     * @param roomId the room id
+     */
+    private void ensureHotRoom(String roomId) {
+        if (null == roomId) {
+            return;
+        }
+
+        synchronized (mRoomEventsLock) {
+            if (!mColdRooms.contains(roomId)) {
+                if (mRoomEvents.containsKey(roomId)) {
+                    mHitsCount++;
+                    mHotRooms.put(roomId, Boolean.TRUE);
+                    releaseColdRooms();
+                }
+                return;
+            }
+        }
+
+        long startTime = SystemClock.elapsedRealtime();
+        LinkedHashMap<String, Event> loadedEvents = loadRoomEvents(roomId);
+        long duration = SystemClock.elapsedRealtime() - startTime;
+
+        synchronized (mRoomEventsLock) {
+            // another thread has loaded it in the meantime
+            if (!mColdRooms.contains(roomId)) {
+                mHotRooms.put(roomId, Boolean.TRUE);
+                return;
+            }
+
+            mMissesCount++;
+            mColdRooms.remove(roomId);
+
+            mLoadsDuration += duration;
+            mMaxLoadDuration = Math.max(mMaxLoadDuration, duration);
+
+            if (null != loadedEvents) {
+                LinkedHashMap<String, Event> events = mRoomEvents.get(roomId);
+
+                // the kept latest event is the most up to date
+                if (null != events) {
+                    loadedEvents.putAll(events);
+                }
+
+                mRoomEvents.put(roomId, loadedEvents);
+                mRoomEventIds.put(roomId, new ArrayList<>(loadedEvents.keySet()));
+
+                // the unsent events have been flagged as undeliverable, the file must not be reloaded
+                if (mUndeliverableRoomIds.remove(roomId)) {
+                    mUpdatedRooms.add(roomId);
+                }
+            } else {
+                // the timeline cannot be retrieved anymore, it must not be released again.
+                mUpdatedRooms.add(roomId);
+            }
+
+            mHotRooms.put(roomId, Boolean.TRUE);
+            releaseColdRooms();
+
+            Log.d(LOG_TAG, "## ensureHotRoom() : " + roomId + " loaded in " + duration + " ms (" + getTierStatistics() + ")");
+        }
+    }
+
+    /**
+     * Tells if an event is the latest event kept by a cold room.
+     * It can be retrieved without loading the room timeline.
+     * @param roomId the room id
+     * @param eventId the event id
+     * @return true if the event is the kept one
+     */
+    private boolean isColdRoomLatestEvent(String roomId, String eventId) {
+        if ((null == roomId) || (null == eventId)) {
+            return false;
+        }
+
+        synchronized (mRoomEventsLock) {
+            if (!mColdRooms.contains(roomId)) {
+                return false;
+            }
+
+            LinkedHashMap<String, Event> events = mRoomEvents.get(roomId);
+            return (null != events) && events.containsKey(eventId);
+        }
+    }
+
+    /**
+     * Flag a room as updated, its timeline is kept in memory.
+     * @param roomId the room id
+     */
+    private void onRoomUpdate(String roomId) {
+        if (null == roomId) {
+            return;
+        }
+
+        ensureHotRoom(roomId);
+
+        synchronized (mRoomEventsLock) {
+            mUpdatedRooms.add(roomId);
+        }
+    }
+
+    /**
+     * Read the timeline of a room from the MXFileStore files.
+     * The events are post-processed as MXFileStore does when it opens the store.
+     * @param roomId the room id
+     * @return the events, null if they cannot be read.
+     */
+    @SuppressWarnings("unchecked")
+    private LinkedHashMap<String, Event> loadRoomEvents(String roomId) {
+        LinkedHashMap<String, Event> events = null;
+        ObjectInputStream ois = null;
+
+        try {
+            File roomFile = new File(mRoomsMessagesFolder, roomId);
+            File tmpFile = new File(roomFile.getParent(), roomFile.getName() + ".tmp");
+
+            // the previous save has been interrupted
+            if (tmpFile.exists()) {
+                Log.e(LOG_TAG, "## loadRoomEvents() : rescue from a tmp file");
+                roomFile = tmpFile;
+            }
+
+            ois = new ObjectInputStream(new GZIPInputStream(new FileInputStream(roomFile)));
+            events = (LinkedHashMap<String, Event>) ois.readObject();
+
+            // the unsent events are flagged as undeliverable (they are displayed at the timeline end)
+            long undeliverableTs = UNDELIVERABLE_EVENTS_TS;
+            boolean hasUndeliverableEvents = false;
+
+            for (Event event : events.values()) {
+                if ((event.mSentState == Event.SentState.UNDELIVERABLE) || (event.mSentState == Event.SentState.UNSENT) || (event.mSentState == Event.SentState.SENDING)
+                        || (event.mSentState == Event.SentState.WAITING_RETRY) || (event.mSentState == Event.SentState.ENCRYPTING)) {
+                    event.mSentState = Event.SentState.UNDELIVERABLE;
+                    event.originServerTs = undeliverableTs++;
+                    hasUndeliverableEvents = true;
+                }
+
+                event.finalizeDeserialization();
+            }
+
+            if (hasUndeliverableEvents) {
+                synchronized (mRoomEventsLock) {
+                    mUndeliverableRoomIds.add(roomId);
+                }
+            }
+        } catch (OutOfMemoryError oom) {
+            dispatchOOM(oom);
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## loadRoomEvents() : " + roomId + " failed " + e.getMessage());
+            events = null;
+        } finally {
+            if (null != ois) {
+                try {
+                    ois.close();
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## loadRoomEvents() : close failed " + e.getMessage());
+                }
+            }
+        }
+
+        return events;
+    }
+
+    /**
+     * @return the tiers statistics
+     */
+    public String getTierStatistics() {
+        synchronized (mRoomEventsLock) {
+            long loadsCount = Math.max(1, mMissesCount);
+
+            return "hot rooms " + mHotRooms.size() + "/" + mMaxHotRoomsCount + ", cold rooms " + mColdRooms.size()
+                    + ", hits " + mHitsCount + ", misses " + mMissesCount + ", releases " + mReleasesCount
+                    + ", load avg " + (mLoadsDuration / loadsCount) + " ms, load max " + mMaxLoadDuration + " ms";
+        }
+    }
+
+    //================================================================================
+    // MXFileStore
+    //================================================================================
+
+    @Override
+    protected void dispatchOnStoreReady(String accountId) {
+        initTiers();
+        super.dispatchOnStoreReady(accountId);
+    }
+
+    @Override
+    public void clear() {
+        synchronized (mRoomEventsLock) {
+            mHotRooms.clear();
+            mColdRooms.clear();
+            mUpdatedRooms.clear();
+            mUndeliverableRoomIds.clear();
+            mAreTiersInitialized = false;
+        }
+
+        super.clear();
+    }
+
+    @Override
+    public Event getOldestEvent(String roomId) {
+        ensureHotRoom(roomId);
+        return super.getOldestEvent(roomId);
+    }
+
+    @Override
+    public int eventsCountAfter(String roomId, String eventId) {
+        ensureHotRoom(roomId);
+        return super.eventsCountAfter(roomId, eventId);
+    }
+
+    @Override
+    public Event getEvent(String eventId, String roomId) {
+        if (!isColdRoomLatestEvent(roomId, eventId)) {
+            ensureHotRoom(roomId);
+        }
+        return super.getEvent(eventId, roomId);
+    }
+
+    @Override
+    public Collection<Event> getRoomMessages(String roomId) {
+        ensureHotRoom(roomId);
+        return super.getRoomMessages(roomId);
+    }
+
+    @Override
+    public TokensChunkResponse<Event> getEarlierMessages(String roomId, String fromToken, int limit) {
+        ensureHotRoom(roomId);
+        return super.getEarlierMessages(roomId, fromToken, limit);
+    }
+
+    @Override
+    public Collection<Event> getLatestUnsentEvents(String roomId) {
+        ensureHotRoom(roomId);
+        return super.getLatestUnsentEvents(roomId);
+    }
+
+    @Override
+    public Collection<Event> getUndeliverableEvents(String roomId) {
+        ensureHotRoom(roomId);
+        return super.getUndeliverableEvents(roomId);
+    }
+
+    @Override
+    public List<ReceiptData> getEventReceipts(String roomId, String eventId, boolean excludeSelf, boolean sort) {
+        ensureHotRoom(roomId);
+        return super.getEventReceipts(roomId, eventId, excludeSelf, sort);
+    }
+
+    @Override
+    public boolean isEventRead(String roomId, String userId, String eventId) {
+        // the rooms list checks the latest event read status of each room
+        if (isColdRoomLatestEvent(roomId, eventId)) {
+            ReceiptData receipt = getReceipt(roomId, userId);
+
+            // nothing is more recent than the latest event
+            return (null != receipt) && TextUtils.equals(receipt.eventId, eventId);
+        }
+
+        ensureHotRoom(roomId);
+        return super.isEventRead(roomId, userId, eventId);
+    }
+
+    @Override
+    public boolean doesEventExist(String eventId, String roomId) {
+        synchronized (mRoomEventsLock) {
+            // the events ids of the cold rooms are kept
+            if (mColdRooms.contains(roomId) && mRoomEventIds.containsKey(roomId)) {
+                return super.doesEventExist(eventId, roomId);
+            }
+        }
+
+        ensureHotRoom(roomId);
+        return super.doesEventExist(eventId, roomId);
+    }
+
+    @Override
+    public boolean storeReceipt(ReceiptData receipt, String roomId) {
+        // the own receipts are checked against the timeline order,
+        // a receipt on the latest event cannot be older than the stored one.
+        if ((null != receipt) && (null != mCredentials) && TextUtils.equals(receipt.userId, mCredentials.userId) && !isColdRoomLatestEvent(roomId, receipt.eventId)) {
+            ensureHotRoom(roomId);
+        }
+
+        return super.storeReceipt(receipt, roomId);
+    }
+
+    @Override
+    public List<Event> unreadEvents(String roomId, List<String> types) {
+        ensureHotRoom(roomId);
+        return super.unreadEvents(roomId, types);
+    }
+
+    @Override
+    public void storeLiveRoomEvent(Event event) {
+        if (null != event) {
+            onRoomUpdate(event.roomId);
+        }
+        super.storeLiveRoomEvent(event);
+    }
+
+    @Override
+    public void storeRoomEvents(String roomId, TokensChunkResponse<Event> eventsResponse, EventTimeline.Direction direction) {
+        onRoomUpdate(roomId);
+        super.storeRoomEvents(roomId, eventsResponse, direction);
+    }
+
+    @Override
+    public void deleteEvent(Event event) {
+        if (null != event) {
+            onRoomUpdate(event.roomId);
+        }
+        super.deleteEvent(event);
+    }
+
+    @Override
+    public void deleteAllRoomMessages(String roomId, boolean keepUnsent) {
+        onRoomUpdate(roomId);
+        super.deleteAllRoomMessages(roomId, keepUnsent);
+    }
+
+    @Override
+    public void deleteRoom(String roomId) {
+        synchronized (mRoomEventsLock) {
+            mHotRooms.remove(roomId);
+            mColdRooms.remove(roomId);
+            mUpdatedRooms.remove(roomId);
+            mUndeliverableRoomIds.remove(roomId);
+        }
+
+        super.deleteRoom(roomId);
+    }
+
+    @Override
+    public void deleteRoomData(String roomId) {
+        synchronized (mRoomEventsLock) {
+            mHotRooms.remove(roomId);
+            mColdRooms.remove(roomId);
+            mUpdatedRooms.add(roomId);
+        }
+
+        super.deleteRoomData(roomId);
+    }
+}
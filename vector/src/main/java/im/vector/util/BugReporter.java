@@ -16,18 +16,22 @@
 
 package im.vector.util;
 
-import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Date;
 import java.util.List;
-import java.util.zip.GZIPOutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import android.app.Activity;
 import android.app.ActivityManager;
@@ -43,6 +47,7 @@ import org.matrix.androidsdk.util.Log;
 
 import android.os.Handler;
 import android.os.Looper;
+import android.os.ParcelFileDescriptor;
 import android.text.Editable;
 import android.text.TextUtils;
 import android.text.TextWatcher;
@@ -54,10 +59,6 @@ import android.widget.EditText;
 import android.widget.RadioButton;
 import android.widget.TextView;
 
-import net.lingala.zip4j.core.ZipFile;
-import net.lingala.zip4j.model.ZipParameters;
-import net.lingala.zip4j.util.Zip4jConstants;
-
 import org.matrix.androidsdk.MXSession;
 
 import im.vector.R;
@@ -66,6 +67,7 @@ import im.vector.Matrix;
 import im.vector.activity.CommonActivityUtils;
 import im.vector.db.VectorContentProvider;
 import im.vector.gcm.GcmRegistrationManager;
+import im.vector.store.VectorTieredFileStore;
 
 import org.matrix.androidsdk.crypto.data.MXDeviceInfo;
 import org.matrix.androidsdk.data.MyUser;
@@ -109,6 +111,11 @@ public class BugReporter {
                 message += "Device key : " + myDevice.fingerprint() + "\n";
             }
 
+            if (session.getDataHandler().getStore() instanceof VectorTieredFileStore) {
+                message += "----> Store\n";
+                message += ((VectorTieredFileStore) session.getDataHandler().getStore()).getTierStatistics() + "\n";
+            }
+
             GcmRegistrationManager registrationManager = Matrix.getInstance(context).getSharedGCMRegistrationManager();
             List<Pusher> pushers = new ArrayList<>(registrationManager.mPushersList);
 
@@ -130,6 +137,14 @@ public class BugReporter {
         message += "SDK version:  " + Matrix.getInstance(context).getDefaultSession().getVersion(true) + "\n";
         message += "Olm version:  " + Matrix.getInstance(context).getDefaultSession().getCryptoVersion(context, true) + "\n";
         message += "\n";
+        message += "----------------------- Initializers ---------------------------------------\n";
+        message += "\n";
+        message += InitializerRegistry.getReport();
+        message += "\n";
+        message += "----------------------- Executors ------------------------------------------\n";
+        message += "\n";
+        message += VectorExecutors.getStatistics();
+        message += "\n";
         message += "----------------------- Memory statuses -------------------------------------\n";
         message += "\n";
 
@@ -152,7 +167,7 @@ public class BugReporter {
         message += "---------------------------------------------------------------------\n";
 
         ActivityManager.MemoryInfo mi = new ActivityManager.MemoryInfo();
-        ActivityManager activityManager = (ActivityManager) VectorApp.getCurrentActivity().getSystemService(Context.ACTIVITY_SERVICE);
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
         activityManager.getMemoryInfo(mi);
 
         message += "availMem   " + (mi.availMem / 1048576L) + " MB\n";
@@ -165,169 +180,509 @@ public class BugReporter {
         return message;
     }
 
+    // the max uncompressed size of a bug report source (log file...)
+    private static final long MAX_SOURCE_SIZE = 4 * 1024 * 1024;
+    // the max uncompressed size of the whole bug report
+    private static final long MAX_REPORT_SIZE = 16 * 1024 * 1024;
+    // the max side of the screenshot
+    private static final int SCREENSHOT_MAX_SIDE = 1024;
+    private static final int SCREENSHOT_JPEG_QUALITY = 70;
+    private static final int COPY_BUFFER_SIZE = 32 * 1024;
+
+    /**
+     * A bug report which is not yet read by the receiving application.
+     */
+    private static class PendingBugReport {
+        final String mName;
+        final String mMessage;
+        final Bitmap mScreenshot;
+
+        // true when the zip is being streamed
+        boolean mIsStreamed = false;
+
+        // released once the zip is in the cache folder (or when it fails)
+        final CountDownLatch mDoneLatch = new CountDownLatch(1);
+
+        PendingBugReport(String name, String message, Bitmap screenshot) {
+            mName = name;
+            mMessage = message;
+            mScreenshot = screenshot;
+        }
+    }
+
+    // the latest bug report, until its zip is written
+    private static PendingBugReport mPendingBugReport = null;
+
+    // the streamed zips are also kept in the cache folder because some receivers open the uri again (e.g. a mail draft)
+    private static final String BUG_REPORTS_FOLDER = "bugreports";
+    // the receiving application might read the zip a long time after the sending (e.g. a mail draft)
+    private static final long BUG_REPORT_EXPIRY_MS = 24L * 60 * 60 * 1000;
+    // the max delay to wait for a streamed zip when the uri is opened again
+    private static final long STREAMED_BUG_REPORT_WAIT_MS = 30000;
+
+    /**
+     * @param context the context
+     * @return the bug reports folder
+     */
+    private static File getBugReportsFolder(Context context) {
+        return new File(context.getCacheDir(), BUG_REPORTS_FOLDER);
+    }
+
+    /**
+     * Provides a bug report zip file.
+     * @param context the context
+     * @param name the bug report zip name
+     * @return the file, null if it does not exist or if it is expired.
+     */
+    private static File getBugReportFile(Context context, String name) {
+        File file = new File(getBugReportsFolder(context), name);
+
+        if (!file.exists() || ((System.currentTimeMillis() - file.lastModified()) > BUG_REPORT_EXPIRY_MS)) {
+            return null;
+        }
+
+        return file;
+    }
+
+    /**
+     * Delete the expired bug reports and the interrupted writings.
+     * @param folder the bug reports folder
+     */
+    private static void deleteExpiredBugReports(File folder) {
+        File[] files = folder.listFiles();
+
+        if (null == files) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+
+        for (File file : files) {
+            if (!file.getName().endsWith(".zip") || ((now - file.lastModified()) > BUG_REPORT_EXPIRY_MS)) {
+                Log.d(LOG_TAG, "## deleteExpiredBugReports() : delete " + file.getName());
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Set the bug report to stream when its uri is opened.
+     * The previous pending bug report is dropped if it has not been read.
+     * @param pendingBugReport the bug report
+     */
+    private static synchronized void setPendingBugReport(PendingBugReport pendingBugReport) {
+        if ((null != mPendingBugReport) && !mPendingBugReport.mIsStreamed) {
+            Log.d(LOG_TAG, "## setPendingBugReport() : drop " + mPendingBugReport.mName);
+            releasePendingBugReport(mPendingBugReport);
+        }
+
+        mPendingBugReport = pendingBugReport;
+    }
+
+    /**
+     * Release a pending bug report once its zip is written.
+     * @param pendingBugReport the bug report
+     */
+    private static synchronized void releasePendingBugReport(PendingBugReport pendingBugReport) {
+        if (mPendingBugReport == pendingBugReport) {
+            mPendingBugReport = null;
+        }
+
+        // the screenshot is in the zip
+        if (null != pendingBugReport.mScreenshot) {
+            pendingBugReport.mScreenshot.recycle();
+        }
+
+        pendingBugReport.mDoneLatch.countDown();
+    }
+
     /**
-     * Build the bug report zip file
-     * @param context the application context
-     * @param withScreenshot true to include the screenshort
-     * @return the zip file
+     * Open a bug report zip.
+     * The first opening returns a pipe : the zip is written while the receiver reads it, so the share does not wait for it.
+     * A pipe is not seekable and some receivers open the uri again, so the streamed zip is also kept in the cache folder :
+     * the next openings read this file.
+     * It is called on a binder thread.
+     * @param context the context
+     * @param name the bug report zip name
+     * @return the zip file descriptor, null if the bug report is unknown or expired.
+     * @throws IOException the opening failed
      */
-    private static File buildBugZipFile(Context context, boolean withScreenshot, String bugDescription) {
-        Bitmap screenShot = takeScreenshot();
+    public static ParcelFileDescriptor openBugReport(Context context, String name) throws IOException {
+        if (TextUtils.isEmpty(name) || name.contains(File.separator)) {
+            return null;
+        }
 
-        if (null != screenShot) {
+        PendingBugReport pendingBugReport = null;
+        boolean isFirstOpening = false;
+
+        synchronized (BugReporter.class) {
+            if ((null != mPendingBugReport) && TextUtils.equals(name, mPendingBugReport.mName)) {
+                pendingBugReport = mPendingBugReport;
+                isFirstOpening = !pendingBugReport.mIsStreamed;
+                pendingBugReport.mIsStreamed = true;
+            }
+        }
+
+        if (isFirstOpening) {
+            ParcelFileDescriptor[] pipe = ParcelFileDescriptor.createPipe();
+            streamBugReport(context, pendingBugReport, pipe[1]);
+            return pipe[0];
+        }
+
+        // opened again while it is streamed
+        if (null != pendingBugReport) {
             try {
-                ArrayList<File> logFiles = new ArrayList<>();
+                pendingBugReport.mDoneLatch.await(STREAMED_BUG_REPORT_WAIT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Log.e(LOG_TAG, "## openBugReport() : interrupted");
+            }
+        }
 
-                if (withScreenshot) {
-                    File screenFile = new File(VectorApp.mLogsDirectoryFile, "screenshot.jpg");
+        File file = getBugReportFile(context, name);
 
-                    if (screenFile.exists()) {
-                        screenFile.delete();
-                    }
+        return (null != file) ? ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY) : null;
+    }
 
-                    FileOutputStream screenOutputStream = new FileOutputStream(screenFile);
-                    screenShot.compress(Bitmap.CompressFormat.PNG, 50, screenOutputStream);
-                    screenOutputStream.close();
-                    logFiles.add(screenFile);
+    /**
+     * Write a bug report zip into a pipe on the IO executor.
+     * The zip is also written in the cache folder for the next openings.
+     * @param context the context
+     * @param pendingBugReport the bug report
+     * @param writeSide the write side of the pipe, it is always closed
+     */
+    private static void streamBugReport(final Context context, final PendingBugReport pendingBugReport, final ParcelFileDescriptor writeSide) {
+        VectorExecutors.getIOExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                OutputStream pipeOutputStream = new ParcelFileDescriptor.AutoCloseOutputStream(writeSide);
+                File folder = getBugReportsFolder(context);
+
+                if (!folder.exists()) {
+                    folder.mkdirs();
+                } else {
+                    deleteExpiredBugReports(folder);
                 }
 
-                {
-                    File configLogFile = new File(VectorApp.mLogsDirectoryFile, "config.txt");
-                    ByteArrayOutputStream configOutputStream = new ByteArrayOutputStream();
-                    configOutputStream.write(buildBugReportMessage(context, bugDescription).getBytes());
+                File file = new File(folder, pendingBugReport.mName);
+                // the next openings must never read a partial zip
+                File tmpFile = new File(folder, pendingBugReport.mName + ".tmp");
+
+                try {
+                    long startTime = System.currentTimeMillis();
+                    writeBugReport(pendingBugReport.mMessage, pendingBugReport.mScreenshot, new TeeOutputStream(pipeOutputStream, new FileOutputStream(tmpFile)));
 
-                    if (configLogFile.exists()) {
-                        configLogFile.delete();
+                    if (tmpFile.renameTo(file)) {
+                        Log.d(LOG_TAG, "## streamBugReport() : " + pendingBugReport.mName + " (" + file.length() + " bytes) written in " + (System.currentTimeMillis() - startTime) + " ms");
+                    } else {
+                        Log.e(LOG_TAG, "## streamBugReport() : rename failed");
                     }
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## streamBugReport() failed " + e.getMessage());
+                } catch (OutOfMemoryError oom) {
+                    Log.e(LOG_TAG, "## streamBugReport() failed oom");
+                }
 
-                    FileOutputStream fos = new FileOutputStream(configLogFile);
-                    configOutputStream.writeTo(fos);
-                    configOutputStream.flush();
-                    configOutputStream.close();
+                // the writing failed
+                tmpFile.delete();
 
-                    logFiles.add(configLogFile);
+                try {
+                    pipeOutputStream.close();
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## streamBugReport() : close failed " + e.getMessage());
                 }
 
-                {
-                    String errorCatLog = getLogCatError();
+                releasePendingBugReport(pendingBugReport);
+            }
+        });
+    }
+
+    /**
+     * Write the zip into the pipe and into the cache file.
+     * The receiver might stop reading before the end : the cache file is still completed.
+     */
+    private static class TeeOutputStream extends OutputStream {
+        private final OutputStream mPipeOutputStream;
+        private final OutputStream mFileOutputStream;
+        private boolean mIsPipeClosed = false;
+
+        TeeOutputStream(OutputStream pipeOutputStream, OutputStream fileOutputStream) {
+            mPipeOutputStream = pipeOutputStream;
+            mFileOutputStream = fileOutputStream;
+        }
 
-                    ByteArrayOutputStream logOutputStream = new ByteArrayOutputStream();
-                    logOutputStream.write(errorCatLog.getBytes());
+        @Override
+        public void write(int oneByte) throws IOException {
+            write(new byte[]{(byte) oneByte}, 0, 1);
+        }
 
-                    File debugLogFile = new File(VectorApp.mLogsDirectoryFile, "crashes.txt");
+        @Override
+        public void write(byte[] buffer, int offset, int count) throws IOException {
+            mFileOutputStream.write(buffer, offset, count);
 
-                    if (debugLogFile.exists()) {
-                        debugLogFile.delete();
-                    }
+            if (!mIsPipeClosed) {
+                try {
+                    mPipeOutputStream.write(buffer, offset, count);
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "## TeeOutputStream.write() : the receiver closed the pipe " + e.getMessage());
+                    mIsPipeClosed = true;
+                }
+            }
+        }
 
-                    FileOutputStream fos = new FileOutputStream(debugLogFile);
-                    logOutputStream.writeTo(fos);
-                    logOutputStream.flush();
-                    logOutputStream.close();
+        @Override
+        public void flush() throws IOException {
+            mFileOutputStream.flush();
 
-                    logFiles.add(debugLogFile);
+            if (!mIsPipeClosed) {
+                try {
+                    mPipeOutputStream.flush();
+                } catch (IOException e) {
+                    mIsPipeClosed = true;
                 }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                mPipeOutputStream.close();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "## TeeOutputStream.close() : " + e.getMessage());
+            }
 
+            mFileOutputStream.close();
+        }
+    }
 
-                logFiles.addAll(org.matrix.androidsdk.util.Log.addLogFiles(new ArrayList<File>()));
+    /**
+     * Copy an input stream into the current zip entry.
+     * @param inputStream the input stream
+     * @param zipOutputStream the zip output stream
+     * @param maxSize the max number of copied bytes
+     * @param buffer the copy buffer
+     * @return the number of copied bytes
+     * @throws IOException the copy failed
+     */
+    private static long copyStream(InputStream inputStream, ZipOutputStream zipOutputStream, long maxSize, byte[] buffer) throws IOException {
+        long copiedSize = 0;
+        int len;
 
-                MXSession session = Matrix.getInstance(VectorApp.getInstance()).getDefaultSession();
-                String userName = session.getMyUser().user_id.replace("@", "").replace(":", "_");
+        while ((copiedSize < maxSize) && ((len = inputStream.read(buffer, 0, (int) Math.min(buffer.length, maxSize - copiedSize))) > 0)) {
+            zipOutputStream.write(buffer, 0, len);
+            copiedSize += len;
+        }
 
-                File compressedFile = new File(VectorApp.mLogsDirectoryFile, "RiotBugReport-" + userName + "-" + System.currentTimeMillis()  + ".zip");
+        return copiedSize;
+    }
 
-                if (compressedFile.exists()) {
-                    compressedFile.delete();
+    /**
+     * Write the bug report as a zip stream.
+     * Each source is capped to MAX_SOURCE_SIZE and the whole report to MAX_REPORT_SIZE,
+     * so the memory usage does not depend on the logs size.
+     * @param message the bug report message
+     * @param screenshot the reduced screenshot, null if there is none
+     * @param outputStream the output stream, it is closed at the end
+     * @throws IOException the writing failed
+     */
+    private static void writeBugReport(String message, Bitmap screenshot, OutputStream outputStream) throws IOException {
+        List<File> logFiles = Log.addLogFiles(new ArrayList<File>());
+        // the startup reports are small, they are added first so they are never skipped
+        logFiles.addAll(0, StartupTrace.getReportFiles());
+        List<File> traceFiles = TraceLog.getTraceFiles();
+        boolean hasUiThreadReport = UiThreadMonitor.isStarted();
+        long remainingSize = MAX_REPORT_SIZE;
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+
+        ZipOutputStream zipOutputStream = new ZipOutputStream(new BufferedOutputStream(outputStream, COPY_BUFFER_SIZE));
+        zipOutputStream.setLevel(Deflater.BEST_SPEED);
+
+        try {
+            // config
+            byte[] messageBytes = message.getBytes();
+            zipOutputStream.putNextEntry(new ZipEntry("config.txt"));
+            zipOutputStream.write(messageBytes, 0, (int) Math.min(messageBytes.length, MAX_SOURCE_SIZE));
+            zipOutputStream.closeEntry();
+            remainingSize -= Math.min(messageBytes.length, MAX_SOURCE_SIZE);
+
+            // logcat errors
+            zipOutputStream.putNextEntry(new ZipEntry("crashes.txt"));
+            remainingSize -= writeLogCatError(zipOutputStream, Math.min(remainingSize, MAX_SOURCE_SIZE), buffer);
+            zipOutputStream.closeEntry();
+
+            // UI thread slow messages (debug and dogfood builds)
+            if (hasUiThreadReport && (remainingSize > 0)) {
+                byte[] reportBytes = UiThreadMonitor.getReport().getBytes();
+                int reportSize = (int) Math.min(reportBytes.length, Math.min(remainingSize, MAX_SOURCE_SIZE));
+                zipOutputStream.putNextEntry(new ZipEntry("ui_thread.txt"));
+                zipOutputStream.write(reportBytes, 0, reportSize);
+                zipOutputStream.closeEntry();
+                remainingSize -= reportSize;
+            }
+
+            // screenshot
+            if (null != screenshot) {
+                zipOutputStream.putNextEntry(new ZipEntry("screenshot.jpg"));
+                screenshot.compress(Bitmap.CompressFormat.JPEG, SCREENSHOT_JPEG_QUALITY, zipOutputStream);
+                zipOutputStream.closeEntry();
+            }
+
+            // log files
+            for (File logFile : logFiles) {
+                if (remainingSize <= 0) {
+                    Log.e(LOG_TAG, "## writeBugReport() : the report is full, skip " + logFile.getName());
+                    continue;
                 }
 
-                ZipFile zipFile = new ZipFile(compressedFile);
-                ZipParameters parameters = new ZipParameters();
+                FileInputStream fileInputStream = null;
 
-                parameters.setCompressionMethod(Zip4jConstants.COMP_DEFLATE);
-                parameters.setCompressionLevel(Zip4jConstants.DEFLATE_LEVEL_FASTEST);
+                try {
+                    fileInputStream = new FileInputStream(logFile);
+                    long maxSize = Math.min(remainingSize, MAX_SOURCE_SIZE);
 
-                /*
-                    // to define a password
-                    parameters.setEncryptFiles(true);
-                    parameters.setEncryptionMethod(Zip4jConstants.ENC_METHOD_AES);
-                    parameters.setAesKeyStrength(Zip4jConstants.AES_STRENGTH_256);
-                    parameters.setPassword(password);
-                */
+                    // keep the latest logs
+                    if (logFile.length() > maxSize) {
+                        fileInputStream.skip(logFile.length() - maxSize);
+                    }
 
-                // file compressed
-                zipFile.addFiles(logFiles, parameters);
+                    zipOutputStream.putNextEntry(new ZipEntry(logFile.getName()));
+                    remainingSize -= copyStream(fileInputStream, zipOutputStream, maxSize, buffer);
+                    zipOutputStream.closeEntry();
+                } catch (FileNotFoundException e) {
+                    Log.e(LOG_TAG, "## writeBugReport() : cannot open " + logFile.getName());
+                } finally {
+                    if (null != fileInputStream) {
+                        try {
+                            fileInputStream.close();
+                        } catch (Exception e) {
+                            Log.e(LOG_TAG, "## writeBugReport() : close failed " + e.getMessage());
+                        }
+                    }
+                }
+            }
 
-                return compressedFile;
+            // decoded trace logs
+            for (File traceFile : traceFiles) {
+                if (remainingSize <= 0) {
+                    Log.e(LOG_TAG, "## writeBugReport() : the report is full, skip " + traceFile.getName());
+                    continue;
+                }
 
-            } catch (Exception e) {
-                Log.e(LOG_TAG, "" + e);
+                zipOutputStream.putNextEntry(new ZipEntry(traceFile.getName().replace(".bin", ".txt")));
+                remainingSize -= TraceLog.decode(traceFile, zipOutputStream, Math.min(remainingSize, MAX_SOURCE_SIZE));
+                zipOutputStream.closeEntry();
             }
+        } finally {
+            zipOutputStream.close();
         }
-
-        return null;
     }
 
-
     /**
      * Send the bug report with Vector.
-     * @param context the application context
-     * @param withScreenshot tru to include the screenshot
+     * @param uri the bug report zip uri
      */
-    private static void sendBugReportWithVector(Context context, boolean withScreenshot, String bugDescription) {
-        File file = buildBugZipFile(context, withScreenshot, bugDescription);
+    private static void sendBugReportWithVector(Uri uri) {
+        try {
+            final Intent sendIntent = new Intent();
+            sendIntent.setAction(Intent.ACTION_SEND);
+            sendIntent.setType("application/zip");
+            sendIntent.putExtra(Intent.EXTRA_STREAM, uri);
 
-        if (null != file) {
-            try {
-                final Intent sendIntent = new Intent();
-                sendIntent.setAction(Intent.ACTION_SEND);
-                sendIntent.setType("application/zip");
-                sendIntent.putExtra(Intent.EXTRA_STREAM, Uri.fromFile(file));
-
-                CommonActivityUtils.sendFilesTo(VectorApp.getCurrentActivity(), sendIntent);
-            } catch (Exception e) {
-                Log.e(LOG_TAG, "## sendBugReportWithVector() : failed " + e.getMessage());
-            }
+            CommonActivityUtils.sendFilesTo(VectorApp.getCurrentActivity(), sendIntent);
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## sendBugReportWithVector() : failed " + e.getMessage());
         }
     }
 
     /**
      * Send the bug report by mail.
+     * @param context the context
+     * @param message the bug report message
+     * @param uri the bug report zip uri
+     */
+    private static void sendBugReportWithMail(Context context, String message, Uri uri) {
+        try {
+            // list the intent which supports email
+            // it should avoid having lot of unexpected applications (like bluetooth...)
+            Intent emailIntent = new Intent(Intent.ACTION_SENDTO, Uri.fromParts("mailto", "rageshake@riot.im", null));
+            emailIntent.putExtra(Intent.EXTRA_SUBJECT, "Mail subject");
+            List<ResolveInfo> resolveInfos = context.getPackageManager().queryIntentActivities(emailIntent, 0);
+
+            if ((null == resolveInfos) || (0 == resolveInfos.size())) {
+                Log.e(LOG_TAG, "Cannot send bug report because there is no application to send emails");
+                return;
+            }
+
+            Intent intent = new Intent(Intent.ACTION_SEND);
+            intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+            intent.setType("text/html");
+            intent.putExtra(Intent.EXTRA_EMAIL, new String[]{"rageshake@riot.im"});
+            intent.putExtra(Intent.EXTRA_SUBJECT, "[Android] Riot bug report - " + Matrix.getInstance(context).getVersion(true));
+            intent.putExtra(Intent.EXTRA_TEXT, message);
+            intent.putExtra(Intent.EXTRA_STREAM, uri);
+
+            context.startActivity(intent);
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## sendBugReportWithMail() : failed " + e.getMessage());
+        }
+    }
+
+    /**
+     * Build the bug report message in background and send the bug report.
+     * The zip is written while the receiving application reads it.
+     * @param context the context
+     * @param bugDescription the bug description
+     * @param screenshot the reduced screenshot, null if there is none
+     * @param withMail true to send it by mail, false to send it with Vector
+     * @param onReadyRunnable called on the UI thread when the bug report is sent, null if there is none
      */
-    private static void sendBugReportWithMail(Context context, boolean withScreenshot, String bugDescription) {
-        Bitmap screenShot = takeScreenshot();
+    private static void sendBugReport(final Context context, final String bugDescription, final Bitmap screenshot, final boolean withMail, final Runnable onReadyRunnable) {
+        final Handler uiHandler = new Handler(Looper.getMainLooper());
 
-        if (null != screenShot) {
-            try {
-                String message = buildBugReportMessage(context, bugDescription);
-                File file = buildBugZipFile(context, withScreenshot, bugDescription);
-
-                // list the intent which supports email
-                // it should avoid having lot of unexpected applications (like bluetooth...)
-                Intent emailIntent = new Intent(Intent.ACTION_SENDTO, Uri.fromParts("mailto", "rageshake@riot.im", null));
-                emailIntent.putExtra(Intent.EXTRA_SUBJECT, "Mail subject");
-                List<ResolveInfo> resolveInfos = context.getPackageManager().queryIntentActivities(emailIntent, 0);
-
-                if ((null == resolveInfos) || (0 == resolveInfos.size())) {
-                    Log.e(LOG_TAG, "Cannot send bug report because there is no application to send emails");
-                    return;
+        VectorExecutors.getIOExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                String message = null;
+                String name = null;
+
+                try {
+                    message = buildBugReportMessage(context, bugDescription);
+
+                    MXSession session = Matrix.getInstance(context).getDefaultSession();
+                    String userName = session.getMyUser().user_id.replace("@", "").replace(":", "_");
+                    name = "RiotBugReport-" + userName + "-" + System.currentTimeMillis() + ".zip";
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## sendBugReport() failed " + e.getMessage());
                 }
 
-                Intent intent = new Intent(Intent.ACTION_SEND);
-                intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-                intent.setType("text/html");
-                intent.putExtra(Intent.EXTRA_EMAIL, new String[]{"rageshake@riot.im"});
-                intent.putExtra(Intent.EXTRA_SUBJECT, "[Android] Riot bug report - " + Matrix.getInstance(context).getVersion(true));
-                intent.putExtra(Intent.EXTRA_TEXT, message);
-                if (null != file) {
-                    intent.putExtra(Intent.EXTRA_STREAM, VectorContentProvider.absolutePathToUri(context, file.getAbsolutePath()));
+                if (null != name) {
+                    setPendingBugReport(new PendingBugReport(name, message, screenshot));
+                } else if (null != screenshot) {
+                    screenshot.recycle();
                 }
 
-                context.startActivity(intent);
+                final String fMessage = message;
+                final String fName = name;
+
+                uiHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (null != fName) {
+                            Uri uri = VectorContentProvider.getBugReportUri(fName);
+
+                            if (withMail) {
+                                sendBugReportWithMail(context, fMessage, uri);
+                            } else {
+                                sendBugReportWithVector(uri);
+                            }
+                        }
 
-            } catch (Exception e) {
-                Log.e(LOG_TAG, "" + e);
+                        if (null != onReadyRunnable) {
+                            onReadyRunnable.run();
+                        }
+                    }
+                });
             }
-        }
+        });
     }
 
     /**
@@ -338,7 +693,7 @@ public class BugReporter {
 
         // no current activity so cannot display an alert
         if (null == currentActivity) {
-            sendBugReportWithMail(VectorApp.getInstance().getApplicationContext(), false, "");
+            sendBugReport(VectorApp.getInstance().getApplicationContext(), "", null, true, null);
             return;
         }
 
@@ -354,6 +709,8 @@ public class BugReporter {
         final RadioButton emailWithScreenshotButton = (RadioButton)dialoglayout.findViewById(R.id.bug_report_button_email_screenshot);
         final RadioButton riotWithScreenshotButton = (RadioButton)dialoglayout.findViewById(R.id.bug_report_button_riot_screenshot);
         final RadioButton riotNoScreenshotButton = (RadioButton)dialoglayout.findViewById(R.id.bug_report_button_riot_no_screenshot);
+        final View formLayout = dialoglayout.findViewById(R.id.bug_report_form);
+        final View progressLayout = dialoglayout.findViewById(R.id.bug_report_progress_layout);
 
         TextView riotWithScreenshotText = (TextView)dialoglayout.findViewById(R.id.bug_report_text_riot_screenshot);
         TextView riotNoScreenshotText = (TextView)dialoglayout.findViewById(R.id.bug_report_text_riot_no_screenshot);
@@ -456,22 +813,34 @@ public class BugReporter {
         onSendButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                bugReportDialog.cancel();
+                final String bugDescription = bugReportText.getText().toString().trim();
+                final boolean withScreenshot = emailWithScreenshotButton.isChecked() || riotWithScreenshotButton.isChecked();
+                final boolean withMail = emailNoScreenshotButton.isChecked() || emailWithScreenshotButton.isChecked();
+
+                // the dialog must not appear in the screenshot
+                bugReportDialog.hide();
 
                 new Handler(Looper.getMainLooper()).postDelayed(new Runnable() {
                     @Override
                     public void run() {
-                        String bugDescription = bugReportText.getText().toString().trim();
-
-                        if (emailNoScreenshotButton.isChecked()) {
-                            sendBugReportWithMail(currentActivity, false, bugDescription);
-                        } else if (emailWithScreenshotButton.isChecked()) {
-                            sendBugReportWithMail(currentActivity, true, bugDescription);
-                        } else if (riotWithScreenshotButton.isChecked()) {
-                            sendBugReportWithVector(currentActivity, true, bugDescription);
-                        } else {
-                            sendBugReportWithVector(currentActivity, false, bugDescription);
-                        }
+                        Bitmap screenshot = withScreenshot ? takeReducedScreenshot() : null;
+
+                        // display the progress while the report is prepared
+                        formLayout.setVisibility(View.GONE);
+                        progressLayout.setVisibility(View.VISIBLE);
+                        bugReportDialog.setCancelable(false);
+                        bugReportDialog.show();
+
+                        sendBugReport(currentActivity, bugDescription, screenshot, withMail, new Runnable() {
+                            @Override
+                            public void run() {
+                                try {
+                                    bugReportDialog.dismiss();
+                                } catch (Exception e) {
+                                    Log.e(LOG_TAG, "## sendBugReport() : dismiss failed " + e.getMessage());
+                                }
+                            }
+                        });
                     }
                 }, 300);
             }
@@ -516,10 +885,41 @@ public class BugReporter {
         return null;
     }
 
-    private static final int BUFFER_SIZE = 1024 * 1024 * 5;
+    /**
+     * Take a screenshot of the display, reduced to SCREENSHOT_MAX_SIDE.
+     * The returned bitmap does not share the view drawing cache.
+     * @return the screenshot, null on failure
+     */
+    private static Bitmap takeReducedScreenshot() {
+        Bitmap screenshot = takeScreenshot();
+
+        if (null == screenshot) {
+            return null;
+        }
+
+        try {
+            float scale = Math.min(1.0f, (float) SCREENSHOT_MAX_SIDE / Math.max(screenshot.getWidth(), screenshot.getHeight()));
+
+            if (scale < 1.0f) {
+                return Bitmap.createScaledBitmap(screenshot, Math.max(1, (int) (screenshot.getWidth() * scale)), Math.max(1, (int) (screenshot.getHeight() * scale)), true);
+            } else {
+                return screenshot.copy(Bitmap.Config.RGB_565, false);
+            }
+        } catch (OutOfMemoryError oom) {
+            Log.e(LOG_TAG, "## takeReducedScreenshot() : failed oom");
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## takeReducedScreenshot() : failed " + e.getMessage());
+        }
+
+        return null;
+    }
+
+    // number of logcat lines included in the bug report
+    private static final String LOGCAT_MAX_LINES = "5000";
     private static final String[] LOGCAT_CMD = new String[] {
             "logcat", ///< Run 'logcat' command
             "-d",  ///< Dump the log rather than continue outputting it
+            "-t", LOGCAT_MAX_LINES, ///< Only the most recent lines
             "-v", // formatting
             "threadtime", // include timestamps
             "AndroidRuntime:E " + ///< Pick all AndroidRuntime errors (such as uncaught exceptions)"communicatorjni:V " + ///< All communicatorjni logging
@@ -530,53 +930,34 @@ public class BugReporter {
 
 
     /**
-     * @return the error logcat command line.
+     * Write the logcat errors into a zip entry.
+     * @param zipOutputStream the zip output stream
+     * @param maxSize the max number of written bytes
+     * @param buffer the copy buffer
+     * @return the number of written bytes
      */
-    public static String getLogCatError() {
-        return getLog(LOGCAT_CMD);
-    }
-
-    /**
-     * Retrieves the logs from a dedicated command.
-     * @param cmd the command to execute.
-     * @return the logs.
-     */
-    private static String getLog(String[] cmd) {
+    private static long writeLogCatError(ZipOutputStream zipOutputStream, long maxSize, byte[] buffer) throws IOException {
         Process logcatProc;
+
         try {
-            logcatProc = Runtime.getRuntime().exec(cmd);
-        }
-        catch (IOException e1) {
-            return "";
+            logcatProc = Runtime.getRuntime().exec(LOGCAT_CMD);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "## writeLogCatError() : exec failed " + e.getMessage());
+            return 0;
         }
 
-        BufferedReader reader = null;
-        String response = "";
+        InputStream inputStream = logcatProc.getInputStream();
+
         try {
-            String separator = System.getProperty("line.separator");
-            StringBuilder sb = new StringBuilder();
-            reader = new BufferedReader(new InputStreamReader(logcatProc.getInputStream()), BUFFER_SIZE);
-            String line;
-            while ((line = reader.readLine()) != null) {
-                sb.append(line);
-                sb.append(separator);
-            }
-            response = sb.toString();
-        }
-        catch (IOException e) {
-            Log.e(LOG_TAG, "getLog fails with " + e.getLocalizedMessage());
-        }
-        finally {
-            if (reader != null) {
-                try {
-                    reader.close();
-                }
-                catch (IOException e) {
-                    Log.e(LOG_TAG, "getLog fails with " + e.getLocalizedMessage());
-                }
+            return copyStream(inputStream, zipOutputStream, maxSize, buffer);
+        } finally {
+            try {
+                inputStream.close();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "## writeLogCatError() : close failed " + e.getMessage());
             }
+
+            logcatProc.destroy();
         }
-        return response;
     }
-
 }
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2016 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.net.Uri;
+
+import org.matrix.androidsdk.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+
+/**
+ * Static image resizing methods.
+ * The images are decoded with a sample size computed from their bounds,
+ * scaled and rotated in a single pass and encoded once.
+ */
+public class ImageResizer {
+    private static final String LOG_TAG = "ImageResizer";
+
+    // the default JPEG quality
+    public static final int JPEG_QUALITY = 75;
+
+    // max side of the image used to estimate the JPEG sizes
+    private static final int PROBE_MAX_SIDE = 512;
+
+    // ensure that the resized files have unique names
+    private static int mFileIndex = 0;
+
+    /**
+     * Retrieve the image dimensions without decoding it.
+     * @param path the image path
+     * @return the options with the image dimensions (-1 if they cannot be retrieved)
+     */
+    public static BitmapFactory.Options decodeBounds(String path) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        options.outWidth = -1;
+        options.outHeight = -1;
+
+        try {
+            BitmapFactory.decodeFile(path, options);
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## decodeBounds() failed " + e.getMessage());
+        } catch (OutOfMemoryError oom) {
+            Log.e(LOG_TAG, "## decodeBounds() failed oom");
+        }
+
+        return options;
+    }
+
+    /**
+     * Compute the largest power of 2 sample size which keeps the decoded image
+     * larger than the expected size.
+     * @param srcWidth the image width
+     * @param srcHeight the image height
+     * @param dstWidth the expected width
+     * @param dstHeight the expected height
+     * @return the sample size
+     */
+    public static int computeSampleSize(int srcWidth, int srcHeight, int dstWidth, int dstHeight) {
+        int sampleSize = 1;
+
+        if ((dstWidth > 0) && (dstHeight > 0)) {
+            while (((srcWidth / (sampleSize * 2)) >= dstWidth) && ((srcHeight / (sampleSize * 2)) >= dstHeight)) {
+                sampleSize *= 2;
+            }
+        }
+
+        return sampleSize;
+    }
+
+    /**
+     * Decode an image to fit an expected size, the exif rotation is applied in the same pass.
+     * @param path the image path
+     * @param srcWidth the image width
+     * @param srcHeight the image height
+     * @param dstWidth the expected width (before rotation)
+     * @param dstHeight the expected height (before rotation)
+     * @param rotationAngle the rotation angle to apply
+     * @return the bitmap, null if it cannot be decoded
+     */
+    public static Bitmap decodeBitmap(String path, int srcWidth, int srcHeight, int dstWidth, int dstHeight, int rotationAngle) {
+        Bitmap bitmap = null;
+
+        try {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+            options.inSampleSize = computeSampleSize(srcWidth, srcHeight, dstWidth, dstHeight);
+
+            bitmap = BitmapFactory.decodeFile(path, options);
+
+            if (null != bitmap) {
+                Matrix matrix = new Matrix();
+                boolean hasTransformation = false;
+
+                // the sample size is a power of 2 so the decoded image might be larger than expected
+                if ((bitmap.getWidth() != dstWidth) || (bitmap.getHeight() != dstHeight)) {
+                    matrix.postScale((float) dstWidth / bitmap.getWidth(), (float) dstHeight / bitmap.getHeight());
+                    hasTransformation = true;
+                }
+
+                if (0 != rotationAngle) {
+                    matrix.postRotate(rotationAngle);
+                    hasTransformation = true;
+                }
+
+                if (hasTransformation) {
+                    Bitmap transformedBitmap = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+
+                    if (transformedBitmap != bitmap) {
+                        bitmap.recycle();
+                        bitmap = transformedBitmap;
+                    }
+                }
+            }
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## decodeBitmap() failed " + e.getMessage());
+        } catch (OutOfMemoryError oom) {
+            Log.e(LOG_TAG, "## decodeBitmap() failed oom");
+
+            if (null != bitmap) {
+                bitmap.recycle();
+                bitmap = null;
+            }
+        }
+
+        return bitmap;
+    }
+
+    /**
+     * Resize an image and save it as a JPEG file in a dedicated folder.
+     * @param path the image path
+     * @param srcWidth the image width
+     * @param srcHeight the image height
+     * @param dstWidth the expected width (before rotation)
+     * @param dstHeight the expected height (before rotation)
+     * @param rotationAngle the rotation angle to apply
+     * @param dstFolder the folder in which the resized image is saved
+     * @return the resized image url, null if the resizing failed
+     */
+    public static String resizeImage(String path, int srcWidth, int srcHeight, int dstWidth, int dstHeight, int rotationAngle, File dstFolder) {
+        long startTime = System.currentTimeMillis();
+        Bitmap bitmap = decodeBitmap(path, srcWidth, srcHeight, dstWidth, dstHeight, rotationAngle);
+
+        if (null == bitmap) {
+            return null;
+        }
+
+        String imageUrl = null;
+        File dstFile = getResizedImageFile(dstFolder);
+        FileOutputStream outputStream = null;
+
+        try {
+            outputStream = new FileOutputStream(dstFile);
+
+            if (bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, outputStream)) {
+                imageUrl = Uri.fromFile(dstFile).toString();
+            }
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## resizeImage() failed " + e.getMessage());
+        } finally {
+            try {
+                if (null != outputStream) {
+                    outputStream.close();
+                }
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "## resizeImage() : close failed " + e.getMessage());
+            }
+
+            bitmap.recycle();
+        }
+
+        if (null == imageUrl) {
+            dstFile.delete();
+        } else {
+            Log.d(LOG_TAG, "## resizeImage() : " + srcWidth + "x" + srcHeight + " -> " + dstWidth + "x" + dstHeight + " (" + dstFile.length() + " bytes) in " + (System.currentTimeMillis() - startTime) + " ms");
+        }
+
+        return imageUrl;
+    }
+
+    /**
+     * Provides a new resized image file.
+     * @param dstFolder the folder
+     * @return the file
+     */
+    private static synchronized File getResizedImageFile(File dstFolder) {
+        return new File(dstFolder, "resized" + System.currentTimeMillis() + "_" + (mFileIndex++) + ".jpg");
+    }
+
+    /**
+     * Measure the JPEG compressed bytes per pixel of an image.
+     * The image is decoded at a small size and compressed in memory.
+     * @param path the image path
+     * @param srcWidth the image width
+     * @param srcHeight the image height
+     * @return the bytes per pixel, -1 if it cannot be measured.
+     */
+    public static float measureJpegBytesPerPixel(String path, int srcWidth, int srcHeight) {
+        if ((srcWidth <= 0) || (srcHeight <= 0)) {
+            return -1;
+        }
+
+        float scale = Math.min(1.0f, (float) PROBE_MAX_SIDE / Math.max(srcWidth, srcHeight));
+        int probeWidth = Math.max(1, (int) (srcWidth * scale));
+        int probeHeight = Math.max(1, (int) (srcHeight * scale));
+
+        Bitmap bitmap = decodeBitmap(path, srcWidth, srcHeight, probeWidth, probeHeight, 0);
+
+        if (null == bitmap) {
+            return -1;
+        }
+
+        float bytesPerPixel = -1;
+
+        try {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+            if (bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, outputStream)) {
+                bytesPerPixel = (float) outputStream.size() / (bitmap.getWidth() * bitmap.getHeight());
+            }
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## measureJpegBytesPerPixel() failed " + e.getMessage());
+        } finally {
+            bitmap.recycle();
+        }
+
+        return bytesPerPixel;
+    }
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright 2016 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.util;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import org.matrix.androidsdk.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Initialize the application components according to their priority.
+ * Each component declares when it is required :
+ * - before the first frame : it is initialized synchronously when the application is created.
+ * - after the first frame : it is initialized once the first screen is drawn, so it does not delay the launch.
+ * Any component can be initialized earlier with {@link #ensureInitialized(String)}.
+ * The initialization duration of each component is logged and reported in the bug reports.
+ */
+public class InitializerRegistry {
+    private static final String LOG_TAG = "InitializerRegistry";
+
+    public static final int PHASE_BEFORE_FIRST_FRAME = 0;
+    public static final int PHASE_AFTER_FIRST_FRAME = 1;
+
+    // the after first frame components are initialized even if nothing is displayed (push, service restart...)
+    private static final long FIRST_FRAME_TIMEOUT_MS = 5000;
+
+    /**
+     * A component initializer.
+     */
+    public interface Initializer {
+        /**
+         * Initialize the component.
+         * @param context the application context
+         */
+        void initialize(Context context);
+    }
+
+    private static class Entry {
+        final String mName;
+        final int mPhase;
+        final boolean mOnMainThread;
+        final Initializer mInitializer;
+
+        final CountDownLatch mDoneLatch = new CountDownLatch(1);
+
+        // true when the initialization is started
+        boolean mIsStarted = false;
+
+        // the initialization duration, -1 if it is not done
+        long mDuration = -1;
+        String mThreadName;
+
+        Entry(String name, int phase, boolean onMainThread, Initializer initializer) {
+            mName = name;
+            mPhase = phase;
+            mOnMainThread = onMainThread;
+            mInitializer = initializer;
+        }
+    }
+
+    private static final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>();
+
+    private static Context mContext = null;
+
+    private static boolean mIsFirstFrameDrawn = false;
+
+    private static final Handler mUiHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Register a component initializer.
+     * @param name the component name
+     * @param phase PHASE_BEFORE_FIRST_FRAME or PHASE_AFTER_FIRST_FRAME
+     * @param onMainThread true if the component must be initialized on the UI thread (views, WebView...)
+     * @param initializer the initializer
+     */
+    public static void register(String name, int phase, boolean onMainThread, Initializer initializer) {
+        synchronized (mEntries) {
+            if (mEntries.containsKey(name)) {
+                Log.e(LOG_TAG, "## register() : " + name + " is already registered");
+                return;
+            }
+
+            mEntries.put(name, new Entry(name, phase, onMainThread, initializer));
+        }
+    }
+
+    /**
+     * Initialize the components required before the first frame.
+     * The other ones are scheduled after the first frame.
+     * It must be called on the UI thread when the application is created.
+     * @param context the context
+     */
+    public static void start(Context context) {
+        mContext = context.getApplicationContext();
+
+        for (Entry entry : getEntries(PHASE_BEFORE_FIRST_FRAME)) {
+            run(entry);
+        }
+
+        // nothing might be displayed
+        mUiHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                onFirstFrame();
+            }
+        }, FIRST_FRAME_TIMEOUT_MS);
+    }
+
+    /**
+     * The first screen has been drawn.
+     * The after first frame components are initialized.
+     * It must be called on the UI thread.
+     */
+    public static void onFirstFrame() {
+        if (mIsFirstFrameDrawn) {
+            return;
+        }
+
+        mIsFirstFrameDrawn = true;
+
+        for (final Entry entry : getEntries(PHASE_AFTER_FIRST_FRAME)) {
+            Runnable runnable = new Runnable() {
+                @Override
+                public void run() {
+                    InitializerRegistry.run(entry);
+                }
+            };
+
+            // let the first frame being displayed before blocking the UI thread
+            if (entry.mOnMainThread) {
+                mUiHandler.post(runnable);
+            } else {
+                VectorExecutors.getLowPriorityExecutor().execute(runnable);
+            }
+        }
+    }
+
+    /**
+     * Ensure that a component is initialized.
+     * The component is initialized on the caller thread if it has not been started yet
+     * (on the UI thread if it is required), then the caller waits until its initialization is done.
+     * @param name the component name
+     */
+    public static void ensureInitialized(String name) {
+        Entry entry;
+
+        synchronized (mEntries) {
+            entry = mEntries.get(name);
+        }
+
+        if (null == entry) {
+            Log.e(LOG_TAG, "## ensureInitialized() : unknown component " + name);
+            return;
+        }
+
+        if (entry.mDoneLatch.getCount() == 0) {
+            return;
+        }
+
+        final Entry fEntry = entry;
+
+        if (entry.mOnMainThread && (Looper.getMainLooper() != Looper.myLooper())) {
+            mUiHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    InitializerRegistry.run(fEntry);
+                }
+            });
+        } else {
+            run(entry);
+        }
+
+        // the component might be initialized by another thread
+        try {
+            entry.mDoneLatch.await();
+        } catch (InterruptedException e) {
+            Log.e(LOG_TAG, "## ensureInitialized() : " + name + " interrupted");
+        }
+    }
+
+    /**
+     * @param name the component name
+     * @return true if the component is initialized
+     */
+    public static boolean isInitialized(String name) {
+        Entry entry;
+
+        synchronized (mEntries) {
+            entry = mEntries.get(name);
+        }
+
+        return (null != entry) && (entry.mDoneLatch.getCount() == 0);
+    }
+
+    /**
+     * Provides the initialization duration of a component.
+     * @param name the component name
+     * @return the duration in ms, -1 if the component is not initialized
+     */
+    public static long getDuration(String name) {
+        Entry entry;
+
+        synchronized (mEntries) {
+            entry = mEntries.get(name);
+        }
+
+        if (null == entry) {
+            return -1;
+        }
+
+        synchronized (entry) {
+            return entry.mDuration;
+        }
+    }
+
+    /**
+     * Provides the registered entries of a phase.
+     * @param phase the phase
+     * @return the entries, in the registration order
+     */
+    private static ArrayList<Entry> getEntries(int phase) {
+        ArrayList<Entry> entries = new ArrayList<>();
+
+        synchronized (mEntries) {
+            for (Entry entry : mEntries.values()) {
+                if (entry.mPhase == phase) {
+                    entries.add(entry);
+                }
+            }
+        }
+
+        return entries;
+    }
+
+    /**
+     * Initialize a component if it is not started.
+     * @param entry the component entry
+     */
+    private static void run(Entry entry) {
+        synchronized (entry) {
+            if (entry.mIsStarted) {
+                return;
+            }
+            entry.mIsStarted = true;
+        }
+
+        String section = "init " + entry.mName;
+        StartupTrace.beginSection(section);
+        long startTime = SystemClock.elapsedRealtime();
+
+        try {
+            entry.mInitializer.initialize(mContext);
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## run() : " + entry.mName + " failed " + e.getMessage());
+        }
+
+        synchronized (entry) {
+            entry.mDuration = SystemClock.elapsedRealtime() - startTime;
+            entry.mThreadName = Thread.currentThread().getName();
+        }
+
+        StartupTrace.endSection(section);
+        entry.mDoneLatch.countDown();
+
+        Log.d(LOG_TAG, "## run() : " + entry.mName + " initialized in " + entry.mDuration + " ms on " + entry.mThreadName);
+    }
+
+    /**
+     * @return the initialization durations report
+     */
+    public static String getReport() {
+        StringBuilder builder = new StringBuilder();
+
+        synchronized (mEntries) {
+            for (Entry entry : mEntries.values()) {
+                synchronized (entry) {
+                    builder.append(entry.mName).append(" : ");
+
+                    if (entry.mDuration >= 0) {
+                        builder.append(entry.mDuration).append(" ms (").append(entry.mThreadName).append(")\n");
+                    } else {
+                        builder.append("not initialized\n");
+                    }
+                }
+            }
+        }
+
+        return builder.toString();
+    }
+}
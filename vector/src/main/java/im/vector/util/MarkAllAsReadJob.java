@@ -0,0 +1,296 @@
+/*
+ * Copyright 2016 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.util;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.text.TextUtils;
+
+import org.matrix.androidsdk.MXSession;
+import org.matrix.androidsdk.data.Room;
+import org.matrix.androidsdk.data.RoomSummary;
+import org.matrix.androidsdk.data.store.IMXStore;
+import org.matrix.androidsdk.rest.callback.ApiCallback;
+import org.matrix.androidsdk.rest.client.RoomsRestClient;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.MatrixError;
+import org.matrix.androidsdk.rest.model.ReceiptData;
+import org.matrix.androidsdk.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Mark all the rooms of the sessions as read.
+ * The unread counters are cleared locally for all the rooms at once,
+ * then the read receipts are sent with a bounded number of parallel requests.
+ * The failed requests are retried with a growing delay.
+ * It must be used on the UI thread.
+ */
+public class MarkAllAsReadJob {
+    private static final String LOG_TAG = "MarkAllAsReadJob";
+
+    // the max number of parallel requests
+    private static final int MAX_PARALLEL_REQUESTS = 4;
+
+    // the retries management
+    private static final int MAX_RETRIES = 3;
+    private static final long RETRY_DELAY_MS = 2000;
+
+    /**
+     * The job listener.
+     */
+    public interface MarkAllAsReadListener {
+        /**
+         * The unread counters have been cleared.
+         */
+        void onLocalUpdate();
+
+        /**
+         * Some read receipts have been sent.
+         * @param doneCount the number of done requests (sent or failed)
+         * @param totalCount the number of requests
+         */
+        void onProgress(int doneCount, int totalCount);
+
+        /**
+         * The job is done.
+         * @param sentCount the number of sent read receipts
+         * @param failedCount the number of read receipts which have not been sent
+         */
+        void onComplete(int sentCount, int failedCount);
+    }
+
+    /**
+     * A read receipt to send
+     */
+    private static class PendingReceipt {
+        final RoomsRestClient mRoomsRestClient;
+        final String mRoomId;
+        final String mEventId;
+        int mRetryCount = 0;
+
+        PendingReceipt(RoomsRestClient roomsRestClient, String roomId, String eventId) {
+            mRoomsRestClient = roomsRestClient;
+            mRoomId = roomId;
+            mEventId = eventId;
+        }
+    }
+
+    private final List<MXSession> mSessions;
+    private final MarkAllAsReadListener mListener;
+    private final Handler mUiHandler = new Handler(Looper.getMainLooper());
+
+    private final LinkedList<PendingReceipt> mPendingReceipts = new LinkedList<>();
+
+    private int mTotalCount = 0;
+    private int mRunningCount = 0;
+    private int mSentCount = 0;
+    private int mFailedCount = 0;
+
+    /**
+     * Constructor
+     * @param sessions the sessions
+     * @param listener the listener
+     */
+    public MarkAllAsReadJob(List<MXSession> sessions, MarkAllAsReadListener listener) {
+        mSessions = new ArrayList<>(sessions);
+        mListener = listener;
+    }
+
+    /**
+     * Clear the unread counters and start sending the read receipts.
+     * @return the number of read receipts to send.
+     */
+    public int start() {
+        for (MXSession session : mSessions) {
+            // test if the session is still alive i.e the account has not been logged out
+            if ((null != session) && session.isAlive()) {
+                markSessionAsRead(session);
+            }
+        }
+
+        mTotalCount = mPendingReceipts.size();
+
+        Log.d(LOG_TAG, "## start() : " + mTotalCount + " read receipts to send");
+
+        if (null != mListener) {
+            mListener.onLocalUpdate();
+        }
+
+        if (0 == mTotalCount) {
+            if (null != mListener) {
+                mListener.onComplete(0, 0);
+            }
+        } else {
+            sendNextReceipts();
+        }
+
+        return mTotalCount;
+    }
+
+    /**
+     * @return true if the job is running
+     */
+    public boolean isRunning() {
+        return (mRunningCount > 0) || !mPendingReceipts.isEmpty();
+    }
+
+    /**
+     * Clear the unread counters of a session rooms and queue their read receipts.
+     * @param session the session
+     */
+    private void markSessionAsRead(MXSession session) {
+        IMXStore store = session.getDataHandler().getStore();
+        RoomsRestClient roomsRestClient = session.getDataHandler().getDataRetriever().getRoomsRestClient();
+        String myUserId = session.getMyUserId();
+        ArrayList<RoomSummary> summaries = new ArrayList<>(store.getSummaries());
+
+        for (RoomSummary summary : summaries) {
+            String roomId = summary.getRoomId();
+            Room room = store.getRoom(roomId);
+            Event latestEvent = store.getLatestEvent(roomId);
+
+            if ((null == room) || (null == latestEvent) || TextUtils.isEmpty(latestEvent.eventId)) {
+                continue;
+            }
+
+            boolean isSummaryUpdated = summary.setHighlighted(false);
+
+            if (!store.isEventRead(roomId, myUserId, latestEvent.eventId)) {
+                room.handleReceiptData(new ReceiptData(myUserId, latestEvent.eventId, System.currentTimeMillis()));
+                mPendingReceipts.add(new PendingReceipt(roomsRestClient, roomId, latestEvent.eventId));
+            }
+
+            // clear the unread counters
+            if ((room.getNotificationCount() > 0) || (room.getHighlightCount() > 0)) {
+                room.getLiveState().setHighlightCount(0);
+                room.getLiveState().setNotificationCount(0);
+                store.storeLiveStateForRoom(roomId);
+            }
+
+            if (summary.getUnreadEventsCount() > 0) {
+                summary.setUnreadEventsCount(0);
+                isSummaryUpdated = true;
+            }
+
+            if (isSummaryUpdated) {
+                store.flushSummary(summary);
+            }
+        }
+
+        // a single commit for all the rooms
+        store.commit();
+    }
+
+    /**
+     * Send the pending read receipts while the parallel requests limit is not reached.
+     */
+    private void sendNextReceipts() {
+        while ((mRunningCount < MAX_PARALLEL_REQUESTS) && !mPendingReceipts.isEmpty()) {
+            sendReceipt(mPendingReceipts.removeFirst());
+        }
+    }
+
+    /**
+     * Send a read receipt.
+     * @param receipt the read receipt
+     */
+    private void sendReceipt(final PendingReceipt receipt) {
+        mRunningCount++;
+
+        receipt.mRoomsRestClient.sendReadReceipt(receipt.mRoomId, receipt.mEventId, new ApiCallback<Void>() {
+            @Override
+            public void onSuccess(Void info) {
+                mSentCount++;
+                onRequestDone();
+            }
+
+            @Override
+            public void onNetworkError(Exception e) {
+                Log.e(LOG_TAG, "## sendReceipt() : " + receipt.mRoomId + " failed " + e.getMessage());
+                retry(receipt);
+            }
+
+            @Override
+            public void onMatrixError(MatrixError e) {
+                Log.e(LOG_TAG, "## sendReceipt() : " + receipt.mRoomId + " failed " + e.getMessage());
+
+                // the server asks to slow down
+                if (TextUtils.equals(MatrixError.LIMIT_EXCEEDED, e.errcode)) {
+                    retry(receipt);
+                } else {
+                    mFailedCount++;
+                    onRequestDone();
+                }
+            }
+
+            @Override
+            public void onUnexpectedError(Exception e) {
+                Log.e(LOG_TAG, "## sendReceipt() : " + receipt.mRoomId + " failed " + e.getMessage());
+                retry(receipt);
+            }
+        });
+    }
+
+    /**
+     * Retry to send a read receipt after a delay.
+     * @param receipt the read receipt
+     */
+    private void retry(final PendingReceipt receipt) {
+        if (receipt.mRetryCount >= MAX_RETRIES) {
+            mFailedCount++;
+            onRequestDone();
+            return;
+        }
+
+        receipt.mRetryCount++;
+
+        // the request slot is kept while waiting, to slow down the other requests
+        mUiHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                mRunningCount--;
+                sendReceipt(receipt);
+            }
+        }, RETRY_DELAY_MS * (1 << (receipt.mRetryCount - 1)));
+    }
+
+    /**
+     * A request is done (sent or failed).
+     */
+    private void onRequestDone() {
+        mRunningCount--;
+
+        int doneCount = mSentCount + mFailedCount;
+
+        if (null != mListener) {
+            mListener.onProgress(doneCount, mTotalCount);
+        }
+
+        if (doneCount >= mTotalCount) {
+            Log.d(LOG_TAG, "## onRequestDone() : " + mSentCount + " read receipts sent, " + mFailedCount + " failed");
+
+            if (null != mListener) {
+                mListener.onComplete(mSentCount, mFailedCount);
+            }
+        } else {
+            sendNextReceipts();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2016 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.util;
+
+import android.content.ComponentCallbacks2;
+import android.os.SystemClock;
+
+import org.matrix.androidsdk.util.Log;
+
+import java.util.ArrayList;
+
+/**
+ * Release the application caches according to the memory pressure.
+ * The caches are registered with a priority : the low priority ones are released first.
+ * Each trim level releases a defined share of each priority caches, so the application
+ * degrades gradually instead of reloading the sessions.
+ * The caches are trimmed on the UI thread.
+ */
+public class MemoryPressureManager {
+    private static final String LOG_TAG = "MemoryPressureManager";
+
+    /**
+     * A cache which can be trimmed
+     */
+    public interface TrimmableCache {
+        /**
+         * Release a share of the cache.
+         * @param ratio the share to release (0 < ratio <= 1), 1 means that the cache must be cleared.
+         */
+        void trim(float ratio);
+    }
+
+    // the caches which can be rebuilt cheaply (formatted texts, letter avatars...)
+    public static final int PRIORITY_LOW = 0;
+    // the caches which are rebuilt from the storage (decoded bitmaps...)
+    public static final int PRIORITY_MEDIUM = 1;
+    // the caches which are expensive to rebuild (contacts snapshot...)
+    public static final int PRIORITY_HIGH = 2;
+
+    // the released share (in percent) by priority, for each trim level
+    // RUNNING_MODERATE, RUNNING_LOW, RUNNING_CRITICAL, UI_HIDDEN, BACKGROUND, MODERATE, COMPLETE
+    private static final int[] TRIM_LEVELS = {
+            ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE,
+            ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW,
+            ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL,
+            ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN,
+            ComponentCallbacks2.TRIM_MEMORY_BACKGROUND,
+            ComponentCallbacks2.TRIM_MEMORY_MODERATE,
+            ComponentCallbacks2.TRIM_MEMORY_COMPLETE
+    };
+
+    private static final int[][] TRIM_PERCENTS = {
+            // PRIORITY_LOW
+            {50, 100, 100, 100, 100, 100, 100},
+            // PRIORITY_MEDIUM
+            {0, 50, 100, 50, 50, 100, 100},
+            // PRIORITY_HIGH
+            {0, 0, 50, 0, 0, 50, 100},
+    };
+
+    // the same level is dispatched to each living activity
+    private static final long SAME_LEVEL_DELAY_MS = 1000;
+
+    private static class CacheEntry {
+        final String mName;
+        final int mPriority;
+        final TrimmableCache mCache;
+
+        CacheEntry(String name, int priority, TrimmableCache cache) {
+            mName = name;
+            mPriority = priority;
+            mCache = cache;
+        }
+    }
+
+    private static final ArrayList<CacheEntry> mCaches = new ArrayList<>();
+
+    private static int mLastTrimLevel = -1;
+    private static long mLastTrimTime = 0;
+
+    /**
+     * Register a cache.
+     * @param name the cache name (for the logs)
+     * @param priority the cache priority (PRIORITY_LOW, PRIORITY_MEDIUM or PRIORITY_HIGH)
+     * @param cache the cache
+     */
+    public static void register(String name, int priority, TrimmableCache cache) {
+        if (null == cache) {
+            return;
+        }
+
+        synchronized (mCaches) {
+            for (CacheEntry entry : mCaches) {
+                if (entry.mCache == cache) {
+                    return;
+                }
+            }
+
+            mCaches.add(new CacheEntry(name, Math.max(PRIORITY_LOW, Math.min(PRIORITY_HIGH, priority)), cache));
+        }
+    }
+
+    /**
+     * Unregister a cache.
+     * @param cache the cache
+     */
+    public static void unregister(TrimmableCache cache) {
+        synchronized (mCaches) {
+            for (int i = 0; i < mCaches.size(); i++) {
+                if (mCaches.get(i).mCache == cache) {
+                    mCaches.remove(i);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Provides the share of a cache to release.
+     * @param level the trim level
+     * @param priority the cache priority
+     * @return the share to release (0 means nothing to release)
+     */
+    public static float getTrimRatio(int level, int priority) {
+        int levelIndex = -1;
+
+        // use the nearest known level
+        for (int i = 0; i < TRIM_LEVELS.length; i++) {
+            if (level >= TRIM_LEVELS[i]) {
+                levelIndex = i;
+            }
+        }
+
+        if (levelIndex < 0) {
+            return 0;
+        }
+
+        return TRIM_PERCENTS[priority][levelIndex] / 100.0f;
+    }
+
+    /**
+     * Release the caches according to the trim level.
+     * @param level the level provided by onTrimMemory
+     */
+    public static void onTrimMemory(int level) {
+        long now = SystemClock.elapsedRealtime();
+
+        // each activity receives the same level
+        if ((level == mLastTrimLevel) && ((now - mLastTrimTime) < SAME_LEVEL_DELAY_MS)) {
+            return;
+        }
+
+        mLastTrimLevel = level;
+        mLastTrimTime = now;
+
+        ArrayList<CacheEntry> caches;
+
+        synchronized (mCaches) {
+            caches = new ArrayList<>(mCaches);
+        }
+
+        for (CacheEntry entry : caches) {
+            float ratio = getTrimRatio(level, entry.mPriority);
+
+            if (ratio > 0) {
+                Log.d(LOG_TAG, "## onTrimMemory() : level " + level + " release " + (int) (ratio * 100) + "% of " + entry.mName);
+
+                try {
+                    entry.mCache.trim(ratio);
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## onTrimMemory() : " + entry.mName + " trim failed " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Release all the caches.
+     */
+    public static void releaseAll() {
+        mLastTrimLevel = -1;
+        onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+    }
+}
@@ -59,6 +59,26 @@ public class NotificationUtils {
     // the bubble radius is computed for 99
     static private int mUnreadBubbleWidth = -1;
 
+    /**
+     * Build the notification displayed while a file is exported.
+     * @param context the context.
+     * @param filename the exported file name.
+     * @param progress the export progress (0..100).
+     * @return the export notification.
+     */
+    public static Notification buildExportNotification(Context context, String filename, int progress) {
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(context);
+        builder.setWhen(System.currentTimeMillis());
+
+        builder.setContentTitle(context.getString(R.string.file_is_saving, filename));
+        builder.setSmallIcon(android.R.drawable.stat_sys_download);
+        builder.setProgress(100, progress, false);
+        builder.setOngoing(true);
+        builder.setOnlyAlertOnce(true);
+
+        return builder.build();
+    }
+
     /**
      * Build an incoming call notification.
      * This notification starts the VectorHomeActivity which is in charge of centralizing the incoming call flow.
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2016 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.util;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.text.TextUtils;
+
+import org.matrix.androidsdk.MXSession;
+import org.matrix.androidsdk.rest.callback.ApiCallback;
+import org.matrix.androidsdk.rest.callback.SimpleApiCallback;
+import org.matrix.androidsdk.rest.model.MatrixError;
+import org.matrix.androidsdk.rest.model.User;
+import org.matrix.androidsdk.util.Log;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Set;
+
+/**
+ * Refresh the users presence by batches.
+ * The users requested during a short window are gathered in a batch,
+ * the users which are already being refreshed are not requested twice,
+ * and the presences are refreshed with a bounded number of parallel requests.
+ * The callbacks of a batch are called once, when all its users are refreshed and at least one presence has changed :
+ * a list should provide the same callback for all its rows.
+ * It must be used on the UI thread.
+ */
+public class PresenceRefresher {
+    private static final String LOG_TAG = "PresenceRefresher";
+
+    // the users requested during this delay are refreshed in the same batch
+    private static final long BATCH_WINDOW_MS = 150;
+
+    // the max number of parallel requests
+    private static final int MAX_PARALLEL_REQUESTS = 3;
+
+    /**
+     * A batch of presences to refresh.
+     */
+    private static class Batch {
+        // the callbacks to call when the batch is done
+        final Set<SimpleApiCallback<Void>> mCallbacks = new LinkedHashSet<>();
+        int mPendingCount = 0;
+        int mUpdatedCount = 0;
+    }
+
+    /**
+     * A presence request
+     */
+    private static class PresenceRequest {
+        final Batch mBatch;
+        final MXSession mSession;
+        final String mUserId;
+
+        PresenceRequest(Batch batch, MXSession session, String userId) {
+            mBatch = batch;
+            mSession = session;
+            mUserId = userId;
+        }
+    }
+
+    private static final Handler mUiHandler = new Handler(Looper.getMainLooper());
+
+    // the batch which is being filled
+    private static Batch mCollectingBatch = null;
+
+    // the batch of each requested user, by key (see getKey)
+    private static final HashMap<String, Batch> mBatchByKey = new HashMap<>();
+
+    // the requests to send
+    private static final LinkedList<PresenceRequest> mPendingRequests = new LinkedList<>();
+
+    private static int mRunningCount = 0;
+
+    private static final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mCollectingBatch = null;
+            sendNextRequests();
+        }
+    };
+
+    /**
+     * Compute the key of a user presence.
+     * @param session the session
+     * @param userId the user id
+     * @return the key
+     */
+    private static String getKey(MXSession session, String userId) {
+        return session.getMyUserId() + "|" + userId;
+    }
+
+    /**
+     * Request a user presence refresh.
+     * @param session the session
+     * @param userId the user id
+     * @param callback called once per batch when some presences have been updated (can be null)
+     */
+    public static void refresh(MXSession session, String userId, SimpleApiCallback<Void> callback) {
+        // sanity checks
+        if ((null == session) || !session.isAlive() || TextUtils.isEmpty(userId)) {
+            return;
+        }
+
+        String key = getKey(session, userId);
+        Batch batch = mBatchByKey.get(key);
+
+        // the user is already being refreshed
+        if (null != batch) {
+            if (null != callback) {
+                batch.mCallbacks.add(callback);
+            }
+            return;
+        }
+
+        if (null == mCollectingBatch) {
+            mCollectingBatch = new Batch();
+            mUiHandler.postDelayed(mFlushRunnable, BATCH_WINDOW_MS);
+        }
+
+        batch = mCollectingBatch;
+        batch.mPendingCount++;
+
+        if (null != callback) {
+            batch.mCallbacks.add(callback);
+        }
+
+        mBatchByKey.put(key, batch);
+        mPendingRequests.add(new PresenceRequest(batch, session, userId));
+    }
+
+    /**
+     * Send the pending requests while the parallel requests limit is not reached.
+     * The requests of the batch being filled are not sent.
+     */
+    private static void sendNextRequests() {
+        while ((mRunningCount < MAX_PARALLEL_REQUESTS) && !mPendingRequests.isEmpty() && (mPendingRequests.getFirst().mBatch != mCollectingBatch)) {
+            sendRequest(mPendingRequests.removeFirst());
+        }
+    }
+
+    /**
+     * Refresh a user presence.
+     * @param request the request
+     */
+    private static void sendRequest(final PresenceRequest request) {
+        final MXSession session = request.mSession;
+
+        // the account has been logged out
+        if (!session.isAlive()) {
+            onRequestDone(request, false);
+            return;
+        }
+
+        User user = session.getDataHandler().getStore().getUser(request.mUserId);
+
+        // the presence has been refreshed in the meantime
+        if ((null != user) && !user.isPresenceObsolete()) {
+            onRequestDone(request, false);
+            return;
+        }
+
+        Log.d(LOG_TAG, "Get the user presence : " + request.mUserId);
+
+        final boolean isKnownUser = (null != user);
+        final String fPresence = isKnownUser ? user.presence : null;
+
+        mRunningCount++;
+
+        session.refreshUserPresence(request.mUserId, new ApiCallback<Void>() {
+            @Override
+            public void onSuccess(Void info) {
+                mRunningCount--;
+
+                User updatedUser = session.getDataHandler().getStore().getUser(request.mUserId);
+                boolean isUpdated = false;
+
+                if (null == updatedUser) {
+                    Log.d(LOG_TAG, "Don't find any presence info of " + request.mUserId);
+                } else if (!isKnownUser || !TextUtils.equals(fPresence, updatedUser.presence)) {
+                    Log.d(LOG_TAG, "Got some new user presence info : " + request.mUserId);
+                    isUpdated = true;
+                }
+
+                onRequestDone(request, isUpdated);
+                sendNextRequests();
+            }
+
+            @Override
+            public void onNetworkError(Exception e) {
+                Log.e(LOG_TAG, "## sendRequest() : onNetworkError " + e.getLocalizedMessage());
+                mRunningCount--;
+                onRequestDone(request, false);
+                sendNextRequests();
+            }
+
+            @Override
+            public void onMatrixError(MatrixError e) {
+                Log.e(LOG_TAG, "## sendRequest() : onMatrixError " + e.getLocalizedMessage());
+                mRunningCount--;
+                onRequestDone(request, false);
+                sendNextRequests();
+            }
+
+            @Override
+            public void onUnexpectedError(Exception e) {
+                Log.e(LOG_TAG, "## sendRequest() : onUnexpectedError " + e.getLocalizedMessage());
+                mRunningCount--;
+                onRequestDone(request, false);
+                sendNextRequests();
+            }
+        });
+    }
+
+    /**
+     * A presence request is done.
+     * @param request the request
+     * @param isUpdated true if the presence has been updated
+     */
+    private static void onRequestDone(PresenceRequest request, boolean isUpdated) {
+        Batch batch = request.mBatch;
+
+        mBatchByKey.remove(getKey(request.mSession, request.mUserId));
+
+        batch.mPendingCount--;
+
+        if (isUpdated) {
+            batch.mUpdatedCount++;
+        }
+
+        if (0 == batch.mPendingCount) {
+            Log.d(LOG_TAG, "## onRequestDone() : batch done, " + batch.mUpdatedCount + " presences updated");
+
+            if (batch.mUpdatedCount > 0) {
+                for (SimpleApiCallback<Void> callback : batch.mCallbacks) {
+                    try {
+                        callback.onSuccess(null);
+                    } catch (Exception e) {
+                        Log.e(LOG_TAG, "## onRequestDone() : the callback failed " + e.getMessage());
+                    }
+                }
+            }
+        }
+    }
+}
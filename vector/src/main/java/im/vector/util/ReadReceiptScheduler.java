@@ -0,0 +1,168 @@
+/*
+ * Copyright 2016 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.util;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import org.matrix.androidsdk.data.Room;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.util.Log;
+
+/**
+ * Send the read receipts of a room while the user scrolls.
+ * At most one receipt is sent per interval, for the newest displayed event :
+ * the intermediate receipts are collapsed.
+ * The pending receipt is sent when the room is paused or left.
+ * It must be used on the UI thread.
+ */
+public class ReadReceiptScheduler {
+    private static final String LOG_TAG = "ReadReceiptScheduler";
+
+    // the min delay between two receipts
+    private static final long MIN_RECEIPT_INTERVAL_MS = 2000;
+
+    /**
+     * Receipt listener
+     */
+    public interface ReadReceiptListener {
+        /**
+         * A read receipt has been sent.
+         * @param event the read event
+         */
+        void onReadReceiptSent(Event event);
+    }
+
+    private final Room mRoom;
+    private final ReadReceiptListener mListener;
+    private final Handler mUiHandler = new Handler(Looper.getMainLooper());
+
+    // the event to acknowledge
+    private Event mPendingEvent = null;
+
+    // the latest sending time
+    private long mLastSendTime = 0;
+
+    // statistics
+    private int mSentCount = 0;
+    private int mAvoidedCount = 0;
+
+    private final Runnable mSendRunnable = new Runnable() {
+        @Override
+        public void run() {
+            sendPendingReceipt();
+        }
+    };
+
+    /**
+     * Constructor
+     * @param room the room
+     * @param listener the listener (can be null)
+     */
+    public ReadReceiptScheduler(Room room, ReadReceiptListener listener) {
+        mRoom = room;
+        mListener = listener;
+    }
+
+    /**
+     * An event has been displayed.
+     * The receipt is sent immediately if the interval is elapsed, else it is scheduled.
+     * @param event the displayed event
+     */
+    public void onEventDisplayed(Event event) {
+        if (null == event) {
+            return;
+        }
+
+        // a receipt is already scheduled : keep the newest event
+        if (null != mPendingEvent) {
+            mAvoidedCount++;
+
+            if (event.getOriginServerTs() >= mPendingEvent.getOriginServerTs()) {
+                mPendingEvent = event;
+            }
+            return;
+        }
+
+        mPendingEvent = event;
+
+        long delay = mLastSendTime + MIN_RECEIPT_INTERVAL_MS - SystemClock.elapsedRealtime();
+
+        if (delay <= 0) {
+            sendPendingReceipt();
+        } else {
+            mUiHandler.postDelayed(mSendRunnable, delay);
+        }
+    }
+
+    /**
+     * Send the pending receipt now.
+     * It should be called when the room is paused or left.
+     */
+    public void flush() {
+        mUiHandler.removeCallbacks(mSendRunnable);
+        sendPendingReceipt();
+
+        Log.d(LOG_TAG, "## flush() : " + mRoom.getRoomId() + " " + mSentCount + " receipts sent, " + mAvoidedCount + " avoided");
+    }
+
+    /**
+     * Cancel the pending receipt.
+     */
+    public void cancel() {
+        mUiHandler.removeCallbacks(mSendRunnable);
+        mPendingEvent = null;
+    }
+
+    /**
+     * @return the number of sent receipts
+     */
+    public int getSentCount() {
+        return mSentCount;
+    }
+
+    /**
+     * @return the number of collapsed receipts
+     */
+    public int getAvoidedCount() {
+        return mAvoidedCount;
+    }
+
+    /**
+     * Send the pending receipt.
+     */
+    private void sendPendingReceipt() {
+        if (null == mPendingEvent) {
+            return;
+        }
+
+        Event event = mPendingEvent;
+        mPendingEvent = null;
+        mLastSendTime = SystemClock.elapsedRealtime();
+
+        // the receipt is not sent if the event is already read
+        if (mRoom.sendReadReceipt(event, null)) {
+            mSentCount++;
+            TraceLog.d(TraceLog.EVENT_READ_RECEIPT_SENT, mSentCount, mAvoidedCount);
+        }
+
+        if (null != mListener) {
+            mListener.onReadReceiptSent(event);
+        }
+    }
+}
@@ -34,7 +34,6 @@ import org.matrix.androidsdk.util.Log;
 import android.webkit.MimeTypeMap;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
@@ -370,7 +369,8 @@ public class SharedDataItem implements Parcelable {
     }
 
     /**
-     * Save a media into a dedicated folder
+     * Save a media into a dedicated folder.
+     * It must be called on a background thread.
      *
      * @param context the context
      * @param folder  the folder.
@@ -386,8 +386,8 @@ public class SharedDataItem implements Parcelable {
                 if (null == resource) {
                     Log.e(LOG_TAG, "## saveMedia : Fail to retrieve the resource " + mediaUri);
                 } else {
+                    // the stream is closed by saveFile
                     mUri = saveFile(folder, resource.mContentStream, getFileName(context), resource.mMimeType);
-                    resource.mContentStream.close();
                 }
             } catch (Exception e) {
                 Log.e(LOG_TAG, "## saveMedia : failed " + e.getMessage());
@@ -419,39 +419,15 @@ public class SharedDataItem implements Parcelable {
             }
         }
 
-        Uri fileUri = null;
+        File file = new File(folder, filename);
 
-        try {
-            File file = new File(folder, filename);
-
-            // if the file exits, delete it
-            if (file.exists()) {
-                file.delete();
-            }
-
-            FileOutputStream fos = new FileOutputStream(file.getPath());
-
-            try {
-                byte[] buf = new byte[1024 * 32];
-
-                int len;
-                while ((len = stream.read(buf)) != -1) {
-                    fos.write(buf, 0, len);
-                }
-            } catch (Exception e) {
-                Log.e(LOG_TAG, "## saveFile failed " + e.getMessage());
-            }
-
-            fos.flush();
-            fos.close();
-            stream.close();
-
-            fileUri = Uri.fromFile(file);
-        } catch (Exception e) {
-            Log.e(LOG_TAG, "## saveFile failed " + e.getMessage());
+        // the file is overridden if it exists
+        if (VectorFileExporter.exportStream(stream, file)) {
+            return Uri.fromFile(file);
         }
 
-        return fileUri;
+        Log.e(LOG_TAG, "## saveFile failed");
+        return null;
     }
 
     /**
@@ -247,7 +247,10 @@ public class SlashComandsParser {
             } else if (TextUtils.equals(firstPart, CMD_MARKDOWN)) {
                 isIRCCmd = true;
 
-                if (messageParts.length >= 2) {
+                // the parser is created after the first frame
+                InitializerRegistry.ensureInitialized(VectorApp.INITIALIZER_MARKDOWN);
+
+                if ((messageParts.length >= 2) && (null != VectorApp.getInstance().mMarkdownParser)) {
                     if (TextUtils.equals(messageParts[1], "on")) {
                         VectorApp.getInstance().mMarkdownParser.setEnable(true);
                     } else if (TextUtils.equals(messageParts[1], "off")) {
@@ -0,0 +1,279 @@
+/*
+ * Copyright 2016 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.util;
+
+import android.os.Build;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import org.matrix.androidsdk.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Trace the cold start phases.
+ * The sections are timed with a monotonic clock, from the application creation to the first home screen drawing.
+ * A report is written in the logs directory once per cold start, the previous one is kept.
+ */
+public class StartupTrace {
+    private static final String LOG_TAG = "StartupTrace";
+
+    private static final String REPORT_FILE_NAME = "startup.txt";
+    private static final String PREVIOUS_REPORT_FILE_NAME = "startup_previous.txt";
+
+    // section names
+    public static final String SECTION_APPLICATION = "VectorApp.onCreate";
+    public static final String SECTION_SPLASH = "SplashActivity";
+    public static final String SECTION_STORES_OPENING = "SplashActivity.storesOpening";
+    public static final String SECTION_INITIAL_SYNC = "SplashActivity.initialSync";
+    public static final String SECTION_HOME_FIRST_DRAW = "VectorHomeActivity.firstDraw";
+
+    /**
+     * A timed section
+     */
+    private static class Section {
+        final String mName;
+        final String mThreadName;
+        final long mStartTime;
+        long mEndTime = -1;
+
+        Section(String name, long startTime) {
+            mName = name;
+            mThreadName = Thread.currentThread().getName();
+            mStartTime = startTime;
+        }
+    }
+
+    // the trace origin
+    private static final long mOriginTime = SystemClock.elapsedRealtime();
+
+    private static final ArrayList<Section> mSections = new ArrayList<>();
+
+    // true when the report has been written
+    private static boolean mIsFinished = false;
+
+    // the logs directory
+    private static File mLogsDirectory = null;
+
+    // the last report duration, -1 if it has not been written
+    private static long mStartupDuration = -1;
+
+    /**
+     * Set the directory in which the report is written.
+     * @param logsDirectory the logs directory
+     */
+    public static synchronized void setLogsDirectory(File logsDirectory) {
+        mLogsDirectory = logsDirectory;
+    }
+
+    /**
+     * Start a section.
+     * The section is ignored if the cold start is over.
+     * @param name the section name
+     */
+    public static synchronized void beginSection(String name) {
+        if (!mIsFinished) {
+            mSections.add(new Section(name, SystemClock.elapsedRealtime()));
+        }
+    }
+
+    /**
+     * End the latest started section with this name.
+     * @param name the section name
+     */
+    public static synchronized void endSection(String name) {
+        if (mIsFinished) {
+            return;
+        }
+
+        for (int i = mSections.size() - 1; i >= 0; i--) {
+            Section section = mSections.get(i);
+
+            if (section.mName.equals(name) && (section.mEndTime < 0)) {
+                section.mEndTime = SystemClock.elapsedRealtime();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Add an instant section.
+     * @param name the section name
+     */
+    public static synchronized void mark(String name) {
+        if (!mIsFinished) {
+            Section section = new Section(name, SystemClock.elapsedRealtime());
+            section.mEndTime = section.mStartTime;
+            mSections.add(section);
+        }
+    }
+
+    /**
+     * @return true if the cold start is still traced
+     */
+    public static synchronized boolean isTracing() {
+        return !mIsFinished;
+    }
+
+    /**
+     * Provides the duration of a section.
+     * @param name the section name
+     * @return the duration in ms, -1 if the section is not found or not ended.
+     */
+    public static synchronized long getSectionDuration(String name) {
+        for (Section section : mSections) {
+            if (section.mName.equals(name) && (section.mEndTime >= 0)) {
+                return section.mEndTime - section.mStartTime;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * @return the cold start duration in ms, -1 if the cold start is not over.
+     */
+    public static synchronized long getStartupDuration() {
+        return mStartupDuration;
+    }
+
+    /**
+     * End the cold start trace and write the report in background.
+     */
+    public static void finish() {
+        final String report;
+
+        synchronized (StartupTrace.class) {
+            if (mIsFinished) {
+                return;
+            }
+
+            mIsFinished = true;
+            mStartupDuration = SystemClock.elapsedRealtime() - mOriginTime;
+            report = buildReport();
+        }
+
+        Log.d(LOG_TAG, "## finish() : cold start in " + mStartupDuration + " ms");
+
+        // the report is written out of the UI thread
+        if (Looper.getMainLooper() == Looper.myLooper()) {
+            VectorExecutors.getLowPriorityExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    writeReport(report);
+                }
+            });
+        } else {
+            writeReport(report);
+        }
+    }
+
+    /**
+     * Build the timeline report.
+     * It must be called in a synchronized block.
+     * @return the report
+     */
+    private static String buildReport() {
+        StringBuilder builder = new StringBuilder();
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+
+        builder.append("Cold start : ").append(dateFormat.format(new Date(System.currentTimeMillis() - mStartupDuration))).append("\n");
+        builder.append("Device : ").append(Build.MODEL).append(" (API ").append(Build.VERSION.SDK_INT).append(")\n");
+        builder.append("Total : ").append(mStartupDuration).append(" ms\n\n");
+        builder.append(String.format(Locale.US, "%8s %8s  %-40s %s\n", "start", "duration", "section", "thread"));
+
+        for (Section section : mSections) {
+            String duration = (section.mEndTime >= 0) ? String.valueOf(section.mEndTime - section.mStartTime) : "-";
+            builder.append(String.format(Locale.US, "%8d %8s  %-40s %s\n", section.mStartTime - mOriginTime, duration, section.mName, section.mThreadName));
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Write the report in the logs directory.
+     * @param report the report
+     */
+    private static void writeReport(String report) {
+        File logsDirectory;
+
+        synchronized (StartupTrace.class) {
+            logsDirectory = mLogsDirectory;
+        }
+
+        if (null == logsDirectory) {
+            return;
+        }
+
+        FileOutputStream outputStream = null;
+
+        try {
+            if (!logsDirectory.exists()) {
+                logsDirectory.mkdirs();
+            }
+
+            File reportFile = new File(logsDirectory, REPORT_FILE_NAME);
+            File previousReportFile = new File(logsDirectory, PREVIOUS_REPORT_FILE_NAME);
+
+            if (reportFile.exists()) {
+                previousReportFile.delete();
+                reportFile.renameTo(previousReportFile);
+            }
+
+            outputStream = new FileOutputStream(reportFile);
+            outputStream.write(report.getBytes());
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## writeReport() failed " + e.getMessage());
+        } finally {
+            if (null != outputStream) {
+                try {
+                    outputStream.close();
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## writeReport() : close failed " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the report files to include in a bug report, the oldest first.
+     */
+    public static synchronized List<File> getReportFiles() {
+        List<File> files = new ArrayList<>();
+
+        if (null != mLogsDirectory) {
+            File previousReportFile = new File(mLogsDirectory, PREVIOUS_REPORT_FILE_NAME);
+            File reportFile = new File(mLogsDirectory, REPORT_FILE_NAME);
+
+            if (previousReportFile.exists()) {
+                files.add(previousReportFile);
+            }
+
+            if (reportFile.exists()) {
+                files.add(reportFile);
+            }
+        }
+
+        return files;
+    }
+}
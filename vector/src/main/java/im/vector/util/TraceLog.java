@@ -0,0 +1,323 @@
+/*
+ * Copyright 2016 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.util;
+
+import org.matrix.androidsdk.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Low overhead logger for the hot paths.
+ * The records have a fixed binary format (event id, level, thread id, timestamp and up to 4 long arguments)
+ * and are written in a memory-mapped ring buffer, so no string is built when an event is traced.
+ * The records are only decoded when the bug report is built.
+ * The ring buffer of the previous process is kept to be included in the bug reports.
+ */
+public class TraceLog {
+    private static final String LOG_TAG = "TraceLog";
+
+    // levels
+    public static final int LEVEL_DEBUG = 0;
+    public static final int LEVEL_ERROR = 1;
+
+    // events
+    public static final int EVENT_ROOM_SCROLL = 1;
+    public static final int EVENT_ROOM_SCROLL_IN_BACKGROUND = 2;
+    public static final int EVENT_ROOM_LATEST_EVENT_DISPLAY = 3;
+    public static final int EVENT_RECENTS_CHUNK_PROCESSED = 4;
+    public static final int EVENT_NOTIFICATION_ALREADY_BINGED = 5;
+    public static final int EVENT_NOTIFICATION_PUSH_DISABLED = 6;
+    public static final int EVENT_NOTIFICATION_VIEWED_ROOM = 7;
+    public static final int EVENT_NOTIFICATION_NO_BODY = 8;
+    public static final int EVENT_NOTIFICATION_NO_SESSION = 9;
+    public static final int EVENT_NOTIFICATION_UNKNOWN_ROOM = 10;
+    public static final int EVENT_BENCHMARK = 11;
+    public static final int EVENT_PUSH_NOTIFIED = 12;
+    public static final int EVENT_READ_RECEIPT_SENT = 13;
+
+    // the events tags and formats, indexed by event id
+    // the ids must not be changed because the previous process records are decoded with them.
+    private static final String[][] EVENTS = {
+            {"TraceLog", "unknown event"},
+            {"VectorRoomActivity", "## onScroll firstVisibleItem %d visibleItemCount %d totalItemCount %d"},
+            {"VectorRoomActivity", "## onScroll : the app is in background"},
+            {"VectorRoomActivity", "## onLatestEventDisplay : isDisplayed %d"},
+            {"VectorRecentsListFrg", "onLiveEventsChunkProcessed : refresh %d"},
+            {"EventStreamService", "prepareNotification : don't bing - the event was already binged"},
+            {"EventStreamService", "prepareNotification : the push has been disable on this device"},
+            {"EventStreamService", "prepareNotification : don't bing because it is the currently opened room"},
+            {"EventStreamService", "prepareNotification : don't bing - no body and not a call event"},
+            {"EventStreamService", "prepareNotification : don't bing - no session"},
+            {"EventStreamService", "prepareNotification : don't bing - the room does not exist"},
+            {"TraceLog", "benchmark %d %d"},
+            {"GcmListenerService", "## onMessageReceived() : notified in %d ms (%d ms after the push sending)"},
+            {"ReadReceiptScheduler", "## sendPendingReceipt() : %d receipts sent, %d avoided"},
+    };
+
+    private static final String TRACE_FILE_NAME = "trace.bin";
+    private static final String PREVIOUS_TRACE_FILE_NAME = "trace_previous.bin";
+
+    // header : magic (int), records size (int), written records count (long)
+    private static final int MAGIC = 0x54524143;
+    private static final int HEADER_SIZE = 16;
+    private static final int WRITTEN_COUNT_OFFSET = 8;
+
+    // record : event id (short), level (byte), args count (byte), thread id (int), timestamp (long), 4 args (long)
+    private static final int MAX_ARGS_COUNT = 4;
+    private static final int RECORD_SIZE = 16 + 8 * MAX_ARGS_COUNT;
+    private static final int RECORDS_COUNT = 16 * 1024;
+
+    // the ring buffer
+    private static MappedByteBuffer mBuffer = null;
+    private static long mWrittenCount = 0;
+
+    // the trace files
+    private static File mTraceFile = null;
+    private static File mPreviousTraceFile = null;
+
+    /**
+     * Init the logger.
+     * The ring buffer of the previous process is kept aside.
+     * @param logsDirectory the logs directory
+     */
+    public static synchronized void init(File logsDirectory) {
+        if (null != mBuffer) {
+            return;
+        }
+
+        RandomAccessFile randomAccessFile = null;
+
+        try {
+            if (!logsDirectory.exists()) {
+                logsDirectory.mkdirs();
+            }
+
+            mTraceFile = new File(logsDirectory, TRACE_FILE_NAME);
+            mPreviousTraceFile = new File(logsDirectory, PREVIOUS_TRACE_FILE_NAME);
+
+            if (mTraceFile.exists()) {
+                mPreviousTraceFile.delete();
+                mTraceFile.renameTo(mPreviousTraceFile);
+            }
+
+            long size = HEADER_SIZE + (long) RECORD_SIZE * RECORDS_COUNT;
+
+            randomAccessFile = new RandomAccessFile(mTraceFile, "rw");
+            randomAccessFile.setLength(size);
+
+            // the mapping remains valid when the file is closed
+            mBuffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            mBuffer.putInt(0, MAGIC);
+            mBuffer.putInt(4, RECORD_SIZE);
+            mBuffer.putLong(WRITTEN_COUNT_OFFSET, 0);
+            mWrittenCount = 0;
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## init() failed " + e.getMessage());
+            mBuffer = null;
+        } finally {
+            if (null != randomAccessFile) {
+                try {
+                    randomAccessFile.close();
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## init() : close failed " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Write a record in the ring buffer.
+     */
+    private static synchronized void write(int eventId, int level, int argsCount, long arg0, long arg1, long arg2, long arg3) {
+        if (null == mBuffer) {
+            return;
+        }
+
+        int offset = HEADER_SIZE + (int) (mWrittenCount % RECORDS_COUNT) * RECORD_SIZE;
+
+        mBuffer.putShort(offset, (short) eventId);
+        mBuffer.put(offset + 2, (byte) level);
+        mBuffer.put(offset + 3, (byte) argsCount);
+        mBuffer.putInt(offset + 4, (int) Thread.currentThread().getId());
+        mBuffer.putLong(offset + 8, System.currentTimeMillis());
+        mBuffer.putLong(offset + 16, arg0);
+        mBuffer.putLong(offset + 24, arg1);
+        mBuffer.putLong(offset + 32, arg2);
+        mBuffer.putLong(offset + 40, arg3);
+
+        mWrittenCount++;
+        mBuffer.putLong(WRITTEN_COUNT_OFFSET, mWrittenCount);
+    }
+
+    /**
+     * Trace a debug event.
+     * @param eventId the event id
+     */
+    public static void d(int eventId) {
+        write(eventId, LEVEL_DEBUG, 0, 0, 0, 0, 0);
+    }
+
+    /**
+     * Trace a debug event.
+     * @param eventId the event id
+     * @param arg0 the first argument
+     */
+    public static void d(int eventId, long arg0) {
+        write(eventId, LEVEL_DEBUG, 1, arg0, 0, 0, 0);
+    }
+
+    /**
+     * Trace a debug event.
+     * @param eventId the event id
+     * @param arg0 the first argument
+     * @param arg1 the second argument
+     */
+    public static void d(int eventId, long arg0, long arg1) {
+        write(eventId, LEVEL_DEBUG, 2, arg0, arg1, 0, 0);
+    }
+
+    /**
+     * Trace a debug event.
+     * @param eventId the event id
+     * @param arg0 the first argument
+     * @param arg1 the second argument
+     * @param arg2 the third argument
+     */
+    public static void d(int eventId, long arg0, long arg1, long arg2) {
+        write(eventId, LEVEL_DEBUG, 3, arg0, arg1, arg2, 0);
+    }
+
+    /**
+     * Trace an error event.
+     * @param eventId the event id
+     */
+    public static void e(int eventId) {
+        write(eventId, LEVEL_ERROR, 0, 0, 0, 0, 0);
+    }
+
+    /**
+     * Trace an error event.
+     * @param eventId the event id
+     * @param arg0 the first argument
+     */
+    public static void e(int eventId, long arg0) {
+        write(eventId, LEVEL_ERROR, 1, arg0, 0, 0, 0);
+    }
+
+    /**
+     * @return the trace files to include in a bug report, the oldest first.
+     */
+    public static synchronized List<File> getTraceFiles() {
+        List<File> files = new ArrayList<>();
+
+        if ((null != mPreviousTraceFile) && mPreviousTraceFile.exists()) {
+            files.add(mPreviousTraceFile);
+        }
+
+        if ((null != mTraceFile) && mTraceFile.exists()) {
+            files.add(mTraceFile);
+        }
+
+        return files;
+    }
+
+    /**
+     * Decode a trace file as text, the oldest records first.
+     * The current trace file can be decoded while it is written, the record being written might be inconsistent.
+     * @param traceFile the trace file
+     * @param outputStream the output stream (it is not closed)
+     * @param maxSize the max number of written bytes
+     * @return the number of written bytes
+     * @throws IOException the writing failed
+     */
+    public static long decode(File traceFile, OutputStream outputStream, long maxSize) throws IOException {
+        RandomAccessFile randomAccessFile = null;
+        long writtenSize = 0;
+
+        try {
+            randomAccessFile = new RandomAccessFile(traceFile, "r");
+
+            if (randomAccessFile.length() < HEADER_SIZE) {
+                return 0;
+            }
+
+            MappedByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, randomAccessFile.length());
+
+            if ((buffer.getInt(0) != MAGIC) || (buffer.getInt(4) != RECORD_SIZE)) {
+                Log.e(LOG_TAG, "## decode() : unsupported trace file " + traceFile.getName());
+                return 0;
+            }
+
+            int recordsCount = (int) ((randomAccessFile.length() - HEADER_SIZE) / RECORD_SIZE);
+            long writtenCount = buffer.getLong(WRITTEN_COUNT_OFFSET);
+            long firstIndex = Math.max(0, writtenCount - recordsCount);
+
+            SimpleDateFormat dateFormat = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.US);
+            Date date = new Date();
+            Object[] args = new Object[MAX_ARGS_COUNT];
+
+            for (long index = firstIndex; (index < writtenCount) && (writtenSize < maxSize); index++) {
+                int offset = HEADER_SIZE + (int) (index % recordsCount) * RECORD_SIZE;
+
+                int eventId = buffer.getShort(offset);
+                int level = buffer.get(offset + 2);
+                int argsCount = Math.min(MAX_ARGS_COUNT, Math.max(0, buffer.get(offset + 3)));
+                int threadId = buffer.getInt(offset + 4);
+                date.setTime(buffer.getLong(offset + 8));
+
+                for (int i = 0; i < MAX_ARGS_COUNT; i++) {
+                    args[i] = buffer.getLong(offset + 16 + 8 * i);
+                }
+
+                String[] event = ((eventId > 0) && (eventId < EVENTS.length)) ? EVENTS[eventId] : EVENTS[0];
+                String message;
+
+                try {
+                    message = String.format(Locale.US, event[1], args);
+                } catch (Exception e) {
+                    message = event[1] + " " + argsCount + " args";
+                }
+
+                String line = dateFormat.format(date) + " " + threadId + " " + ((LEVEL_ERROR == level) ? "E" : "D") + "/" + event[0] + ": " + message + "\n";
+                byte[] lineBytes = line.getBytes();
+
+                outputStream.write(lineBytes);
+                writtenSize += lineBytes.length;
+            }
+        } finally {
+            if (null != randomAccessFile) {
+                try {
+                    randomAccessFile.close();
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## decode() : close failed " + e.getMessage());
+                }
+            }
+        }
+
+        return writtenSize;
+    }
+}
@@ -0,0 +1,405 @@
+/*
+ * Copyright 2016 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.util;
+
+import android.os.Looper;
+import android.os.StrictMode;
+import android.os.SystemClock;
+import android.util.Printer;
+
+import org.matrix.androidsdk.util.Log;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ScheduledFuture;
+
+import im.vector.BuildConfig;
+
+/**
+ * Detect the slow operations on the UI thread, in the debug and the dogfood builds.
+ * - the main looper messages duration is measured, the UI thread stack is sampled while a message is too long.
+ * - the disk and network accesses on the UI thread are logged by StrictMode (with their stack traces).
+ * The latest slow messages and StrictMode violations are gathered in a report which is attached to the bug reports.
+ */
+public class UiThreadMonitor {
+    private static final String LOG_TAG = "UiThreadMonitor";
+
+    // a message running longer than this delay is reported
+    private static final long SLOW_MESSAGE_MS = 100;
+
+    // the UI thread stack sampling period while a message is running
+    private static final long SAMPLING_PERIOD_MS = 40;
+
+    // the max number of stack samples by message
+    private static final int MAX_SAMPLES_BY_MESSAGE = 5;
+
+    // the max number of frames by stack sample
+    private static final int MAX_FRAMES_BY_SAMPLE = 25;
+
+    // the number of reported messages
+    private static final int MAX_REPORTED_MESSAGES = 50;
+
+    // the StrictMode logs, the most recent ones
+    private static final String[] STRICT_MODE_LOGCAT_CMD = new String[]{"logcat", "-d", "-v", "time", "-t", "2000", "StrictMode:D", "*:S"};
+
+    // the number of reported StrictMode violations
+    private static final int MAX_REPORTED_VIOLATIONS = 20;
+
+    // the frames which denote a disk access
+    private static final String[] DISK_ACCESS_FRAMES = new String[]{"java.io.File", "java.io.RandomAccessFile", "libcore.io", "android.database.sqlite", "android.app.SharedPreferencesImpl", "android.content.ContentResolver"};
+
+    // the frames which denote a network access
+    private static final String[] NETWORK_ACCESS_FRAMES = new String[]{"java.net", "javax.net.ssl", "com.android.okhttp", "com.squareup.okhttp"};
+
+    /**
+     * A too long message
+     */
+    private static class SlowMessage {
+        final long mTime = System.currentTimeMillis();
+        final String mDescription;
+        final long mDuration;
+        final List<StackTraceElement[]> mSamples;
+
+        SlowMessage(String description, long duration, List<StackTraceElement[]> samples) {
+            mDescription = description;
+            mDuration = duration;
+            mSamples = samples;
+        }
+    }
+
+    private static boolean mIsStarted = false;
+
+    // the UI thread stack sampling, only while an activity is resumed
+    private static ScheduledFuture<?> mSamplingFuture = null;
+
+    // the running message, 0 when the looper is idle
+    private static long mMessageStartTime = 0;
+    private static String mMessageDescription = null;
+    private static long mMessageIndex = 0;
+    private static List<StackTraceElement[]> mMessageSamples = new ArrayList<>();
+
+    // statistics
+    private static long mMessagesCount = 0;
+    private static long mSlowMessagesCount = 0;
+    private static long mMaxDuration = 0;
+
+    // the latest slow messages
+    private static final LinkedList<SlowMessage> mSlowMessages = new LinkedList<>();
+
+    /**
+     * Start the monitoring if it is enabled in this build.
+     * It must be called on the UI thread.
+     */
+    public static void start() {
+        if (!BuildConfig.ENABLE_UI_THREAD_MONITOR || mIsStarted) {
+            return;
+        }
+
+        mIsStarted = true;
+
+        Log.d(LOG_TAG, "## start()");
+
+        // the violations are logged with their stack traces, they are read back from the logcat by getReport()
+        StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                .detectDiskReads()
+                .detectDiskWrites()
+                .detectNetwork()
+                .penaltyLog()
+                .build());
+
+        // the looper logs the messages dispatching start and end
+        Looper.getMainLooper().setMessageLogging(new Printer() {
+            @Override
+            public void println(String x) {
+                if (x.startsWith(">>>>>")) {
+                    onMessageStart(x);
+                } else if (x.startsWith("<<<<<")) {
+                    onMessageEnd();
+                }
+            }
+        });
+
+    }
+
+    /**
+     * An activity is resumed : the UI thread stack is sampled while a message is too long.
+     * It must be called on the UI thread.
+     */
+    public static void onActivityResumed() {
+        if (!mIsStarted || (null != mSamplingFuture)) {
+            return;
+        }
+
+        final Thread uiThread = Looper.getMainLooper().getThread();
+
+        mSamplingFuture = VectorExecutors.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                sampleUiThread(uiThread);
+            }
+        }, SAMPLING_PERIOD_MS, SAMPLING_PERIOD_MS);
+    }
+
+    /**
+     * There is no more resumed activity : the sampling is stopped so the scheduler thread does not wake up the device.
+     * It must be called on the UI thread.
+     */
+    public static void onActivityPaused() {
+        if (null != mSamplingFuture) {
+            mSamplingFuture.cancel(false);
+            mSamplingFuture = null;
+        }
+    }
+
+    /**
+     * @return true if the monitoring is started
+     */
+    public static boolean isStarted() {
+        return mIsStarted;
+    }
+
+    /**
+     * A message is dispatched.
+     * @param description the message description
+     */
+    private static synchronized void onMessageStart(String description) {
+        mMessageIndex++;
+        mMessageStartTime = SystemClock.elapsedRealtime();
+        mMessageDescription = description;
+        mMessageSamples = new ArrayList<>();
+    }
+
+    /**
+     * The message is handled.
+     */
+    private static synchronized void onMessageEnd() {
+        if (0 == mMessageStartTime) {
+            return;
+        }
+
+        long duration = SystemClock.elapsedRealtime() - mMessageStartTime;
+        mMessageStartTime = 0;
+        mMessagesCount++;
+        mMaxDuration = Math.max(mMaxDuration, duration);
+
+        if (duration >= SLOW_MESSAGE_MS) {
+            mSlowMessagesCount++;
+
+            Log.w(LOG_TAG, "## onMessageEnd() : the UI thread was blocked " + duration + " ms by " + mMessageDescription);
+
+            mSlowMessages.add(new SlowMessage(mMessageDescription, duration, mMessageSamples));
+
+            if (mSlowMessages.size() > MAX_REPORTED_MESSAGES) {
+                mSlowMessages.removeFirst();
+            }
+        }
+    }
+
+    /**
+     * Sample the UI thread stack if the running message is too long.
+     * It is called on the scheduler thread.
+     * @param uiThread the UI thread
+     */
+    private static void sampleUiThread(Thread uiThread) {
+        long messageIndex;
+
+        synchronized (UiThreadMonitor.class) {
+            if ((0 == mMessageStartTime) || ((SystemClock.elapsedRealtime() - mMessageStartTime) < SAMPLING_PERIOD_MS) || (mMessageSamples.size() >= MAX_SAMPLES_BY_MESSAGE)) {
+                return;
+            }
+
+            messageIndex = mMessageIndex;
+        }
+
+        StackTraceElement[] stackTrace = uiThread.getStackTrace();
+
+        synchronized (UiThreadMonitor.class) {
+            // ignore the sample if the message is done
+            if ((messageIndex == mMessageIndex) && (0 != mMessageStartTime)) {
+                mMessageSamples.add(Arrays.copyOf(stackTrace, Math.min(stackTrace.length, MAX_FRAMES_BY_SAMPLE)));
+            }
+        }
+    }
+
+    /**
+     * Tells if a stack sample contains some frames.
+     * @param stackTrace the stack sample
+     * @param framesPrefixes the frames prefixes
+     * @return true if one frame starts with one of the prefixes
+     */
+    private static boolean containsFrame(StackTraceElement[] stackTrace, String[] framesPrefixes) {
+        for (StackTraceElement element : stackTrace) {
+            for (String prefix : framesPrefixes) {
+                if (element.getClassName().startsWith(prefix)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return the slow messages and the StrictMode violations report
+     */
+    public static String getReport() {
+        if (!mIsStarted) {
+            return "";
+        }
+
+        StringBuilder builder = new StringBuilder();
+
+        synchronized (UiThreadMonitor.class) {
+            appendSlowMessages(builder);
+        }
+
+        // the logcat is read out of the lock, the UI thread must not wait for it
+        appendStrictModeViolations(builder);
+
+        return builder.toString();
+    }
+
+    /**
+     * Append the slow messages to the report.
+     * @param builder the report builder
+     */
+    private static void appendSlowMessages(StringBuilder builder) {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US);
+
+        builder.append(mMessagesCount).append(" messages, ").append(mSlowMessagesCount).append(" longer than ").append(SLOW_MESSAGE_MS).append(" ms, max ").append(mMaxDuration).append(" ms\n");
+
+        // the most recent first
+        for (int index = mSlowMessages.size() - 1; index >= 0; index--) {
+            SlowMessage slowMessage = mSlowMessages.get(index);
+            boolean hasDiskAccess = false;
+            boolean hasNetworkAccess = false;
+
+            for (StackTraceElement[] sample : slowMessage.mSamples) {
+                hasDiskAccess |= containsFrame(sample, DISK_ACCESS_FRAMES);
+                hasNetworkAccess |= containsFrame(sample, NETWORK_ACCESS_FRAMES);
+            }
+
+            builder.append("\n").append(dateFormat.format(new Date(slowMessage.mTime))).append(" : ").append(slowMessage.mDuration).append(" ms");
+
+            if (hasDiskAccess) {
+                builder.append(" [disk]");
+            }
+
+            if (hasNetworkAccess) {
+                builder.append(" [network]");
+            }
+
+            builder.append("\n").append(slowMessage.mDescription).append("\n");
+
+            StackTraceElement[] previousSample = null;
+
+            for (StackTraceElement[] sample : slowMessage.mSamples) {
+                // the UI thread was blocked at the same place
+                if (Arrays.equals(sample, previousSample)) {
+                    builder.append("  (same stack)\n");
+                    continue;
+                }
+
+                previousSample = sample;
+                builder.append("  sample :\n");
+
+                for (StackTraceElement element : sample) {
+                    builder.append("    at ").append(element.toString()).append("\n");
+                }
+            }
+        }
+    }
+
+    /**
+     * Append the StrictMode violations to the report.
+     * StrictMode only logs them (penaltyLog), so they are read back from the logcat.
+     * @param builder the report builder
+     */
+    private static void appendStrictModeViolations(StringBuilder builder) {
+        LinkedList<List<String>> violations = new LinkedList<>();
+        int violationsCount = 0;
+        int diskViolationsCount = 0;
+        int networkViolationsCount = 0;
+
+        Process logcatProcess = null;
+        BufferedReader reader = null;
+
+        try {
+            logcatProcess = Runtime.getRuntime().exec(STRICT_MODE_LOGCAT_CMD);
+            reader = new BufferedReader(new InputStreamReader(logcatProcess.getInputStream()));
+
+            List<String> violation = null;
+            String line;
+
+            while (null != (line = reader.readLine())) {
+                // a violation starts with its description, followed by its stack trace
+                if (line.contains("policy violation")) {
+                    violationsCount++;
+
+                    if (line.contains("DiskReadViolation") || line.contains("DiskWriteViolation")) {
+                        diskViolationsCount++;
+                    } else if (line.contains("NetworkViolation")) {
+                        networkViolationsCount++;
+                    }
+
+                    violation = new ArrayList<>();
+                    violations.add(violation);
+
+                    if (violations.size() > MAX_REPORTED_VIOLATIONS) {
+                        violations.removeFirst();
+                    }
+                }
+
+                if ((null != violation) && (violation.size() <= MAX_FRAMES_BY_SAMPLE)) {
+                    violation.add(line);
+                }
+            }
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## appendStrictModeViolations() : failed " + e.getMessage());
+        } finally {
+            if (null != reader) {
+                try {
+                    reader.close();
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## appendStrictModeViolations() : close failed " + e.getMessage());
+                }
+            }
+
+            if (null != logcatProcess) {
+                logcatProcess.destroy();
+            }
+        }
+
+        builder.append("\n").append(violationsCount).append(" StrictMode violations (").append(diskViolationsCount).append(" disk, ").append(networkViolationsCount).append(" network)\n");
+
+        // the most recent first
+        for (int index = violations.size() - 1; index >= 0; index--) {
+            builder.append("\n");
+
+            for (String line : violations.get(index)) {
+                builder.append(line).append("\n");
+            }
+        }
+    }
+}
@@ -38,8 +38,7 @@ import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ScheduledFuture;
 
 import im.vector.R;
 import im.vector.VectorApp;
@@ -516,20 +515,19 @@ public class VectorCallSoundManager {
     private static Integer mAudioMode = null;
     private static Boolean mIsSpeakerOn = null;
 
-    private static Timer mRestoreAudioConfigTimer = null;
-    private static TimerTask mRestoreAudioConfigTimerMask = null;
+    // pending audio config restoration, scheduled with VectorExecutors.schedule()
+    private static ScheduledFuture<?> mRestoreAudioConfigFuture = null;
     private static Handler mUIHandler = null;
 
     /**
      * Back up the current audio config.
      */
     private static void backupAudioConfig() {
-        // there is a pending timer to restore the audio config
-        if (null != mRestoreAudioConfigTimer) {
-            // cancel the timer and don't get the audio config
-            mRestoreAudioConfigTimer.cancel();
-            mRestoreAudioConfigTimer = null;
-            mRestoreAudioConfigTimerMask = null;
+        // there is a pending task to restore the audio config
+        if (null != mRestoreAudioConfigFuture) {
+            // cancel the task and don't get the audio config
+            mRestoreAudioConfigFuture.cancel(false);
+            mRestoreAudioConfigFuture = null;
         } else if (null == mAudioMode) { // not yet backuped
             AudioManager audioManager = getAudioManager();
 
@@ -0,0 +1,372 @@
+/*
+ * Copyright 2016 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.util;
+
+import android.os.Looper;
+import android.os.SystemClock;
+import android.text.TextUtils;
+
+import org.matrix.androidsdk.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The application background executors.
+ * The background tasks are run on a small set of shared pools instead of dedicated threads :
+ * - UI critical : the results the user is waiting for (search results, members lists...).
+ * - IO : the disk and network blocking operations.
+ * - CPU : the decoding and the computations (thumbnails, avatars, compression...).
+ * - low priority : the work which can wait (contacts, statistics...).
+ * - scheduler : the delayed and the periodic tasks.
+ * Each pool has named threads and a bounded queue, and exposes its queue depth, wait time and run time.
+ */
+public class VectorExecutors {
+    private static final String LOG_TAG = "VectorExecutors";
+
+    private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
+
+    private static final String SCHEDULER_THREAD_NAME = "VectorScheduler";
+
+    // the delay before queuing again a task rejected on the UI thread
+    private static final long REJECTED_TASK_RETRY_DELAY_MS = 50;
+
+    /**
+     * A thread pool which measures the tasks wait and run durations.
+     */
+    public static class InstrumentedExecutor extends ThreadPoolExecutor {
+        private final String mName;
+
+        // statistics
+        private long mExecutedCount = 0;
+        private long mRejectedCount = 0;
+        private int mMaxQueueDepth = 0;
+        private long mTotalWaitTime = 0;
+        private long mMaxWaitTime = 0;
+        private long mTotalRunTime = 0;
+        private long mMaxRunTime = 0;
+
+        /**
+         * A task with its enqueuing time.
+         */
+        private class TimedRunnable implements Runnable {
+            final Runnable mRunnable;
+            final long mEnqueueTime = SystemClock.elapsedRealtime();
+
+            TimedRunnable(Runnable runnable) {
+                mRunnable = runnable;
+            }
+
+            @Override
+            public void run() {
+                long startTime = SystemClock.elapsedRealtime();
+
+                try {
+                    mRunnable.run();
+                } finally {
+                    onTaskDone(startTime - mEnqueueTime, SystemClock.elapsedRealtime() - startTime);
+                }
+            }
+        }
+
+        /**
+         * Constructor
+         * @param name the pool name, used to name the threads
+         * @param threadsCount the threads count
+         * @param queueCapacity the max number of pending tasks
+         * @param threadPriority the threads priority
+         */
+        InstrumentedExecutor(final String name, int threadsCount, int queueCapacity, final int threadPriority) {
+            super(threadsCount, threadsCount, 30L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(queueCapacity), new ThreadFactory() {
+                private int mThreadIndex = 0;
+
+                @Override
+                public synchronized Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, name + "-" + (mThreadIndex++));
+                    thread.setPriority(threadPriority);
+                    return thread;
+                }
+            });
+
+            mName = name;
+
+            // the idle threads are released
+            allowCoreThreadTimeOut(true);
+
+            // the queue is full : the producer runs the task itself (back pressure),
+            // except the UI and the scheduler threads which must not be blocked : the task is queued again later.
+            setRejectedExecutionHandler(new RejectedExecutionHandler() {
+                @Override
+                public void rejectedExecution(final Runnable runnable, ThreadPoolExecutor executor) {
+                    synchronized (InstrumentedExecutor.this) {
+                        mRejectedCount++;
+                    }
+
+                    if (executor.isShutdown()) {
+                        Log.e(LOG_TAG, "## rejectedExecution() : the " + mName + " pool is shut down");
+                        return;
+                    }
+
+                    if ((Looper.getMainLooper().getThread() == Thread.currentThread()) || TextUtils.equals(SCHEDULER_THREAD_NAME, Thread.currentThread().getName())) {
+                        Log.e(LOG_TAG, "## rejectedExecution() : the " + mName + " queue is full, retry in " + REJECTED_TASK_RETRY_DELAY_MS + " ms");
+
+                        schedule(new Runnable() {
+                            @Override
+                            public void run() {
+                                enqueue(runnable);
+                            }
+                        }, REJECTED_TASK_RETRY_DELAY_MS);
+                    } else {
+                        Log.e(LOG_TAG, "## rejectedExecution() : the " + mName + " queue is full, run by " + Thread.currentThread().getName());
+                        runnable.run();
+                    }
+                }
+            });
+        }
+
+        /**
+         * Enqueue an already timed task.
+         * @param runnable the task
+         */
+        private void enqueue(Runnable runnable) {
+            super.execute(runnable);
+        }
+
+        @Override
+        public void execute(Runnable runnable) {
+            if (null == runnable) {
+                throw new NullPointerException();
+            }
+
+            super.execute(new TimedRunnable(runnable));
+
+            int queueDepth = getQueue().size();
+
+            synchronized (this) {
+                mMaxQueueDepth = Math.max(mMaxQueueDepth, queueDepth);
+            }
+        }
+
+        /**
+         * Update the statistics when a task is done.
+         * @param waitTime the time spent in the queue
+         * @param runTime the run duration
+         */
+        private synchronized void onTaskDone(long waitTime, long runTime) {
+            mExecutedCount++;
+            mTotalWaitTime += waitTime;
+            mMaxWaitTime = Math.max(mMaxWaitTime, waitTime);
+            mTotalRunTime += runTime;
+            mMaxRunTime = Math.max(mMaxRunTime, runTime);
+        }
+
+        /**
+         * @return the pool name
+         */
+        public String getName() {
+            return mName;
+        }
+
+        /**
+         * @return the number of pending tasks
+         */
+        public int getQueueDepth() {
+            return getQueue().size();
+        }
+
+        /**
+         * @return the average time spent by a task in the queue (ms)
+         */
+        public synchronized long getAverageWaitTime() {
+            return (0 == mExecutedCount) ? 0 : (mTotalWaitTime / mExecutedCount);
+        }
+
+        /**
+         * @return the average tasks run duration (ms)
+         */
+        public synchronized long getAverageRunTime() {
+            return (0 == mExecutedCount) ? 0 : (mTotalRunTime / mExecutedCount);
+        }
+
+        /**
+         * @return a description of the pool statistics
+         */
+        public synchronized String getStatistics() {
+            return String.format(Locale.US, "%s : %d executed, %d rejected, queue %d (max %d), wait avg %d ms max %d ms, run avg %d ms max %d ms",
+                    mName, mExecutedCount, mRejectedCount, getQueue().size(), mMaxQueueDepth, getAverageWaitTime(), mMaxWaitTime, getAverageRunTime(), mMaxRunTime);
+        }
+    }
+
+    /**
+     * Run the tasks one by one, in their submission order, on a shared executor.
+     */
+    public static class SerialExecutor implements Executor {
+        private final Executor mExecutor;
+        private final ArrayDeque<Runnable> mTasks = new ArrayDeque<>();
+        private Runnable mActiveTask = null;
+
+        /**
+         * Constructor
+         * @param executor the executor which runs the tasks
+         */
+        public SerialExecutor(Executor executor) {
+            mExecutor = executor;
+        }
+
+        @Override
+        public synchronized void execute(final Runnable runnable) {
+            mTasks.offer(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        runnable.run();
+                    } finally {
+                        scheduleNext();
+                    }
+                }
+            });
+
+            if (null == mActiveTask) {
+                scheduleNext();
+            }
+        }
+
+        /**
+         * Run the next task.
+         */
+        private synchronized void scheduleNext() {
+            mActiveTask = mTasks.poll();
+
+            if (null != mActiveTask) {
+                mExecutor.execute(mActiveTask);
+            }
+        }
+    }
+
+    private static InstrumentedExecutor mUiCriticalExecutor = null;
+    private static InstrumentedExecutor mIOExecutor = null;
+    private static InstrumentedExecutor mCPUExecutor = null;
+    private static InstrumentedExecutor mLowPriorityExecutor = null;
+    private static ScheduledThreadPoolExecutor mScheduler = null;
+
+    /**
+     * @return the executor for the tasks whose result is waited by the user.
+     */
+    public static synchronized InstrumentedExecutor getUiCriticalExecutor() {
+        if (null == mUiCriticalExecutor) {
+            mUiCriticalExecutor = new InstrumentedExecutor("VectorUiCritical", 2, 64, Thread.NORM_PRIORITY);
+        }
+
+        return mUiCriticalExecutor;
+    }
+
+    /**
+     * @return the executor for the disk and network blocking operations.
+     */
+    public static synchronized InstrumentedExecutor getIOExecutor() {
+        if (null == mIOExecutor) {
+            mIOExecutor = new InstrumentedExecutor("VectorIO", 4, 256, Thread.NORM_PRIORITY - 1);
+        }
+
+        return mIOExecutor;
+    }
+
+    /**
+     * @return the executor for the computations.
+     */
+    public static synchronized InstrumentedExecutor getCPUExecutor() {
+        if (null == mCPUExecutor) {
+            mCPUExecutor = new InstrumentedExecutor("VectorCPU", Math.max(2, Math.min(CPU_COUNT - 1, 4)), 256, Thread.NORM_PRIORITY - 1);
+        }
+
+        return mCPUExecutor;
+    }
+
+    /**
+     * @return the executor for the tasks which can wait.
+     */
+    public static synchronized InstrumentedExecutor getLowPriorityExecutor() {
+        if (null == mLowPriorityExecutor) {
+            mLowPriorityExecutor = new InstrumentedExecutor("VectorLowPriority", 1, 128, Thread.MIN_PRIORITY);
+        }
+
+        return mLowPriorityExecutor;
+    }
+
+    /**
+     * @return the scheduler for the delayed tasks
+     */
+    private static synchronized ScheduledThreadPoolExecutor getScheduler() {
+        if (null == mScheduler) {
+            mScheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    return new Thread(runnable, SCHEDULER_THREAD_NAME);
+                }
+            });
+        }
+
+        return mScheduler;
+    }
+
+    /**
+     * Run a task after a delay.
+     * The task is run on the scheduler thread so it must be short,
+     * the long ones must be forwarded to another executor.
+     * @param runnable the task
+     * @param delayMs the delay in ms
+     * @return the future to cancel the task
+     */
+    public static ScheduledFuture<?> schedule(Runnable runnable, long delayMs) {
+        return getScheduler().schedule(runnable, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Run a task periodically.
+     * @param runnable the task
+     * @param initialDelayMs the first run delay in ms
+     * @param periodMs the period in ms
+     * @return the future to cancel the task
+     */
+    public static ScheduledFuture<?> scheduleAtFixedRate(Runnable runnable, long initialDelayMs, long periodMs) {
+        return getScheduler().scheduleAtFixedRate(runnable, initialDelayMs, periodMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the executors statistics
+     */
+    public static String getStatistics() {
+        StringBuilder builder = new StringBuilder();
+
+        for (InstrumentedExecutor executor : new InstrumentedExecutor[]{getUiCriticalExecutor(), getIOExecutor(), getCPUExecutor(), getLowPriorityExecutor()}) {
+            builder.append(executor.getStatistics()).append("\n");
+        }
+
+        ScheduledThreadPoolExecutor scheduler = getScheduler();
+        builder.append("VectorScheduler : ").append(scheduler.getCompletedTaskCount()).append(" executed, queue ").append(scheduler.getQueue().size()).append("\n");
+
+        return builder.toString();
+    }
+}
@@ -0,0 +1,480 @@
+/*
+ * Copyright 2016 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.util;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.TextUtils;
+
+import org.matrix.androidsdk.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Copies files out of the application cache (downloads folder, shared files folder...).
+ * - the file to file copies are done with FileChannel.transferTo (no copy in the java heap).
+ * - a file which has already been exported is not copied twice : the exported files are indexed
+ *   by size and their content hash is only computed when another file with the same size is exported.
+ * - the asynchronous exports are run one by one (a serial executor over the shared IO pool) and report their progress.
+ */
+public class VectorFileExporter {
+    private static final String LOG_TAG = "VectorFileExporter";
+
+    // the exported files index
+    // key : exported file path, value : size|lastModified|hash (the hash is computed when it is required)
+    private static final String EXPORTED_FILES_PREFERENCES = "VectorFileExporter.EXPORTED_FILES";
+
+    // the progress is reported after each chunk
+    private static final long TRANSFER_CHUNK_SIZE = 1024 * 1024;
+
+    private static final int HASH_BUFFER_SIZE = 64 * 1024;
+
+    // the exports are run one by one on the shared IO executor
+    private static final Executor mExportExecutor = new VectorExecutors.SerialExecutor(VectorExecutors.getIOExecutor());
+
+    private static final Handler mUIHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Export listener.
+     * The methods are called on the UI thread.
+     */
+    public interface IExportListener {
+        /**
+         * The export is in progress.
+         * @param exportedBytes the exported bytes count
+         * @param totalBytes the file size
+         */
+        void onExportProgress(long exportedBytes, long totalBytes);
+
+        /**
+         * The export is done.
+         * @param path the exported file path
+         * @param alreadyExported true when the content had already been exported to this path
+         */
+        void onExportDone(String path, boolean alreadyExported);
+
+        /**
+         * The export failed.
+         */
+        void onExportFailed();
+    }
+
+    /**
+     * Export result
+     */
+    public static class ExportResult {
+        public final File mFile;
+        public final boolean mAlreadyExported;
+
+        ExportResult(File file, boolean alreadyExported) {
+            mFile = file;
+            mAlreadyExported = alreadyExported;
+        }
+    }
+
+    /**
+     * Progress listener used by the synchronous exports.
+     */
+    private interface IProgressListener {
+        void onProgress(long exportedBytes, long totalBytes);
+    }
+
+    /**
+     * Run an export task after the pending exports.
+     * @param task the task
+     */
+    public static void execute(Runnable task) {
+        mExportExecutor.execute(task);
+    }
+
+    /**
+     * Export a file in background.
+     * @param context the context
+     * @param srcFile the file to export
+     * @param dstDir the destination folder
+     * @param filename the destination filename, a suffix is added if it is already used
+     * @param listener the listener
+     */
+    public static void exportFileAsync(final Context context, final File srcFile, final File dstDir, final String filename, final IExportListener listener) {
+        mExportExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final ExportResult result = exportFile(context, srcFile, dstDir, filename, new IProgressListener() {
+                    // limit the UI updates
+                    private int mLatestPercent = -1;
+
+                    @Override
+                    public void onProgress(final long exportedBytes, final long totalBytes) {
+                        int percent = (totalBytes > 0) ? (int) (exportedBytes * 100 / totalBytes) : 100;
+
+                        if ((null != listener) && (percent != mLatestPercent)) {
+                            mLatestPercent = percent;
+
+                            mUIHandler.post(new Runnable() {
+                                @Override
+                                public void run() {
+                                    listener.onExportProgress(exportedBytes, totalBytes);
+                                }
+                            });
+                        }
+                    }
+                });
+
+                if (null != listener) {
+                    mUIHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (null != result) {
+                                listener.onExportDone(result.mFile.getAbsolutePath(), result.mAlreadyExported);
+                            } else {
+                                listener.onExportFailed();
+                            }
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * Export a file.
+     * The existing files are never overridden.
+     * @param context the context
+     * @param srcFile the file to export
+     * @param dstDir the destination folder
+     * @param filename the destination filename, a suffix is added if it is already used
+     * @param progressListener the progress listener (optional)
+     * @return the export result, null if the export failed.
+     */
+    private static ExportResult exportFile(Context context, File srcFile, File dstDir, String filename, IProgressListener progressListener) {
+        if ((null == srcFile) || !srcFile.exists() || (null == dstDir) || TextUtils.isEmpty(filename)) {
+            return null;
+        }
+
+        dstDir.mkdirs();
+
+        File exportedFile = findExportedFile(context, srcFile, dstDir);
+
+        if (null != exportedFile) {
+            Log.d(LOG_TAG, "## exportFile() : " + srcFile.getName() + " has already been exported to " + exportedFile.getName());
+            return new ExportResult(exportedFile, true);
+        }
+
+        File dstFile = getFreeFile(dstDir, filename);
+
+        long startTime = System.currentTimeMillis();
+        FileInputStream inputStream = null;
+        FileOutputStream outputStream = null;
+        boolean succeeded = false;
+
+        try {
+            inputStream = new FileInputStream(srcFile);
+            outputStream = new FileOutputStream(dstFile);
+            transferTo(inputStream.getChannel(), outputStream.getChannel(), progressListener);
+            succeeded = true;
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## exportFile() failed " + e.getMessage());
+        } finally {
+            close(inputStream, outputStream);
+        }
+
+        if (!succeeded) {
+            dstFile.delete();
+            return null;
+        }
+
+        Log.d(LOG_TAG, "## exportFile() : " + dstFile.length() + " bytes exported in " + (System.currentTimeMillis() - startTime) + " ms");
+        addToIndex(context, dstFile, null);
+
+        return new ExportResult(dstFile, false);
+    }
+
+    /**
+     * Save a stream into a file.
+     * The file is overridden if it already exists.
+     * @param stream the stream, it is closed at the end
+     * @param dstFile the destination file
+     * @return true if the stream has been saved
+     */
+    public static boolean exportStream(InputStream stream, File dstFile) {
+        if ((null == stream) || (null == dstFile)) {
+            return false;
+        }
+
+        if (dstFile.exists()) {
+            dstFile.delete();
+        }
+
+        FileOutputStream outputStream = null;
+        boolean succeeded = false;
+
+        try {
+            outputStream = new FileOutputStream(dstFile);
+
+            if (stream instanceof FileInputStream) {
+                transferTo(((FileInputStream) stream).getChannel(), outputStream.getChannel(), null);
+            } else {
+                ReadableByteChannel srcChannel = Channels.newChannel(stream);
+                FileChannel dstChannel = outputStream.getChannel();
+                long position = 0;
+                long count;
+
+                // the reads are blocking so 0 means the end of the stream
+                while ((count = dstChannel.transferFrom(srcChannel, position, TRANSFER_CHUNK_SIZE)) > 0) {
+                    position += count;
+                }
+            }
+
+            succeeded = true;
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## exportStream() failed " + e.getMessage());
+        } finally {
+            close(stream, outputStream);
+        }
+
+        if (!succeeded) {
+            dstFile.delete();
+        }
+
+        return succeeded;
+    }
+
+    /**
+     * Copy a file channel into another one.
+     * @param srcChannel the source channel
+     * @param dstChannel the destination channel
+     * @param progressListener the progress listener (optional)
+     * @throws Exception if the copy fails
+     */
+    private static void transferTo(FileChannel srcChannel, FileChannel dstChannel, IProgressListener progressListener) throws Exception {
+        long size = srcChannel.size();
+        long position = 0;
+
+        while (position < size) {
+            long count = srcChannel.transferTo(position, Math.min(TRANSFER_CHUNK_SIZE, size - position), dstChannel);
+
+            // the file has been truncated in the meantime
+            if (count <= 0) {
+                break;
+            }
+
+            position += count;
+
+            if (null != progressListener) {
+                progressListener.onProgress(position, size);
+            }
+        }
+    }
+
+    /**
+     * Close streams without throwing.
+     * @param inputStream the input stream
+     * @param outputStream the output stream
+     */
+    private static void close(InputStream inputStream, FileOutputStream outputStream) {
+        try {
+            if (null != inputStream) {
+                inputStream.close();
+            }
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## close() : " + e.getMessage());
+        }
+
+        try {
+            if (null != outputStream) {
+                outputStream.close();
+            }
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## close() : " + e.getMessage());
+        }
+    }
+
+    /**
+     * Provides a file which does not exist in a folder.
+     * The folder is listed once instead of probing each candidate.
+     * @param dstDir the folder
+     * @param filename the expected filename
+     * @return the file
+     */
+    private static File getFreeFile(File dstDir, String filename) {
+        String[] names = dstDir.list();
+        HashSet<String> usedNames = new HashSet<>();
+
+        if (null != names) {
+            usedNames.addAll(Arrays.asList(names));
+        }
+
+        String freeName = filename;
+
+        if (usedNames.contains(freeName)) {
+            String baseFileName = filename;
+            String fileExt = "";
+
+            int lastDotPos = filename.lastIndexOf(".");
+
+            if (lastDotPos > 0) {
+                baseFileName = filename.substring(0, lastDotPos);
+                fileExt = filename.substring(lastDotPos);
+            }
+
+            int counter = 1;
+
+            do {
+                freeName = baseFileName + "(" + counter + ")" + fileExt;
+                counter++;
+            } while (usedNames.contains(freeName));
+        }
+
+        return new File(dstDir, freeName);
+    }
+
+    //================================================================================
+    // Deduplication
+    //================================================================================
+
+    /**
+     * @param context the context
+     * @return the exported files index
+     */
+    private static SharedPreferences getIndex(Context context) {
+        return context.getApplicationContext().getSharedPreferences(EXPORTED_FILES_PREFERENCES, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Add an exported file to the index.
+     * @param context the context
+     * @param file the exported file
+     * @param hash the file hash, null if it is not yet computed
+     */
+    private static void addToIndex(Context context, File file, String hash) {
+        getIndex(context).edit().putString(file.getAbsolutePath(), file.length() + "|" + file.lastModified() + "|" + ((null != hash) ? hash : "")).apply();
+    }
+
+    /**
+     * Search a file with the same content in the exported files of a folder.
+     * @param context the context
+     * @param srcFile the file to export
+     * @param dstDir the destination folder
+     * @return the exported file, null if there is none.
+     */
+    private static File findExportedFile(Context context, File srcFile, File dstDir) {
+        long srcSize = srcFile.length();
+        String srcHash = null;
+
+        SharedPreferences index = getIndex(context);
+        SharedPreferences.Editor editor = null;
+        File exportedFile = null;
+
+        for (Map.Entry<String, ?> entry : index.getAll().entrySet()) {
+            File file = new File(entry.getKey());
+            String[] values = String.valueOf(entry.getValue()).split("\\|", -1);
+
+            // the file has been deleted or updated since its export
+            if ((values.length != 3) || !file.exists() || !TextUtils.equals(values[0], String.valueOf(file.length())) || !TextUtils.equals(values[1], String.valueOf(file.lastModified()))) {
+                if (null == editor) {
+                    editor = index.edit();
+                }
+                editor.remove(entry.getKey());
+                continue;
+            }
+
+            // the hashes are only computed for the files with the same size
+            if ((srcSize != file.length()) || !TextUtils.equals(dstDir.getAbsolutePath(), file.getParentFile().getAbsolutePath())) {
+                continue;
+            }
+
+            if (null == srcHash) {
+                srcHash = computeHash(srcFile);
+
+                if (null == srcHash) {
+                    break;
+                }
+            }
+
+            String hash = values[2];
+
+            if (TextUtils.isEmpty(hash)) {
+                hash = computeHash(file);
+
+                if (null != hash) {
+                    addToIndex(context, file, hash);
+                }
+            }
+
+            if (TextUtils.equals(srcHash, hash)) {
+                exportedFile = file;
+                break;
+            }
+        }
+
+        if (null != editor) {
+            editor.apply();
+        }
+
+        return exportedFile;
+    }
+
+    /**
+     * Compute the SHA-256 of a file content.
+     * @param file the file
+     * @return the hash, null if it cannot be computed.
+     */
+    private static String computeHash(File file) {
+        FileInputStream inputStream = null;
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            inputStream = new FileInputStream(file);
+            FileChannel channel = inputStream.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(HASH_BUFFER_SIZE);
+
+            while (channel.read(buffer) > 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+
+            StringBuilder hash = new StringBuilder();
+
+            for (byte b : digest.digest()) {
+                hash.append(String.format("%02x", b & 0xff));
+            }
+
+            return hash.toString();
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## computeHash() failed " + e.getMessage());
+        } finally {
+            close(inputStream, null);
+        }
+
+        return null;
+    }
+}
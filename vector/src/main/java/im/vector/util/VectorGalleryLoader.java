@@ -0,0 +1,422 @@
+/*
+ * Copyright 2016 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.util;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.MediaStore;
+import android.support.v4.util.LruCache;
+
+import org.matrix.androidsdk.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * Gallery data source based on the MediaStore.
+ * - the medias are counted with a COUNT query.
+ * - the medias descriptions (without thumbnail) are loaded by pages, the most recent first.
+ * - the thumbnails are loaded on demand on a bounded threads pool and kept in a byte-bounded cache.
+ * The pages are loaded synchronously so they must be requested from a background thread.
+ */
+public class VectorGalleryLoader {
+    private static final String LOG_TAG = "VectorGalleryLoader";
+
+
+    // the thumbnails cache size (bytes)
+    private static final int THUMBNAILS_CACHE_SIZE = (int) Math.min(8 * 1024 * 1024, Runtime.getRuntime().maxMemory() / 16);
+
+    /**
+     * A gallery media
+     */
+    public static class GalleryMedia {
+        // the media store id
+        public long mId;
+
+        // the media file URI
+        public Uri mFileUri;
+
+        // the media creation time
+        public long mCreationTime;
+
+        // true when the media store provides no thumbnail, the media is displayed from its uri
+        public boolean mHasNoThumbnail;
+
+        // tell if the media is a video
+        public boolean mIsVideo;
+
+        // mime type
+        public String mMimeType = "";
+
+        // the image orientation provided by the media store
+        public int mOrientation;
+
+        /**
+         * @return the cache key
+         */
+        String getCacheKey() {
+            return (mIsVideo ? "v" : "i") + mId;
+        }
+    }
+
+    /**
+     * Thumbnail listener.
+     */
+    public interface IThumbnailListener {
+        /**
+         * The thumbnail is loaded. It is called on the UI thread.
+         * @param media the media
+         * @param thumbnail the thumbnail, null if it cannot be loaded.
+         */
+        void onThumbnailLoaded(GalleryMedia media, Bitmap thumbnail);
+    }
+
+    // thumbnails cache (shared by the loaders)
+    private static final LruCache<String, Bitmap> mThumbnailsCache = new LruCache<String, Bitmap>(THUMBNAILS_CACHE_SIZE) {
+        @Override
+        protected int sizeOf(String key, Bitmap bitmap) {
+            return bitmap.getRowBytes() * bitmap.getHeight();
+        }
+    };
+
+    /**
+     * Release a share of the thumbnails cache.
+     * The least recently used thumbnails are released first.
+     * @param ratio the share to release.
+     */
+    public static void trimThumbnailsCache(float ratio) {
+        mThumbnailsCache.trimToSize((int) (mThumbnailsCache.size() * (1 - ratio)));
+    }
+
+    private final Handler mUIHandler = new Handler(Looper.getMainLooper());
+    private final ContentResolver mContentResolver;
+    private final boolean mIncludeVideos;
+
+    // the loaded rows count per table
+    private int mImagesOffset = 0;
+    private int mVideosOffset = 0;
+    private int mTotalCount = -1;
+
+    // pending thumbnails requests
+    private final HashMap<String, Future<?>> mPendingThumbnails = new HashMap<>();
+
+    /**
+     * Constructor
+     * @param context the context
+     * @param includeVideos true to list the videos
+     */
+    public VectorGalleryLoader(Context context, boolean includeVideos) {
+        mContentResolver = context.getContentResolver();
+        mIncludeVideos = includeVideos;
+    }
+
+    //================================================================================
+    // Medias list
+    //================================================================================
+
+    /**
+     * Restart the pagination from the most recent media.
+     */
+    public synchronized void reset() {
+        mImagesOffset = 0;
+        mVideosOffset = 0;
+        mTotalCount = -1;
+    }
+
+    /**
+     * Count the medias.
+     * @return the medias count
+     */
+    public synchronized int countMedias() {
+        int count = countRows(MediaStore.Images.Media.EXTERNAL_CONTENT_URI);
+
+        if (mIncludeVideos) {
+            count += countRows(MediaStore.Video.Media.EXTERNAL_CONTENT_URI);
+        }
+
+        mTotalCount = count;
+        return count;
+    }
+
+    /**
+     * @return true if some medias have not been loaded
+     */
+    public synchronized boolean hasMoreMedias() {
+        return (mTotalCount < 0) || ((mImagesOffset + mVideosOffset) < mTotalCount);
+    }
+
+    /**
+     * Count the rows of a media table.
+     * @param contentUri the table uri
+     * @return the rows count
+     */
+    private int countRows(Uri contentUri) {
+        Cursor cursor = null;
+        int count = 0;
+
+        try {
+            // the rows are not fetched
+            cursor = mContentResolver.query(contentUri, new String[]{"count(*)"}, null, null, null);
+
+            if ((null != cursor) && cursor.moveToFirst()) {
+                count = cursor.getInt(0);
+            }
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## countRows() : count(*) failed " + e.getMessage());
+
+            if (null != cursor) {
+                cursor.close();
+                cursor = null;
+            }
+
+            // some providers reject the count projection
+            try {
+                cursor = mContentResolver.query(contentUri, new String[]{MediaStore.MediaColumns._ID}, null, null, null);
+
+                if (null != cursor) {
+                    count = cursor.getCount();
+                }
+            } catch (Exception e2) {
+                Log.e(LOG_TAG, "## countRows() : failed " + e2.getMessage());
+            }
+        } finally {
+            if (null != cursor) {
+                cursor.close();
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Load the next medias page.
+     * The images and the videos are merged by creation time.
+     * @param pageSize the page size
+     * @return the medias (without thumbnail)
+     */
+    public synchronized List<GalleryMedia> loadNextPage(int pageSize) {
+        long startTime = System.currentTimeMillis();
+
+        List<GalleryMedia> images = listMedias(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, false, mImagesOffset, pageSize);
+        List<GalleryMedia> videos = mIncludeVideos ? listMedias(MediaStore.Video.Media.EXTERNAL_CONTENT_URI, true, mVideosOffset, pageSize) : new ArrayList<GalleryMedia>();
+
+        ArrayList<GalleryMedia> page = new ArrayList<>();
+        int imageIndex = 0;
+        int videoIndex = 0;
+
+        // merge the sorted lists
+        while ((page.size() < pageSize) && ((imageIndex < images.size()) || (videoIndex < videos.size()))) {
+            if ((videoIndex >= videos.size()) || ((imageIndex < images.size()) && (images.get(imageIndex).mCreationTime >= videos.get(videoIndex).mCreationTime))) {
+                page.add(images.get(imageIndex++));
+            } else {
+                page.add(videos.get(videoIndex++));
+            }
+        }
+
+        // the medias which are not in this page will be listed in the next one
+        mImagesOffset += imageIndex;
+        mVideosOffset += videoIndex;
+
+        Log.d(LOG_TAG, "## loadNextPage() : " + page.size() + " medias in " + (System.currentTimeMillis() - startTime) + " ms");
+
+        return page;
+    }
+
+    /**
+     * List the medias of a table, the most recent first.
+     * @param contentUri the table uri
+     * @param isVideo true for the videos table
+     * @param offset the first row
+     * @param limit the max number of rows
+     * @return the medias list
+     */
+    private List<GalleryMedia> listMedias(Uri contentUri, boolean isVideo, int offset, int limit) {
+        ArrayList<GalleryMedia> medias = new ArrayList<>();
+        String[] projection;
+
+        if (isVideo) {
+            projection = new String[]{MediaStore.Video.VideoColumns._ID, MediaStore.Video.VideoColumns.DATE_TAKEN, MediaStore.Video.VideoColumns.MIME_TYPE};
+        } else {
+            projection = new String[]{MediaStore.Images.ImageColumns._ID, MediaStore.Images.ImageColumns.DATE_TAKEN, MediaStore.Images.ImageColumns.MIME_TYPE, MediaStore.Images.ImageColumns.ORIENTATION};
+        }
+
+        Cursor cursor = null;
+
+        try {
+            cursor = mContentResolver.query(contentUri, projection, null, null, MediaStore.Images.ImageColumns.DATE_TAKEN + " DESC LIMIT " + limit + " OFFSET " + offset);
+
+            if (null != cursor) {
+                int idIndex = cursor.getColumnIndex(MediaStore.Images.ImageColumns._ID);
+                int timeIndex = cursor.getColumnIndex(MediaStore.Images.ImageColumns.DATE_TAKEN);
+                int mimeTypeIndex = cursor.getColumnIndex(MediaStore.Images.ImageColumns.MIME_TYPE);
+                int orientationIndex = isVideo ? -1 : cursor.getColumnIndex(MediaStore.Images.ImageColumns.ORIENTATION);
+
+                while (cursor.moveToNext()) {
+                    GalleryMedia media = new GalleryMedia();
+                    media.mIsVideo = isVideo;
+                    media.mId = cursor.getLong(idIndex);
+                    media.mCreationTime = cursor.getLong(timeIndex);
+                    media.mMimeType = cursor.getString(mimeTypeIndex);
+                    media.mOrientation = (orientationIndex >= 0) ? cursor.getInt(orientationIndex) : 0;
+                    media.mFileUri = Uri.parse(contentUri.toString() + "/" + media.mId);
+                    medias.add(media);
+                }
+            }
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## listMedias() : failed " + e.getMessage());
+        } finally {
+            if (null != cursor) {
+                cursor.close();
+            }
+        }
+
+        return medias;
+    }
+
+    //================================================================================
+    // Thumbnails
+    //================================================================================
+
+    /**
+     * Provides the cached thumbnail of a media.
+     * The thumbnails are only kept by the cache, so it might have been released since its loading.
+     * @param media the media
+     * @return the thumbnail, null if it is not cached.
+     */
+    public Bitmap getCachedThumbnail(GalleryMedia media) {
+        return mThumbnailsCache.get(media.getCacheKey());
+    }
+
+    /**
+     * Load a media thumbnail in background.
+     * The listener is called immediately when the thumbnail is cached.
+     * @param media the media
+     * @param listener the listener
+     */
+    public void loadThumbnail(final GalleryMedia media, final IThumbnailListener listener) {
+        final String key = media.getCacheKey();
+        Bitmap thumbnail = mThumbnailsCache.get(key);
+
+        if (null != thumbnail) {
+            listener.onThumbnailLoaded(media, thumbnail);
+            return;
+        }
+
+        synchronized (mPendingThumbnails) {
+            if (mPendingThumbnails.containsKey(key)) {
+                return;
+            }
+
+            mPendingThumbnails.put(key, VectorExecutors.getCPUExecutor().submit(new Runnable() {
+                @Override
+                public void run() {
+                    final Bitmap thumbnail = decodeThumbnail(media);
+
+                    if (null != thumbnail) {
+                        mThumbnailsCache.put(key, thumbnail);
+                    }
+
+                    mUIHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            synchronized (mPendingThumbnails) {
+                                // cancelled in the meantime
+                                if (null == mPendingThumbnails.remove(key)) {
+                                    return;
+                                }
+                            }
+
+                            media.mHasNoThumbnail = (null == thumbnail);
+                            listener.onThumbnailLoaded(media, thumbnail);
+                        }
+                    });
+                }
+            }));
+        }
+    }
+
+    /**
+     * Cancel a thumbnail loading (e.g. the cell is not anymore displayed).
+     * @param media the media
+     */
+    public void cancelThumbnail(GalleryMedia media) {
+        synchronized (mPendingThumbnails) {
+            Future<?> future = mPendingThumbnails.remove(media.getCacheKey());
+
+            if (null != future) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Cancel the pending thumbnails loadings.
+     */
+    public void cancelThumbnails() {
+        synchronized (mPendingThumbnails) {
+            for (Future<?> future : mPendingThumbnails.values()) {
+                future.cancel(false);
+            }
+
+            mPendingThumbnails.clear();
+        }
+    }
+
+    /**
+     * Decode a media thumbnail and apply its orientation.
+     * @param media the media
+     * @return the thumbnail
+     */
+    private Bitmap decodeThumbnail(GalleryMedia media) {
+        Bitmap thumbnail = null;
+
+        try {
+            if (media.mIsVideo) {
+                thumbnail = MediaStore.Video.Thumbnails.getThumbnail(mContentResolver, media.mId, MediaStore.Video.Thumbnails.MINI_KIND, null);
+            } else {
+                thumbnail = MediaStore.Images.Thumbnails.getThumbnail(mContentResolver, media.mId, MediaStore.Images.Thumbnails.MINI_KIND, null);
+
+                // the orientation is provided by the media store, the exif data are not read
+                if ((null != thumbnail) && (0 != media.mOrientation)) {
+                    Matrix matrix = new Matrix();
+                    matrix.postRotate(media.mOrientation);
+
+                    Bitmap rotatedThumbnail = Bitmap.createBitmap(thumbnail, 0, 0, thumbnail.getWidth(), thumbnail.getHeight(), matrix, false);
+
+                    if (rotatedThumbnail != thumbnail) {
+                        thumbnail.recycle();
+                        thumbnail = rotatedThumbnail;
+                    }
+                }
+            }
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## decodeThumbnail() : failed " + e.getMessage());
+        } catch (OutOfMemoryError oom) {
+            Log.e(LOG_TAG, "## decodeThumbnail() : failed oom");
+        }
+
+        return thumbnail;
+    }
+}
@@ -2,9 +2,7 @@ package im.vector.util;
 
 import android.annotation.SuppressLint;
 import android.content.Context;
-import android.content.SharedPreferences;
 import android.os.Build;
-import android.preference.PreferenceManager;
 import android.text.TextUtils;
 import android.util.AttributeSet;
 import org.matrix.androidsdk.util.Log;
@@ -62,7 +60,7 @@ public class VectorMarkdownParser extends WebView {
      * @return true if the markdown parsing is enabled
      */
     public boolean isEnabled() {
-        return PreferenceManager.getDefaultSharedPreferences(getContext()).getBoolean(MARKDOWN_PREFERENCE_KEY, true);
+        return VectorPreferences.getDefault(getContext()).getBoolean(MARKDOWN_PREFERENCE_KEY, true);
     }
 
     /**
@@ -70,11 +68,7 @@ public class VectorMarkdownParser extends WebView {
      * @param enable true to enable the parser
      */
     public void setEnable(boolean enable) {
-        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(getContext());
-
-        SharedPreferences.Editor editor = preferences.edit();
-        editor.putBoolean(MARKDOWN_PREFERENCE_KEY, enable);
-        editor.commit();
+        VectorPreferences.getDefault(getContext()).putBoolean(MARKDOWN_PREFERENCE_KEY, enable);
     }
 
     /**
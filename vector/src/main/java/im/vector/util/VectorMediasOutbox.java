@@ -0,0 +1,1107 @@
+/*
+ * Copyright 2016 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.util;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.ThumbnailUtils;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.MediaStore;
+import android.text.TextUtils;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import org.matrix.androidsdk.MXSession;
+import org.matrix.androidsdk.crypto.MXEncryptedAttachments;
+import org.matrix.androidsdk.data.Room;
+import org.matrix.androidsdk.db.MXMediasCache;
+import org.matrix.androidsdk.listeners.IMXNetworkEventListener;
+import org.matrix.androidsdk.listeners.MXMediaUploadListener;
+import org.matrix.androidsdk.rest.callback.ApiCallback;
+import org.matrix.androidsdk.rest.model.EncryptedFileInfo;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.FileInfo;
+import org.matrix.androidsdk.rest.model.FileMessage;
+import org.matrix.androidsdk.rest.model.ImageInfo;
+import org.matrix.androidsdk.rest.model.ImageMessage;
+import org.matrix.androidsdk.rest.model.MatrixError;
+import org.matrix.androidsdk.rest.model.Message;
+import org.matrix.androidsdk.rest.model.ThumbnailInfo;
+import org.matrix.androidsdk.rest.model.VideoInfo;
+import org.matrix.androidsdk.rest.model.VideoMessage;
+import org.matrix.androidsdk.util.JsonUtils;
+import org.matrix.androidsdk.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+
+import im.vector.Matrix;
+
+/**
+ * Persistent outbox of the medias shared to a room.
+ * Each item is journaled in its own file so a batch interrupted by a process death
+ * is resumed at the next application start or at the next network reconnection.
+ * The journal keeps the prepared (copied / resized) files and the uploaded content uris
+ * so the work is not done twice.
+ *
+ * An item is owned either by a live VectorRoomMediasSender or by the resume worker.
+ */
+public class VectorMediasOutbox {
+    private static final String LOG_TAG = "VectorMediasOutbox";
+
+    private static final String OUTBOX_FOLDER = "VectorMediasOutbox";
+    private static final String JOURNAL_EXTENSION = ".json";
+
+    // the thumbnails are saved in JPEG by the medias cache
+    private static final String THUMBNAIL_MIME_TYPE = "image/jpeg";
+    private static final int MAX_THUMBNAIL_SIZE = 600;
+
+    /**
+     * The item states, the journal file is deleted once the event is sent.
+     */
+    public enum State {
+        // the item is only known by its shared uri
+        PENDING,
+        // the item has been copied in the medias cache (and resized)
+        PREPARED,
+        // the upload is started
+        UPLOADING,
+        // the content is on the media server, the event has to be sent
+        UPLOADED
+    }
+
+    /**
+     * A journaled item.
+     * The fields are serialised with Gson.
+     */
+    public static class OutboxItem {
+        public String mId;
+        public String mAccountId;
+        public String mRoomId;
+        public State mState = State.PENDING;
+        public long mCreationTs;
+
+        // the shared data
+        public String mSharedUri;
+        public String mMimeType;
+        public String mFilename;
+        // Message.MSGTYPE_XXX
+        public String mMsgType;
+
+        // text messages
+        public String mText;
+        public String mHtmlText;
+
+        // the file copied in the medias cache
+        public String mMediaUrl;
+        // the file to upload (mMediaUrl or the resized image)
+        public String mUploadUrl;
+        // the thumbnail file in the medias cache
+        public String mThumbnailUrl;
+        public int mWidth = -1;
+        public int mHeight = -1;
+        public long mFileSize = -1;
+
+        // upload result
+        public String mContentUri;
+        public EncryptedFileInfo mEncryptedFileInfo;
+
+        // thumbnail upload result
+        public String mThumbnailContentUri;
+        public EncryptedFileInfo mThumbnailEncryptedFileInfo;
+        public int mThumbnailWidth = -1;
+        public int mThumbnailHeight = -1;
+        public long mThumbnailFileSize = -1;
+
+        /**
+         * @return true if the item is a text message
+         */
+        boolean isText() {
+            return TextUtils.equals(Message.MSGTYPE_TEXT, mMsgType);
+        }
+    }
+
+    private static VectorMediasOutbox mInstance = null;
+
+    private final Context mContext;
+    private final File mFolder;
+    private final Handler mUIHandler = new Handler(Looper.getMainLooper());
+
+    // the journal writes and the resume decisions are serialised on the shared IO executor
+    private final Executor mJournalExecutor = new VectorExecutors.SerialExecutor(VectorExecutors.getIOExecutor());
+
+    // id -> item
+    private HashMap<String, OutboxItem> mItems = null;
+
+    // items owned by a live sender
+    private final HashSet<String> mLiveIds = new HashSet<>();
+    // items owned by the resume worker
+    private final HashSet<String> mResumingIds = new HashSet<>();
+
+    private boolean mIsNetworkListenerRegistered = false;
+
+    private final IMXNetworkEventListener mNetworkEventListener = new IMXNetworkEventListener() {
+        @Override
+        public void onNetworkConnectionUpdate(boolean isConnected) {
+            if (isConnected) {
+                resume();
+            }
+        }
+    };
+
+    /**
+     * Provides the shared instance.
+     * @param context the context
+     * @return the instance
+     */
+    public static synchronized VectorMediasOutbox getInstance(Context context) {
+        if (null == mInstance) {
+            mInstance = new VectorMediasOutbox(context.getApplicationContext());
+        }
+
+        return mInstance;
+    }
+
+    /**
+     * Constructor
+     * @param context the application context
+     */
+    private VectorMediasOutbox(Context context) {
+        mContext = context;
+        mFolder = new File(context.getFilesDir(), OUTBOX_FOLDER);
+    }
+
+    //================================================================================
+    // Journal
+    //================================================================================
+
+    /**
+     * Load the journaled items if it was not done.
+     */
+    private synchronized void loadItems() {
+        if (null != mItems) {
+            return;
+        }
+
+        mItems = new HashMap<>();
+
+        File[] files = mFolder.listFiles();
+
+        if (null == files) {
+            return;
+        }
+
+        for (File file : files) {
+            if (!file.getName().endsWith(JOURNAL_EXTENSION)) {
+                // interrupted write
+                file.delete();
+                continue;
+            }
+
+            OutboxItem item = null;
+
+            try {
+                FileInputStream inputStream = new FileInputStream(file);
+                byte[] buffer = new byte[(int) file.length()];
+                int offset = 0;
+                int read;
+
+                while ((offset < buffer.length) && ((read = inputStream.read(buffer, offset, buffer.length - offset)) > 0)) {
+                    offset += read;
+                }
+
+                inputStream.close();
+                item = JsonUtils.getGson(false).fromJson(new String(buffer, 0, offset, "UTF-8"), OutboxItem.class);
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "## loadItems() : cannot read " + file.getName() + " " + e.getMessage());
+            }
+
+            if ((null != item) && (null != item.mId) && (null != item.mState)) {
+                mItems.put(item.mId, item);
+            } else {
+                file.delete();
+            }
+        }
+
+        Log.d(LOG_TAG, "## loadItems() : " + mItems.size() + " journaled items");
+    }
+
+    /**
+     * Write the item journal.
+     * The file is written in a temporary file and renamed to be atomic.
+     * @param id the item id
+     * @param json the item json
+     */
+    private void writeJournal(final String id, final String json) {
+        mJournalExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // the item has been removed in the meantime
+                synchronized (VectorMediasOutbox.this) {
+                    if ((null == mItems) || !mItems.containsKey(id)) {
+                        return;
+                    }
+                }
+
+                if (!mFolder.exists()) {
+                    mFolder.mkdirs();
+                }
+
+                File tmpFile = new File(mFolder, id + ".tmp");
+                FileOutputStream outputStream = null;
+
+                try {
+                    outputStream = new FileOutputStream(tmpFile);
+                    outputStream.write(json.getBytes("UTF-8"));
+                    outputStream.getFD().sync();
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "## writeJournal() failed " + e.getMessage());
+                } finally {
+                    try {
+                        if (null != outputStream) {
+                            outputStream.close();
+                        }
+                    } catch (Exception e) {
+                        Log.e(LOG_TAG, "## writeJournal() : close failed " + e.getMessage());
+                    }
+                }
+
+                if (!tmpFile.renameTo(new File(mFolder, id + JOURNAL_EXTENSION))) {
+                    Log.e(LOG_TAG, "## writeJournal() : rename failed");
+                    tmpFile.delete();
+                }
+            }
+        });
+    }
+
+    /**
+     * Delete the item journal.
+     * @param id the item id
+     */
+    private void deleteJournal(final String id) {
+        mJournalExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                new File(mFolder, id + JOURNAL_EXTENSION).delete();
+            }
+        });
+    }
+
+    //================================================================================
+    // Live senders
+    //================================================================================
+
+    /**
+     * Create a new item owned by a live sender.
+     * @param accountId the account id
+     * @param roomId the room id
+     * @param sharedUri the shared uri (null for a text)
+     * @param mimeType the mime type
+     * @return the item
+     */
+    public OutboxItem addItem(String accountId, String roomId, Uri sharedUri, String mimeType) {
+        OutboxItem item = new OutboxItem();
+        item.mId = UUID.randomUUID().toString();
+        item.mAccountId = accountId;
+        item.mRoomId = roomId;
+        item.mCreationTs = System.currentTimeMillis();
+        item.mSharedUri = (null != sharedUri) ? sharedUri.toString() : null;
+        item.mMimeType = mimeType;
+
+        synchronized (this) {
+            loadItems();
+            mItems.put(item.mId, item);
+            mLiveIds.add(item.mId);
+        }
+
+        save(item);
+        return item;
+    }
+
+    /**
+     * Claim an item for a live sender (e.g. restored from a saved instance state).
+     * @param id the item id
+     * @return the item, null if it is unknown or if it is resumed by the worker.
+     */
+    public synchronized OutboxItem claimItem(String id) {
+        loadItems();
+
+        OutboxItem item = (null != id) ? mItems.get(id) : null;
+
+        if ((null == item) || mResumingIds.contains(id)) {
+            return null;
+        }
+
+        mLiveIds.add(id);
+        return item;
+    }
+
+    /**
+     * The live senders do not own anymore these items.
+     * They will be resumed in background.
+     * @param ids the item ids
+     */
+    public void releaseItems(Collection<String> ids) {
+        if ((null == ids) || ids.isEmpty()) {
+            return;
+        }
+
+        synchronized (this) {
+            mLiveIds.removeAll(ids);
+        }
+
+        resume();
+    }
+
+    /**
+     * Update the item state and save it.
+     * The state is never downgraded.
+     * @param item the item
+     * @param state the new state
+     */
+    public void setState(OutboxItem item, State state) {
+        if ((null != item) && (state.ordinal() > item.mState.ordinal())) {
+            item.mState = state;
+        }
+
+        save(item);
+    }
+
+    /**
+     * Save the item journal.
+     * @param item the item
+     */
+    public void save(OutboxItem item) {
+        if (null == item) {
+            return;
+        }
+
+        String json;
+
+        synchronized (this) {
+            if ((null == mItems) || !mItems.containsKey(item.mId)) {
+                return;
+            }
+
+            json = JsonUtils.getGson(false).toJson(item);
+        }
+
+        writeJournal(item.mId, json);
+    }
+
+    /**
+     * The item has been sent (or cancelled) : remove it from the outbox.
+     * @param item the item
+     */
+    public void removeItem(OutboxItem item) {
+        if (null == item) {
+            return;
+        }
+
+        synchronized (this) {
+            if ((null == mItems) || (null == mItems.remove(item.mId))) {
+                return;
+            }
+
+            mLiveIds.remove(item.mId);
+            mResumingIds.remove(item.mId);
+        }
+
+        Log.d(LOG_TAG, "## removeItem() : " + item.mId + " in state " + item.mState);
+        deleteJournal(item.mId);
+    }
+
+    /**
+     * An event has been sent : remove the matching uploaded item.
+     * @param event the sent event
+     */
+    public void onEventSent(Event event) {
+        if (null == event) {
+            return;
+        }
+
+        String contentUri = getContentUrl(event.getContentAsJsonObject());
+
+        if (null == contentUri) {
+            return;
+        }
+
+        OutboxItem sentItem = null;
+
+        synchronized (this) {
+            if (null != mItems) {
+                for (OutboxItem item : mItems.values()) {
+                    if (TextUtils.equals(contentUri, item.mContentUri)) {
+                        sentItem = item;
+                        break;
+                    }
+                }
+            }
+        }
+
+        removeItem(sentItem);
+    }
+
+    /**
+     * The user resends an unsent event : the matching item is not resumed anymore.
+     * @param event the unsent event
+     * @return false if the item is being sent by the resume worker, the event must not be resent.
+     */
+    public boolean onManualResend(Event event) {
+        String url = (null != event) ? getContentUrl(event.getContentAsJsonObject()) : null;
+
+        if (null == url) {
+            return true;
+        }
+
+        OutboxItem resentItem = null;
+
+        synchronized (this) {
+            if (null != mItems) {
+                for (OutboxItem item : mItems.values()) {
+                    if (TextUtils.equals(url, item.mContentUri) || TextUtils.equals(url, item.mUploadUrl)) {
+                        resentItem = item;
+                        break;
+                    }
+                }
+            }
+
+            if ((null != resentItem) && mResumingIds.contains(resentItem.mId)) {
+                Log.d(LOG_TAG, "## onManualResend() : " + resentItem.mId + " is already resumed");
+                return false;
+            }
+        }
+
+        // the event is now sent by the messages list fragment
+        removeItem(resentItem);
+        return true;
+    }
+
+    /**
+     * Provides the media url of an event content.
+     * @param content the event content
+     * @return the url, null if there is none.
+     */
+    private static String getContentUrl(JsonObject content) {
+        if (null == content) {
+            return null;
+        }
+
+        try {
+            JsonElement file = content.get("file");
+
+            if ((null != file) && file.isJsonObject() && file.getAsJsonObject().has("url")) {
+                return file.getAsJsonObject().get("url").getAsString();
+            }
+
+            if (content.has("url")) {
+                return content.get("url").getAsString();
+            }
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## getContentUrl() failed " + e.getMessage());
+        }
+
+        return null;
+    }
+
+    //================================================================================
+    // Resume
+    //================================================================================
+
+    /**
+     * Resume the items which are not owned by a live sender.
+     * It is called at application start and when the network is back.
+     */
+    public void resume() {
+        synchronized (this) {
+            if (!mIsNetworkListenerRegistered && (null != Matrix.getInstance(mContext).getDefaultSession())) {
+                mIsNetworkListenerRegistered = true;
+                Matrix.getInstance(mContext).addNetworkEventListener(mNetworkEventListener);
+            }
+        }
+
+        mJournalExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!Matrix.getInstance(mContext).isConnected()) {
+                    return;
+                }
+
+                ArrayList<OutboxItem> items = new ArrayList<>();
+
+                synchronized (VectorMediasOutbox.this) {
+                    loadItems();
+
+                    for (OutboxItem item : mItems.values()) {
+                        if (!mLiveIds.contains(item.mId) && !mResumingIds.contains(item.mId)) {
+                            mResumingIds.add(item.mId);
+                            items.add(item);
+                        }
+                    }
+                }
+
+                if (items.size() > 0) {
+                    Log.d(LOG_TAG, "## resume() : " + items.size() + " items to resume");
+                }
+
+                for (OutboxItem item : items) {
+                    try {
+                        resumeItem(item);
+                    } catch (Exception e) {
+                        Log.e(LOG_TAG, "## resume() : failed " + e.getMessage());
+                        onResumeFailed(item);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * The item cannot be resumed for now : it will be retried at the next network reconnection.
+     * @param item the item
+     */
+    private synchronized void onResumeFailed(OutboxItem item) {
+        mResumingIds.remove(item.mId);
+    }
+
+    /**
+     * Resume an item.
+     * It is called on the journal thread.
+     * @param item the item
+     */
+    private void resumeItem(final OutboxItem item) {
+        final MXSession session = Matrix.getInstance(mContext).getSession(item.mAccountId);
+
+        // the account has been removed
+        if ((null == session) || !session.isAlive() || !TextUtils.equals(session.getMyUserId(), item.mAccountId)) {
+            Log.e(LOG_TAG, "## resumeItem() : unknown account " + item.mAccountId);
+            removeItem(item);
+            return;
+        }
+
+        // the session is not yet ready
+        if (!session.getDataHandler().isInitialSyncComplete()) {
+            onResumeFailed(item);
+            return;
+        }
+
+        final Room room = session.getDataHandler().getRoom(item.mRoomId, false);
+
+        if (null == room) {
+            Log.e(LOG_TAG, "## resumeItem() : unknown room " + item.mRoomId);
+            removeItem(item);
+            return;
+        }
+
+        Log.d(LOG_TAG, "## resumeItem() : " + item.mId + " in state " + item.mState);
+
+        // the prepared file might have been removed with the medias cache
+        if ((State.PENDING == item.mState) || (!item.isText() && (State.UPLOADED != item.mState) && !hasPreparedFile(item))) {
+            if (!prepareItem(session.getMediasCache(), item)) {
+                removeItem(item);
+                return;
+            }
+
+            setState(item, State.PREPARED);
+        }
+
+        // the encryption keys of the uploads done by the live senders are not journaled
+        if ((State.UPLOADED == item.mState) && room.isEncrypted() && session.isCryptoEnabled() && (null == item.mEncryptedFileInfo)) {
+            item.mState = State.PREPARED;
+        }
+
+        if ((null != item.mThumbnailContentUri) && room.isEncrypted() && session.isCryptoEnabled() && (null == item.mThumbnailEncryptedFileInfo)) {
+            item.mThumbnailContentUri = null;
+        }
+
+        if (item.isText()) {
+            mUIHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    sendItemEvent(session, room, item);
+                }
+            });
+        } else if (State.UPLOADED == item.mState) {
+            uploadThumbnail(session, room, item);
+        } else {
+            uploadItem(session, room, item);
+        }
+    }
+
+    /**
+     * Tells if the prepared file of an item can be reused i.e it still exists with its journaled size.
+     * @param item the item
+     * @return true if the item does not need to be prepared again
+     */
+    public static boolean hasPreparedFile(OutboxItem item) {
+        if ((State.PENDING == item.mState) || item.isText() || (null == item.mUploadUrl)) {
+            return false;
+        }
+
+        File file = new File(Uri.parse(item.mUploadUrl).getPath());
+        return file.exists() && ((item.mFileSize < 0) || (file.length() == item.mFileSize));
+    }
+
+    /**
+     * Copy the shared content into the medias cache.
+     * @param mediasCache the medias cache
+     * @param item the item
+     * @return true if the item can be sent
+     */
+    private boolean prepareItem(MXMediasCache mediasCache, OutboxItem item) {
+        if (null != item.mText) {
+            item.mMsgType = Message.MSGTYPE_TEXT;
+            return true;
+        }
+
+        if ((null == item.mSharedUri) || (null == item.mMimeType)) {
+            return false;
+        }
+
+        // the uri permission might have been lost with the process
+        ResourceUtils.Resource resource = ResourceUtils.openResource(mContext, Uri.parse(item.mSharedUri), item.mMimeType);
+
+        if (null == resource) {
+            Log.e(LOG_TAG, "## prepareItem() : cannot open " + item.mSharedUri);
+            return false;
+        }
+
+        item.mMediaUrl = mediasCache.saveMedia(resource.mContentStream, null, item.mMimeType);
+        resource.close();
+
+        if (null == item.mMediaUrl) {
+            return false;
+        }
+
+        item.mUploadUrl = item.mMediaUrl;
+        item.mFileSize = new File(Uri.parse(item.mMediaUrl).getPath()).length();
+
+        if (null == item.mFilename) {
+            item.mFilename = Uri.parse(item.mSharedUri).getLastPathSegment();
+        }
+
+        if (item.mMimeType.startsWith("image/")) {
+            item.mMsgType = Message.MSGTYPE_IMAGE;
+
+            BitmapFactory.Options options = ImageResizer.decodeBounds(Uri.parse(item.mMediaUrl).getPath());
+            item.mWidth = options.outWidth;
+            item.mHeight = options.outHeight;
+        } else if (item.mMimeType.startsWith("video/")) {
+            item.mMsgType = Message.MSGTYPE_VIDEO;
+        } else {
+            item.mMsgType = Message.MSGTYPE_FILE;
+        }
+
+        if (!TextUtils.equals(Message.MSGTYPE_FILE, item.mMsgType)) {
+            prepareThumbnail(mediasCache, item);
+        }
+
+        return true;
+    }
+
+    /**
+     * Compute the thumbnail of an image or a video item, and save it in the medias cache.
+     * @param mediasCache the medias cache
+     * @param item the item
+     */
+    private void prepareThumbnail(MXMediasCache mediasCache, OutboxItem item) {
+        Bitmap thumbnail = null;
+
+        try {
+            if (TextUtils.equals(Message.MSGTYPE_VIDEO, item.mMsgType)) {
+                thumbnail = ThumbnailUtils.createVideoThumbnail(Uri.parse(item.mMediaUrl).getPath(), MediaStore.Images.Thumbnails.MINI_KIND);
+            } else {
+                thumbnail = ResourceUtils.createThumbnailBitmap(mContext, Uri.parse(item.mMediaUrl), MAX_THUMBNAIL_SIZE, MAX_THUMBNAIL_SIZE);
+            }
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## prepareThumbnail() : failed " + e.getMessage());
+        } catch (OutOfMemoryError oom) {
+            Log.e(LOG_TAG, "## prepareThumbnail() : failed oom");
+        }
+
+        if (null != thumbnail) {
+            item.mThumbnailUrl = mediasCache.saveBitmap(thumbnail, null);
+            thumbnail.recycle();
+        }
+    }
+
+    /**
+     * Upload the item content.
+     * It is called on the journal thread.
+     * @param session the session
+     * @param room the room
+     * @param item the item
+     */
+    private void uploadItem(final MXSession session, final Room room, final OutboxItem item) {
+        final MXMediasCache mediasCache = session.getMediasCache();
+
+        // the upload has been started by a sender and is still in progress
+        if (mediasCache.getProgressValueForUploadId(item.mUploadUrl) >= 0) {
+            onResumeFailed(item);
+            return;
+        }
+
+        File file = (null != item.mUploadUrl) ? new File(Uri.parse(item.mUploadUrl).getPath()) : null;
+
+        if ((null == file) || !file.exists()) {
+            Log.e(LOG_TAG, "## uploadItem() : the file does not exist anymore");
+            removeItem(item);
+            return;
+        }
+
+        InputStream stream;
+        String uploadMimeType = item.mMimeType;
+        MXEncryptedAttachments.EncryptionResult encryptionResult = null;
+
+        try {
+            stream = new FileInputStream(file);
+
+            if (room.isEncrypted() && session.isCryptoEnabled()) {
+                encryptionResult = MXEncryptedAttachments.encryptAttachment(stream, item.mMimeType);
+                stream.close();
+
+                if (null == encryptionResult) {
+                    Log.e(LOG_TAG, "## uploadItem() : encryption failed");
+                    onResumeFailed(item);
+                    return;
+                }
+
+                stream = encryptionResult.mEncryptedStream;
+                uploadMimeType = "application/octet-stream";
+            }
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## uploadItem() : failed " + e.getMessage());
+            onResumeFailed(item);
+            return;
+        }
+
+        setState(item, State.UPLOADING);
+
+        final InputStream fStream = stream;
+        final String fUploadMimeType = uploadMimeType;
+        final MXEncryptedAttachments.EncryptionResult fEncryptionResult = encryptionResult;
+
+        mUIHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mediasCache.uploadContent(fStream, item.mFilename, fUploadMimeType, item.mUploadUrl, new MXMediaUploadListener() {
+                    @Override
+                    public void onUploadCancel(String uploadId) {
+                        onResumeFailed(item);
+                    }
+
+                    @Override
+                    public void onUploadError(String uploadId, int serverResponseCode, String serverErrorMessage) {
+                        Log.e(LOG_TAG, "## uploadItem() : upload failed " + serverErrorMessage);
+                        onResumeFailed(item);
+                    }
+
+                    @Override
+                    public void onUploadComplete(String uploadId, String contentUri) {
+                        if (null == contentUri) {
+                            onResumeFailed(item);
+                            return;
+                        }
+
+                        item.mContentUri = contentUri;
+
+                        if (null != fEncryptionResult) {
+                            item.mEncryptedFileInfo = fEncryptionResult.mEncryptedFileInfo;
+                            item.mEncryptedFileInfo.url = contentUri;
+                        }
+
+                        setState(item, State.UPLOADED);
+
+                        mJournalExecutor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                uploadThumbnail(session, room, item);
+                            }
+                        });
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Upload the item thumbnail if it is not yet done, then send the item event.
+     * The item is sent without thumbnail when there is none.
+     * It is called on the journal thread.
+     * @param session the session
+     * @param room the room
+     * @param item the item
+     */
+    private void uploadThumbnail(final MXSession session, final Room room, final OutboxItem item) {
+        File file = (null != item.mThumbnailUrl) ? new File(Uri.parse(item.mThumbnailUrl).getPath()) : null;
+
+        if ((null != item.mThumbnailContentUri) || (null == file) || !file.exists()) {
+            mUIHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    sendItemEvent(session, room, item);
+                }
+            });
+            return;
+        }
+
+        BitmapFactory.Options options = ImageResizer.decodeBounds(file.getPath());
+        item.mThumbnailWidth = options.outWidth;
+        item.mThumbnailHeight = options.outHeight;
+        item.mThumbnailFileSize = file.length();
+
+        InputStream stream;
+        String uploadMimeType = THUMBNAIL_MIME_TYPE;
+        MXEncryptedAttachments.EncryptionResult encryptionResult = null;
+
+        try {
+            stream = new FileInputStream(file);
+
+            if (room.isEncrypted() && session.isCryptoEnabled()) {
+                encryptionResult = MXEncryptedAttachments.encryptAttachment(stream, THUMBNAIL_MIME_TYPE);
+                stream.close();
+
+                if (null == encryptionResult) {
+                    Log.e(LOG_TAG, "## uploadThumbnail() : encryption failed");
+                    onResumeFailed(item);
+                    return;
+                }
+
+                stream = encryptionResult.mEncryptedStream;
+                uploadMimeType = "application/octet-stream";
+            }
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## uploadThumbnail() : failed " + e.getMessage());
+            onResumeFailed(item);
+            return;
+        }
+
+        final InputStream fStream = stream;
+        final String fUploadMimeType = uploadMimeType;
+        final MXEncryptedAttachments.EncryptionResult fEncryptionResult = encryptionResult;
+        final MXMediasCache mediasCache = session.getMediasCache();
+
+        mUIHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mediasCache.uploadContent(fStream, null, fUploadMimeType, item.mThumbnailUrl, new MXMediaUploadListener() {
+                    @Override
+                    public void onUploadCancel(String uploadId) {
+                        onResumeFailed(item);
+                    }
+
+                    @Override
+                    public void onUploadError(String uploadId, int serverResponseCode, String serverErrorMessage) {
+                        Log.e(LOG_TAG, "## uploadThumbnail() : upload failed " + serverErrorMessage);
+                        onResumeFailed(item);
+                    }
+
+                    @Override
+                    public void onUploadComplete(String uploadId, String contentUri) {
+                        if (null == contentUri) {
+                            onResumeFailed(item);
+                            return;
+                        }
+
+                        item.mThumbnailContentUri = contentUri;
+
+                        if (null != fEncryptionResult) {
+                            item.mThumbnailEncryptedFileInfo = fEncryptionResult.mEncryptedFileInfo;
+                            item.mThumbnailEncryptedFileInfo.url = contentUri;
+                        }
+
+                        save(item);
+                        sendItemEvent(session, room, item);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Send the item event.
+     * It must be called on the UI thread.
+     * @param session the session
+     * @param room the room
+     * @param item the item
+     */
+    private void sendItemEvent(MXSession session, Room room, final OutboxItem item) {
+        Event event = null;
+
+        // check if the event has been sent or if it is displayed as an unsent one
+        if (!item.isText()) {
+            Collection<Event> events = session.getDataHandler().getStore().getRoomMessages(item.mRoomId);
+
+            if (null != events) {
+                for (Event storedEvent : events) {
+                    String url = getContentUrl(storedEvent.getContentAsJsonObject());
+
+                    if ((null != url) && (TextUtils.equals(url, item.mContentUri) || TextUtils.equals(url, item.mUploadUrl))) {
+                        event = storedEvent;
+                        break;
+                    }
+                }
+            }
+
+            if ((null != event) && event.isSent() && TextUtils.equals(getContentUrl(event.getContentAsJsonObject()), item.mContentUri)) {
+                Log.d(LOG_TAG, "## sendItemEvent() : the event has already been sent");
+                removeItem(item);
+                return;
+            }
+
+            if ((null != event) && (event.isSending() || event.isEncrypting())) {
+                onResumeFailed(item);
+                return;
+            }
+        }
+
+        Message message = buildMessage(item);
+
+        if (null == event) {
+            event = new Event(message, session.getMyUserId(), item.mRoomId);
+            room.storeOutgoingEvent(event);
+        } else {
+            // reuse the unsent event
+            event.updateContent(JsonUtils.toJson(message));
+        }
+
+        room.sendEvent(event, new ApiCallback<Void>() {
+            @Override
+            public void onSuccess(Void info) {
+                Log.d(LOG_TAG, "## sendItemEvent() : " + item.mId + " is sent");
+                removeItem(item);
+            }
+
+            @Override
+            public void onNetworkError(Exception e) {
+                Log.e(LOG_TAG, "## sendItemEvent() : failed " + e.getMessage());
+                onResumeFailed(item);
+            }
+
+            @Override
+            public void onMatrixError(MatrixError e) {
+                Log.e(LOG_TAG, "## sendItemEvent() : failed " + e.getMessage());
+                onResumeFailed(item);
+            }
+
+            @Override
+            public void onUnexpectedError(Exception e) {
+                Log.e(LOG_TAG, "## sendItemEvent() : failed " + e.getMessage());
+                onResumeFailed(item);
+            }
+        });
+    }
+
+    /**
+     * Build the message to send from an item.
+     * @param item the item
+     * @return the message
+     */
+    private static Message buildMessage(OutboxItem item) {
+        Message message;
+
+        if (item.isText()) {
+            message = new Message();
+            message.msgtype = Message.MSGTYPE_TEXT;
+            message.body = item.mText;
+
+            if (!TextUtils.isEmpty(item.mHtmlText)) {
+                message.format = Message.FORMAT_MATRIX_HTML;
+                message.formatted_body = item.mHtmlText;
+            }
+
+            return message;
+        }
+
+        String url = (null == item.mEncryptedFileInfo) ? item.mContentUri : null;
+        Long size = (item.mFileSize >= 0) ? item.mFileSize : null;
+
+        if (TextUtils.equals(Message.MSGTYPE_IMAGE, item.mMsgType)) {
+            ImageMessage imageMessage = new ImageMessage();
+            imageMessage.url = url;
+            imageMessage.file = item.mEncryptedFileInfo;
+            imageMessage.info = new ImageInfo();
+            imageMessage.info.mimetype = item.mMimeType;
+            imageMessage.info.size = size;
+
+            if ((item.mWidth > 0) && (item.mHeight > 0)) {
+                imageMessage.info.w = item.mWidth;
+                imageMessage.info.h = item.mHeight;
+            }
+
+            if (null != item.mThumbnailContentUri) {
+                imageMessage.thumbnailUrl = (null == item.mThumbnailEncryptedFileInfo) ? item.mThumbnailContentUri : null;
+                imageMessage.info.thumbnail_file = item.mThumbnailEncryptedFileInfo;
+                imageMessage.thumbnailInfo = new ImageInfo();
+                imageMessage.thumbnailInfo.mimetype = THUMBNAIL_MIME_TYPE;
+                imageMessage.thumbnailInfo.size = item.mThumbnailFileSize;
+
+                if ((item.mThumbnailWidth > 0) && (item.mThumbnailHeight > 0)) {
+                    imageMessage.thumbnailInfo.w = item.mThumbnailWidth;
+                    imageMessage.thumbnailInfo.h = item.mThumbnailHeight;
+                }
+            }
+
+            message = imageMessage;
+        } else if (TextUtils.equals(Message.MSGTYPE_VIDEO, item.mMsgType)) {
+            VideoMessage videoMessage = new VideoMessage();
+            videoMessage.url = url;
+            videoMessage.file = item.mEncryptedFileInfo;
+            videoMessage.info = new VideoInfo();
+            videoMessage.info.mimetype = item.mMimeType;
+            videoMessage.info.size = size;
+
+            if (null != item.mThumbnailContentUri) {
+                videoMessage.info.thumbnail_url = (null == item.mThumbnailEncryptedFileInfo) ? item.mThumbnailContentUri : null;
+                videoMessage.info.thumbnail_file = item.mThumbnailEncryptedFileInfo;
+                videoMessage.info.thumbnail_info = new ThumbnailInfo();
+                videoMessage.info.thumbnail_info.mimetype = THUMBNAIL_MIME_TYPE;
+                videoMessage.info.thumbnail_info.size = item.mThumbnailFileSize;
+
+                if ((item.mThumbnailWidth > 0) && (item.mThumbnailHeight > 0)) {
+                    videoMessage.info.thumbnail_info.w = item.mThumbnailWidth;
+                    videoMessage.info.thumbnail_info.h = item.mThumbnailHeight;
+                }
+            }
+
+            message = videoMessage;
+        } else {
+            FileMessage fileMessage = new FileMessage();
+            fileMessage.url = url;
+            fileMessage.file = item.mEncryptedFileInfo;
+            fileMessage.info = new FileInfo();
+            fileMessage.info.mimetype = item.mMimeType;
+            fileMessage.info.size = size;
+            message = fileMessage;
+        }
+
+        message.body = item.mFilename;
+        return message;
+    }
+}
@@ -0,0 +1,375 @@
+/*
+ * Copyright 2016 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.util;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.preference.PreferenceManager;
+
+import org.matrix.androidsdk.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Application settings stored in a SharedPreferences file.
+ * The updates are kept in memory and are visible immediately through this class,
+ * the updates done while handling a UI message (i.e. in the same frame) are written in one background commit.
+ * flush() must be called when an update must be on disk before continuing.
+ * It can be used from any thread.
+ */
+public class VectorPreferences {
+    private static final String LOG_TAG = "VectorPreferences";
+
+    // the default shared preferences instance name
+    private static final String DEFAULT_PREFERENCES_NAME = "";
+
+    // the value of a removed key
+    private static final Object REMOVED_VALUE = new Object();
+
+    // the instances, by SharedPreferences file name
+    private static final HashMap<String, VectorPreferences> mInstances = new HashMap<>();
+
+    private static final Handler mUiHandler = new Handler(Looper.getMainLooper());
+
+    // the writes are serialized on the shared IO executor
+    private static final Executor mWriteExecutor = new VectorExecutors.SerialExecutor(VectorExecutors.getIOExecutor());
+
+    private final String mName;
+    private final SharedPreferences mSharedPreferences;
+
+    // the values which are not yet written
+    private final HashMap<String, Object> mPendingValues = new HashMap<>();
+
+    // true when a write is scheduled
+    private boolean mIsWriteScheduled = false;
+
+    // true when the keys are cleared but the clear is not yet written : the SharedPreferences values are hidden
+    private boolean mIsClearPending = false;
+
+    private final Runnable mWriteRunnable = new Runnable() {
+        @Override
+        public void run() {
+            writePendingValues();
+        }
+    };
+
+    // called once the current UI message is handled, to gather the updates of the same frame
+    private final Runnable mScheduleWriteRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mWriteExecutor.execute(mWriteRunnable);
+        }
+    };
+
+    /**
+     * Constructor
+     * @param name the instance name
+     * @param sharedPreferences the shared preferences
+     */
+    private VectorPreferences(String name, SharedPreferences sharedPreferences) {
+        mName = name;
+        mSharedPreferences = sharedPreferences;
+    }
+
+    /**
+     * @param context the context
+     * @return the default shared preferences settings
+     */
+    public static VectorPreferences getDefault(Context context) {
+        synchronized (mInstances) {
+            VectorPreferences preferences = mInstances.get(DEFAULT_PREFERENCES_NAME);
+
+            if (null == preferences) {
+                preferences = new VectorPreferences(DEFAULT_PREFERENCES_NAME, PreferenceManager.getDefaultSharedPreferences(context.getApplicationContext()));
+                mInstances.put(DEFAULT_PREFERENCES_NAME, preferences);
+            }
+
+            return preferences;
+        }
+    }
+
+    /**
+     * @param context the context
+     * @param name the SharedPreferences file name
+     * @return the settings stored in a dedicated SharedPreferences file
+     */
+    public static VectorPreferences getInstance(Context context, String name) {
+        synchronized (mInstances) {
+            VectorPreferences preferences = mInstances.get(name);
+
+            if (null == preferences) {
+                preferences = new VectorPreferences(name, context.getApplicationContext().getSharedPreferences(name, Context.MODE_PRIVATE));
+                mInstances.put(name, preferences);
+            }
+
+            return preferences;
+        }
+    }
+
+    //================================================================================
+    // Getters
+    //================================================================================
+
+    /**
+     * Tells if a key is defined.
+     * @param key the key
+     * @return true if the key is defined
+     */
+    public boolean contains(String key) {
+        synchronized (this) {
+            if (mPendingValues.containsKey(key)) {
+                return REMOVED_VALUE != mPendingValues.get(key);
+            }
+
+            if (mIsClearPending) {
+                return false;
+            }
+        }
+
+        return mSharedPreferences.contains(key);
+    }
+
+    /**
+     * @param key the key
+     * @param defaultValue the value if the key is not defined
+     * @return the boolean value
+     */
+    public boolean getBoolean(String key, boolean defaultValue) {
+        synchronized (this) {
+            if (mPendingValues.containsKey(key)) {
+                Object value = mPendingValues.get(key);
+                return (value instanceof Boolean) ? (Boolean) value : defaultValue;
+            }
+
+            if (mIsClearPending) {
+                return defaultValue;
+            }
+        }
+
+        return mSharedPreferences.getBoolean(key, defaultValue);
+    }
+
+    /**
+     * @param key the key
+     * @param defaultValue the value if the key is not defined
+     * @return the int value
+     */
+    public int getInt(String key, int defaultValue) {
+        synchronized (this) {
+            if (mPendingValues.containsKey(key)) {
+                Object value = mPendingValues.get(key);
+                return (value instanceof Integer) ? (Integer) value : defaultValue;
+            }
+
+            if (mIsClearPending) {
+                return defaultValue;
+            }
+        }
+
+        return mSharedPreferences.getInt(key, defaultValue);
+    }
+
+    /**
+     * @param key the key
+     * @param defaultValue the value if the key is not defined
+     * @return the string value
+     */
+    public String getString(String key, String defaultValue) {
+        synchronized (this) {
+            if (mPendingValues.containsKey(key)) {
+                Object value = mPendingValues.get(key);
+                return (value instanceof String) ? (String) value : defaultValue;
+            }
+
+            if (mIsClearPending) {
+                return defaultValue;
+            }
+        }
+
+        return mSharedPreferences.getString(key, defaultValue);
+    }
+
+    //================================================================================
+    // Setters
+    //================================================================================
+
+    /**
+     * Update a boolean value.
+     * @param key the key
+     * @param value the new value
+     */
+    public void putBoolean(String key, boolean value) {
+        setPendingValue(key, value);
+    }
+
+    /**
+     * Update an int value.
+     * @param key the key
+     * @param value the new value
+     */
+    public void putInt(String key, int value) {
+        setPendingValue(key, value);
+    }
+
+    /**
+     * Update a string value.
+     * @param key the key
+     * @param value the new value, null to remove the key
+     */
+    public void putString(String key, String value) {
+        setPendingValue(key, (null == value) ? REMOVED_VALUE : value);
+    }
+
+    /**
+     * Remove a key.
+     * @param key the key
+     */
+    public void remove(String key) {
+        setPendingValue(key, REMOVED_VALUE);
+    }
+
+    /**
+     * Write the pending updates and wait until they are on disk.
+     * It should only be called when the next operations require them to be saved.
+     */
+    public void flush() {
+        FutureTask<Void> task = new FutureTask<>(mWriteRunnable, null);
+
+        // the previous writes are done before
+        mWriteExecutor.execute(task);
+
+        try {
+            task.get();
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "## flush() : " + mName + " failed " + e.getMessage());
+        }
+    }
+
+    /**
+     * Write the pending updates in background.
+     * @param onFlushed called on the UI thread once they are on disk
+     */
+    public void flush(final Runnable onFlushed) {
+        // the previous writes are done before
+        mWriteExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                writePendingValues();
+
+                if (null != onFlushed) {
+                    mUiHandler.post(onFlushed);
+                }
+            }
+        });
+    }
+
+    /**
+     * Remove all the keys.
+     * The keys are hidden immediately and removed from the disk in background with the next write.
+     * The pending updates are cancelled, the ones done after this call are kept.
+     */
+    public void clear() {
+        synchronized (this) {
+            mPendingValues.clear();
+            mIsClearPending = true;
+        }
+
+        mWriteExecutor.execute(mWriteRunnable);
+    }
+
+    /**
+     * Store an updated value and schedule its writing.
+     * @param key the key
+     * @param value the value
+     */
+    private void setPendingValue(String key, Object value) {
+        synchronized (this) {
+            mPendingValues.put(key, value);
+
+            if (mIsWriteScheduled) {
+                return;
+            }
+
+            mIsWriteScheduled = true;
+        }
+
+        mUiHandler.post(mScheduleWriteRunnable);
+    }
+
+    /**
+     * Write the pending values in a single commit.
+     * It is called on the write executor.
+     */
+    private void writePendingValues() {
+        HashMap<String, Object> values;
+        boolean isClearing;
+
+        synchronized (this) {
+            mIsWriteScheduled = false;
+            isClearing = mIsClearPending;
+
+            if (!isClearing && mPendingValues.isEmpty()) {
+                return;
+            }
+
+            values = new HashMap<>(mPendingValues);
+        }
+
+        SharedPreferences.Editor editor = mSharedPreferences.edit();
+
+        // the clear is applied before the updates by the commit
+        if (isClearing) {
+            editor.clear();
+        }
+
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            Object value = entry.getValue();
+
+            if (REMOVED_VALUE == value) {
+                editor.remove(entry.getKey());
+            } else if (value instanceof Boolean) {
+                editor.putBoolean(entry.getKey(), (Boolean) value);
+            } else if (value instanceof Integer) {
+                editor.putInt(entry.getKey(), (Integer) value);
+            } else if (value instanceof String) {
+                editor.putString(entry.getKey(), (String) value);
+            }
+        }
+
+        if (!editor.commit()) {
+            Log.e(LOG_TAG, "## writePendingValues() : " + mName + " commit failed");
+        }
+
+        synchronized (this) {
+            if (isClearing) {
+                mIsClearPending = false;
+            }
+
+            // the values updated during the commit are kept for the next write
+            for (Map.Entry<String, Object> entry : values.entrySet()) {
+                if (mPendingValues.get(entry.getKey()) == entry.getValue()) {
+                    mPendingValues.remove(entry.getKey());
+                }
+            }
+        }
+    }
+}
@@ -24,7 +24,6 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Bundle;
-import android.os.HandlerThread;
 import android.support.v4.app.FragmentManager;
 import android.text.Html;
 import android.text.TextUtils;
@@ -33,14 +32,14 @@ import android.view.View;
 import android.widget.Toast;
 
 import org.matrix.androidsdk.db.MXMediasCache;
+import org.matrix.androidsdk.listeners.MXMediaUploadListener;
 import org.matrix.androidsdk.rest.model.Message;
 import org.matrix.androidsdk.util.ImageUtils;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.InputStream;
 import java.util.ArrayList;
-
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 
 import im.vector.R;
@@ -56,19 +55,10 @@ public class VectorRoomMediasSender {
 
     private static final String TAG_FRAGMENT_IMAGE_SIZE_DIALOG = "TAG_FRAGMENT_IMAGE_SIZE_DIALOG";
 
-    /**
-     * This listener is displayed when the image has been resized.
-     */
-    private interface OnImageUploadListener {
-        // the image has been successfully resized and the upload starts
-        void onDone();
-        // the resize has been cancelled
-        void onCancel();
-    }
-
     // save/restore instance
     private static final String KEY_BUNDLE_MEDIAS_LIST = "KEY_BUNDLE_MEDIAS_LIST";
     private static final String KEY_BUNDLE_COMPRESSION_PREFERENCES = "KEY_BUNDLE_COMPRESSION_PREFERENCES";
+    private static final String KEY_BUNDLE_OUTBOX_IDS = "KEY_BUNDLE_OUTBOX_IDS";
 
     private AlertDialog mImageSizesListDialog;
 
@@ -81,13 +71,115 @@ public class VectorRoomMediasSender {
     // the medias cache
     private final MXMediasCache mMediasCache;
 
-    // the background thread
-    private static HandlerThread mHandlerThread = null;
-    private static android.os.Handler mMediasSendingHandler = null;
+    // the persistent outbox
+    private final VectorMediasOutbox mMediasOutbox;
+
+    // the medias are prepared (copied into the medias cache, resized...) on the shared CPU executor
+    // while the previous ones are uploaded.
+
+    // number of medias which are prepared before being sent
+    private static final int PREPARATION_WINDOW_SIZE = 4;
+
+    // max number of concurrent uploads.
+    // the SDK sends the room event when the upload is completed,
+    // so a single upload keeps the room events order.
+    private static final int MAX_CONCURRENT_UPLOADS = 1;
+
+    /**
+     * The preparation states of a media
+     */
+    private enum MediaType {
+        // the media is not yet prepared
+        UNKNOWN,
+        // the media cannot be sent
+        UNSUPPORTED,
+        // the media is not found
+        NOT_FOUND,
+        TEXT,
+        IMAGE,
+        VIDEO,
+        FILE
+    }
+
+    /**
+     * A media of the pending batch.
+     * The fields are set on the preparation threads and read on the UI thread
+     * once the media is flagged as prepared.
+     */
+    private static class PendingMedia {
+        final SharedDataItem mSharedDataItem;
+
+        // the journaled item, it is created in background (synchronized on the media)
+        VectorMediasOutbox.OutboxItem mOutboxItem;
+
+        MediaType mMediaType = MediaType.UNKNOWN;
+        String mMimeType;
+        String mFilename;
+
+        // text
+        String mText;
+        String mHtmlText;
+
+        // medias
+        String mMediaUrl;
+        String mThumbnailUrl;
+        int mFileSize;
+
+        // images
+        ImageCompressionSizes mImageSizes;
+        int mRotationAngle;
+        // the sent image url (resized or not)
+        String mImageUrl;
+        // the compression used to compute mImageUrl
+        String mResizedCompressionDescription;
+
+        // the background task is in progress
+        boolean mIsProcessing;
+        volatile boolean mIsPrepared;
+
+        // the media has been sent
+        boolean mIsSent;
+
+        PendingMedia(SharedDataItem sharedDataItem, VectorMediasOutbox.OutboxItem outboxItem) {
+            mSharedDataItem = sharedDataItem;
+            mOutboxItem = outboxItem;
+        }
+
+        /**
+         * @return true if the user has to select an image compression
+         */
+        boolean canBeResized() {
+            return (MediaType.IMAGE == mMediaType) && (null != mImageSizes) && (null != mImageSizes.mSmallImageSize);
+        }
+    }
+
+    /**
+     * A medias batch.
+     */
+    private static class MediasBatch {
+        final ArrayList<PendingMedia> mMedias = new ArrayList<>();
+
+        // the outbox items owner
+        String mAccountId;
+        String mRoomId;
+
+        // index of the next media to send
+        int mNextMediaIndex = 0;
+
+        // upload id -> media
+        final HashMap<String, PendingMedia> mActiveUploads = new HashMap<>();
+        // upload id -> uploaded bytes
+        final HashMap<String, Integer> mUploadedSizes = new HashMap<>();
+    }
+
+    // the pending batch, it is set on the UI thread and checked by the background tasks to detect a cancellation
+    private volatile MediasBatch mMediasBatch;
 
     // pending
     private ArrayList<SharedDataItem> mSharedDataItems;
-    private String mImageCompressionDescription;
+    // shared item -> journaled item
+    private final HashMap<SharedDataItem, VectorMediasOutbox.OutboxItem> mOutboxItems = new HashMap<>();
+    private volatile String mImageCompressionDescription;
 
     /**
      * Constructor
@@ -97,13 +189,7 @@ public class VectorRoomMediasSender {
         mVectorRoomActivity = roomActivity;
         mVectorMessageListFragment = vectorMessageListFragment;
         mMediasCache = mediasCache;
-
-        if (null == mHandlerThread) {
-            mHandlerThread = new HandlerThread("VectorRoomMediasSender", Thread.MIN_PRIORITY);
-            mHandlerThread.start();
-
-            mMediasSendingHandler = new android.os.Handler(mHandlerThread.getLooper());
-        }
+        mMediasOutbox = VectorMediasOutbox.getInstance(roomActivity);
     }
 
     /**
@@ -114,6 +200,31 @@ public class VectorRoomMediasSender {
         if (null != savedInstanceState) {
             mSharedDataItems = (ArrayList<SharedDataItem>) savedInstanceState.getSerializable(KEY_BUNDLE_MEDIAS_LIST);
             mImageCompressionDescription = (String)savedInstanceState.getSerializable(KEY_BUNDLE_COMPRESSION_PREFERENCES);
+
+            ArrayList<String> outboxIds = savedInstanceState.getStringArrayList(KEY_BUNDLE_OUTBOX_IDS);
+
+            if ((null != mSharedDataItems) && (null != outboxIds) && (outboxIds.size() == mSharedDataItems.size())) {
+                ArrayList<SharedDataItem> sharedDataItems = new ArrayList<>();
+
+                for (int index = 0; index < outboxIds.size(); index++) {
+                    SharedDataItem sharedDataItem = mSharedDataItems.get(index);
+                    String outboxId = outboxIds.get(index);
+
+                    if (TextUtils.isEmpty(outboxId)) {
+                        sharedDataItems.add(sharedDataItem);
+                    } else {
+                        VectorMediasOutbox.OutboxItem outboxItem = mMediasOutbox.claimItem(outboxId);
+
+                        // the item has been resumed in background after a process death
+                        if (null != outboxItem) {
+                            mOutboxItems.put(sharedDataItem, outboxItem);
+                            sharedDataItems.add(sharedDataItem);
+                        }
+                    }
+                }
+
+                mSharedDataItems = sharedDataItems.isEmpty() ? null : sharedDataItems;
+            }
         }
     }
 
@@ -124,6 +235,15 @@ public class VectorRoomMediasSender {
     public void onSaveInstanceState(Bundle savedInstanceState) {
         if (null != mSharedDataItems) {
             savedInstanceState.putSerializable(KEY_BUNDLE_MEDIAS_LIST, mSharedDataItems);
+
+            ArrayList<String> outboxIds = new ArrayList<>();
+
+            for (SharedDataItem sharedDataItem : mSharedDataItems) {
+                VectorMediasOutbox.OutboxItem outboxItem = mOutboxItems.get(sharedDataItem);
+                outboxIds.add((null != outboxItem) ? outboxItem.mId : "");
+            }
+
+            savedInstanceState.putStringArrayList(KEY_BUNDLE_OUTBOX_IDS, outboxIds);
         }
 
         if (null != mImageCompressionDescription) {
@@ -136,7 +256,7 @@ public class VectorRoomMediasSender {
      * stopped due to activity lifecycle event.
      */
     public void resumeResizeMediaAndSend() {
-        if (null != mSharedDataItems) {
+        if ((null != mSharedDataItems) && (null == mMediasBatch)) {
             mVectorRoomActivity.runOnUiThread(new Runnable() {
                 @Override
                 public void run() {
@@ -146,14 +266,139 @@ public class VectorRoomMediasSender {
         }
     }
 
+    /**
+     * The room activity is finishing : the pending medias are sent in background.
+     */
+    public void onDestroy() {
+        ArrayList<String> outboxIds = new ArrayList<>();
+
+        for (VectorMediasOutbox.OutboxItem outboxItem : mOutboxItems.values()) {
+            outboxIds.add(outboxItem.mId);
+        }
+
+        // stop the pending preparations
+        mMediasBatch = null;
+        mSharedDataItems = null;
+        mOutboxItems.clear();
+
+        mMediasOutbox.releaseItems(outboxIds);
+    }
+
+    /**
+     * Create a pending media.
+     * It is journaled in the outbox in background, unless it has been restored with its outbox item.
+     * @param sharedDataItem the shared item
+     * @return the pending media
+     */
+    private PendingMedia createPendingMedia(SharedDataItem sharedDataItem) {
+        return new PendingMedia(sharedDataItem, mOutboxItems.get(sharedDataItem));
+    }
+
+    /**
+     * Journal some medias in the outbox, on the IO executor.
+     * @param batch the batch
+     * @param medias the medias
+     */
+    private void journalMedias(final MediasBatch batch, final List<PendingMedia> medias) {
+        VectorExecutors.getIOExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                for (PendingMedia media : medias) {
+                    // the batch has been cancelled
+                    if (batch != mMediasBatch) {
+                        break;
+                    }
+
+                    try {
+                        createOutboxItem(batch, media);
+                    } catch (Exception e) {
+                        Log.e(LOG_TAG, "journalMedias failed " + e.getMessage());
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Create the outbox item of a media if it is not yet done.
+     * It is called on a background thread.
+     * @param batch the batch
+     * @param media the media
+     */
+    private void createOutboxItem(final MediasBatch batch, final PendingMedia media) {
+        final VectorMediasOutbox.OutboxItem outboxItem;
+
+        synchronized (media) {
+            if (null != media.mOutboxItem) {
+                return;
+            }
+
+            SharedDataItem sharedDataItem = media.mSharedDataItem;
+            String mimeType = sharedDataItem.getMimeType(mVectorRoomActivity);
+            outboxItem = mMediasOutbox.addItem(batch.mAccountId, batch.mRoomId, sharedDataItem.getUri(), mimeType);
+            outboxItem.mFilename = sharedDataItem.getFileName(mVectorRoomActivity);
+
+            // the texts are not saved in the shared uri
+            if (TextUtils.equals(ClipDescription.MIMETYPE_TEXT_PLAIN, mimeType) || TextUtils.equals(ClipDescription.MIMETYPE_TEXT_HTML, mimeType)) {
+                CharSequence text = sharedDataItem.getText();
+                outboxItem.mText = (null != text) ? text.toString() : null;
+                outboxItem.mHtmlText = sharedDataItem.getHtmlText();
+            }
+
+            mMediasOutbox.save(outboxItem);
+            media.mOutboxItem = outboxItem;
+        }
+
+        mVectorRoomActivity.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                if (batch != mMediasBatch) {
+                    // the batch has been cancelled : the item is sent in background
+                    mMediasOutbox.releaseItems(Collections.singletonList(outboxItem.mId));
+                } else if (!media.mIsSent) {
+                    mOutboxItems.put(media.mSharedDataItem, outboxItem);
+                }
+            }
+        });
+    }
+
+    /**
+     * The media won't be sent anymore by this sender.
+     * @param media the media
+     * @param removeFromOutbox true to remove it from the outbox
+     */
+    private void onMediaDone(PendingMedia media, boolean removeFromOutbox) {
+        mOutboxItems.remove(media.mSharedDataItem);
+
+        if (removeFromOutbox) {
+            mMediasOutbox.removeItem(media.mOutboxItem);
+        }
+    }
+
     /**
      * Send a list of images from their URIs
      * @param sharedDataItems the media URIs
      */
     public void sendMedias(final ArrayList<SharedDataItem> sharedDataItems) {
         if (null != sharedDataItems) {
-            mSharedDataItems = new ArrayList<>(sharedDataItems);
-            sendMedias();
+            // append them to the pending batch
+            if (null != mMediasBatch) {
+                mSharedDataItems.addAll(sharedDataItems);
+
+                ArrayList<PendingMedia> medias = new ArrayList<>();
+
+                for (SharedDataItem item : sharedDataItems) {
+                    medias.add(createPendingMedia(item));
+                }
+
+                mMediasBatch.mMedias.addAll(medias);
+                journalMedias(mMediasBatch, medias);
+
+                sendNextMedias();
+            } else {
+                mSharedDataItems = new ArrayList<>(sharedDataItems);
+                sendMedias();
+            }
         }
     }
 
@@ -167,196 +412,510 @@ public class VectorRoomMediasSender {
             return;
         }
 
-        // detect end of messages sending
         if ((null == mSharedDataItems) || (0 == mSharedDataItems.size())) {
-            Log.d(LOG_TAG, "sendMedias : done");
-            mImageCompressionDescription = null;
-            mSharedDataItems = null;
+            onMediasBatchDone();
+            return;
+        }
 
-            mVectorRoomActivity.runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    mVectorMessageListFragment.scrollToBottom();
-                    mVectorRoomActivity.cancelSelectionMode();
-                    mVectorRoomActivity.setProgressVisibility(View.GONE);
-                }
-            });
+        Log.d(LOG_TAG, "sendMedias : " + mSharedDataItems.size() + " items to send");
 
-            return;
+        mMediasBatch = new MediasBatch();
+        mMediasBatch.mAccountId = mVectorRoomActivity.getSession().getMyUserId();
+        mMediasBatch.mRoomId = mVectorRoomActivity.getRoom().getRoomId();
+
+        for (SharedDataItem item : mSharedDataItems) {
+            mMediasBatch.mMedias.add(createPendingMedia(item));
         }
 
-        // display a spinner
+        journalMedias(mMediasBatch, new ArrayList<>(mMediasBatch.mMedias));
+
         mVectorRoomActivity.cancelSelectionMode();
-        mVectorRoomActivity.setProgressVisibility(View.VISIBLE);
+        sendNextMedias();
+    }
 
-        Log.d(LOG_TAG, "sendMedias : " + mSharedDataItems.size() + " items to send");
+    /**
+     * The medias batch is done (or cancelled).
+     */
+    private void onMediasBatchDone() {
+        Log.d(LOG_TAG, "sendMedias : done");
+        mImageCompressionDescription = null;
+        mSharedDataItems = null;
+        mMediasBatch = null;
 
-        mMediasSendingHandler.post(new Runnable() {
+        mVectorRoomActivity.runOnUiThread(new Runnable() {
             @Override
             public void run() {
-                SharedDataItem sharedDataItem = mSharedDataItems.get(0);
-                String mimeType = sharedDataItem.getMimeType(mVectorRoomActivity);
+                mVectorMessageListFragment.scrollToBottom();
+                mVectorRoomActivity.cancelSelectionMode();
+                mVectorRoomActivity.setProgressVisibility(View.GONE);
+                mVectorRoomActivity.setMediasSendingProgress(0, 0, 0);
+            }
+        });
+    }
 
-                // avoid null case
-                if (null == mimeType) {
-                    mimeType = "";
-                }
+    /**
+     * Pipeline management.
+     * - the next medias are prepared in background.
+     * - the prepared medias are sent in order when an upload slot is available.
+     * It must be called from the UI thread.
+     */
+    private void sendNextMedias() {
+        final MediasBatch batch = mMediasBatch;
 
-                if (TextUtils.equals(ClipDescription.MIMETYPE_TEXT_INTENT, mimeType)) {
-                    Log.d(LOG_TAG, "sendMedias :  unsupported mime type");
-                    // don't know how to manage it -> skip it
-                    // GA issue
-                    if (mSharedDataItems.size() > 0) {
-                        mSharedDataItems.remove(0);
-                    }
-                    sendMedias();
-                } else if (TextUtils.equals(ClipDescription.MIMETYPE_TEXT_PLAIN, mimeType) || TextUtils.equals(ClipDescription.MIMETYPE_TEXT_HTML, mimeType)) {
-                    sendTextMessage(sharedDataItem);
-                } else {
-                    // check if it is an uri
-                    // else we don't know what to do
-                    if (null == sharedDataItem.getUri()) {
-                        Log.e(LOG_TAG, "sendMedias : null uri");
-                        // manage others
-                        if (mSharedDataItems.size() > 0) {
-                            mSharedDataItems.remove(0);
-                        }
-                        sendMedias();
-                        return;
+        if (null == batch) {
+            return;
+        }
+
+        // send the prepared medias in order
+        while ((batch.mNextMediaIndex < batch.mMedias.size()) && (batch.mActiveUploads.size() < MAX_CONCURRENT_UPLOADS)) {
+            PendingMedia media = batch.mMedias.get(batch.mNextMediaIndex);
+
+            // wait until the media is prepared
+            if (!media.mIsPrepared) {
+                break;
+            }
+
+            if (media.canBeResized()) {
+                // the user has to select the compression
+                if (null == mImageCompressionDescription) {
+                    if (null == mImageSizesListDialog) {
+                        displayImageSizesDialog(media);
                     }
+                    break;
+                }
+
+                // the image is resized in background
+                if (!TextUtils.equals(mImageCompressionDescription, media.mResizedCompressionDescription)) {
+                    resizeMedia(batch, media);
+                    break;
+                }
+            }
+
+            sendMedia(batch, media);
+            batch.mNextMediaIndex++;
+        }
+
+        // prepare the next medias
+        int windowEnd = Math.min(batch.mNextMediaIndex + PREPARATION_WINDOW_SIZE, batch.mMedias.size());
 
-                    final String fFilename = sharedDataItem.getFileName(mVectorRoomActivity);
-                    ResourceUtils.Resource resource = ResourceUtils.openResource(mVectorRoomActivity, sharedDataItem.getUri(), sharedDataItem.getMimeType(mVectorRoomActivity));
+        for (int index = batch.mNextMediaIndex; index < windowEnd; index++) {
+            PendingMedia media = batch.mMedias.get(index);
 
-                    if (null == resource) {
-                        Log.e(LOG_TAG, "sendMedias : " + fFilename + " is not found");
+            if (!media.mIsPrepared) {
+                prepareMedia(batch, media);
+            } else if (media.canBeResized() && (null != mImageCompressionDescription) && !TextUtils.equals(mImageCompressionDescription, media.mResizedCompressionDescription)) {
+                resizeMedia(batch, media);
+            }
+        }
+
+        // everything has been sent
+        if ((batch.mNextMediaIndex >= batch.mMedias.size()) && batch.mActiveUploads.isEmpty()) {
+            onMediasBatchDone();
+            return;
+        }
 
-                        mVectorRoomActivity.runOnUiThread(new Runnable() {
-                            @Override
-                            public void run() {
-                                Toast.makeText(mVectorRoomActivity,
-                                        mVectorRoomActivity.getString(R.string.room_message_file_not_found),
-                                        Toast.LENGTH_LONG).show();
-                            }
-                        });
+        // the user has to wait only when there is nothing else to do
+        boolean isHeadInProgress = (batch.mNextMediaIndex < batch.mMedias.size()) && batch.mMedias.get(batch.mNextMediaIndex).mIsProcessing;
+        mVectorRoomActivity.setProgressVisibility((isHeadInProgress && batch.mActiveUploads.isEmpty()) ? View.VISIBLE : View.GONE);
 
-                        // manage others
-                        if (mSharedDataItems.size() > 0) {
-                            mSharedDataItems.remove(0);
+        refreshBatchProgress(batch);
+    }
+
+    /**
+     * Refresh the medias batch progress.
+     * @param batch the batch
+     */
+    private void refreshBatchProgress(MediasBatch batch) {
+        int count = batch.mMedias.size();
+        int sentCount = batch.mNextMediaIndex - batch.mActiveUploads.size();
+        float progress = sentCount;
+
+        // add the progress of the active uploads
+        for (String uploadId : batch.mActiveUploads.keySet()) {
+            PendingMedia media = batch.mActiveUploads.get(uploadId);
+            Integer uploadedSize = batch.mUploadedSizes.get(uploadId);
+
+            if ((null != uploadedSize) && (media.mFileSize > 0)) {
+                progress += Math.min(1.0f, (float) uploadedSize / media.mFileSize);
+            }
+        }
+
+        mVectorRoomActivity.setMediasSendingProgress(sentCount, count, (int) (progress * 100 / count));
+    }
+
+    /**
+     * Prepare a media in background.
+     * @param batch the batch
+     * @param media the media
+     */
+    private void prepareMedia(final MediasBatch batch, final PendingMedia media) {
+        if (media.mIsProcessing) {
+            return;
+        }
+
+        media.mIsProcessing = true;
+
+        VectorExecutors.getCPUExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                // the batch has been cancelled
+                if (batch == mMediasBatch) {
+                    try {
+                        createOutboxItem(batch, media);
+
+                        // the media might have been prepared before the activity was recreated
+                        if (!restorePreparedMedia(media)) {
+                            prepareMedia(media);
+                            journalPreparedMedia(media);
                         }
-                        sendMedias();
+                    } catch (Exception e) {
+                        Log.e(LOG_TAG, "prepareMedia failed " + e.getMessage());
+                        media.mMediaType = MediaType.UNSUPPORTED;
+                    } catch (OutOfMemoryError oom) {
+                        Log.e(LOG_TAG, "prepareMedia failed oom");
+                        media.mMediaType = MediaType.UNSUPPORTED;
+                    }
+                }
+
+                media.mIsPrepared = true;
 
-                        return;
+                mVectorRoomActivity.runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        media.mIsProcessing = false;
+                        sendNextMedias();
                     }
+                });
+            }
+        });
+    }
 
-                    if (mimeType.startsWith("image/")) {
-                        sendImageMessage(sharedDataItem, resource);
-                    } else if (mimeType.startsWith("video/")) {
-                        sendVideoMessage(sharedDataItem, resource);
-                    } else {
-                        sendFileMessage(sharedDataItem, resource);
+    /**
+     * Resize an image in background according to the selected compression.
+     * @param batch the batch
+     * @param media the media
+     */
+    private void resizeMedia(final MediasBatch batch, final PendingMedia media) {
+        if (media.mIsProcessing) {
+            return;
+        }
+
+        media.mIsProcessing = true;
+        final String compressionDescription = mImageCompressionDescription;
+
+        VectorExecutors.getCPUExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                if (batch == mMediasBatch) {
+                    ImageSize expectedSize = null;
+
+                    // the original size does not need to be resized
+                    if (!TextUtils.equals(mVectorRoomActivity.getString(R.string.compression_opt_list_original), compressionDescription)) {
+                        expectedSize = media.mImageSizes.getImageSize(mVectorRoomActivity, compressionDescription);
                     }
+
+                    media.mImageUrl = resizeImage(media.mMediaUrl, Uri.parse(media.mMediaUrl).getPath(), media.mImageSizes.mFullImageSize, expectedSize, media.mRotationAngle);
+                    media.mResizedCompressionDescription = compressionDescription;
+                    journalPreparedMedia(media);
                 }
+
+                mVectorRoomActivity.runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        media.mIsProcessing = false;
+                        sendNextMedias();
+                    }
+                });
             }
         });
     }
 
-    //================================================================================
-    // text messages management
-    //================================================================================
-
     /**
-     * Send a text message.
-     * @param sharedDataItem the media item.
+     * Save the prepared media in the outbox to avoid preparing it again after a process death.
+     * @param media the media
      */
-    private void sendTextMessage(SharedDataItem sharedDataItem) {
-        CharSequence sequence = sharedDataItem.getText();
-        String htmlText = sharedDataItem.getHtmlText();
-        String text = null;
+    private void journalPreparedMedia(PendingMedia media) {
+        VectorMediasOutbox.OutboxItem outboxItem = media.mOutboxItem;
+
+        switch (media.mMediaType) {
+            case TEXT:
+                outboxItem.mMsgType = Message.MSGTYPE_TEXT;
+                outboxItem.mText = media.mText;
+                outboxItem.mHtmlText = media.mHtmlText;
+                break;
+            case IMAGE:
+                outboxItem.mMsgType = Message.MSGTYPE_IMAGE;
+                break;
+            case VIDEO:
+                outboxItem.mMsgType = Message.MSGTYPE_VIDEO;
+                break;
+            case FILE:
+                outboxItem.mMsgType = Message.MSGTYPE_FILE;
+                break;
+            default:
+                // will be removed when it will be sent
+                return;
+        }
 
-        if (null == sequence) {
-            if (null != htmlText) {
-                text = Html.fromHtml(htmlText).toString();
+        if (MediaType.TEXT != media.mMediaType) {
+            outboxItem.mMimeType = media.mMimeType;
+            outboxItem.mFilename = media.mFilename;
+            outboxItem.mMediaUrl = media.mMediaUrl;
+            outboxItem.mUploadUrl = (null != media.mImageUrl) ? media.mImageUrl : media.mMediaUrl;
+            outboxItem.mThumbnailUrl = media.mThumbnailUrl;
+            outboxItem.mFileSize = new File(Uri.parse(outboxItem.mUploadUrl).getPath()).length();
+
+            // the resized image size is not known, the client will compute it
+            if ((MediaType.IMAGE == media.mMediaType) && (null == media.mImageUrl) && (null != media.mImageSizes) && (0 == media.mRotationAngle)) {
+                outboxItem.mWidth = media.mImageSizes.mFullImageSize.mWidth;
+                outboxItem.mHeight = media.mImageSizes.mFullImageSize.mHeight;
+            } else {
+                outboxItem.mWidth = -1;
+                outboxItem.mHeight = -1;
             }
+        }
+
+        mMediasOutbox.setState(outboxItem, VectorMediasOutbox.State.PREPARED);
+    }
+
+    /**
+     * Restore a media from its journaled item when its prepared file still exists.
+     * The prepared file is sent as is, the compression is not asked again.
+     * It is called on a background thread.
+     * @param media the media
+     * @return true if the media is restored
+     */
+    private boolean restorePreparedMedia(PendingMedia media) {
+        VectorMediasOutbox.OutboxItem outboxItem = media.mOutboxItem;
+
+        if ((null == outboxItem) || !VectorMediasOutbox.hasPreparedFile(outboxItem)) {
+            return false;
+        }
+
+        if (TextUtils.equals(Message.MSGTYPE_IMAGE, outboxItem.mMsgType)) {
+            media.mMediaType = MediaType.IMAGE;
+        } else if (TextUtils.equals(Message.MSGTYPE_VIDEO, outboxItem.mMsgType)) {
+            media.mMediaType = MediaType.VIDEO;
+        } else if (TextUtils.equals(Message.MSGTYPE_FILE, outboxItem.mMsgType)) {
+            media.mMediaType = MediaType.FILE;
         } else {
-            text = sequence.toString();
+            return false;
         }
 
-        Log.d(LOG_TAG, "sendTextMessage " + text);
+        media.mMimeType = outboxItem.mMimeType;
+        media.mFilename = outboxItem.mFilename;
+        media.mMediaUrl = outboxItem.mMediaUrl;
+        media.mImageUrl = TextUtils.equals(outboxItem.mUploadUrl, outboxItem.mMediaUrl) ? null : outboxItem.mUploadUrl;
+        media.mThumbnailUrl = outboxItem.mThumbnailUrl;
+        media.mFileSize = (int) outboxItem.mFileSize;
 
-        final String fText = text;
-        final String fHtmlText = htmlText;
+        // the compression has not been applied yet
+        if ((MediaType.IMAGE == media.mMediaType) && (null == media.mImageUrl)) {
+            media.mRotationAngle = ImageUtils.getRotationAngleForBitmap(mVectorRoomActivity, Uri.parse(media.mMediaUrl));
+            prepareImageCompression(media);
 
-        mVectorRoomActivity.runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                mVectorRoomActivity.sendMessage(fText, fHtmlText, Message.FORMAT_MATRIX_HTML);
+            if (null != media.mImageUrl) {
+                journalPreparedMedia(media);
             }
-        });
-
-        // manage others
-        if (mSharedDataItems.size() > 0) {
-            mSharedDataItems.remove(0);
         }
-        sendMedias();
+
+        Log.d(LOG_TAG, "restorePreparedMedia : " + media.mFilename + " is already prepared");
+        return true;
     }
 
-    //================================================================================
-    // video messages management
-    //================================================================================
+    /**
+     * Prepare a media i.e copy it into the medias cache, compute its thumbnail...
+     * It is called on a background thread.
+     * @param media the media
+     */
+    private void prepareMedia(PendingMedia media) {
+        SharedDataItem sharedDataItem = media.mSharedDataItem;
+        String mimeType = sharedDataItem.getMimeType(mVectorRoomActivity);
+
+        // avoid null case
+        if (null == mimeType) {
+            mimeType = "";
+        }
+
+        media.mMimeType = mimeType;
+
+        if (TextUtils.equals(ClipDescription.MIMETYPE_TEXT_INTENT, mimeType)) {
+            Log.d(LOG_TAG, "sendMedias :  unsupported mime type");
+            // don't know how to manage it -> skip it
+            media.mMediaType = MediaType.UNSUPPORTED;
+        } else if (TextUtils.equals(ClipDescription.MIMETYPE_TEXT_PLAIN, mimeType) || TextUtils.equals(ClipDescription.MIMETYPE_TEXT_HTML, mimeType)) {
+            prepareTextMessage(media);
+        } else {
+            // check if it is an uri
+            // else we don't know what to do
+            if (null == sharedDataItem.getUri()) {
+                Log.e(LOG_TAG, "sendMedias : null uri");
+                media.mMediaType = MediaType.UNSUPPORTED;
+                return;
+            }
+
+            media.mFilename = sharedDataItem.getFileName(mVectorRoomActivity);
+            ResourceUtils.Resource resource = ResourceUtils.openResource(mVectorRoomActivity, sharedDataItem.getUri(), mimeType);
+
+            if (null == resource) {
+                Log.e(LOG_TAG, "sendMedias : " + media.mFilename + " is not found");
+                media.mMediaType = MediaType.NOT_FOUND;
+                return;
+            }
+
+            // save the file in the filesystem
+            media.mMediaUrl = mMediasCache.saveMedia(resource.mContentStream, null, mimeType);
+            resource.close();
+
+            if (null == media.mMediaUrl) {
+                Log.e(LOG_TAG, "sendMedias : " + media.mFilename + " cannot be saved");
+                media.mMediaType = MediaType.NOT_FOUND;
+                return;
+            }
+
+            media.mFileSize = (int) new File(Uri.parse(media.mMediaUrl).getPath()).length();
+
+            if (mimeType.startsWith("image/")) {
+                prepareImageMessage(media);
+            } else if (mimeType.startsWith("video/")) {
+                media.mMediaType = MediaType.VIDEO;
+            } else {
+                media.mMediaType = MediaType.FILE;
+            }
+        }
+    }
 
     /**
-     * Send an video message.
-     * @param sharedDataItem the item to send
-     * @param resource the media resource
+     * Send a prepared media.
+     * It must be called on the UI thread.
+     * @param batch the batch
+     * @param media the media
      */
-    private void sendVideoMessage(final SharedDataItem sharedDataItem, final ResourceUtils.Resource resource) {
-        mVectorRoomActivity.runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                String mimeType = sharedDataItem.getMimeType(mVectorRoomActivity);
-                String filename =  sharedDataItem.getFileName(mVectorRoomActivity);
+    private void sendMedia(final MediasBatch batch, final PendingMedia media) {
+        String uploadId = null;
+
+        switch (media.mMediaType) {
+            case TEXT:
+                Log.d(LOG_TAG, "sendTextMessage " + media.mText);
+                mVectorRoomActivity.sendMessage(media.mText, media.mHtmlText, Message.FORMAT_MATRIX_HTML);
+                break;
+            case NOT_FOUND:
+                Toast.makeText(mVectorRoomActivity,
+                        mVectorRoomActivity.getString(R.string.room_message_file_not_found),
+                        Toast.LENGTH_LONG).show();
+                break;
+            case VIDEO:
+                mVectorMessageListFragment.uploadVideoContent(media.mMediaUrl, mVectorMessageListFragment.getVideoThumbnailUrl(media.mMediaUrl), media.mFilename, media.mMimeType);
+                uploadId = media.mMediaUrl;
+                break;
+            case FILE:
+                mVectorMessageListFragment.uploadFileContent(media.mMediaUrl, media.mMimeType, media.mFilename);
+                uploadId = media.mMediaUrl;
+                break;
+            case IMAGE:
+                String imageUrl = (null != media.mImageUrl) ? media.mImageUrl : media.mMediaUrl;
+                mVectorMessageListFragment.uploadImageContent(null, null, media.mThumbnailUrl, imageUrl, media.mFilename, media.mMimeType);
+                uploadId = imageUrl;
+                break;
+            default:
+                break;
+        }
 
-                String mediaUrl = mMediasCache.saveMedia(resource.mContentStream, null, mimeType);
-                mVectorMessageListFragment.uploadVideoContent(mediaUrl, mVectorMessageListFragment.getVideoThumbnailUrl(mediaUrl), filename, mimeType);
-                resource.close();
+        media.mIsSent = true;
+
+        // the texts are stored by the SDK, the other medias are removed once the event is sent
+        if (null == uploadId) {
+            onMediaDone(media, true);
+        } else {
+            mMediasOutbox.setState(media.mOutboxItem, VectorMediasOutbox.State.UPLOADING);
+        }
+
+        // the media is not anymore a pending one
+        if ((null != mSharedDataItems) && mSharedDataItems.contains(media.mSharedDataItem)) {
+            mSharedDataItems.remove(media.mSharedDataItem);
+        }
+
+        // the upload might have not been started (e.g. encryption failure)
+        if ((null != uploadId) && (mMediasCache.getProgressValueForUploadId(uploadId) >= 0)) {
+            final String fUploadId = uploadId;
+            batch.mActiveUploads.put(fUploadId, media);
+
+            // the media file size might have been updated by the resizing
+            if (null != media.mImageUrl) {
+                media.mFileSize = (int) new File(Uri.parse(media.mImageUrl).getPath()).length();
             }
-        });
 
-        // manage others
-        if (mSharedDataItems.size() > 0) {
-            mSharedDataItems.remove(0);
+            mMediasCache.addUploadListener(fUploadId, new MXMediaUploadListener() {
+                @Override
+                public void onUploadProgress(String uploadId, UploadStats uploadStats) {
+                    batch.mUploadedSizes.put(fUploadId, uploadStats.mUploadedSize);
+
+                    if (batch == mMediasBatch) {
+                        refreshBatchProgress(batch);
+                    }
+                }
+
+                @Override
+                public void onUploadCancel(String uploadId) {
+                    onMediaDone(media, true);
+                    onUploadDone();
+                }
+
+                @Override
+                public void onUploadError(String uploadId, int serverResponseCode, String serverErrorMessage) {
+                    // the event is displayed as an unsent one, the outbox will retry it
+                    onMediaDone(media, false);
+
+                    if (null != media.mOutboxItem) {
+                        mMediasOutbox.releaseItems(Collections.singletonList(media.mOutboxItem.mId));
+                    }
+                    onUploadDone();
+                }
+
+                @Override
+                public void onUploadComplete(String uploadId, String contentUri) {
+                    // the event is sent by the messages list fragment
+                    media.mOutboxItem.mContentUri = contentUri;
+                    mMediasOutbox.setState(media.mOutboxItem, VectorMediasOutbox.State.UPLOADED);
+                    onUploadDone();
+                }
+
+                private void onUploadDone() {
+                    batch.mActiveUploads.remove(fUploadId);
+                    batch.mUploadedSizes.remove(fUploadId);
+
+                    if (batch == mMediasBatch) {
+                        sendNextMedias();
+                    }
+                }
+            });
         }
-        sendMedias();
     }
 
     //================================================================================
-    // file messages management
+    // text messages management
     //================================================================================
 
     /**
-     * Send a file message.
-     * @param sharedDataItem the item to send
-     * @param resource the media resource
+     * Prepare a text message.
+     * @param media the media item.
      */
-    private void sendFileMessage(final SharedDataItem sharedDataItem, final ResourceUtils.Resource resource) {
-        mVectorRoomActivity.runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                String mimeType = sharedDataItem.getMimeType(mVectorRoomActivity);
-                String filename =  sharedDataItem.getFileName(mVectorRoomActivity);
+    private void prepareTextMessage(PendingMedia media) {
+        CharSequence sequence = media.mSharedDataItem.getText();
+        String htmlText = media.mSharedDataItem.getHtmlText();
+        String text = null;
 
-                String mediaUrl = mMediasCache.saveMedia(resource.mContentStream, null, mimeType);
-                mVectorMessageListFragment.uploadFileContent(mediaUrl, mimeType, filename);
-                resource.close();
+        if (null == sequence) {
+            if (null != htmlText) {
+                text = Html.fromHtml(htmlText).toString();
             }
-        });
-
-        // manage others
-        if (mSharedDataItems.size() > 0) {
-            mSharedDataItems.remove(0);
+        } else {
+            text = sequence.toString();
         }
-        sendMedias();
+
+        media.mMediaType = MediaType.TEXT;
+        media.mText = text;
+        media.mHtmlText = htmlText;
     }
 
     //================================================================================
@@ -364,16 +923,12 @@ public class VectorRoomMediasSender {
     //================================================================================
 
     /**
-     * Send an image message.
-     * @param sharedDataItem the item to send
-     * @param resource the media resource
+     * Prepare an image message.
+     * @param media the media item.
      */
-    private void sendImageMessage(final SharedDataItem sharedDataItem, final ResourceUtils.Resource resource) {
-        String mimeType = sharedDataItem.getMimeType(mVectorRoomActivity);
-
-        // save the file in the filesystem
-        String mediaUrl = mMediasCache.saveMedia(resource.mContentStream, null, mimeType);
-        resource.close();
+    private void prepareImageMessage(PendingMedia media) {
+        SharedDataItem sharedDataItem = media.mSharedDataItem;
+        media.mMediaType = MediaType.IMAGE;
 
         // compute the thumbnail
         Bitmap thumbnailBitmap = sharedDataItem.getFullScreenImageKindThumbnail(mVectorRoomActivity);
@@ -390,52 +945,68 @@ public class VectorRoomMediasSender {
             thumbnailBitmap = sharedDataItem.getMiniKindImageThumbnail(mVectorRoomActivity);
         }
 
-        String thumbnailURL = null;
-
         if (null != thumbnailBitmap) {
-            thumbnailURL = mMediasCache.saveBitmap(thumbnailBitmap, null);
+            media.mThumbnailUrl = mMediasCache.saveBitmap(thumbnailBitmap, null);
         }
 
         // get the exif rotation angle
-        final int rotationAngle = ImageUtils.getRotationAngleForBitmap(mVectorRoomActivity, Uri.parse(mediaUrl));
+        media.mRotationAngle = ImageUtils.getRotationAngleForBitmap(mVectorRoomActivity, Uri.parse(media.mMediaUrl));
 
-        if (0 != rotationAngle) {
+        if (0 != media.mRotationAngle) {
             // always apply the rotation to the image
-            ImageUtils.rotateImage(mVectorRoomActivity, thumbnailURL, rotationAngle, mMediasCache);
+            ImageUtils.rotateImage(mVectorRoomActivity, media.mThumbnailUrl, media.mRotationAngle, mMediasCache);
         }
 
-        final String fThumbnailURL = thumbnailURL;
-        final String fMediaUrl = mediaUrl;
-        final String fMimeType = mimeType;
+        prepareImageCompression(media);
+    }
 
-        mVectorRoomActivity.runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                if ((null != mSharedDataItems) && (mSharedDataItems.size() > 0)) {
-                    sendImageMessage(fThumbnailURL, fMediaUrl, sharedDataItem.getFileName(mVectorRoomActivity), fMimeType, new OnImageUploadListener() {
-                        @Override
-                        public void onDone() {
-                            // reported by GA
-                            if ((null != mSharedDataItems) && (mSharedDataItems.size() > 0)){
-                                mSharedDataItems.remove(0);
-                            }
-                            // go to the next item
-                            sendMedias();
-                        }
+    /**
+     * Compute the compression sizes of an image, and resize it if the compression is already selected.
+     * @param media the media item.
+     */
+    private void prepareImageCompression(PendingMedia media) {
+        // check if the media could be resized
+        if ((null != media.mThumbnailUrl) && (CommonActivityUtils.MIME_TYPE_JPEG.equals(media.mMimeType) || CommonActivityUtils.MIME_TYPE_JPG.equals(media.mMimeType) || CommonActivityUtils.MIME_TYPE_IMAGE_ALL.equals(media.mMimeType))) {
+            String imagePath = Uri.parse(media.mMediaUrl).getPath();
 
-                        @Override
-                        public void onCancel() {
-                            // cancel any media sending
-                            // reported by GA
-                            if (null != mSharedDataItems) {
-                                mSharedDataItems.clear();
-                            }
-                            sendMedias();
-                        }
-                    });
+            // retrieve the image size
+            BitmapFactory.Options options = ImageResizer.decodeBounds(imagePath);
+            media.mImageSizes = computeImageSizes(options.outWidth, options.outHeight);
+
+            // the user will have to select a compression : estimate the compressed sizes
+            if (media.canBeResized() && (null == mImageCompressionDescription)) {
+                media.mImageSizes.mJpegBytesPerPixel = ImageResizer.measureJpegBytesPerPixel(imagePath, options.outWidth, options.outHeight);
+            }
+
+            // the user already selects a compression
+            if (media.canBeResized() && (null != mImageCompressionDescription)) {
+                String compressionDescription = mImageCompressionDescription;
+                ImageSize expectedSize = null;
+
+                if (!TextUtils.equals(mVectorRoomActivity.getString(R.string.compression_opt_list_original), compressionDescription)) {
+                    expectedSize = media.mImageSizes.getImageSize(mVectorRoomActivity, compressionDescription);
                 }
+
+                media.mImageUrl = resizeImage(media.mMediaUrl, Uri.parse(media.mMediaUrl).getPath(), media.mImageSizes.mFullImageSize, expectedSize, media.mRotationAngle);
+                media.mResizedCompressionDescription = compressionDescription;
             }
-        });
+        }
+
+        // the images which cannot be resized are rotated anyway
+        if ((null == media.mImageUrl) && !media.canBeResized() && (0 != media.mRotationAngle)) {
+            String imagePath = Uri.parse(media.mMediaUrl).getPath();
+            BitmapFactory.Options options = ImageResizer.decodeBounds(imagePath);
+
+            if ((options.outWidth > 0) && (options.outHeight > 0)) {
+                String imageUrl = resizeImage(media.mMediaUrl, imagePath, new ImageSize(options.outWidth, options.outHeight), null, media.mRotationAngle);
+
+                if (!TextUtils.equals(imageUrl, media.mMediaUrl)) {
+                    media.mImageUrl = imageUrl;
+                    // the rotated image is saved in JPEG
+                    media.mMimeType = CommonActivityUtils.MIME_TYPE_JPEG;
+                }
+            }
+        }
     }
 
     /**
@@ -467,6 +1038,7 @@ public class VectorRoomMediasSender {
         return thumbnailBitmap;
     }
 
+
     //================================================================================
     // Image resizing
     //================================================================================
@@ -536,6 +1108,8 @@ public class VectorRoomMediasSender {
         public ImageSize mMediumImageSize;
         // small  image size (i.e side < SMALL_IMAGE_SIZE)
         public ImageSize mSmallImageSize;
+        // the JPEG compressed bytes per pixel (-1 if it was not measured)
+        public float mJpegBytesPerPixel = -1;
 
         /**
          * @return the image sizes list.
@@ -677,10 +1251,17 @@ public class VectorRoomMediasSender {
     }
 
     /**
+     * Estimate the file size of a resized image.
+     * @param imageSize the image size
+     * @param bytesPerPixel the measured JPEG bytes per pixel, -1 if it is unknown
      * @return the estimated file size (in bytes)
      */
-    private static int estimateFileSize(ImageSize imageSize) {
+    private static int estimateFileSize(ImageSize imageSize, float bytesPerPixel) {
         if (null != imageSize) {
+            if (bytesPerPixel > 0) {
+                return (int) (imageSize.mWidth * imageSize.mHeight * bytesPerPixel);
+            }
+
             // rounded the size in 1024 multiplier
             return imageSize.mWidth * imageSize.mHeight * 2 / 10 / 1024 * 1024;
         } else {
@@ -713,9 +1294,9 @@ public class VectorRoomMediasSender {
         final ArrayList<String> textsList = new ArrayList<>();
 
         addDialogEntry(context, textsList, context.getString(R.string.compression_opt_list_original), imageSizes.mFullImageSize, imagefileSize);
-        addDialogEntry(context, textsList, context.getString(R.string.compression_opt_list_large), imageSizes.mLargeImageSize, Math.min(estimateFileSize(imageSizes.mLargeImageSize), imagefileSize));
-        addDialogEntry(context, textsList, context.getString(R.string.compression_opt_list_medium), imageSizes.mMediumImageSize, Math.min(estimateFileSize(imageSizes.mMediumImageSize), imagefileSize));
-        addDialogEntry(context, textsList, context.getString(R.string.compression_opt_list_small), imageSizes.mSmallImageSize, Math.min(estimateFileSize(imageSizes.mSmallImageSize), imagefileSize));
+        addDialogEntry(context, textsList, context.getString(R.string.compression_opt_list_large), imageSizes.mLargeImageSize, Math.min(estimateFileSize(imageSizes.mLargeImageSize, imageSizes.mJpegBytesPerPixel), imagefileSize));
+        addDialogEntry(context, textsList, context.getString(R.string.compression_opt_list_medium), imageSizes.mMediumImageSize, Math.min(estimateFileSize(imageSizes.mMediumImageSize, imageSizes.mJpegBytesPerPixel), imagefileSize));
+        addDialogEntry(context, textsList, context.getString(R.string.compression_opt_list_small), imageSizes.mSmallImageSize, Math.min(estimateFileSize(imageSizes.mSmallImageSize, imageSizes.mJpegBytesPerPixel), imagefileSize));
 
         return textsList.toArray(new String[textsList.size()]);
     }
@@ -723,6 +1304,7 @@ public class VectorRoomMediasSender {
     /**
      * Apply an image with an expected size.
      * A rotation might also be applied if provided.
+     * The image is decoded, resized, rotated and encoded in a single pass.
      * @param anImageUrl the image URI.
      * @param filename the image filename.
      * @param srcImageSize the source image size
@@ -731,41 +1313,19 @@ public class VectorRoomMediasSender {
      * @return the resized image.
      */
     private String resizeImage(String anImageUrl, String filename, ImageSize srcImageSize, ImageSize dstImageSize, int rotationAngle) {
-        String imageUrl = anImageUrl;
-
-        try {
-            // got a dst image size
-            if (null!= dstImageSize) {
-                FileInputStream imageStream = new FileInputStream(new File(filename));
-
-                InputStream resizeBitmapStream = null;
-
-                try {
-                    resizeBitmapStream = ImageUtils.resizeImage(imageStream, -1, (srcImageSize.mWidth + dstImageSize.mWidth - 1) / dstImageSize.mWidth, 75);
-                } catch (OutOfMemoryError ex) {
-                    Log.e(LOG_TAG, "resizeImage out of memory : " + ex.getMessage());
-                } catch (Exception e) {
-                    Log.e(LOG_TAG, "resizeImage failed : " + e.getMessage());
-                }
+        // nothing to do
+        if ((null == dstImageSize) && (0 == rotationAngle)) {
+            return anImageUrl;
+        }
 
-                if (null != resizeBitmapStream) {
-                    String bitmapURL = mMediasCache.saveMedia(resizeBitmapStream, null, CommonActivityUtils.MIME_TYPE_JPEG);
+        ImageSize expectedSize = (null != dstImageSize) ? dstImageSize : srcImageSize;
 
-                    if (null != bitmapURL) {
-                        imageUrl = bitmapURL;
-                    }
+        // the resized image is saved in the medias cache folder
+        String imageUrl = ImageResizer.resizeImage(filename, srcImageSize.mWidth, srcImageSize.mHeight, expectedSize.mWidth, expectedSize.mHeight, rotationAngle, new File(filename).getParentFile());
 
-                    resizeBitmapStream.close();
-                }
-            }
-
-            // try to apply exif rotation
-            if (0 != rotationAngle) {
-                // rotate the image content
-                ImageUtils.rotateImage(mVectorRoomActivity, imageUrl, rotationAngle, mMediasCache);
-            }
-        } catch (Exception e) {
-            Log.e(LOG_TAG, "resizeImage " + e.getMessage());
+        if (null == imageUrl) {
+            Log.e(LOG_TAG, "resizeImage failed : send the original image");
+            imageUrl = anImageUrl;
         }
 
         return imageUrl;
@@ -773,153 +1333,66 @@ public class VectorRoomMediasSender {
 
     /**
      * Offer to resize the image before sending it.
-     * @param aThumbnailURL the thumbnail url
-     * @param anImageUrl the image url.
-     * @param anImageFilename the image filename
-     * @param anImageMimeType the image mimetype
-     * @param aListener the listener
-     */
-    private void sendImageMessage(final String aThumbnailURL, final String anImageUrl, final String anImageFilename, final String anImageMimeType, final OnImageUploadListener aListener) {
-        // sanity check
-        if ((null == anImageUrl) || (null == aListener)) {
-            return;
-        }
-
-        boolean isManaged = false;
-
-        // check if the media could be resized
-        if ((null != aThumbnailURL) && (CommonActivityUtils.MIME_TYPE_JPEG.equals(anImageMimeType) || CommonActivityUtils.MIME_TYPE_JPG.equals(anImageMimeType) || CommonActivityUtils.MIME_TYPE_IMAGE_ALL.equals(anImageMimeType))) {
-            System.gc();
-            FileInputStream imageStream;
+     * The selected compression is applied to the next images of the batch.
+     * @param media the image to send.
+     */
+    private void displayImageSizesDialog(final PendingMedia media) {
+        final ImageCompressionSizes imageSizes = media.mImageSizes;
 
-            try {
-                Uri uri = Uri.parse(anImageUrl);
-                final String filename = uri.getPath();
+        FragmentManager fm = mVectorRoomActivity.getSupportFragmentManager();
+        ImageSizeSelectionDialogFragment fragment = (ImageSizeSelectionDialogFragment) fm.findFragmentByTag(TAG_FRAGMENT_IMAGE_SIZE_DIALOG);
 
-                final int rotationAngle = ImageUtils.getRotationAngleForBitmap(mVectorRoomActivity, uri);
+        if (fragment != null) {
+            fragment.dismissAllowingStateLoss();
+        }
 
-                imageStream = new FileInputStream(new File(filename));
+        String[] stringsArray = getImagesCompressionTextsList(mVectorRoomActivity, imageSizes, media.mFileSize);
 
-                int fileSize = imageStream.available();
+        final AlertDialog.Builder alert = new AlertDialog.Builder(mVectorRoomActivity);
+        alert.setTitle(mVectorRoomActivity.getString(im.vector.R.string.compression_options));
+        alert.setSingleChoiceItems(stringsArray, -1, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                final int fPos = which;
+
+                mImageSizesListDialog.dismiss();
+                mImageSizesListDialog = null;
+
+                mVectorRoomActivity.runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        // stored the compression selected by the user
+                        // the pending images are resized in background
+                        mImageCompressionDescription = imageSizes.getImageSizesDescription(mVectorRoomActivity).get(fPos);
+                        sendNextMedias();
+                    }
+                });
+            }
+        });
 
-                BitmapFactory.Options options = new BitmapFactory.Options();
-                options.inJustDecodeBounds = true;
-                options.inPreferredConfig = Bitmap.Config.ARGB_8888;
-                options.outWidth = -1;
-                options.outHeight = -1;
+        mImageSizesListDialog = alert.show();
+        mImageSizesListDialog.setOnCancelListener(new DialogInterface.OnCancelListener() {
+            @Override
+            public void onCancel(DialogInterface dialog) {
+                mImageSizesListDialog = null;
 
-                // retrieve the image size
-                try {
-                    BitmapFactory.decodeStream(imageStream, null, options);
-                } catch (OutOfMemoryError e) {
-                    Log.e(LOG_TAG, "sendImageMessage out of memory error : " + e.getMessage());
+                // cancel any media sending
+                if (null != mSharedDataItems) {
+                    mSharedDataItems.clear();
                 }
 
-                final ImageCompressionSizes imageSizes = computeImageSizes(options.outWidth, options.outHeight);
-
-                imageStream.close();
-
-                // the user already selects a compression
-                if (null != mImageCompressionDescription) {
-                    isManaged = true;
-
-                    final ImageSize expectedSize = imageSizes.getImageSize(mVectorRoomActivity, mImageCompressionDescription);
-                    final String fImageUrl = resizeImage(anImageUrl, filename, imageSizes.mFullImageSize, expectedSize, rotationAngle);
-
-                    mVectorRoomActivity.runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            mVectorMessageListFragment.uploadImageContent(null, null, aThumbnailURL, fImageUrl, anImageFilename, anImageMimeType);
-                            aListener.onDone();
+                // remove the unsent medias from the outbox
+                if (null != mMediasBatch) {
+                    for (PendingMedia pendingMedia : mMediasBatch.mMedias) {
+                        if (!pendingMedia.mIsSent) {
+                            onMediaDone(pendingMedia, true);
                         }
-                    });
-                }
-                // can be rescaled ?
-                else if (null != imageSizes.mSmallImageSize) {
-                    isManaged = true;
-
-                    FragmentManager fm = mVectorRoomActivity.getSupportFragmentManager();
-                    ImageSizeSelectionDialogFragment fragment = (ImageSizeSelectionDialogFragment) fm.findFragmentByTag(TAG_FRAGMENT_IMAGE_SIZE_DIALOG);
-
-                    if (fragment != null) {
-                        fragment.dismissAllowingStateLoss();
                     }
-
-                    String[] stringsArray = getImagesCompressionTextsList(mVectorRoomActivity, imageSizes, fileSize);
-
-                    final AlertDialog.Builder alert = new AlertDialog.Builder(mVectorRoomActivity);
-                    alert.setTitle(mVectorRoomActivity.getString(im.vector.R.string.compression_options));
-                    alert.setSingleChoiceItems(stringsArray, -1, new DialogInterface.OnClickListener() {
-                        @Override
-                        public void onClick(DialogInterface dialog, int which) {
-                            final int fPos = which;
-
-                            mImageSizesListDialog.dismiss();
-
-                            mVectorRoomActivity.runOnUiThread(new Runnable() {
-                                @Override
-                                public void run() {
-                                    mVectorRoomActivity.setProgressVisibility(View.VISIBLE);
-
-                                    Thread thread = new Thread(new Runnable() {
-                                        @Override
-                                        public void run() {
-                                            ImageSize expectedSize = null;
-
-                                            // full size
-                                            if (0 != fPos) {
-                                                expectedSize = imageSizes.getImageSizesList().get(fPos);
-                                            }
-
-                                            // stored the compression selected by the user
-                                            mImageCompressionDescription = imageSizes.getImageSizesDescription(mVectorRoomActivity).get(fPos);
-
-                                            final String fImageUrl = resizeImage(anImageUrl, filename, imageSizes.mFullImageSize, expectedSize, rotationAngle);
-
-                                            mVectorRoomActivity.runOnUiThread(new Runnable() {
-                                                @Override
-                                                public void run() {
-                                                    mVectorMessageListFragment.uploadImageContent(null, null, aThumbnailURL, fImageUrl, anImageFilename, anImageMimeType);
-                                                    aListener.onDone();
-                                                }
-                                            });
-                                        }
-                                    });
-
-                                    thread.setPriority(Thread.MIN_PRIORITY);
-                                    thread.start();
-                                }
-                            });
-                        }
-                    });
-
-                    mImageSizesListDialog = alert.show();
-                    mImageSizesListDialog.setOnCancelListener(new DialogInterface.OnCancelListener() {
-                        @Override
-                        public void onCancel(DialogInterface dialog) {
-                            mImageSizesListDialog = null;
-                            if (null != aListener) {
-                                aListener.onCancel();
-                            }
-                        }
-                    });
                 }
-            } catch (Exception e) {
-                Log.e(LOG_TAG, "sendImageMessage failed " + e.getMessage());
-            }
-        }
 
-        // cannot resize, let assumes that it has been done
-        if (!isManaged) {
-            mVectorRoomActivity.runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    mVectorMessageListFragment.uploadImageContent(null, null, aThumbnailURL, anImageUrl, anImageFilename, anImageMimeType);
-                    if (null != aListener) {
-                        aListener.onDone();
-                    }
-                }
-            });
-        }
+                // the pending uploads are not cancelled
+                onMediasBatchDone();
+            }
+        });
     }
 }
@@ -0,0 +1,453 @@
+/*
+ * Copyright 2016 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.vector.util;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.text.TextUtils;
+
+import org.matrix.androidsdk.fragments.MatrixMessageListFragment;
+import org.matrix.androidsdk.util.Log;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Dispatches a search pattern to several search providers (rooms, messages, people, files...).
+ * - the typing updates are debounced.
+ * - the providers are triggered in parallel.
+ * - the in-flight searches are cancelled when the pattern changes and their results are ignored.
+ * - the recent (pattern, provider) results are cached to be displayed without waiting,
+ *   whatever the pattern displayed by the provider (when the provider can restore them).
+ * - the latency is tracked per provider.
+ * All the methods must be called from the UI thread.
+ */
+public class VectorSearchCoordinator {
+    private static final String LOG_TAG = "VSearchCoordinator";
+
+    // delay to wait before triggering a search while the user is typing
+    // (VectorBaseSearchActivity already waits 100ms before calling onPatternUpdate)
+    private static final int TYPING_DEBOUNCE_DELAY_MS = 150;
+
+    // max number of (pattern, provider) cached results
+    private static final int MAX_CACHED_RESULTS = 32;
+
+    /**
+     * A search provider.
+     */
+    public interface ISearchProvider {
+        /**
+         * @return true if the search is performed on the server side.
+         * Such searches are not triggered while the user is typing.
+         */
+        boolean isRemote();
+
+        /**
+         * @return true if the provider can perform a search (i.e. its UI is ready).
+         */
+        boolean isReady();
+
+        /**
+         * Start a search.
+         * @param pattern the pattern
+         * @param listener the result listener
+         */
+        void search(String pattern, MatrixMessageListFragment.OnSearchResultListener listener);
+
+        /**
+         * Cancel any pending search.
+         */
+        void cancel();
+
+        /**
+         * @return a snapshot of the displayed results, null if the provider cannot restore its results.
+         */
+        Object getResultsSnapshot();
+
+        /**
+         * Display some cached results.
+         * @param pattern the pattern
+         * @param snapshot a snapshot returned by getResultsSnapshot()
+         * @return true if the results are displayed
+         */
+        boolean restoreResults(String pattern, Object snapshot);
+    }
+
+    /**
+     * The coordinator listener.
+     */
+    public interface ISearchCoordinatorListener {
+        /**
+         * A provider search is started.
+         * @param providerId the provider id
+         * @param pattern the searched pattern
+         */
+        void onSearchStarted(int providerId, String pattern);
+
+        /**
+         * A provider search is done.
+         * @param providerId the provider id
+         * @param pattern the searched pattern
+         * @param count the results count (0 when the search failed)
+         * @param fromCache true when the value is retrieved from the cache
+         */
+        void onSearchEnd(int providerId, String pattern, int count, boolean fromCache);
+    }
+
+    /**
+     * Latency statistics of a provider.
+     */
+    public static class ProviderStats {
+        public int mSearchesCount;
+        public int mCancelledCount;
+        public int mCacheHitsCount;
+        public long mLastLatencyMs;
+        public long mMaxLatencyMs;
+        public long mTotalLatencyMs;
+
+        /**
+         * @return the average latency in ms.
+         */
+        public long getAverageLatencyMs() {
+            return (0 == mSearchesCount) ? 0 : (mTotalLatencyMs / mSearchesCount);
+        }
+
+        @Override
+        public String toString() {
+            return "searches " + mSearchesCount + " cancelled " + mCancelledCount + " cache hits " + mCacheHitsCount +
+                    " latency last " + mLastLatencyMs + "ms avg " + getAverageLatencyMs() + "ms max " + mMaxLatencyMs + "ms";
+        }
+    }
+
+    /**
+     * In-flight search description
+     */
+    private static class PendingSearch {
+        final String mPattern;
+        final int mGeneration;
+        final long mStartTime;
+
+        PendingSearch(String pattern, int generation) {
+            mPattern = pattern;
+            mGeneration = generation;
+            mStartTime = SystemClock.elapsedRealtime();
+        }
+    }
+
+    /**
+     * A cached search result
+     */
+    private static class CachedResult {
+        final int mCount;
+        // the provider results, null if they cannot be restored
+        final Object mSnapshot;
+
+        CachedResult(int count, Object snapshot) {
+            mCount = count;
+            mSnapshot = snapshot;
+        }
+    }
+
+    private final Handler mUIHandler = new Handler(Looper.getMainLooper());
+    private final ISearchCoordinatorListener mListener;
+
+    // providers by id
+    private final LinkedHashMap<Integer, ISearchProvider> mProviders = new LinkedHashMap<>();
+    private final HashMap<Integer, PendingSearch> mPendingSearches = new HashMap<>();
+    private final HashMap<Integer, ProviderStats> mStats = new HashMap<>();
+
+    // the latest pattern displayed by each provider
+    private final HashMap<Integer, String> mDisplayedPatterns = new HashMap<>();
+
+    // LRU cache : "providerId|pattern" -> result
+    private final LinkedHashMap<String, CachedResult> mResultsCache = new LinkedHashMap<String, CachedResult>(MAX_CACHED_RESULTS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest) {
+            return size() > MAX_CACHED_RESULTS;
+        }
+    };
+
+    // incremented each time a new pattern is dispatched
+    private int mGeneration = 0;
+
+    private String mPattern = null;
+
+    private final Runnable mDebouncedSearch = new Runnable() {
+        @Override
+        public void run() {
+            dispatch(true);
+        }
+    };
+
+    /**
+     * Constructor
+     * @param listener the listener
+     */
+    public VectorSearchCoordinator(ISearchCoordinatorListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Register a search provider.
+     * @param providerId the provider id
+     * @param provider the provider
+     */
+    public void addProvider(int providerId, ISearchProvider provider) {
+        mProviders.put(providerId, provider);
+
+        if (!mStats.containsKey(providerId)) {
+            mStats.put(providerId, new ProviderStats());
+        }
+    }
+
+    /**
+     * Update the searched pattern.
+     * @param pattern the new pattern
+     * @param isTypingUpdate true when the pattern is updated while typing
+     */
+    public void setPattern(String pattern, boolean isTypingUpdate) {
+        mPattern = (null == pattern) ? "" : pattern.trim();
+        mUIHandler.removeCallbacks(mDebouncedSearch);
+
+        if (isTypingUpdate) {
+            mUIHandler.postDelayed(mDebouncedSearch, TYPING_DEBOUNCE_DELAY_MS);
+        } else {
+            dispatch(false);
+        }
+    }
+
+    /**
+     * @return the current pattern
+     */
+    public String getPattern() {
+        return mPattern;
+    }
+
+    /**
+     * Dispatch the current pattern to the providers.
+     * @param isTypingUpdate true when the pattern is updated while typing
+     */
+    private void dispatch(boolean isTypingUpdate) {
+        mGeneration++;
+
+        for (Integer providerId : mProviders.keySet()) {
+            ISearchProvider provider = mProviders.get(providerId);
+
+            // the remote searches are only done when the user validates the pattern
+            if (isTypingUpdate && provider.isRemote()) {
+                cancel(providerId);
+                continue;
+            }
+
+            search(providerId);
+        }
+    }
+
+    /**
+     * Refresh a provider with the current pattern.
+     * The cached result is used when there is one.
+     * @param providerId the provider id
+     */
+    public void refresh(int providerId) {
+        search(providerId);
+    }
+
+    /**
+     * Force the next search of a provider i.e. its cached results are not used anymore.
+     * @param providerId the provider id
+     */
+    public void invalidate(int providerId) {
+        mDisplayedPatterns.remove(providerId);
+
+        Iterator<String> iterator = mResultsCache.keySet().iterator();
+        String keyPrefix = getCacheKey(providerId, "");
+
+        while (iterator.hasNext()) {
+            if (iterator.next().startsWith(keyPrefix)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Tells if a search is in progress for a provider
+     * @param providerId the provider id
+     * @return true if the search is in progress
+     */
+    public boolean isSearching(int providerId) {
+        return mPendingSearches.containsKey(providerId);
+    }
+
+    /**
+     * Trigger a provider search with the current pattern.
+     * The cached result is used when the provider already displays the current pattern
+     * or when it can display the cached one.
+     * @param providerId the provider id
+     */
+    private void search(final int providerId) {
+        final ISearchProvider provider = mProviders.get(providerId);
+
+        if ((null == provider) || (null == mPattern)) {
+            return;
+        }
+
+        final String pattern = mPattern;
+        PendingSearch pendingSearch = mPendingSearches.get(providerId);
+
+        // the same search is in progress
+        if ((null != pendingSearch) && TextUtils.equals(pendingSearch.mPattern, pattern)) {
+            mListener.onSearchStarted(providerId, pattern);
+            return;
+        }
+
+        // stop the stale search
+        cancel(providerId);
+
+        CachedResult cachedResult = mResultsCache.get(getCacheKey(providerId, pattern));
+
+        if ((null != cachedResult) && (TextUtils.equals(mDisplayedPatterns.get(providerId), pattern) ||
+                ((null != cachedResult.mSnapshot) && provider.isReady() && provider.restoreResults(pattern, cachedResult.mSnapshot)))) {
+            mStats.get(providerId).mCacheHitsCount++;
+            mDisplayedPatterns.put(providerId, pattern);
+            mListener.onSearchEnd(providerId, pattern, cachedResult.mCount, true);
+            return;
+        }
+
+        // the search will be triggered when the provider will be ready
+        if (!provider.isReady()) {
+            return;
+        }
+
+        final PendingSearch search = new PendingSearch(pattern, mGeneration);
+        mPendingSearches.put(providerId, search);
+        mListener.onSearchStarted(providerId, pattern);
+
+        provider.search(pattern, new MatrixMessageListFragment.OnSearchResultListener() {
+            @Override
+            public void onSearchSucceed(int nbrMessages) {
+                onProviderSearchEnd(providerId, search, nbrMessages);
+            }
+
+            @Override
+            public void onSearchFailed() {
+                onProviderSearchEnd(providerId, search, -1);
+            }
+        });
+    }
+
+    /**
+     * A provider search is done.
+     * @param providerId the provider id
+     * @param search the search
+     * @param count the results count, -1 if the search failed.
+     */
+    private void onProviderSearchEnd(final int providerId, final PendingSearch search, final int count) {
+        // the providers might answer from another thread
+        if (Looper.myLooper() != Looper.getMainLooper()) {
+            mUIHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    onProviderSearchEnd(providerId, search, count);
+                }
+            });
+            return;
+        }
+
+        // ignore the stale results
+        if (mPendingSearches.get(providerId) != search) {
+            Log.d(LOG_TAG, "## onProviderSearchEnd() : ignore the stale result of provider " + providerId);
+            return;
+        }
+
+        mPendingSearches.remove(providerId);
+
+        ProviderStats stats = mStats.get(providerId);
+        long latency = SystemClock.elapsedRealtime() - search.mStartTime;
+        stats.mSearchesCount++;
+        stats.mLastLatencyMs = latency;
+        stats.mTotalLatencyMs += latency;
+        stats.mMaxLatencyMs = Math.max(stats.mMaxLatencyMs, latency);
+
+        Log.d(LOG_TAG, "## onProviderSearchEnd() : provider " + providerId + " found " + count + " in " + latency + " ms (generation " + search.mGeneration + ")");
+
+        mDisplayedPatterns.put(providerId, search.mPattern);
+
+        if (count >= 0) {
+            mResultsCache.put(getCacheKey(providerId, search.mPattern), new CachedResult(count, mProviders.get(providerId).getResultsSnapshot()));
+        }
+
+        mListener.onSearchEnd(providerId, search.mPattern, Math.max(count, 0), false);
+    }
+
+    /**
+     * Cancel the pending search of a provider.
+     * @param providerId the provider id
+     */
+    public void cancel(int providerId) {
+        PendingSearch pendingSearch = mPendingSearches.remove(providerId);
+
+        if (null != pendingSearch) {
+            Log.d(LOG_TAG, "## cancel() : cancel the search of provider " + providerId);
+            mStats.get(providerId).mCancelledCount++;
+            // the provider might display partial results
+            mDisplayedPatterns.remove(providerId);
+            mProviders.get(providerId).cancel();
+        }
+    }
+
+    /**
+     * Cancel any pending search.
+     */
+    public void cancelAll() {
+        mUIHandler.removeCallbacks(mDebouncedSearch);
+
+        for (Integer providerId : mProviders.keySet()) {
+            cancel(providerId);
+        }
+    }
+
+    /**
+     * Provides the latency statistics of a provider.
+     * @param providerId the provider id
+     * @return the statistics
+     */
+    public ProviderStats getStats(int providerId) {
+        return mStats.get(providerId);
+    }
+
+    /**
+     * Log the latency statistics of each provider.
+     */
+    public void logStats() {
+        for (Integer providerId : mStats.keySet()) {
+            Log.d(LOG_TAG, "## logStats() : provider " + providerId + " : " + mStats.get(providerId));
+        }
+    }
+
+    /**
+     * Compute the cache key.
+     * @param providerId the provider id
+     * @param pattern the pattern
+     * @return the cache key
+     */
+    private static String getCacheKey(int providerId, String pattern) {
+        return providerId + "|" + pattern;
+    }
+}
@@ -32,7 +32,6 @@ import android.graphics.Typeface;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Handler;
-import android.os.HandlerThread;
 import android.os.Looper;
 import android.support.v4.util.LruCache;
 import android.text.TextUtils;
@@ -51,9 +50,7 @@ import org.matrix.androidsdk.call.MXCallsManager;
 import org.matrix.androidsdk.data.Room;
 import org.matrix.androidsdk.data.RoomState;
 import org.matrix.androidsdk.db.MXMediasCache;
-import org.matrix.androidsdk.rest.callback.ApiCallback;
 import org.matrix.androidsdk.rest.callback.SimpleApiCallback;
-import org.matrix.androidsdk.rest.model.MatrixError;
 import org.matrix.androidsdk.rest.model.PublicRoom;
 import org.matrix.androidsdk.rest.model.RoomMember;
 import org.matrix.androidsdk.rest.model.User;
@@ -280,6 +277,15 @@ public class VectorUtils {
     // the avatars background color
     static final private ArrayList<Integer> mColorList = new ArrayList<>(Arrays.asList(0xff76cfa6, 0xff50e2c2, 0xfff4c371));
 
+    /**
+     * Release a share of the avatars cache.
+     * The least recently used avatars are released first.
+     * @param ratio the share to release.
+     */
+    public static void trimAvatarsCache(float ratio) {
+        mAvatarImageByKeyDict.trimToSize((int) (mAvatarImageByKeyDict.size() * (1 - ratio)));
+    }
+
     /**
      * Provides the avatar background color from a text.
      *
@@ -550,8 +556,6 @@ public class VectorUtils {
     }
 
     // the background thread
-    private static HandlerThread mImagesThread = null;
-    private static android.os.Handler mImagesThreadHandler = null;
     private static Handler mUIHandler = null;
 
     /**
@@ -576,10 +580,7 @@ public class VectorUtils {
         if (session.getMediasCache().isAvatarThumbnailCached(avatarUrl, context.getResources().getDimensionPixelSize(R.dimen.profile_avatar_size))) {
             session.getMediasCache().loadAvatarThumbnail(session.getHomeserverConfig(), imageView, avatarUrl, context.getResources().getDimensionPixelSize(R.dimen.profile_avatar_size));
         } else {
-            if (null == mImagesThread) {
-                mImagesThread = new HandlerThread("ImagesThread", Thread.MIN_PRIORITY);
-                mImagesThread.start();
-                mImagesThreadHandler = new android.os.Handler(mImagesThread.getLooper());
+            if (null == mUIHandler) {
                 mUIHandler = new Handler(Looper.getMainLooper());
             }
 
@@ -593,7 +594,7 @@ public class VectorUtils {
                 imageView.setTag(tag);
 
                 if (!MXMediasCache.isMediaUrlUnreachable(avatarUrl)) {
-                    mImagesThreadHandler.post(new Runnable() {
+                    VectorExecutors.getCPUExecutor().execute(new Runnable() {
                         @Override
                         public void run() {
                             if (TextUtils.equals(tag, (String) imageView.getTag())) {
@@ -607,7 +608,7 @@ public class VectorUtils {
                 imageView.setTag(tmpTag0);
 
                 // create the default avatar in the background thread
-                mImagesThreadHandler.post(new Runnable() {
+                VectorExecutors.getCPUExecutor().execute(new Runnable() {
                     @Override
                     public void run() {
                         if (TextUtils.equals(tmpTag0, (String) imageView.getTag())) {
@@ -627,7 +628,7 @@ public class VectorUtils {
                                             final String tmptag2 = "22" + avatarUrl + userId + displayName;
                                             imageView.setTag(tmptag2);
 
-                                            mImagesThreadHandler.post(new Runnable() {
+                                            VectorExecutors.getCPUExecutor().execute(new Runnable() {
                                                 @Override
                                                 public void run() {
                                                     // test if the imageView tag has not been updated
@@ -852,7 +853,9 @@ public class VectorUtils {
 
     /**
      * Provide the user online status from his user Id.
-     * if refreshCallback is set, try to refresh the user presence if it is not known
+     * if refreshCallback is set, try to refresh the user presence if it is not known.
+     * The refresh is batched with the other users ones (see {@link PresenceRefresher}) :
+     * refreshCallback is called once per batch so a list should use the same callback for all its rows.
      *
      * @param context         the context.
      * @param session         the session.
@@ -871,54 +874,9 @@ public class VectorUtils {
         // refresh the presence with this conditions
         boolean triggerRefresh = (null == user) || user.isPresenceObsolete();
 
+        // the presences are refreshed by batches
         if ((null != refreshCallback) && triggerRefresh) {
-            Log.d(LOG_TAG, "Get the user presence : " + userId);
-
-            final String fPresence = (null != user) ? user.presence : null;
-
-            session.refreshUserPresence(userId, new ApiCallback<Void>() {
-                @Override
-                public void onSuccess(Void info) {
-                    boolean isUpdated = false;
-                    User updatedUser = session.getDataHandler().getStore().getUser(userId);
-
-                    // don't find any info for the user
-                    if ((null == user) && (null == updatedUser)) {
-                        Log.d(LOG_TAG, "Don't find any presence info of " + userId);
-                    } else if ((null == user) && (null != updatedUser)) {
-                        Log.d(LOG_TAG, "Got the user presence : " + userId);
-                        isUpdated = true;
-                    } else if (!TextUtils.equals(fPresence, updatedUser.presence)) {
-                        isUpdated = true;
-                        Log.d(LOG_TAG, "Got some new user presence info : " + userId);
-                        Log.d(LOG_TAG, "currently_active : " + updatedUser.currently_active);
-                        Log.d(LOG_TAG, "lastActiveAgo : " + updatedUser.lastActiveAgo);
-                    }
-
-                    if (isUpdated && (null != refreshCallback)) {
-                        try {
-                            refreshCallback.onSuccess(null);
-                        } catch (Exception e) {
-                            Log.e(LOG_TAG, "getUserOnlineStatus refreshCallback failed");
-                        }
-                    }
-                }
-
-                @Override
-                public void onNetworkError(Exception e) {
-                    Log.e(LOG_TAG, "getUserOnlineStatus onNetworkError " + e.getLocalizedMessage());
-                }
-
-                @Override
-                public void onMatrixError(MatrixError e) {
-                    Log.e(LOG_TAG, "getUserOnlineStatus onMatrixError " + e.getLocalizedMessage());
-                }
-
-                @Override
-                public void onUnexpectedError(Exception e) {
-                    Log.e(LOG_TAG, "getUserOnlineStatus onUnexpectedError " + e.getLocalizedMessage());
-                }
-            });
+            PresenceRefresher.refresh(session, userId, refreshCallback);
         }
 
         // unknown user
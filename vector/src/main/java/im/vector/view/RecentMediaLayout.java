@@ -81,6 +81,20 @@ public class RecentMediaLayout extends RelativeLayout {
         mThumbnailView.setImageBitmap(thumbnail);
     }
 
+    /**
+     * Release the displayed thumbnail (e.g. the layout is scrolled out of the screen).
+     */
+    public void clearThumbnail() {
+        mThumbnailView.setImageDrawable(null);
+    }
+
+    /**
+     * @return true if a thumbnail is displayed
+     */
+    public boolean hasThumbnail() {
+        return null != mThumbnailView.getDrawable();
+    }
+
     public void setThumbnailByUri(Uri aThumbnailUri) {
         mThumbnailView.setImageURI(aThumbnailUri);
     }
@@ -26,9 +26,6 @@ import android.view.View;
 
 import org.matrix.androidsdk.R;
 
-import java.util.Timer;
-import java.util.TimerTask;
-
 /**
  * View that displays a disc representing a percentage.
  */
@@ -29,9 +29,6 @@ import android.widget.TextView;
 
 import org.matrix.androidsdk.R;
 
-import java.util.Timer;
-import java.util.TimerTask;
-
 /**
  * View that displays a disc representing a percentage.
  */